@@ -0,0 +1,31 @@
+-- Schema of the local SQL database loaded by SyncLoadTest -sql.
+-- Tables and columns must match the queries of the LibBdd DAOs
+-- (FurgentDAO, FtypeDAO, FsiteDAO): adapt them to the local schema.
+create table furgent (
+    unum integer not null primary key,
+    uuid varchar(255),
+    uname varchar(255)
+);
+create table ftype (
+    ttunum integer not null,
+    ttnum integer not null,
+    ttypename varchar(255),
+    primary key (ttunum, ttnum)
+);
+create table fsite (
+    s3num integer not null primary key,
+    s3unum integer not null,
+    s3tnum integer not null,
+    s3number2 varchar(255),
+    s3address varchar(255),
+    s3poscode varchar(255),
+    s3city varchar(255)
+);
+create index fsite_type on fsite (s3unum, s3tnum, s3num);
+-- Insertions, parameters in this order:
+-- furgent: unum, uuid, uname
+-- ftype: unum, ttnum, ttypename
+-- fsite: unum, ttnum, s3num, s3number2, s3address, s3poscode, s3city
+insert into furgent (unum, uuid, uname) values (?, ?, ?);
+insert into ftype (ttunum, ttnum, ttypename) values (?, ?, ?);
+insert into fsite (s3unum, s3tnum, s3num, s3number2, s3address, s3poscode, s3city) values (?, ?, ?, ?, ?, ?, ?);
@@ -0,0 +1,289 @@
+package synccollections;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Régulation des requêtes adressées à une base de données, pour utiliser sa
+ * capacité disponible sans la saturer.
+ * <p>
+ * Le nombre de requêtes simultanées est limité et ajusté selon le principe
+ * AIMD (additive increase, multiplicative decrease) : tant que la durée
+ * moyenne lissée des requêtes reste sous la durée cible, la limite augmente
+ * d'une requête par fenêtre de requêtes réussies, jusqu'au nombre de tâches
+ * pouvant accéder à la base ; dès qu'elle dépasse la cible ou qu'une requête
+ * échoue, la limite est divisée par deux, au plus une fois par fenêtre (les
+ * requêtes lancées avant la réduction ne la déclenchent pas de nouveau). Sans
+ * durée cible, la limite part du maximum et ne baisse que sur erreur.</p>
+ * <p>
+ * Un plafond de requêtes par seconde peut en plus être imposé : les requêtes
+ * sont alors espacées régulièrement, quel que soit le nombre de tâches.</p>
+ * <p>
+ * Une requête est l'exécution d'une instruction, curseur compris : elle est
+ * tenue de l'exécution à la fermeture de son curseur, jamais ligne à ligne
+ * (le débit de lignes se plafonne avec RateLimiter).</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class AdaptiveThrottle {
+
+    /**
+     * Poids d'une nouvelle mesure dans la durée moyenne lissée.
+     */
+    private static final double EWMA_WEIGHT = 0.1;
+
+    /**
+     * Facteur de réduction de la limite en cas de surcharge.
+     */
+    private static final double BACKOFF_FACTOR = 0.5;
+
+    /**
+     * Nom de la base régulée, pour l'affichage.
+     */
+    private final String name;
+
+    /**
+     * Nombre maximum de requêtes simultanées.
+     */
+    private final int maxConcurrency;
+
+    /**
+     * Plafond de requêtes par seconde, 0 si aucun.
+     */
+    private final long maxOpsPerSecond;
+
+    /**
+     * Durée cible d'une requête, en nanosecondes, 0 si aucune.
+     */
+    private final long latencyTarget;
+
+    /**
+     * Intervalle minimum entre deux requêtes, en nanosecondes, 0 si aucun.
+     */
+    private final long interval;
+
+    /**
+     * Limite courante du nombre de requêtes simultanées.
+     */
+    private double limit;
+
+    /**
+     * Nombre de requêtes en cours.
+     */
+    private int inFlight = 0;
+
+    /**
+     * Durée moyenne lissée des requêtes, en nanosecondes.
+     */
+    private double smoothedLatency = 0;
+
+    /**
+     * Date de la dernière réduction de la limite (System.nanoTime()).
+     */
+    private long lastBackoff;
+
+    /**
+     * Date à partir de laquelle la prochaine requête peut partir
+     * (System.nanoTime()).
+     */
+    private long nextPermit;
+
+    /**
+     * Nombre de requêtes terminées.
+     */
+    private long nbOps = 0;
+
+    /**
+     * Nombre de requêtes en erreur.
+     */
+    private long nbErrors = 0;
+
+    /**
+     * Nombre de réductions de la limite.
+     */
+    private long nbBackoffs = 0;
+
+    /**
+     * Durée cumulée d'attente des requêtes retenues, en nanosecondes.
+     */
+    private long waitTime = 0;
+
+    /**
+     * Constructeur de la classe AdaptiveThrottle.
+     *
+     * @param name nom de la base régulée, pour l'affichage.
+     * @param maxConcurrency nombre maximum de requêtes simultanées.
+     * @param maxOpsPerSecond plafond de requêtes par seconde, 0 si aucun.
+     * @param latencyTargetMillis durée cible d'une requête en millisecondes, 0
+     * si aucune.
+     */
+    public AdaptiveThrottle(String name, int maxConcurrency, long maxOpsPerSecond, double latencyTargetMillis) {
+        this.name = name;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxOpsPerSecond = Math.max(0, maxOpsPerSecond);
+        latencyTarget = latencyTargetMillis > 0 ? (long) (latencyTargetMillis * 1e6) : 0;
+        interval = this.maxOpsPerSecond > 0 ? 1000000000L / this.maxOpsPerSecond : 0;
+        limit = latencyTarget > 0 ? 1 : this.maxConcurrency;
+        lastBackoff = System.nanoTime();
+        nextPermit = lastBackoff;
+    }
+
+    /**
+     * Attend que la requête puisse partir : une place sous la limite de
+     * requêtes simultanées, puis son tour sous le plafond de requêtes par
+     * seconde. Chaque appel doit être suivi d'un appel à release().
+     *
+     * @return la date de départ de la requête (System.nanoTime()), à passer à
+     * release().
+     * @throws InterruptedException si la tâche est interrompue pendant
+     * l'attente.
+     */
+    public long acquire() throws InterruptedException {
+        long start;
+        long now;
+        long permit;
+
+        start = System.nanoTime();
+        synchronized (this) {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+            inFlight++;
+            now = System.nanoTime();
+            permit = now;
+            if (interval > 0) {
+                permit = Math.max(nextPermit, now);
+                nextPermit = permit + interval;
+            }
+            if (permit <= now) {
+                waitTime += now - start;
+                return now;
+            }
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(permit - now);
+        } catch (InterruptedException exception) {
+            synchronized (this) {
+                inFlight--;
+                notifyAll();
+            }
+            throw exception;
+        }
+        now = System.nanoTime();
+        synchronized (this) {
+            waitTime += now - start;
+        }
+        return now;
+    }
+
+    /**
+     * Libère la place d'une requête terminée et ajuste la limite selon sa
+     * durée et son résultat.
+     *
+     * @param start date de départ de la requête, retournée par acquire().
+     * @param success indique si la requête a réussi.
+     */
+    public synchronized void release(long start, boolean success) {
+        long now;
+        boolean overloaded;
+
+        now = System.nanoTime();
+        inFlight--;
+        nbOps++;
+        if (!success) {
+            nbErrors++;
+        }
+        overloaded = !success;
+        if (latencyTarget > 0) {
+            smoothedLatency = nbOps == 1 ? now - start : smoothedLatency + (now - start - smoothedLatency) * EWMA_WEIGHT;
+            overloaded |= smoothedLatency > latencyTarget;
+        }
+        if (overloaded) {
+            if (start > lastBackoff) {
+                limit = Math.max(1, limit * BACKOFF_FACTOR);
+                lastBackoff = now;
+                nbBackoffs++;
+            }
+        } else if (limit < maxConcurrency) {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return le nom de la base régulée.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return le nombre maximum de requêtes simultanées.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return le plafond de requêtes par seconde, 0 si aucun.
+     */
+    public long getMaxOpsPerSecond() {
+        return maxOpsPerSecond;
+    }
+
+    /**
+     * @return la durée cible d'une requête en millisecondes, 0 si aucune.
+     */
+    public double getLatencyTargetMillis() {
+        return latencyTarget / 1e6;
+    }
+
+    /**
+     * @return la limite courante du nombre de requêtes simultanées.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return le nombre de requêtes terminées.
+     */
+    public synchronized long getNbOps() {
+        return nbOps;
+    }
+
+    /**
+     * @return le nombre de requêtes en erreur.
+     */
+    public synchronized long getNbErrors() {
+        return nbErrors;
+    }
+
+    /**
+     * @return le nombre de réductions de la limite.
+     */
+    public synchronized long getNbBackoffs() {
+        return nbBackoffs;
+    }
+
+    /**
+     * Retourne le contenu de AdaptiveThrottle.
+     *
+     * @return le contenu de AdaptiveThrottle.
+     */
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveThrottle:{"
+                + "name:" + name
+                + ", maxConcurrency:" + maxConcurrency
+                + ", maxOpsPerSecond:" + maxOpsPerSecond
+                + ", latencyTargetMs:" + latencyTarget / 1e6
+                + ", limit:" + (int) limit
+                + ", smoothedLatencyMs:" + String.format("%.3f", smoothedLatency / 1e6)
+                + ", nbOps:" + nbOps
+                + ", nbErrors:" + nbErrors
+                + ", nbBackoffs:" + nbBackoffs
+                + ", waitMs:" + waitTime / 1000000
+                + "}";
+    }
+}
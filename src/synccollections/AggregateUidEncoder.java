@@ -0,0 +1,393 @@
+package synccollections;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utils.Md5;
+
+/**
+ * Classe qui calcule les identifiants agrégés (MD5) des patrimoines
+ * ("s3:&lt;unum&gt;:&lt;s3number2&gt;") et des sociétés ("u:&lt;unum&gt;")
+ * sans concaténation de chaînes de caractères intermédiaires.
+ * <p>
+ * Chaque tâche réutilise son propre calcul MD5 et ses propres tampons. Le
+ * résultat est identique à celui de utils.Md5, soit en hexadécimal, soit en
+ * binaire (deux entiers longs, comme dans UidSet). Les clés contenant des
+ * caractères non ASCII, dont l'encodage dépend de utils.Md5, lui sont
+ * déléguées. Si la vérification de compatibilité échoue, la clé en cause est
+ * signalée dans le journal et tous les calculs sont délégués à utils.Md5.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class AggregateUidEncoder {
+
+    /**
+     * Chiffres hexadécimaux.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Nombre de clés courantes comparées à utils.Md5 lors de la vérification.
+     */
+    private static final int NB_CHECK = 256;
+
+    /**
+     * Numéros de clients particuliers comparés à utils.Md5 lors de la
+     * vérification.
+     */
+    private static final int[] CHECK_UNUMS = {0, -1, 4956, Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    /**
+     * Références de sites particulières comparées à utils.Md5 lors de la
+     * vérification : vide, absente, ponctuée et plus longue que le tampon
+     * initial de la clé.
+     */
+    private static final String[] CHECK_S3NUMBER2S = {"", null, " A-12/B:3 ",
+        "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789abcdefghijklmnopqrstuvwxyz"};
+
+    /**
+     * Indique si le calcul local est identique à celui de utils.Md5.
+     */
+    private static volatile boolean compatible = true;
+
+    /**
+     * Calcul MD5 et tampons propres à chaque tâche.
+     */
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    /**
+     * Constructeur privé : la classe n'a que des méthodes statiques.
+     */
+    private AggregateUidEncoder() {
+    }
+
+    /**
+     * Compare le calcul local à celui de utils.Md5 sur un échantillon de clés,
+     * en hexadécimal et en binaire. En cas de différence, la clé en cause est
+     * signalée dans le journal et tous les calculs sont ensuite délégués à
+     * utils.Md5.
+     *
+     * @return true si le calcul local est identique à celui de utils.Md5.
+     */
+    public static boolean checkCompatibility() {
+        String key;
+        int i;
+
+        compatible = true;
+        key = null;
+        for (i = 0; i < NB_CHECK && key == null; i++) {
+            key = check(i * 7919 - NB_CHECK, "S" + i);
+        }
+        for (int unum : CHECK_UNUMS) {
+            for (String s3number2 : CHECK_S3NUMBER2S) {
+                if (key == null) {
+                    key = check(unum, s3number2);
+                }
+            }
+        }
+        if (key != null) {
+            compatible = false;
+            Logger.getLogger(AggregateUidEncoder.class.getName()).log(Level.SEVERE,
+                    "Calcul des identifiants différent de utils.Md5 pour la clé \"{0}\", utils.Md5 sera utilisé", key);
+        }
+        return compatible;
+    }
+
+    /**
+     * Compare le calcul local à celui de utils.Md5 pour un patrimoine et une
+     * société.
+     *
+     * @return la première clé dont le calcul diffère, null si aucune.
+     */
+    private static String check(int unum, String s3number2) {
+        String key;
+        long[] uid;
+        long[] expected;
+
+        uid = new long[2];
+        expected = new long[2];
+        key = "s3:" + unum + ":" + s3number2;
+        parse(Md5.encode(key), expected);
+        digestPatrimony(unum, s3number2, uid);
+        if (!encodePatrimony(unum, s3number2).equals(Md5.encode(key)) || !Arrays.equals(uid, expected)) {
+            return key;
+        }
+        key = "u:" + unum;
+        parse(Md5.encode(key), expected);
+        digestCompany(unum, uid);
+        if (!encodeCompany(unum).equals(Md5.encode(key)) || !Arrays.equals(uid, expected)) {
+            return key;
+        }
+        return null;
+    }
+
+    /**
+     * Calcule l'identifiant d'un patrimoine en hexadécimal.
+     *
+     * @param unum numéro du client.
+     * @param s3number2 référence du site.
+     * @return Md5.encode("s3:" + unum + ":" + s3number2).
+     */
+    public static String encodePatrimony(int unum, String s3number2) {
+        State state;
+
+        if (!compatible || !isAscii(s3number2)) {
+            return Md5.encode("s3:" + unum + ":" + s3number2);
+        }
+        state = STATE.get();
+        state.digestPatrimony(unum, s3number2);
+        return state.toHex();
+    }
+
+    /**
+     * Calcule l'identifiant d'une société en hexadécimal.
+     *
+     * @param unum numéro du client.
+     * @return Md5.encode("u:" + unum).
+     */
+    public static String encodeCompany(int unum) {
+        State state;
+
+        if (!compatible) {
+            return Md5.encode("u:" + unum);
+        }
+        state = STATE.get();
+        state.digestCompany(unum);
+        return state.toHex();
+    }
+
+    /**
+     * Calcule l'identifiant d'un patrimoine en binaire.
+     *
+     * @param unum numéro du client.
+     * @param s3number2 référence du site.
+     * @param uid reçoit les poids forts (uid[0]) et les poids faibles (uid[1])
+     * de l'identifiant.
+     */
+    public static void digestPatrimony(int unum, String s3number2, long[] uid) {
+        State state;
+
+        if (!compatible || !isAscii(s3number2)) {
+            parse(Md5.encode("s3:" + unum + ":" + s3number2), uid);
+            return;
+        }
+        state = STATE.get();
+        state.digestPatrimony(unum, s3number2);
+        state.toLongs(uid);
+    }
+
+    /**
+     * Calcule l'identifiant d'une société en binaire.
+     *
+     * @param unum numéro du client.
+     * @param uid reçoit les poids forts (uid[0]) et les poids faibles (uid[1])
+     * de l'identifiant.
+     */
+    public static void digestCompany(int unum, long[] uid) {
+        State state;
+
+        if (!compatible) {
+            parse(Md5.encode("u:" + unum), uid);
+            return;
+        }
+        state = STATE.get();
+        state.digestCompany(unum);
+        state.toLongs(uid);
+    }
+
+    /**
+     * Convertit un identifiant hexadécimal en binaire.
+     */
+    private static void parse(String hex, long[] uid) {
+        uid[0] = UidSet.parseHex(hex, 0);
+        uid[1] = UidSet.parseHex(hex, 16);
+    }
+
+    /**
+     * Indique si une chaîne ne contient que des caractères ASCII.
+     */
+    private static boolean isAscii(String value) {
+        int i;
+
+        if (value == null) {
+            return true;
+        }
+        for (i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calcul MD5 et tampons d'une tâche.
+     */
+    private static class State {
+
+        /**
+         * Calcul MD5 réutilisé.
+         */
+        private final MessageDigest messageDigest;
+
+        /**
+         * Clé à chiffrer.
+         */
+        private byte[] key = new byte[64];
+
+        /**
+         * Longueur de la clé.
+         */
+        private int length;
+
+        /**
+         * Résultat du calcul MD5.
+         */
+        private final byte[] digest = new byte[16];
+
+        /**
+         * Résultat en hexadécimal.
+         */
+        private final char[] hex = new char[32];
+
+        /**
+         * Chiffres d'un entier, du dernier au premier.
+         */
+        private final byte[] digits = new byte[20];
+
+        /**
+         * Constructeur de la classe State.
+         */
+        private State() {
+            try {
+                messageDigest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        /**
+         * Calcule le MD5 de "s3:" + unum + ":" + s3number2.
+         */
+        private void digestPatrimony(int unum, String s3number2) {
+            length = 0;
+            append('s');
+            append('3');
+            append(':');
+            append(unum);
+            append(':');
+            append(s3number2 != null ? s3number2 : "null");
+            digest();
+        }
+
+        /**
+         * Calcule le MD5 de "u:" + unum.
+         */
+        private void digestCompany(int unum) {
+            length = 0;
+            append('u');
+            append(':');
+            append(unum);
+            digest();
+        }
+
+        /**
+         * Ajoute un caractère ASCII à la clé.
+         */
+        private void append(char c) {
+            byte[] newKey;
+
+            if (length == key.length) {
+                newKey = new byte[2 * key.length];
+                System.arraycopy(key, 0, newKey, 0, length);
+                key = newKey;
+            }
+            key[length++] = (byte) c;
+        }
+
+        /**
+         * Ajoute une chaîne ASCII à la clé.
+         */
+        private void append(String value) {
+            int i;
+
+            for (i = 0; i < value.length(); i++) {
+                append(value.charAt(i));
+            }
+        }
+
+        /**
+         * Ajoute un entier en décimal à la clé.
+         */
+        private void append(int value) {
+            long remainder;
+            int n;
+
+            remainder = value;
+            if (remainder < 0) {
+                append('-');
+                remainder = -remainder;
+            }
+            n = 0;
+            do {
+                digits[n++] = (byte) ('0' + remainder % 10);
+                remainder /= 10;
+            } while (remainder > 0);
+            while (n > 0) {
+                append((char) digits[--n]);
+            }
+        }
+
+        /**
+         * Calcule le MD5 de la clé.
+         */
+        private void digest() {
+            messageDigest.update(key, 0, length);
+            try {
+                messageDigest.digest(digest, 0, digest.length);
+            } catch (DigestException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        /**
+         * @return le résultat en hexadécimal.
+         */
+        private String toHex() {
+            int i;
+
+            for (i = 0; i < 16; i++) {
+                hex[2 * i] = HEX_DIGITS[(digest[i] >>> 4) & 0xf];
+                hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(hex);
+        }
+
+        /**
+         * Copie le résultat en binaire.
+         */
+        private void toLongs(long[] uid) {
+            long high;
+            long low;
+            int i;
+
+            high = 0;
+            low = 0;
+            for (i = 0; i < 8; i++) {
+                high = (high << 8) | (digest[i] & 0xff);
+                low = (low << 8) | (digest[i + 8] & 0xff);
+            }
+            uid[0] = high;
+            uid[1] = low;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Ftype;
+import bdd.FtypeDAO;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOneModel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import org.bson.Document;
+
+/**
+ * Classe qui applique à la base MongoDb les modifications des clients et des
+ * sites Informix enregistrées dans le journal des modifications.
+ * <p>
+ * Le journal (table syncchanges) est alimenté par des déclencheurs sur les
+ * tables furgent et fsite (cf. README) : chaque création, modification ou
+ * suppression y ajoute une ligne numérotée, avec les valeurs du site
+ * nécessaires au patrimoine. Les lignes postérieures à la dernière
+ * modification appliquée sont lues par micro-lots de batchSize lignes ; les
+ * modifications successives d'un même site ne sont appliquées qu'une fois,
+ * avec ses dernières valeurs. Le volume d'écritures suit ainsi celui des
+ * modifications au lieu de la taille des tables.</p>
+ * <p>
+ * Un site créé ou modifié est réécrit par un upsert sur son identifiant
+ * agrégé (cf. PatrimonyRepair), s'il relève de la raison d'appel n°1 de son
+ * client. Un site supprimé, ou dont la référence a changé, laisse un
+ * patrimoine sans site Informix, signalé dans le rapport des écarts mais non
+ * supprimé. Un client créé ou modifié met à jour sa société, comme
+ * syncCompanies.</p>
+ * <p>
+ * Les valeurs des sites sont reprises telles quelles, sans suppression des
+ * blancs, comme les lit la synchronisation complète : un site a ainsi le même
+ * identifiant agrégé par les deux chemins.</p>
+ * <p>
+ * Seules les lignes de plus de lag secondes (DEFAULT_LAG par défaut) sont
+ * lues, pour ne pas dépasser une ligne dont la transaction n'est pas encore
+ * validée. La garantie est bornée : scdate est la date d'insertion de la
+ * ligne, pas de validation de sa transaction. Une transaction validée plus de
+ * lag secondes après avoir inséré sa ligne peut être dépassée par des lignes
+ * suivantes déjà appliquées ; sa ligne, de numéro inférieur à la dernière
+ * ligne appliquée, n'est alors jamais lue. Le retard doit donc dépasser la
+ * durée de la plus longue transaction modifiant furgent ou fsite, et une
+ * synchronisation complète avec -repair rattrape les modifications
+ * manquées.</p>
+ * <p>
+ * La requête de lecture du journal est préparée par le groupe de
+ * connexions : en mode démon, elle ne l'est qu'une fois par connexion. Les
+ * requêtes Informix, de leur exécution à la fermeture du curseur, et les
+ * écritures sont régulées (cf. AdaptiveThrottle) ; le débit de lignes lues
+ * dans le journal peut en plus être plafonné (cf. RateLimiter).</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class ChangeCapture {
+
+    /**
+     * Nom de la table du journal des modifications.
+     */
+    public static final String TABLE = "syncchanges";
+
+    /**
+     * Ancienneté minimale par défaut des lignes lues, en secondes.
+     */
+    public static final int DEFAULT_LAG = 10;
+
+    /**
+     * Table modifiée : furgent.
+     */
+    public static final String CLIENT = "U";
+
+    /**
+     * Table modifiée : fsite.
+     */
+    public static final String SITE = "S";
+
+    /**
+     * Opération : suppression.
+     */
+    public static final String DELETE = "D";
+
+    /**
+     * Connexion à la base Informix.
+     */
+    private final Connection informixConnection;
+
+    /**
+     * Requête préparée de lecture du journal.
+     */
+    private final PreparedStatement preparedStatement;
+
+    /**
+     * Nombre maximum de lignes lues par micro-lot.
+     */
+    private final int batchSize;
+
+    /**
+     * Ancienneté minimale des lignes lues, en secondes.
+     */
+    private final int lag;
+
+    /**
+     * Indique si les écritures sont seulement comptées, sans être envoyées.
+     */
+    private final boolean dryRun;
+
+    /**
+     * Part du travail traitée par le processus.
+     */
+    private final SyncPartition partition;
+
+    /**
+     * Rapport des écarts.
+     */
+    private final DiscrepancyReport discrepancyReport;
+
+    /**
+     * Mesures des phases de la synchronisation.
+     */
+    private final SyncMetrics syncMetrics;
+
+    /**
+     * Régulation des requêtes Informix.
+     */
+    private final AdaptiveThrottle informixThrottle;
+
+    /**
+     * Plafond de lignes lues par seconde dans Informix.
+     */
+    private final RateLimiter informixRateLimiter;
+
+    /**
+     * Réécriture des patrimoines, pour toute l'exécution.
+     */
+    private final PatrimonyRepair patrimonyRepair;
+
+    /**
+     * Ecritures groupées vers la collection des sociétés, pour toute
+     * l'exécution.
+     */
+    private final MongoBulkWriter mongoBulkWriter;
+
+    /**
+     * Numéro de la raison d'appel n°1 de chaque client, -1 si absente.
+     */
+    private final HashMap<Integer, Integer> callReasons;
+
+    /**
+     * Numéro de la dernière ligne lue.
+     */
+    private long lastKey;
+
+    /**
+     * Constructeur de la classe ChangeCapture.
+     *
+     * @param informixConnection connexion à la base Informix.
+     * @param informixPool groupe de connexions d'où provient la connexion,
+     * qui conserve la requête préparée.
+     * @param patrimonies collection des patrimoines.
+     * @param companies collection des sociétés.
+     * @param batchSize nombre maximum de lignes lues par micro-lot.
+     * @param lag ancienneté minimale des lignes lues, en secondes.
+     * @param dryRun indique si les écritures sont seulement comptées, sans
+     * être envoyées.
+     * @param partition part du travail traitée par le processus.
+     * @param discrepancyReport rapport des écarts.
+     * @param syncMetrics mesures des phases de la synchronisation.
+     * @param mongoThrottle régulation des requêtes MongoDb.
+     * @param informixThrottle régulation des requêtes Informix.
+     * @param informixRateLimiter plafond de lignes lues par seconde dans
+     * Informix.
+     * @param lastKey numéro de la dernière ligne appliquée.
+     * @throws SQLException en cas d'erreur de préparation de la requête.
+     */
+    public ChangeCapture(Connection informixConnection, InformixConnectionPool informixPool,
+            MongoCollection<Document> patrimonies, MongoCollection<Document> companies, int batchSize, int lag,
+            boolean dryRun, SyncPartition partition, DiscrepancyReport discrepancyReport, SyncMetrics syncMetrics,
+            AdaptiveThrottle mongoThrottle, AdaptiveThrottle informixThrottle, RateLimiter informixRateLimiter,
+            long lastKey) throws SQLException {
+        this(informixConnection, informixPool.prepareStatement(informixConnection, getSelectStatement(lag)),
+                patrimonies, companies, batchSize, lag, dryRun, partition, discrepancyReport, syncMetrics,
+                mongoThrottle, informixThrottle, informixRateLimiter, lastKey);
+    }
+
+    /**
+     * Constructeur de la classe ChangeCapture, à partir de la requête de
+     * lecture du journal déjà préparée.
+     */
+    ChangeCapture(Connection informixConnection, PreparedStatement preparedStatement,
+            MongoCollection<Document> patrimonies, MongoCollection<Document> companies, int batchSize, int lag,
+            boolean dryRun, SyncPartition partition, DiscrepancyReport discrepancyReport, SyncMetrics syncMetrics,
+            AdaptiveThrottle mongoThrottle, AdaptiveThrottle informixThrottle, RateLimiter informixRateLimiter,
+            long lastKey) throws SQLException {
+        this.informixConnection = informixConnection;
+        this.preparedStatement = preparedStatement;
+        this.batchSize = batchSize;
+        this.lag = lag;
+        this.dryRun = dryRun;
+        this.partition = partition;
+        this.discrepancyReport = discrepancyReport;
+        this.syncMetrics = syncMetrics;
+        this.informixThrottle = informixThrottle;
+        this.informixRateLimiter = informixRateLimiter;
+        this.lastKey = lastKey;
+        callReasons = new HashMap<>();
+        patrimonyRepair = new PatrimonyRepair(patrimonies, batchSize, dryRun, syncMetrics, mongoThrottle);
+        mongoBulkWriter = new MongoBulkWriter(companies, batchSize, dryRun, syncMetrics.getPhase(SyncMetrics.MONGO_BULK_WRITE),
+                mongoThrottle);
+        preparedStatement.setMaxRows(batchSize);
+    }
+
+    /**
+     * Retourne la requête de lecture du journal.
+     *
+     * @param lag ancienneté minimale des lignes lues, en secondes.
+     * @return la requête, paramétrée par le numéro de la dernière ligne
+     * appliquée.
+     */
+    static String getSelectStatement(int lag) {
+        return "select scnum, sctable, scop, scunum, scs3num, sctnum,"
+                + " scnumber2, scaddress, scposcode, sccity from " + TABLE
+                + " where scnum > ? and scdate <= current - " + lag + " units second order by scnum";
+    }
+
+    /**
+     * Lit et applique le micro-lot suivant du journal. Les écritures sont
+     * envoyées avant de retourner ; la dernière ligne lue n'avance que si
+     * elles sont toutes faites, pour relire le micro-lot sinon. Le bilan des
+     * écritures n'est cumulé dans les compteurs que par flush(), en fin
+     * d'exécution.
+     *
+     * @param syncCounters compteurs de la synchronisation.
+     * @return le nombre de lignes lues, 0 si le journal est à jour.
+     * @throws ClassNotFoundException si le pilote JDBC est introuvable.
+     * @throws SQLException en cas d'erreur de lecture de la base Informix.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public int apply(SyncCounters syncCounters) throws ClassNotFoundException, SQLException, InterruptedException {
+        LinkedHashMap<String, Change> changes;
+        Change change;
+        final ResultSet resultSet;
+        RowSource<Change> rows;
+        String aggregateUid;
+        long key;
+        int nbRows;
+        int nbSkipped;
+        int nbFailedBatches;
+        boolean success;
+        long throttleStart;
+        long start;
+
+        changes = new LinkedHashMap<>();
+        key = lastKey;
+        nbRows = 0;
+        start = System.nanoTime();
+        throttleStart = informixThrottle.acquire();
+        success = false;
+        try {
+            preparedStatement.setLong(1, lastKey);
+            resultSet = preparedStatement.executeQuery();
+            rows = informixRateLimiter.limit(new RowSource<Change>() {
+                @Override
+                public Change next() throws SQLException {
+                    return resultSet.next() ? new Change(resultSet) : null;
+                }
+            });
+            try {
+                while ((change = rows.next()) != null) {
+                    key = resultSet.getLong("scnum");
+                    changes.put(change.getKey(), change);
+                    nbRows++;
+                }
+            } finally {
+                resultSet.close();
+            }
+            success = true;
+        } finally {
+            informixThrottle.release(throttleStart, success);
+            syncMetrics.getPhase(SyncMetrics.INFORMIX_FETCH).record(start);
+        }
+        if (nbRows == 0) {
+            return 0;
+        }
+        syncCounters.addChanges(nbRows);
+
+        nbSkipped = nbRows - changes.size();
+        nbFailedBatches = getNbFailedBatches();
+        for (Change collapsed : changes.values()) {
+            if (!partition.acceptsClient(collapsed.unum)) {
+                nbSkipped++;
+            } else if (collapsed.table.equals(CLIENT)) {
+                aggregateUid = AggregateUidEncoder.encodeCompany(collapsed.unum);
+                if (collapsed.op.equals(DELETE) || !partition.acceptsUid(aggregateUid)) {
+                    nbSkipped++;
+                } else {
+                    syncCounters.addClient();
+                    mongoBulkWriter.add(new UpdateOneModel<Document>(new BasicDBObject("uid", aggregateUid),
+                            new BasicDBObject("$set", new BasicDBObject("id", collapsed.unum))));
+                }
+            } else {
+                aggregateUid = AggregateUidEncoder.encodePatrimony(collapsed.unum, collapsed.getS3number2());
+                if (!partition.acceptsUid(aggregateUid) || collapsed.tnum != getCallReason(collapsed.unum)) {
+                    nbSkipped++;
+                } else if (collapsed.op.equals(DELETE)) {
+                    discrepancyReport.orphanedPatrimony(aggregateUid);
+                } else {
+                    patrimonyRepair.upsert(collapsed.unum, collapsed, aggregateUid);
+                }
+            }
+        }
+        syncCounters.addSkipped(nbSkipped);
+        patrimonyRepair.getMongoBulkWriter().flush();
+        mongoBulkWriter.flush();
+        if (getNbFailedBatches() == nbFailedBatches) {
+            lastKey = key;
+        }
+        return nbRows;
+    }
+
+    /**
+     * Cumule dans les compteurs le bilan des écritures de l'exécution. A
+     * appeler une fois, après le dernier micro-lot.
+     *
+     * @param syncCounters compteurs de la synchronisation.
+     */
+    public void flush(SyncCounters syncCounters) {
+        patrimonyRepair.flush(syncCounters);
+        mongoBulkWriter.flush();
+        syncCounters.addWrites(mongoBulkWriter);
+    }
+
+    /**
+     * Retourne le numéro de la raison d'appel n°1 d'un client, lu une seule
+     * fois dans la base Informix.
+     *
+     * @param unum numéro du client.
+     * @return le numéro de la raison d'appel, -1 si absente.
+     * @throws ClassNotFoundException si le pilote JDBC est introuvable.
+     * @throws SQLException en cas d'erreur de lecture de la base Informix.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    int getCallReason(int unum) throws ClassNotFoundException, SQLException, InterruptedException {
+        Integer ttnum;
+        FtypeDAO ftypeDAO;
+        Ftype ftype;
+        boolean success;
+        long start;
+
+        if ((ttnum = callReasons.get(unum)) == null) {
+            start = informixThrottle.acquire();
+            success = false;
+            try {
+                ftypeDAO = new FtypeDAO(informixConnection);
+                ftypeDAO.filterByCode(unum, 1);
+                ftypeDAO.setSelectPreparedStatement();
+                ftype = ftypeDAO.select();
+                ftypeDAO.closeSelectPreparedStatement();
+                success = true;
+            } finally {
+                informixThrottle.release(start, success);
+            }
+            ttnum = ftype != null ? ftype.getTtnum() : -1;
+            callReasons.put(unum, ttnum);
+        }
+        return ttnum;
+    }
+
+    /**
+     * @return le numéro de la dernière ligne appliquée.
+     */
+    public long getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * @return le nombre de lots d'écritures en erreur.
+     */
+    public int getNbFailedBatches() {
+        return patrimonyRepair.getMongoBulkWriter().getNbFailedBatches() + mongoBulkWriter.getNbFailedBatches();
+    }
+
+    /**
+     * Libère la requête de lecture du journal, qui reste préparée dans le
+     * cache de sa connexion.
+     *
+     * @throws SQLException en cas d'erreur.
+     */
+    public void close() throws SQLException {
+        preparedStatement.clearParameters();
+    }
+
+    /**
+     * Retourne le contenu de ChangeCapture.
+     *
+     * @return le contenu de ChangeCapture.
+     */
+    @Override
+    public String toString() {
+        return "ChangeCapture:{"
+                + "lastKey:" + lastKey
+                + ", batchSize:" + batchSize
+                + ", lag:" + lag
+                + ", dryRun:" + dryRun
+                + ", callReasons:" + callReasons.size()
+                + ", nbFailedBatches:" + getNbFailedBatches()
+                + "}";
+    }
+
+    /**
+     * Modification lue dans le journal. Pour un site, elle porte ses valeurs
+     * après création ou modification, avant suppression.
+     */
+    private static class Change extends Fsite {
+
+        /**
+         * Table modifiée (CLIENT, SITE).
+         */
+        private final String table;
+
+        /**
+         * Opération (I, U, D).
+         */
+        private final String op;
+
+        /**
+         * Numéro du client.
+         */
+        private final int unum;
+
+        /**
+         * Numéro du site.
+         */
+        private final int s3num;
+
+        /**
+         * Numéro de la raison d'appel du site.
+         */
+        private final int tnum;
+
+        /**
+         * Référence du site.
+         */
+        private final String s3number2;
+
+        /**
+         * Adresse du site.
+         */
+        private final String s3address;
+
+        /**
+         * Code postal du site.
+         */
+        private final String s3poscode;
+
+        /**
+         * Ville du site.
+         */
+        private final String s3city;
+
+        /**
+         * Lit une modification à la ligne courante du journal.
+         */
+        private Change(ResultSet resultSet) throws SQLException {
+            table = resultSet.getString("sctable").trim();
+            op = resultSet.getString("scop").trim();
+            unum = resultSet.getInt("scunum");
+            s3num = resultSet.getInt("scs3num");
+            tnum = resultSet.getInt("sctnum");
+            s3number2 = resultSet.getString("scnumber2");
+            s3address = resultSet.getString("scaddress");
+            s3poscode = resultSet.getString("scposcode");
+            s3city = resultSet.getString("sccity");
+        }
+
+        /**
+         * Clé de regroupement des modifications successives : le client, ou
+         * le site avec sa raison d'appel et sa référence, une modification de
+         * l'une ou de l'autre portant sur deux patrimoines.
+         */
+        private String getKey() {
+            return table.equals(CLIENT) ? CLIENT + unum : SITE + unum + "/" + s3num + "/" + tnum + "/" + s3number2;
+        }
+
+        @Override
+        public int getS3num() {
+            return s3num;
+        }
+
+        @Override
+        public String getS3number2() {
+            return s3number2;
+        }
+
+        @Override
+        public String getS3address() {
+            return s3address;
+        }
+
+        @Override
+        public String getS3poscode() {
+            return s3poscode;
+        }
+
+        @Override
+        public String getS3city() {
+            return s3city;
+        }
+    }
+}
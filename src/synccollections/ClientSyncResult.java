@@ -0,0 +1,276 @@
+package synccollections;
+
+import bdd.Furgent;
+
+/**
+ * Classe qui mémorise le résultat de la synchronisation des patrimoines d'un
+ * client, pour l'affichage du bilan par client.
+ *
+ * @author Thierry Baribaud
+ * @version 0.24
+ */
+public class ClientSyncResult {
+
+    /**
+     * Format d'une ligne du bilan par client.
+     */
+    private static final String SUMMARY_FORMAT = "%-10s %-36s %-30s %8s %8s %8s %8s %8s  %s";
+
+    /**
+     * Numéro du client.
+     */
+    private final int unum;
+
+    /**
+     * Identifiant du client.
+     */
+    private final String uuid;
+
+    /**
+     * Nom du client.
+     */
+    private final String uname;
+
+    /**
+     * Nombre de sites lus dans la base Informix.
+     */
+    private int nbSite = 0;
+
+    /**
+     * Nombre de sites ignorés car déjà traités lors d'une exécution
+     * précédente.
+     */
+    private int nbSkipped = 0;
+
+    /**
+     * Nombre de patrimoines trouvés dans la base MongoDb.
+     */
+    private int nbPatrimoniesFound = 0;
+
+    /**
+     * Nombre de patrimoines non trouvés dans la base MongoDb.
+     */
+    private int nbPatrimoniesNotFound = 0;
+
+    /**
+     * Nombre de patrimoines dont la référence ou le libellé diffère du site.
+     */
+    private int nbPatrimoniesDrifted = 0;
+
+    /**
+     * Etat du traitement du client.
+     */
+    private String status = "ok";
+
+    /**
+     * Messages de suivi du traitement du client.
+     */
+    private String output = "";
+
+    /**
+     * Constructeur de la classe ClientSyncResult.
+     *
+     * @param furgent client traité.
+     */
+    public ClientSyncResult(Furgent furgent) {
+        unum = furgent.getUnum();
+        uuid = furgent.getUuid();
+        uname = furgent.getUname();
+    }
+
+    /**
+     * Constructeur de la classe ClientSyncResult, pour un client relu dans un
+     * point de reprise.
+     *
+     * @param unum numéro du client.
+     * @param uuid identifiant du client.
+     * @param uname nom du client.
+     */
+    public ClientSyncResult(int unum, String uuid, String uname) {
+        this.unum = unum;
+        this.uuid = uuid;
+        this.uname = uname;
+    }
+
+    /**
+     * @return l'en-tête du bilan par client.
+     */
+    public static String getSummaryHeader() {
+        return String.format(SUMMARY_FORMAT, "unum", "uuid", "client", "sites", "ignorés", "trouvés", "absents", "écarts", "état");
+    }
+
+    /**
+     * @return la ligne du client dans le bilan.
+     */
+    public String getSummaryLine() {
+        return String.format(SUMMARY_FORMAT, unum, uuid, truncate(uname, 30),
+                nbSite, nbSkipped, nbPatrimoniesFound, nbPatrimoniesNotFound, nbPatrimoniesDrifted, status);
+    }
+
+    /**
+     * @return true si le client est en erreur, a des sites sans patrimoine ou
+     * des patrimoines modifiés.
+     */
+    public boolean hasDiscrepancy() {
+        return !status.equals("ok") || nbPatrimoniesNotFound > 0 || nbPatrimoniesDrifted > 0;
+    }
+
+    /**
+     * @return true si le traitement du client a été interrompu par une
+     * erreur.
+     */
+    public boolean isFailed() {
+        return status.startsWith("erreur");
+    }
+
+    /**
+     * Tronque une chaîne de caractères pour l'affichage en colonne.
+     */
+    private static String truncate(String value, int length) {
+        if (value == null) {
+            return "";
+        }
+        return value.length() <= length ? value : value.substring(0, length);
+    }
+
+    /**
+     * @return le numéro du client.
+     */
+    public int getUnum() {
+        return unum;
+    }
+
+    /**
+     * @return l'identifiant du client.
+     */
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * @return le nom du client.
+     */
+    public String getUname() {
+        return uname;
+    }
+
+    /**
+     * @return le nombre de sites lus.
+     */
+    public int getNbSite() {
+        return nbSite;
+    }
+
+    /**
+     * @param nbSite définit le nombre de sites lus.
+     */
+    public void setNbSite(int nbSite) {
+        this.nbSite = nbSite;
+    }
+
+    /**
+     * @return le nombre de sites ignorés.
+     */
+    public int getNbSkipped() {
+        return nbSkipped;
+    }
+
+    /**
+     * @param nbSkipped définit le nombre de sites ignorés.
+     */
+    public void setNbSkipped(int nbSkipped) {
+        this.nbSkipped = nbSkipped;
+    }
+
+    /**
+     * @return le nombre de patrimoines trouvés.
+     */
+    public int getNbPatrimoniesFound() {
+        return nbPatrimoniesFound;
+    }
+
+    /**
+     * @param nbPatrimoniesFound définit le nombre de patrimoines trouvés.
+     */
+    public void setNbPatrimoniesFound(int nbPatrimoniesFound) {
+        this.nbPatrimoniesFound = nbPatrimoniesFound;
+    }
+
+    /**
+     * @return le nombre de patrimoines non trouvés.
+     */
+    public int getNbPatrimoniesNotFound() {
+        return nbPatrimoniesNotFound;
+    }
+
+    /**
+     * @param nbPatrimoniesNotFound définit le nombre de patrimoines non
+     * trouvés.
+     */
+    public void setNbPatrimoniesNotFound(int nbPatrimoniesNotFound) {
+        this.nbPatrimoniesNotFound = nbPatrimoniesNotFound;
+    }
+
+    /**
+     * @return le nombre de patrimoines dont le contenu diffère du site.
+     */
+    public int getNbPatrimoniesDrifted() {
+        return nbPatrimoniesDrifted;
+    }
+
+    /**
+     * @param nbPatrimoniesDrifted définit le nombre de patrimoines dont le
+     * contenu diffère du site.
+     */
+    public void setNbPatrimoniesDrifted(int nbPatrimoniesDrifted) {
+        this.nbPatrimoniesDrifted = nbPatrimoniesDrifted;
+    }
+
+    /**
+     * @return l'état du traitement du client.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @param status définit l'état du traitement du client.
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * @return les messages de suivi du traitement du client.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @param output définit les messages de suivi du traitement du client.
+     */
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    /**
+     * Retourne le contenu de ClientSyncResult.
+     *
+     * @return le contenu de ClientSyncResult.
+     */
+    @Override
+    public String toString() {
+        return "ClientSyncResult:{"
+                + "unum:" + unum
+                + ", uuid:" + uuid
+                + ", uname:" + uname
+                + ", nbSite:" + nbSite
+                + ", nbSkipped:" + nbSkipped
+                + ", nbPatrimoniesFound:" + nbPatrimoniesFound
+                + ", nbPatrimoniesNotFound:" + nbPatrimoniesNotFound
+                + ", nbPatrimoniesDrifted:" + nbPatrimoniesDrifted
+                + ", status:" + status
+                + "}";
+    }
+}
@@ -0,0 +1,77 @@
+package synccollections;
+
+import bkgpi2a.Company;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Classe qui décode directement un document BSON de la collection companies
+ * en objet Company, sans passer par une chaîne JSON. Seuls les champs comparés
+ * (uid, label) sont lus, les autres sont sautés.
+ *
+ * @author Thierry Baribaud
+ * @version 0.12
+ */
+public class CompanyCodec implements Codec<Company> {
+
+    /**
+     * Décode une société.
+     *
+     * @param reader lecteur du document BSON.
+     * @param decoderContext contexte du décodage.
+     * @return la société décodée.
+     */
+    @Override
+    public Company decode(BsonReader reader, DecoderContext decoderContext) {
+        Company company;
+        String name;
+
+        company = new Company();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            name = reader.readName();
+            if (reader.getCurrentBsonType() != BsonType.STRING) {
+                reader.skipValue();
+            } else if (name.equals("uid")) {
+                company.setUid(reader.readString());
+            } else if (name.equals("label")) {
+                company.setLabel(reader.readString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return company;
+    }
+
+    /**
+     * Encode les champs comparés d'une société.
+     *
+     * @param writer rédacteur du document BSON.
+     * @param company société à encoder.
+     * @param encoderContext contexte de l'encodage.
+     */
+    @Override
+    public void encode(BsonWriter writer, Company company, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (company.getUid() != null) {
+            writer.writeString("uid", company.getUid());
+        }
+        if (company.getLabel() != null) {
+            writer.writeString("label", company.getLabel());
+        }
+        writer.writeEndDocument();
+    }
+
+    /**
+     * @return la classe encodée.
+     */
+    @Override
+    public Class<Company> getEncoderClass() {
+        return Company.class;
+    }
+}
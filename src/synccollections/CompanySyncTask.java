@@ -0,0 +1,179 @@
+package synccollections;
+
+import bdd.Furgent;
+import bdd.FurgentDAO;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * Synchronisation des sociétés de la base MongoDb par rapport aux clients
+ * Informix (table furgent), exécutée par SyncEngine.
+ * <p>
+ * Chaque client correspond à la société de même identifiant agrégé. Une
+ * société absente est enregistrée dans le rapport des écarts. Le numéro du
+ * client est reporté dans le champ id de la société, seulement s'il
+ * diffère.</p>
+ * <p>
+ * Seuls la présence de la société et son champ id sont comparés : le libellé
+ * n'est lu que pour l'affichage et n'est pas comparé au nom du client, comme
+ * dans la vérification des sociétés qui précédait SyncEngine, qui ne
+ * contrôlait que la présence.</p>
+ * <p>
+ * La source des clients est aussi utilisée pour lire les clients dont les
+ * patrimoines sont synchronisés.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class CompanySyncTask implements SyncTask<Furgent> {
+
+    /**
+     * Champs des sociétés lus dans la base MongoDb.
+     */
+    private static final Bson PROJECTION = new BasicDBObject("uid", 1).append("label", 1).append("id", 1).append("_id", 0);
+
+    /**
+     * Instantané lu à la place de la base Informix, null pour lire la base
+     * Informix.
+     */
+    private final SyncSnapshot snapshot;
+
+    /**
+     * Rapport des écarts.
+     */
+    private final DiscrepancyReport discrepancyReport;
+
+    /**
+     * Indique si chaque société est affichée.
+     */
+    private final boolean debugMode;
+
+    /**
+     * Lecture de la table furgent, null avant l'ouverture ou avec un
+     * instantané.
+     */
+    private FurgentDAO furgentDAO = null;
+
+    /**
+     * Constructeur de la classe CompanySyncTask.
+     *
+     * @param snapshot instantané lu à la place de la base Informix, null pour
+     * lire la base Informix.
+     * @param discrepancyReport rapport des écarts.
+     * @param debugMode indique si chaque société est affichée.
+     */
+    public CompanySyncTask(SyncSnapshot snapshot, DiscrepancyReport discrepancyReport, boolean debugMode) {
+        this.snapshot = snapshot;
+        this.discrepancyReport = discrepancyReport;
+        this.debugMode = debugMode;
+    }
+
+    @Override
+    public String getCollection() {
+        return "companies";
+    }
+
+    @Override
+    public RowSource<Furgent> open(Connection informixConnection) throws ClassNotFoundException, SQLException {
+        final FurgentDAO dao;
+
+        if (snapshot != null) {
+            return snapshot.getClientSource();
+        }
+        dao = new FurgentDAO(informixConnection);
+        dao.orderBy("unum");
+        if (debugMode) {
+            System.out.println("  SelectStatement=" + dao.getSelectStatement());
+        }
+        dao.setSelectPreparedStatement();
+        furgentDAO = dao;
+        return new RowSource<Furgent>() {
+            @Override
+            public Furgent next() throws SQLException {
+                return dao.select();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (furgentDAO != null) {
+            furgentDAO.closeSelectPreparedStatement();
+            furgentDAO = null;
+        }
+    }
+
+    @Override
+    public long getKey(Furgent furgent) {
+        return furgent.getUnum();
+    }
+
+    @Override
+    public int getUnum(Furgent furgent) {
+        return furgent.getUnum();
+    }
+
+    @Override
+    public String getUid(Furgent furgent) {
+        return SyncSnapshot.getCompanyUid(furgent);
+    }
+
+    @Override
+    public Bson getProjection() {
+        return PROJECTION;
+    }
+
+    /**
+     * Compare un client à sa société : seuls sa présence et son champ id sont
+     * vérifiés.
+     */
+    @Override
+    public WriteModel<Document> compare(Furgent furgent, String uid, Document company, SyncCounters syncCounters)
+            throws InterruptedException {
+        Object id;
+
+        syncCounters.addClient();
+        if (company == null) {
+            syncCounters.addCompany(false);
+            discrepancyReport.missingCompany(furgent, uid);
+            if (debugMode) {
+                System.out.println("  non trouvé : " + furgent.getUname() + ", uid:" + uid);
+            }
+            return null;
+        }
+        syncCounters.addCompany(true);
+        if (debugMode) {
+            System.out.println("  trouvé : " + company.getString("label") + ", uid:" + uid);
+        }
+        id = company.get("id");
+        if (id instanceof Number && ((Number) id).longValue() == furgent.getUnum()) {
+            return null;
+        }
+        return new UpdateOneModel<Document>(new BasicDBObject("uid", uid),
+                new BasicDBObject("$set", new BasicDBObject("id", furgent.getUnum())));
+    }
+
+    @Override
+    public String getSummary(SyncCounters syncCounters) {
+        return syncCounters.getNbCompaniesFound() + " société(s) trouvée(s), "
+                + syncCounters.getNbCompaniesNotFound() + " société(s) absente(s)";
+    }
+
+    /**
+     * Retourne le contenu de CompanySyncTask.
+     *
+     * @return le contenu de CompanySyncTask.
+     */
+    @Override
+    public String toString() {
+        return "CompanySyncTask:{"
+                + "collection:" + getCollection()
+                + ", snapshot:" + (snapshot != null ? snapshot.getFilename() : "")
+                + "}";
+    }
+}
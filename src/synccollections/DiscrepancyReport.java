@@ -0,0 +1,351 @@
+package synccollections;
+
+import bdd.Furgent;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe qui enregistre les écarts constatés lors d'une synchronisation
+ * (patrimoines ou sociétés absents de la base MongoDb, patrimoines modifiés,
+ * patrimoines sans site Informix) dans un fichier, une ligne par écart.
+ * Pour les patrimoines réparés, la colonne repair indique l'écriture faite
+ * (upsert) ou, en mode test, l'écriture qui aurait été faite (dry-run).
+ * <p>
+ * Le format dépend de l'extension du fichier : CSV (séparateur ;) pour .csv,
+ * JSON Lines sinon. Les lignes sont écrites par une tâche dédiée à travers une
+ * file bornée : les tâches de synchronisation ne font que déposer les lignes
+ * et ne sont ralenties que si le disque ne suit pas.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.24
+ */
+public class DiscrepancyReport {
+
+    /**
+     * Patrimoine ou société absent de la base MongoDb.
+     */
+    public static final String MISSING = "missing";
+
+    /**
+     * Patrimoine dont la référence ou le libellé diffère du site.
+     */
+    public static final String DRIFTED = "drifted";
+
+    /**
+     * Patrimoine de la base MongoDb sans site Informix.
+     */
+    public static final String ORPHANED = "orphaned";
+
+    /**
+     * Colonnes du fichier.
+     */
+    private static final String[] COLUMNS = {"type", "collection", "unum", "clientUuid",
+        "uid", "ref", "label", "mongoRef", "mongoLabel", "repair"};
+
+    /**
+     * Nombre maximum de lignes en attente d'écriture.
+     */
+    private static final int QUEUE_CAPACITY = 65536;
+
+    /**
+     * Marque de fin de la file.
+     */
+    private static final String END_OF_REPORT = new String("");
+
+    /**
+     * Nom du fichier des écarts.
+     */
+    private final String filename;
+
+    /**
+     * Indique si le fichier est au format CSV.
+     */
+    private final boolean csv;
+
+    /**
+     * Lignes en attente d'écriture.
+     */
+    private final BlockingQueue<String> lines;
+
+    /**
+     * Tâche d'écriture du fichier.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Erreur rencontrée par la tâche d'écriture, null si aucune.
+     */
+    private volatile IOException writeError = null;
+
+    /**
+     * Nombre de patrimoines ou de sociétés absents de la base MongoDb.
+     */
+    private final AtomicInteger nbMissing = new AtomicInteger();
+
+    /**
+     * Nombre de patrimoines modifiés.
+     */
+    private final AtomicInteger nbDrifted = new AtomicInteger();
+
+    /**
+     * Nombre de patrimoines sans site Informix.
+     */
+    private final AtomicInteger nbOrphaned = new AtomicInteger();
+
+    /**
+     * Constructeur de la classe DiscrepancyReport. Crée le fichier et lance la
+     * tâche d'écriture.
+     *
+     * @param filename nom du fichier des écarts.
+     * @throws IOException en cas d'erreur de création du fichier.
+     */
+    public DiscrepancyReport(String filename) throws IOException {
+        this(filename, false);
+    }
+
+    /**
+     * Constructeur de la classe DiscrepancyReport. Crée le fichier, ou le
+     * complète lors d'une reprise, et lance la tâche d'écriture.
+     *
+     * @param filename nom du fichier des écarts.
+     * @param append indique s'il faut ajouter les écarts à la fin du fichier
+     * existant.
+     * @throws IOException en cas d'erreur de création du fichier.
+     */
+    public DiscrepancyReport(String filename, boolean append) throws IOException {
+        final Writer writer;
+        boolean header;
+
+        this.filename = filename;
+        csv = filename.toLowerCase().endsWith(".csv");
+        lines = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        header = !append || new File(filename).length() == 0;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, append), "UTF-8"), 1 << 16);
+        if (csv && header) {
+            writer.write(String.join(";", COLUMNS));
+            writer.write('\n');
+        }
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLines(writer);
+            }
+        }, "DiscrepancyReport");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Ecrit les lignes de la file jusqu'à la marque de fin, puis ferme le
+     * fichier. Après une erreur d'écriture, la file continue d'être vidée pour
+     * ne pas bloquer les tâches de synchronisation.
+     */
+    private void writeLines(Writer writer) {
+        String line;
+
+        try {
+            while ((line = lines.take()) != END_OF_REPORT) {
+                if (writeError == null) {
+                    try {
+                        writer.write(line);
+                        writer.write('\n');
+                    } catch (IOException exception) {
+                        writeError = exception;
+                    }
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException exception) {
+                if (writeError == null) {
+                    writeError = exception;
+                }
+            }
+        }
+    }
+
+    /**
+     * Enregistre un patrimoine absent de la base MongoDb.
+     *
+     * @param furgent client du site.
+     * @param aggregateUid identifiant attendu du patrimoine.
+     * @param ref référence du site.
+     * @param label libellé du site.
+     * @param repair écriture de réparation (cf. PatrimonyRepair), null si
+     * aucune.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void missingPatrimony(Furgent furgent, String aggregateUid, String ref, String label, String repair)
+            throws InterruptedException {
+        nbMissing.incrementAndGet();
+        add(MISSING, "patrimonies", furgent.getUnum(), furgent.getUuid(), aggregateUid, ref, label, null, null, repair);
+    }
+
+    /**
+     * Enregistre une société absente de la base MongoDb.
+     *
+     * @param furgent client Informix.
+     * @param aggregateUid identifiant attendu de la société.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void missingCompany(Furgent furgent, String aggregateUid) throws InterruptedException {
+        nbMissing.incrementAndGet();
+        add(MISSING, "companies", furgent.getUnum(), furgent.getUuid(), aggregateUid, null, furgent.getUname(), null, null, null);
+    }
+
+    /**
+     * Enregistre un patrimoine dont la référence ou le libellé diffère du
+     * site.
+     *
+     * @param furgent client du site.
+     * @param aggregateUid identifiant du patrimoine.
+     * @param ref référence du site.
+     * @param label libellé du site.
+     * @param mongoRef référence du patrimoine.
+     * @param mongoLabel libellé du patrimoine.
+     * @param repair écriture de réparation (cf. PatrimonyRepair), null si
+     * aucune.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void driftedPatrimony(Furgent furgent, String aggregateUid, String ref, String label,
+            String mongoRef, String mongoLabel, String repair) throws InterruptedException {
+        nbDrifted.incrementAndGet();
+        add(DRIFTED, "patrimonies", furgent.getUnum(), furgent.getUuid(), aggregateUid, ref, label, mongoRef, mongoLabel, repair);
+    }
+
+    /**
+     * Enregistre un patrimoine de la base MongoDb sans site Informix.
+     *
+     * @param uid identifiant du patrimoine.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void orphanedPatrimony(String uid) throws InterruptedException {
+        nbOrphaned.incrementAndGet();
+        add(ORPHANED, "patrimonies", null, null, uid, null, null, null, null, null);
+    }
+
+    /**
+     * Met en forme un écart et le dépose dans la file d'écriture.
+     */
+    private void add(String type, String collection, Integer unum, String clientUuid,
+            String uid, String ref, String label, String mongoRef, String mongoLabel, String repair)
+            throws InterruptedException {
+        String[] values;
+        StringBuilder line;
+        int i;
+
+        values = new String[]{type, collection, unum != null ? unum.toString() : null, clientUuid,
+            uid, ref, label, mongoRef, mongoLabel, repair};
+        line = new StringBuilder(256);
+        if (csv) {
+            for (i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(';');
+                }
+                appendCsv(line, values[i]);
+            }
+        } else {
+            line.append('{');
+            for (i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    if (line.length() > 1) {
+                        line.append(',');
+                    }
+                    line.append('"').append(COLUMNS[i]).append("\":");
+                    if (i == 2) {
+                        line.append(values[i]);
+                    } else {
+                        line.append('"').append(JsonStringEncoder.getInstance().quoteAsString(values[i])).append('"');
+                    }
+                }
+            }
+            line.append('}');
+        }
+        lines.put(line.toString());
+    }
+
+    /**
+     * Ajoute une valeur au format CSV, entre guillemets si nécessaire.
+     */
+    private static void appendCsv(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(';') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            line.append('"').append(value.replace("\"", "\"\"")).append('"');
+        } else {
+            line.append(value);
+        }
+    }
+
+    /**
+     * Attend l'écriture de toutes les lignes et ferme le fichier.
+     *
+     * @throws IOException en cas d'erreur d'écriture du fichier.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void close() throws IOException, InterruptedException {
+        if (writerThread.isAlive()) {
+            lines.put(END_OF_REPORT);
+            writerThread.join();
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    /**
+     * @return le nom du fichier des écarts.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return le nombre de patrimoines ou de sociétés absents.
+     */
+    public int getNbMissing() {
+        return nbMissing.get();
+    }
+
+    /**
+     * @return le nombre de patrimoines modifiés.
+     */
+    public int getNbDrifted() {
+        return nbDrifted.get();
+    }
+
+    /**
+     * @return le nombre de patrimoines sans site Informix.
+     */
+    public int getNbOrphaned() {
+        return nbOrphaned.get();
+    }
+
+    /**
+     * Retourne le contenu de DiscrepancyReport.
+     *
+     * @return le contenu de DiscrepancyReport.
+     */
+    @Override
+    public String toString() {
+        return "DiscrepancyReport:{"
+                + "filename:" + filename
+                + ", format:" + (csv ? "csv" : "jsonl")
+                + ", nbMissing:" + getNbMissing()
+                + ", nbDrifted:" + getNbDrifted()
+                + ", nbOrphaned:" + getNbOrphaned()
+                + "}";
+    }
+}
@@ -0,0 +1,471 @@
+package synccollections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Classe qui trie des enregistrements sur leur premier champ (la clé) dans
+ * une mémoire bornée.
+ * <p>
+ * Les enregistrements sont accumulés en mémoire jusqu'au budget alloué, puis
+ * triés et écrits dans un fichier temporaire (une « série »). A la lecture,
+ * les séries sont fusionnées en une seule passe, au plus MAX_FANIN à la
+ * fois : au-delà, des fusions intermédiaires regroupent d'abord les séries.
+ * La mémoire utilisée reste ainsi bornée par le budget, plus un tampon de
+ * lecture par série fusionnée, quel que soit le nombre d'enregistrements. Si
+ * tout tient dans le budget, aucun fichier n'est écrit.</p>
+ * <p>
+ * Les fichiers temporaires sont supprimés par close().</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.28
+ */
+public class ExternalSorter {
+
+    /**
+     * Nombre maximal de séries fusionnées à la fois.
+     */
+    public static final int MAX_FANIN = 64;
+
+    /**
+     * Taille des tampons de lecture et d'écriture des séries, en octets.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Encombrement estimé d'un enregistrement en mémoire, hors contenu des
+     * champs, en octets.
+     */
+    private static final int RECORD_OVERHEAD = 32;
+
+    /**
+     * Encombrement estimé d'un champ en mémoire, hors caractères, en octets.
+     */
+    private static final int FIELD_OVERHEAD = 48;
+
+    /**
+     * Ordre des enregistrements : par clé croissante, absente en premier.
+     */
+    private static final Comparator<String[]> KEY_ORDER = new Comparator<String[]>() {
+        @Override
+        public int compare(String[] record1, String[] record2) {
+            return compareKeys(record1[0], record2[0]);
+        }
+    };
+
+    /**
+     * Nom du tri, repris dans le nom des fichiers temporaires.
+     */
+    private final String name;
+
+    /**
+     * Nombre de champs des enregistrements.
+     */
+    private final int nbFields;
+
+    /**
+     * Mémoire allouée aux enregistrements en attente, en octets.
+     */
+    private final long memoryBudget;
+
+    /**
+     * Mesure de la durée des tris et des écritures de séries.
+     */
+    private final SyncMetrics.Phase spillPhase;
+
+    /**
+     * Enregistrements en attente, pas encore écrits dans une série.
+     */
+    private ArrayList<String[]> buffer = new ArrayList<>();
+
+    /**
+     * Encombrement estimé des enregistrements en attente, en octets.
+     */
+    private long bufferSize = 0;
+
+    /**
+     * Séries écrites, triées chacune par clé croissante.
+     */
+    private final ArrayDeque<File> runs = new ArrayDeque<>();
+
+    /**
+     * Séries ouvertes en lecture, fermées par close().
+     */
+    private final ArrayList<RunReader> runReaders = new ArrayList<>();
+
+    /**
+     * Nombre d'enregistrements ajoutés.
+     */
+    private long nbRecords = 0;
+
+    /**
+     * Nombre de séries écrites, fusions intermédiaires comprises.
+     */
+    private int nbRuns = 0;
+
+    /**
+     * Indique si le tri est terminé : aucun enregistrement ne peut plus être
+     * ajouté.
+     */
+    private boolean sorted = false;
+
+    /**
+     * Constructeur de la classe ExternalSorter.
+     *
+     * @param name nom du tri, repris dans le nom des fichiers temporaires.
+     * @param nbFields nombre de champs des enregistrements, clé comprise.
+     * @param memoryBudget mémoire allouée aux enregistrements en attente, en
+     * octets.
+     * @param spillPhase mesure de la durée des tris et des écritures de
+     * séries.
+     */
+    public ExternalSorter(String name, int nbFields, long memoryBudget, SyncMetrics.Phase spillPhase) {
+        this.name = name;
+        this.nbFields = nbFields;
+        this.memoryBudget = memoryBudget;
+        this.spillPhase = spillPhase;
+    }
+
+    /**
+     * Ajoute un enregistrement. Le budget atteint, les enregistrements en
+     * attente sont triés et écrits dans une nouvelle série.
+     *
+     * @param record enregistrement, de nbFields champs dont le premier est la
+     * clé ; les champs peuvent être absents (null).
+     * @throws IOException en cas d'erreur d'écriture de la série.
+     */
+    public synchronized void add(String... record) throws IOException {
+        if (sorted) {
+            throw new IllegalStateException("Tri " + name + " déjà terminé");
+        }
+        if (record.length != nbFields) {
+            throw new IllegalArgumentException("Enregistrement de " + record.length + " champ(s) au lieu de " + nbFields);
+        }
+        buffer.add(record);
+        nbRecords++;
+        bufferSize += RECORD_OVERHEAD;
+        for (String field : record) {
+            bufferSize += FIELD_OVERHEAD + (field != null ? 2 * field.length() : 0);
+        }
+        if (bufferSize >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Termine le tri et retourne les enregistrements par clé croissante. A
+     * appeler une seule fois, après le dernier ajout.
+     *
+     * @return la lecture des enregistrements triés.
+     * @throws IOException en cas d'erreur de lecture ou d'écriture des
+     * séries.
+     */
+    public synchronized Records sort() throws IOException {
+        final ArrayList<String[]> records;
+        ArrayList<RunReader> readers;
+
+        if (sorted) {
+            throw new IllegalStateException("Tri " + name + " déjà terminé");
+        }
+        sorted = true;
+        if (runs.isEmpty()) {
+            records = buffer;
+            buffer = new ArrayList<>();
+            bufferSize = 0;
+            Collections.sort(records, KEY_ORDER);
+            return new Records() {
+                private int index = 0;
+
+                @Override
+                public String[] next() {
+                    return index < records.size() ? records.get(index++) : null;
+                }
+            };
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        while (runs.size() > MAX_FANIN) {
+            readers = openRuns(MAX_FANIN);
+            try {
+                writeRun(merge(readers));
+            } finally {
+                closeRuns(readers);
+            }
+        }
+        return merge(openRuns(runs.size()));
+    }
+
+    /**
+     * Ferme les séries ouvertes et supprime tous les fichiers temporaires.
+     * Aucun enregistrement ne peut plus être ajouté.
+     */
+    public synchronized void close() {
+        sorted = true;
+        closeRuns(runReaders);
+        for (File run : runs) {
+            if (!run.delete()) {
+                run.deleteOnExit();
+            }
+        }
+        runs.clear();
+        buffer = new ArrayList<>();
+        bufferSize = 0;
+    }
+
+    /**
+     * Trie les enregistrements en attente et les écrit dans une nouvelle
+     * série.
+     */
+    private void spill() throws IOException {
+        final ArrayList<String[]> records;
+        long start;
+
+        start = System.nanoTime();
+        records = buffer;
+        buffer = new ArrayList<>();
+        bufferSize = 0;
+        Collections.sort(records, KEY_ORDER);
+        writeRun(new Records() {
+            private int index = 0;
+
+            @Override
+            public String[] next() {
+                return index < records.size() ? records.get(index++) : null;
+            }
+        });
+        spillPhase.record(start);
+    }
+
+    /**
+     * Ecrit des enregistrements déjà triés dans une nouvelle série, ajoutée
+     * à la fin des séries à fusionner.
+     */
+    private void writeRun(Records records) throws IOException {
+        File run;
+        DataOutputStream output;
+        String[] record;
+
+        run = File.createTempFile("SyncCollections." + name + ".", ".run");
+        runs.addLast(run);
+        nbRuns++;
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+        try {
+            while ((record = records.next()) != null) {
+                for (String field : record) {
+                    output.writeBoolean(field != null);
+                    if (field != null) {
+                        output.writeUTF(field);
+                    }
+                }
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Ouvre en lecture les premières séries et les retire de la liste des
+     * séries à fusionner ; elles sont supprimées à leur fermeture.
+     */
+    private ArrayList<RunReader> openRuns(int count) throws IOException {
+        ArrayList<RunReader> readers;
+        RunReader runReader;
+
+        readers = new ArrayList<>();
+        while (readers.size() < count) {
+            runReader = new RunReader(runs.removeFirst());
+            readers.add(runReader);
+            runReaders.add(runReader);
+        }
+        return readers;
+    }
+
+    /**
+     * Ferme des séries et supprime leurs fichiers.
+     */
+    private void closeRuns(ArrayList<RunReader> readers) {
+        for (RunReader runReader : readers) {
+            runReader.close();
+        }
+        runReaders.removeAll(readers);
+    }
+
+    /**
+     * Fusionne des séries : l'enregistrement suivant est toujours celui de
+     * plus petite clé parmi les séries ouvertes.
+     */
+    private Records merge(ArrayList<RunReader> readers) throws IOException {
+        final PriorityQueue<RunReader> queue;
+
+        queue = new PriorityQueue<>(readers.size(), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader reader1, RunReader reader2) {
+                return compareKeys(reader1.current[0], reader2.current[0]);
+            }
+        });
+        for (RunReader runReader : readers) {
+            if (runReader.advance()) {
+                queue.add(runReader);
+            }
+        }
+        return new Records() {
+            @Override
+            public String[] next() throws IOException {
+                RunReader runReader;
+                String[] record;
+
+                if ((runReader = queue.poll()) == null) {
+                    return null;
+                }
+                record = runReader.current;
+                if (runReader.advance()) {
+                    queue.add(runReader);
+                }
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Compare deux clés, une clé absente précédant toutes les autres.
+     *
+     * @param key1 première clé, éventuellement null.
+     * @param key2 seconde clé, éventuellement null.
+     * @return un entier négatif, nul ou positif selon que key1 précède, égale
+     * ou suit key2.
+     */
+    public static int compareKeys(String key1, String key2) {
+        if (key1 == null) {
+            return key2 == null ? 0 : -1;
+        }
+        return key2 == null ? 1 : key1.compareTo(key2);
+    }
+
+    /**
+     * @return le nombre d'enregistrements ajoutés.
+     */
+    public synchronized long getNbRecords() {
+        return nbRecords;
+    }
+
+    /**
+     * @return le nombre de séries écrites, fusions intermédiaires comprises,
+     * 0 si tout a tenu en mémoire.
+     */
+    public synchronized int getNbRuns() {
+        return nbRuns;
+    }
+
+    /**
+     * Retourne le contenu de ExternalSorter.
+     *
+     * @return le contenu de ExternalSorter.
+     */
+    @Override
+    public synchronized String toString() {
+        return "ExternalSorter:{"
+                + "name:" + name
+                + ", memoryBudget:" + memoryBudget
+                + ", records:" + nbRecords
+                + ", runs:" + nbRuns
+                + "}";
+    }
+
+    /**
+     * Lecture d'enregistrements triés par clé croissante.
+     */
+    public interface Records {
+
+        /**
+         * @return l'enregistrement suivant, null après le dernier.
+         * @throws IOException en cas d'erreur de lecture d'une série.
+         */
+        public String[] next() throws IOException;
+    }
+
+    /**
+     * Lecture d'une série, enregistrement par enregistrement.
+     */
+    private class RunReader {
+
+        /**
+         * Fichier de la série.
+         */
+        private final File run;
+
+        /**
+         * Flux de lecture de la série, null une fois fermée.
+         */
+        private DataInputStream input;
+
+        /**
+         * Enregistrement courant, null en fin de série.
+         */
+        private String[] current = null;
+
+        /**
+         * Ouvre une série en lecture.
+         */
+        private RunReader(File run) throws IOException {
+            this.run = run;
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+        }
+
+        /**
+         * Lit l'enregistrement suivant de la série.
+         *
+         * @return false en fin de série, qui est alors fermée.
+         */
+        private boolean advance() throws IOException {
+            String[] record;
+
+            if (input == null) {
+                current = null;
+                return false;
+            }
+            record = new String[nbFields];
+            try {
+                record[0] = input.readBoolean() ? input.readUTF() : null;
+            } catch (EOFException exception) {
+                close();
+                current = null;
+                return false;
+            }
+            for (int i = 1; i < nbFields; i++) {
+                record[i] = input.readBoolean() ? input.readUTF() : null;
+            }
+            current = record;
+            return true;
+        }
+
+        /**
+         * Ferme la série et supprime son fichier.
+         */
+        private void close() {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException exception) {
+                    System.out.println("Erreur : fermeture de la série " + run.getPath() + " : " + exception.getMessage());
+                }
+                input = null;
+                if (!run.delete()) {
+                    run.deleteOnExit();
+                }
+            }
+        }
+    }
+}
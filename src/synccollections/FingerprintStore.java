@@ -0,0 +1,380 @@
+package synccollections;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Classe qui conserve localement, dans un fichier projeté en mémoire,
+ * l'empreinte des champs comparés de chaque site Informix trouvé à l'identique
+ * dans la base MongoDb, indexée par l'identifiant du patrimoine (MD5).
+ * <p>
+ * Lors d'une exécution suivante, un site dont l'empreinte n'a pas changé peut
+ * être considéré comme synchronisé sans interroger la base MongoDb.</p>
+ * <p>
+ * Format du fichier : un en-tête (signature, capacité, nombre d'entrées) suivi
+ * d'une table à adressage ouvert d'entrées de 24 octets (poids forts et poids
+ * faibles du MD5, empreinte). Une entrée dont le MD5 vaut zéro est libre.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class FingerprintStore {
+
+    /**
+     * Signature du fichier.
+     */
+    private static final long MAGIC = 0x5379634650763032L;
+
+    /**
+     * Signature des fichiers dont les empreintes ignoraient les espaces
+     * multiples et la casse : ils sont vidés à l'ouverture.
+     */
+    private static final long NORMALIZED_MAGIC = 0x5379634650763031L;
+
+    /**
+     * Taille de l'en-tête en octets.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Taille d'une entrée en octets.
+     */
+    private static final int ENTRY_SIZE = 24;
+
+    /**
+     * Capacité initiale de la table.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * Capacité maximale de la table (fichier inférieur à 2 Go).
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /**
+     * Taux de remplissage maximum de la table.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+
+    /**
+     * Fichier des empreintes.
+     */
+    private final File file;
+
+    /**
+     * Accès au fichier des empreintes.
+     */
+    private RandomAccessFile randomAccessFile;
+
+    /**
+     * Projection en mémoire du fichier des empreintes.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Capacité de la table.
+     */
+    private int capacity;
+
+    /**
+     * Nombre d'entrées dans la table.
+     */
+    private int size;
+
+    /**
+     * Constructeur de la classe FingerprintStore. Ouvre le fichier des
+     * empreintes ou le crée s'il n'existe pas.
+     *
+     * @param filename nom du fichier des empreintes.
+     * @throws IOException en cas d'erreur d'accès au fichier.
+     */
+    public FingerprintStore(String filename) throws IOException {
+        file = new File(filename);
+        if (file.exists() && file.length() >= HEADER_SIZE) {
+            map(file.length());
+            if (buffer.getLong(0) == NORMALIZED_MAGIC) {
+                System.out.println("Empreintes " + filename + " d'une version précédente, tous les sites sont recherchés");
+                randomAccessFile.close();
+                create(INITIAL_CAPACITY);
+            } else if (buffer.getLong(0) != MAGIC) {
+                close();
+                throw new IOException("Fichier d'empreintes invalide : " + filename);
+            } else {
+                capacity = buffer.getInt(8);
+                size = buffer.getInt(12);
+            }
+        } else {
+            create(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Projette le fichier en mémoire.
+     */
+    private void map(long length) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(length);
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * Crée une table vide de la capacité donnée.
+     */
+    private void create(int newCapacity) throws IOException {
+        int offset;
+        int length;
+
+        capacity = newCapacity;
+        size = 0;
+        length = HEADER_SIZE + capacity * ENTRY_SIZE;
+        map(length);
+        for (offset = 0; offset < length; offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, size);
+    }
+
+    /**
+     * Retourne la position d'un identifiant dans la table, ou de la case libre
+     * où il serait rangé.
+     */
+    private int find(long high, long low) {
+        int slot;
+        int offset;
+
+        slot = (int) (low ^ (low >>> 32) ^ high) & (capacity - 1);
+        while (true) {
+            offset = HEADER_SIZE + slot * ENTRY_SIZE;
+            if ((buffer.getLong(offset) == 0 && buffer.getLong(offset + 8) == 0)
+                    || (buffer.getLong(offset) == high && buffer.getLong(offset + 8) == low)) {
+                return offset;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    /**
+     * Retourne l'empreinte mémorisée pour un identifiant.
+     *
+     * @param aggregateUid identifiant du patrimoine (MD5).
+     * @return l'empreinte mémorisée, 0 si aucune.
+     */
+    public synchronized long get(String aggregateUid) {
+        long high;
+        long low;
+        int offset;
+
+        if (!UidSet.isMd5(aggregateUid)) {
+            return 0;
+        }
+        high = UidSet.parseHex(aggregateUid, 0);
+        low = UidSet.parseHex(aggregateUid, 16);
+        offset = find(high, low);
+        if (buffer.getLong(offset) == high && buffer.getLong(offset + 8) == low) {
+            return buffer.getLong(offset + 16);
+        }
+        return 0;
+    }
+
+    /**
+     * Mémorise l'empreinte d'un identifiant.
+     *
+     * @param aggregateUid identifiant du patrimoine (MD5).
+     * @param fingerprint empreinte des champs comparés.
+     * @throws IOException en cas d'erreur d'agrandissement du fichier.
+     */
+    public synchronized void put(String aggregateUid, long fingerprint) throws IOException {
+        long high;
+        long low;
+        int offset;
+
+        if (!UidSet.isMd5(aggregateUid)) {
+            return;
+        }
+        high = UidSet.parseHex(aggregateUid, 0);
+        low = UidSet.parseHex(aggregateUid, 16);
+        if (high == 0 && low == 0) {
+            return;
+        }
+        if (size + 1 > capacity * LOAD_FACTOR) {
+            grow();
+        }
+        offset = find(high, low);
+        if (buffer.getLong(offset) == 0 && buffer.getLong(offset + 8) == 0) {
+            buffer.putLong(offset, high);
+            buffer.putLong(offset + 8, low);
+            size++;
+            buffer.putInt(12, size);
+        }
+        buffer.putLong(offset + 16, fingerprint);
+    }
+
+    /**
+     * Oublie l'empreinte d'un identifiant.
+     *
+     * @param aggregateUid identifiant du patrimoine (MD5).
+     */
+    public synchronized void remove(String aggregateUid) {
+        long high;
+        long low;
+        int offset;
+        int next;
+        int slot;
+        int ideal;
+        long entryHigh;
+        long entryLow;
+
+        if (!UidSet.isMd5(aggregateUid)) {
+            return;
+        }
+        high = UidSet.parseHex(aggregateUid, 0);
+        low = UidSet.parseHex(aggregateUid, 16);
+        offset = find(high, low);
+        if (buffer.getLong(offset) != high || buffer.getLong(offset + 8) != low) {
+            return;
+        }
+        clear(offset);
+        size--;
+        buffer.putInt(12, size);
+
+        // Replace les entrées suivantes de la même grappe pour ne pas
+        // interrompre leur chaîne de recherche.
+        slot = (offset - HEADER_SIZE) / ENTRY_SIZE;
+        next = (slot + 1) & (capacity - 1);
+        while (true) {
+            offset = HEADER_SIZE + next * ENTRY_SIZE;
+            entryHigh = buffer.getLong(offset);
+            entryLow = buffer.getLong(offset + 8);
+            if (entryHigh == 0 && entryLow == 0) {
+                break;
+            }
+            ideal = find(entryHigh, entryLow);
+            if (ideal != offset) {
+                buffer.putLong(ideal, entryHigh);
+                buffer.putLong(ideal + 8, entryLow);
+                buffer.putLong(ideal + 16, buffer.getLong(offset + 16));
+                clear(offset);
+            }
+            next = (next + 1) & (capacity - 1);
+        }
+    }
+
+    /**
+     * Libère une entrée.
+     */
+    private void clear(int offset) {
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, 0);
+        buffer.putLong(offset + 16, 0);
+    }
+
+    /**
+     * Double la capacité de la table en recopiant les entrées.
+     */
+    private void grow() throws IOException {
+        long[] entries;
+        int oldCapacity;
+        int offset;
+        int count;
+        int i;
+
+        oldCapacity = capacity;
+        if (oldCapacity >= MAX_CAPACITY) {
+            throw new IOException("Fichier d'empreintes plein : " + file.getPath());
+        }
+        entries = new long[3 * size];
+        count = 0;
+        for (i = 0; i < oldCapacity; i++) {
+            offset = HEADER_SIZE + i * ENTRY_SIZE;
+            if (buffer.getLong(offset) != 0 || buffer.getLong(offset + 8) != 0) {
+                entries[count++] = buffer.getLong(offset);
+                entries[count++] = buffer.getLong(offset + 8);
+                entries[count++] = buffer.getLong(offset + 16);
+            }
+        }
+        randomAccessFile.close();
+        create(2 * oldCapacity);
+        for (i = 0; i < count; i += 3) {
+            offset = find(entries[i], entries[i + 1]);
+            buffer.putLong(offset, entries[i]);
+            buffer.putLong(offset + 8, entries[i + 1]);
+            buffer.putLong(offset + 16, entries[i + 2]);
+            size++;
+        }
+        buffer.putInt(12, size);
+    }
+
+    /**
+     * Calcule l'empreinte des champs comparés (FNV-1a 64 bits), sur leurs
+     * valeurs brutes : un changement de casse ou d'espaces change
+     * l'empreinte, comme il fait diverger le patrimoine de son site.
+     *
+     * @param ref référence du patrimoine.
+     * @param label libellé du patrimoine.
+     * @return l'empreinte, jamais nulle.
+     */
+    public static long fingerprint(String ref, String label) {
+        long hash;
+
+        hash = 0xcbf29ce484222325L;
+        hash = hash(hash, ref);
+        hash = (hash ^ 0x1f) * 0x100000001b3L;
+        hash = hash(hash, label);
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Ajoute une chaîne à une empreinte, une chaîne absente se distinguant
+     * d'une chaîne vide.
+     */
+    private static long hash(long hash, String value) {
+        int i;
+
+        if (value == null) {
+            return (hash ^ 0x1e) * 0x100000001b3L;
+        }
+        for (i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Force l'écriture du fichier sur disque et le ferme.
+     *
+     * @throws IOException en cas d'erreur de fermeture.
+     */
+    public synchronized void close() throws IOException {
+        if (randomAccessFile != null) {
+            buffer.force();
+            randomAccessFile.close();
+            randomAccessFile = null;
+        }
+    }
+
+    /**
+     * @return le nombre d'empreintes mémorisées.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Retourne le contenu de FingerprintStore.
+     *
+     * @return le contenu de FingerprintStore.
+     */
+    @Override
+    public String toString() {
+        return "FingerprintStore:{"
+                + "file:" + file.getPath()
+                + ", capacity:" + capacity
+                + ", size:" + size()
+                + "}";
+    }
+}
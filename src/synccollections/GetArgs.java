@@ -1,16 +1,23 @@
 package synccollections;
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
 /*
  * Cette classe sert à vérifier et à récupérer les arguments passés en ligne de
  * commande au programme SyncCollections.
  * @author Thierry Baribaud
- * @version 0.06
+ * @version 0.31
  */
 public class GetArgs {
 
     /**
      * mongoDbServerType : prod pour le serveur de production, pre-prod pour le
-     * serveur de pré-production. Valeur par défaut : pre-prod.
+     * serveur de pré-production, local pour la base de test de SyncLoadTest.
+     * Valeur par défaut : pre-prod.
      */
     private String mongoDbServerType = "pre-prod";
 
@@ -32,6 +39,128 @@ public class GetArgs {
      */
     private String clientCompanyUuid = null;
 
+    /**
+     * clientCompanyUuids : identifiants des clients pour lesquels lire le
+     * patrimoine. Vaut null pour lire le patrimoine de tous les clients.
+     */
+    private ArrayList<String> clientCompanyUuids = null;
+
+    /**
+     * readCompanies : demande la synchronisation des sociétés (true/false).
+     * Valeur par défaut : false.
+     */
+    private boolean readCompanies = false;
+
+    /**
+     * batchSize : nombre d'identifiants recherchés ou d'écritures envoyées par
+     * requête MongoDb. Valeur par défaut : 100.
+     */
+    private int batchSize = 100;
+
+    /**
+     * strategy : stratégie de rapprochement des patrimoines
+     * (lookup/hash/sort). Valeur par défaut : lookup.
+     */
+    private String strategy = "lookup";
+
+    /**
+     * sortMemory : mémoire allouée au tri des identifiants avec la stratégie
+     * sort, en mégaoctets. Valeur par défaut : 64.
+     */
+    private int sortMemory = 64;
+
+    /**
+     * fullScan : force la relecture complète des tables Informix, sans tenir
+     * compte des clés déjà traitées (true/false). Valeur par défaut : false.
+     */
+    private boolean fullScan = false;
+
+    /**
+     * incremental : ne traite que les sites et les clients de clé supérieure
+     * à la dernière clé mémorisée, c'est-à-dire créés depuis la dernière
+     * exécution réussie (true/false). Valeur par défaut : false.
+     */
+    private boolean incremental = false;
+
+    /**
+     * fingerprints : détecte les sites modifiés à l'aide des empreintes
+     * mémorisées (true/false). Valeur par défaut : false.
+     */
+    private boolean fingerprints = false;
+
+    /**
+     * pipeline : lit les sites Informix en parallèle de leur recherche dans
+     * la base MongoDb (true/false). Valeur par défaut : false.
+     */
+    private boolean pipeline = false;
+
+    /**
+     * repair : réécrit les patrimoines absents ou modifiés à partir des sites
+     * Informix (true/false). Valeur par défaut : false.
+     */
+    private boolean repair = false;
+
+    /**
+     * partitionIndex : numéro de la partition traitée, de 1 à partitionCount.
+     * Valeur par défaut : 1.
+     */
+    private int partitionIndex = 1;
+
+    /**
+     * partitionCount : nombre de processus se partageant la synchronisation.
+     * Valeur par défaut : 1.
+     */
+    private int partitionCount = 1;
+
+    /**
+     * partitionBy : critère de répartition entre les processus (unum/uid).
+     * Valeur par défaut : unum.
+     */
+    private String partitionBy = SyncPartition.BY_UNUM;
+
+    /**
+     * exportFilename : nom de l'instantané à écrire, null pour ne pas en
+     * écrire.
+     */
+    private String exportFilename = null;
+
+    /**
+     * snapshotFilename : nom de l'instantané à lire au lieu de la base
+     * Informix, null pour lire la base Informix.
+     */
+    private String snapshotFilename = null;
+
+    /**
+     * resume : reprend une synchronisation interrompue à partir de son point
+     * de reprise (true/false). Valeur par défaut : false.
+     */
+    private boolean resume = false;
+
+    /**
+     * daemonInterval : intervalle entre deux synchronisations en mode démon,
+     * en secondes, 0 pour une seule synchronisation. Valeur par défaut : 0.
+     */
+    private int daemonInterval = 0;
+
+    /**
+     * changes : applique les modifications enregistrées dans le journal des
+     * modifications Informix au lieu de comparer les tables (true/false).
+     * Valeur par défaut : false.
+     */
+    private boolean changes = false;
+
+    /**
+     * changesLag : ancienneté minimale des lignes lues dans le journal des
+     * modifications, en secondes. Valeur par défaut : ChangeCapture.DEFAULT_LAG.
+     */
+    private int changesLag = ChangeCapture.DEFAULT_LAG;
+
+    /**
+     * reportFilename : nom du fichier des écarts, null pour le nom par
+     * défaut.
+     */
+    private String reportFilename = null;
+
     /**
      * debugMode : fonctionnement du programme en mode debug (true/false).
      * Valeur par défaut : false.
@@ -106,7 +235,7 @@ public class GetArgs {
             ip1 = i + 1;
             if (args[i].equals("-mgodb")) {
                 if (ip1 < n) {
-                    if (args[ip1].equals("pre-prod") || args[ip1].equals("prod")) {
+                    if (args[ip1].equals("pre-prod") || args[ip1].equals("prod") || args[ip1].equals("local")) {
                         setMongoDbServerType(args[ip1]);
                     } else {
                         usage();
@@ -134,12 +263,154 @@ public class GetArgs {
             } else if (args[i].equals("-patrimonies")) {
                 readPatrimonies = true;
                 if (ip1 < n) {
-                    clientCompanyUuid = args[ip1];
+                    setClientCompanyUuids(args[ip1]);
                     i = ip1;
                 } else {
                     usage();
                     throw new GetArgsException("Identifiant du client non défini");
                 }
+            } else if (args[i].equals("-companies")) {
+                setReadCompanies(true);
+            } else if (args[i].equals("-batchsize")) {
+                if (ip1 < n) {
+                    try {
+                        setBatchSize(Integer.parseInt(args[ip1]));
+                    } catch (NumberFormatException exception) {
+                        usage();
+                        throw new GetArgsException("Taille de lot invalide : " + args[ip1]);
+                    }
+                    if (getBatchSize() < 1) {
+                        usage();
+                        throw new GetArgsException("Taille de lot invalide : " + args[ip1]);
+                    }
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Taille de lot non définie");
+                }
+            } else if (args[i].equals("-strategy")) {
+                if (ip1 < n) {
+                    if (args[ip1].equals("lookup") || args[ip1].equals("hash") || args[ip1].equals("sort")) {
+                        setStrategy(args[ip1]);
+                    } else {
+                        usage();
+                        throw new GetArgsException("Mauvaise stratégie de rapprochement : " + args[ip1]);
+                    }
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Stratégie de rapprochement non définie");
+                }
+            } else if (args[i].equals("-sortmemory")) {
+                if (ip1 < n) {
+                    try {
+                        setSortMemory(Integer.parseInt(args[ip1]));
+                    } catch (NumberFormatException exception) {
+                        usage();
+                        throw new GetArgsException("Mémoire de tri invalide : " + args[ip1]);
+                    }
+                    if (getSortMemory() < 1) {
+                        usage();
+                        throw new GetArgsException("Mémoire de tri invalide : " + args[ip1]);
+                    }
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Mémoire de tri non définie");
+                }
+            } else if (args[i].equals("-full")) {
+                setFullScan(true);
+            } else if (args[i].equals("-incremental")) {
+                setIncremental(true);
+            } else if (args[i].equals("-fingerprints")) {
+                setFingerprints(true);
+            } else if (args[i].equals("-pipeline")) {
+                setPipeline(true);
+            } else if (args[i].equals("-repair")) {
+                setRepair(true);
+            } else if (args[i].equals("-partition")) {
+                if (ip1 < n) {
+                    setPartition(args[ip1]);
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Partition non définie");
+                }
+            } else if (args[i].equals("-partitionby")) {
+                if (ip1 < n) {
+                    if (args[ip1].equals(SyncPartition.BY_UNUM) || args[ip1].equals(SyncPartition.BY_UID)) {
+                        setPartitionBy(args[ip1]);
+                    } else {
+                        usage();
+                        throw new GetArgsException("Mauvais critère de répartition : " + args[ip1]);
+                    }
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Critère de répartition non défini");
+                }
+            } else if (args[i].equals("-export")) {
+                if (ip1 < n) {
+                    setExportFilename(args[ip1]);
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Instantané à écrire non défini");
+                }
+            } else if (args[i].equals("-snapshot")) {
+                if (ip1 < n) {
+                    setSnapshotFilename(args[ip1]);
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Instantané à lire non défini");
+                }
+            } else if (args[i].equals("-resume")) {
+                setResume(true);
+            } else if (args[i].equals("-changes")) {
+                setChanges(true);
+            } else if (args[i].equals("-lag")) {
+                if (ip1 < n) {
+                    try {
+                        setChangesLag(Integer.parseInt(args[ip1]));
+                    } catch (NumberFormatException exception) {
+                        usage();
+                        throw new GetArgsException("Retard de lecture du journal invalide : " + args[ip1]);
+                    }
+                    if (getChangesLag() < 0) {
+                        usage();
+                        throw new GetArgsException("Retard de lecture du journal invalide : " + args[ip1]);
+                    }
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Retard de lecture du journal non défini");
+                }
+            } else if (args[i].equals("-daemon")) {
+                if (ip1 < n) {
+                    try {
+                        setDaemonInterval(Integer.parseInt(args[ip1]));
+                    } catch (NumberFormatException exception) {
+                        usage();
+                        throw new GetArgsException("Intervalle invalide : " + args[ip1]);
+                    }
+                    if (getDaemonInterval() < 1) {
+                        usage();
+                        throw new GetArgsException("Intervalle invalide : " + args[ip1]);
+                    }
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Intervalle non défini");
+                }
+            } else if (args[i].equals("-report")) {
+                if (ip1 < n) {
+                    setReportFilename(args[ip1]);
+                    i = ip1;
+                } else {
+                    usage();
+                    throw new GetArgsException("Fichier des écarts non défini");
+                }
             } else if (args[i].equals("-d")) {
                 setDebugMode(true);
             } else if (args[i].equals("-t")) {
@@ -150,14 +421,119 @@ public class GetArgs {
             }
             i++;
         }
+        if (exportFilename != null && snapshotFilename != null) {
+            usage();
+            throw new GetArgsException("Options -export et -snapshot incompatibles");
+        }
+        if (changes && (readPatrimonies || readCompanies || exportFilename != null || snapshotFilename != null)) {
+            usage();
+            throw new GetArgsException("Option -changes incompatible avec -patrimonies, -companies, -export et -snapshot");
+        }
+        if (daemonInterval > 0 && (exportFilename != null || snapshotFilename != null)) {
+            usage();
+            throw new GetArgsException("Option -daemon incompatible avec -export et -snapshot");
+        }
+        if (incremental && fullScan) {
+            usage();
+            throw new GetArgsException("Options -incremental et -full incompatibles");
+        }
+        if (!strategy.equals("lookup") && fingerprints) {
+            usage();
+            throw new GetArgsException("Option -fingerprints uniquement avec -strategy lookup");
+        }
+    }
+
+    /**
+     * Analyse la désignation des clients dont il faut lire le patrimoine : all
+     * pour tous les clients, une liste d'identifiants séparés par des
+     * virgules ou @fichier pour un fichier contenant un identifiant par ligne.
+     *
+     * @param value désignation des clients.
+     * @throws GetArgsException en cas d'erreur sur la désignation.
+     */
+    private void setClientCompanyUuids(String value) throws GetArgsException {
+        BufferedReader bufferedReader;
+        String line;
+
+        clientCompanyUuids = new ArrayList<>();
+        if (value.equals("all")) {
+            clientCompanyUuids = null;
+        } else if (value.startsWith("@")) {
+            try {
+                bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(value.substring(1)), "UTF-8"));
+                try {
+                    while ((line = bufferedReader.readLine()) != null) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            clientCompanyUuids.add(line);
+                        }
+                    }
+                } finally {
+                    bufferedReader.close();
+                }
+            } catch (IOException exception) {
+                usage();
+                throw new GetArgsException("Lecture impossible du fichier des clients : " + value.substring(1));
+            }
+        } else {
+            for (String uuid : value.split(",")) {
+                if (!uuid.trim().isEmpty()) {
+                    clientCompanyUuids.add(uuid.trim());
+                }
+            }
+        }
+        if (clientCompanyUuids != null && clientCompanyUuids.isEmpty()) {
+            usage();
+            throw new GetArgsException("Identifiant du client non défini");
+        }
+        clientCompanyUuid = clientCompanyUuids != null ? clientCompanyUuids.get(0) : null;
+    }
+
+    /**
+     * Analyse la partition à traiter, de la forme k/n avec 1 &lt;= k &lt;= n.
+     *
+     * @param value partition à traiter.
+     * @throws GetArgsException en cas d'erreur sur la partition.
+     */
+    private void setPartition(String value) throws GetArgsException {
+        String[] fields;
+
+        fields = value.split("/");
+        try {
+            if (fields.length != 2) {
+                throw new NumberFormatException(value);
+            }
+            partitionIndex = Integer.parseInt(fields[0].trim());
+            partitionCount = Integer.parseInt(fields[1].trim());
+        } catch (NumberFormatException exception) {
+            usage();
+            throw new GetArgsException("Partition invalide : " + value);
+        }
+        if (partitionCount < 1 || partitionIndex < 1 || partitionIndex > partitionCount) {
+            usage();
+            throw new GetArgsException("Partition invalide : " + value);
+        }
     }
 
     /**
      * Affiche le mode d'utilisation du programme.
      */
     public static void usage() {
-        System.out.println("Usage : java SyncCollections -mgodb prod|pre-prod|prod2|pre-prod2 -ifxdb prod|pre-prod"
-                + " [-patrimonies clientCompanyUuid]"
+        System.out.println("Usage : java SyncCollections -mgodb prod|pre-prod|local -ifxdb prod|pre-prod|prod2|pre-prod2"
+                + " [-patrimonies all|clientCompanyUuid[,clientCompanyUuid...]|@fichier]"
+                + " [-companies]"
+                + " [-changes [-lag secondes]]"
+                + " [-batchsize n]"
+                + " [-strategy lookup|hash|sort [-sortmemory Mo]]"
+                + " [-full|-incremental]"
+                + " [-fingerprints]"
+                + " [-pipeline]"
+                + " [-repair]"
+                + " [-partition k/n [-partitionby unum|uid]]"
+                + " [-export fichier|-snapshot fichier]"
+                + " [-resume]"
+                + " [-daemon secondes]"
+                + " [-report fichier]"
                 + " [-d] [-t]");
     }
 
@@ -204,6 +580,276 @@ public class GetArgs {
         this.clientCompanyUuid = clientCompanyUuid;
     }
 
+    /**
+     * @return les identifiants des clients, null pour tous les clients
+     */
+    public ArrayList<String> getClientCompanyUuids() {
+        return clientCompanyUuids;
+    }
+
+    /**
+     * @return s'il faut synchroniser ou non les sociétés
+     */
+    public boolean getReadCompanies() {
+        return readCompanies;
+    }
+
+    /**
+     * @param readCompanies demande ou non la synchronisation des sociétés
+     */
+    public void setReadCompanies(boolean readCompanies) {
+        this.readCompanies = readCompanies;
+    }
+
+    /**
+     * @return le nombre d'identifiants recherchés par requête MongoDb
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize définit le nombre d'identifiants recherchés par requête
+     * MongoDb
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return la stratégie de rapprochement des patrimoines
+     */
+    public String getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @param strategy définit la stratégie de rapprochement des patrimoines
+     */
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return s'il faut relire complètement les tables Informix
+     */
+    public boolean getFullScan() {
+        return fullScan;
+    }
+
+    /**
+     * @param fullScan demande ou non la relecture complète des tables
+     * Informix
+     */
+    public void setFullScan(boolean fullScan) {
+        this.fullScan = fullScan;
+    }
+
+    /**
+     * @return s'il ne faut traiter que les sites et les clients créés depuis
+     * la dernière exécution réussie
+     */
+    public boolean getIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental demande ou non de ne traiter que les sites et les
+     * clients créés depuis la dernière exécution réussie
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return s'il faut détecter les sites modifiés à l'aide des empreintes
+     */
+    public boolean getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * @param fingerprints demande ou non la détection des sites modifiés à
+     * l'aide des empreintes
+     */
+    public void setFingerprints(boolean fingerprints) {
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * @return s'il faut lire les sites en parallèle de leur recherche
+     */
+    public boolean getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline demande ou non la lecture des sites en parallèle de
+     * leur recherche
+     */
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @return s'il faut réparer les patrimoines absents ou modifiés
+     */
+    public boolean getRepair() {
+        return repair;
+    }
+
+    /**
+     * @param repair demande ou non la réparation des patrimoines absents ou
+     * modifiés
+     */
+    public void setRepair(boolean repair) {
+        this.repair = repair;
+    }
+
+    /**
+     * @return la partition à traiter
+     */
+    public SyncPartition getPartition() {
+        return new SyncPartition(partitionIndex, partitionCount, partitionBy);
+    }
+
+    /**
+     * @return le critère de répartition entre les processus
+     */
+    public String getPartitionBy() {
+        return partitionBy;
+    }
+
+    /**
+     * @param partitionBy définit le critère de répartition entre les
+     * processus
+     */
+    public void setPartitionBy(String partitionBy) {
+        this.partitionBy = partitionBy;
+    }
+
+    /**
+     * @return le nom de l'instantané à écrire, null pour ne pas en écrire
+     */
+    public String getExportFilename() {
+        return exportFilename;
+    }
+
+    /**
+     * @param exportFilename définit le nom de l'instantané à écrire
+     */
+    public void setExportFilename(String exportFilename) {
+        this.exportFilename = exportFilename;
+    }
+
+    /**
+     * @return le nom de l'instantané à lire, null pour lire la base Informix
+     */
+    public String getSnapshotFilename() {
+        return snapshotFilename;
+    }
+
+    /**
+     * @param snapshotFilename définit le nom de l'instantané à lire au lieu
+     * de la base Informix
+     */
+    public void setSnapshotFilename(String snapshotFilename) {
+        this.snapshotFilename = snapshotFilename;
+    }
+
+    /**
+     * @return s'il faut reprendre une synchronisation interrompue
+     */
+    public boolean getResume() {
+        return resume;
+    }
+
+    /**
+     * @param resume demande ou non la reprise d'une synchronisation
+     * interrompue
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * @return s'il faut appliquer les modifications du journal des
+     * modifications Informix
+     */
+    public boolean getChanges() {
+        return changes;
+    }
+
+    /**
+     * @param changes demande ou non l'application des modifications du
+     * journal des modifications Informix
+     */
+    public void setChanges(boolean changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return l'ancienneté minimale des lignes lues dans le journal des
+     * modifications, en secondes
+     */
+    public int getChangesLag() {
+        return changesLag;
+    }
+
+    /**
+     * @param changesLag définit l'ancienneté minimale des lignes lues dans le
+     * journal des modifications, en secondes
+     */
+    public void setChangesLag(int changesLag) {
+        this.changesLag = changesLag;
+    }
+
+    /**
+     * @return l'intervalle entre deux synchronisations en mode démon, en
+     * secondes, 0 pour une seule synchronisation
+     */
+    public int getDaemonInterval() {
+        return daemonInterval;
+    }
+
+    /**
+     * @param daemonInterval définit l'intervalle entre deux synchronisations
+     * en mode démon, en secondes
+     */
+    public void setDaemonInterval(int daemonInterval) {
+        this.daemonInterval = daemonInterval;
+    }
+
+    /**
+     * @return le nom du fichier des écarts, null pour le nom par défaut
+     */
+    public String getReportFilename() {
+        return reportFilename;
+    }
+
+    /**
+     * @param reportFilename définit le nom du fichier des écarts
+     */
+    public void setReportFilename(String reportFilename) {
+        this.reportFilename = reportFilename;
+    }
+
+    /**
+     * @return la mémoire allouée au tri des identifiants avec la stratégie
+     * sort, en mégaoctets
+     */
+    public int getSortMemory() {
+        return sortMemory;
+    }
+
+    /**
+     * @param sortMemory définit la mémoire allouée au tri des identifiants
+     * avec la stratégie sort, en mégaoctets
+     */
+    public void setSortMemory(int sortMemory) {
+        this.sortMemory = sortMemory;
+    }
+
     /**
      * Affiche le contenu de GetArgs.
      *
@@ -215,7 +861,24 @@ public class GetArgs {
                 + "mgodb=" + mongoDbServerType
                 + ", ifxdb=" + informixDbServerType
                 + ", patrimonies:" + getReadPatrimonies()
-                + ", clientCompanyUuid:" + getClientCompanyUuid()
+                + ", clientCompanyUuids:" + (getClientCompanyUuids() != null ? getClientCompanyUuids() : "all")
+                + ", companies:" + getReadCompanies()
+                + ", changes:" + getChanges()
+                + ", changesLag:" + getChangesLag()
+                + ", batchSize:" + getBatchSize()
+                + ", strategy:" + getStrategy()
+                + ", sortMemory:" + getSortMemory()
+                + ", fullScan:" + getFullScan()
+                + ", incremental:" + getIncremental()
+                + ", fingerprints:" + getFingerprints()
+                + ", pipeline:" + getPipeline()
+                + ", repair:" + getRepair()
+                + ", partition:" + getPartition()
+                + ", exportFilename:" + getExportFilename()
+                + ", snapshotFilename:" + getSnapshotFilename()
+                + ", resume:" + getResume()
+                + ", daemonInterval:" + getDaemonInterval()
+                + ", reportFilename:" + getReportFilename()
                 + ", debugMode=" + debugMode
                 + ", testMode=" + testMode
                 + "}";
@@ -0,0 +1,518 @@
+package synccollections;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utils.DBManager;
+import utils.DBServer;
+
+/**
+ * Classe qui partage un nombre borné de connexions Informix, ouvertes par
+ * DBManager, entre la lecture principale et les tâches Informix.
+ * <p>
+ * Si une URL JDBC est donnée (propriété &lt;type&gt;.ifxdb.url), les
+ * connexions sont ouvertes directement à cette URL : une base SQL locale
+ * peut ainsi tenir lieu de base Informix (cf. SyncLoadTest).</p>
+ * <p>
+ * Les connexions peuvent être ouvertes en parallèle dès le lancement
+ * (prewarm), pendant la connexion au serveur MongoDb. Une connexion rendue
+ * est conservée pour la demande suivante ; elle n'est vérifiée auprès du
+ * serveur (isValid) que si elle est restée inutilisée plus de
+ * VALIDATION_INTERVAL secondes, sinon seul son état local est consulté. Une
+ * connexion invalide est fermée et remplacée.</p>
+ * <p>
+ * Chaque connexion conserve ses requêtes préparées par prepareStatement(),
+ * au plus STATEMENT_CACHE_SIZE, les moins récemment utilisées étant fermées
+ * au-delà : une requête répétée n'est préparée qu'une fois par connexion.
+ * Les requêtes des DAO (FurgentDAO, FsiteDAO, ...), préparées par la
+ * bibliothèque, ne passent pas par ce cache.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class InformixConnectionPool {
+
+    /**
+     * Durée d'inutilisation au-delà de laquelle une connexion est vérifiée
+     * auprès du serveur, en secondes.
+     */
+    public static final int VALIDATION_INTERVAL = 30;
+
+    /**
+     * Durée maximale de la vérification d'une connexion, en secondes.
+     */
+    public static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * Nombre maximal de requêtes préparées conservées par connexion.
+     */
+    public static final int STATEMENT_CACHE_SIZE = 32;
+
+    /**
+     * Paramètres du serveur Informix.
+     */
+    private final DBServer ifxServer;
+
+    /**
+     * URL JDBC d'une base tenant lieu de base Informix, null pour ouvrir les
+     * connexions par DBManager.
+     */
+    private final String url;
+
+    /**
+     * Nombre maximal de connexions ouvertes.
+     */
+    private final int size;
+
+    /**
+     * Connexions disponibles, la plus récemment rendue en dernier.
+     */
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+
+    /**
+     * Connexions ouvertes, disponibles ou en cours d'utilisation.
+     */
+    private final IdentityHashMap<Connection, PooledConnection> connections = new IdentityHashMap<>();
+
+    /**
+     * Nombre de connexions en cours d'ouverture.
+     */
+    private int nbOpening = 0;
+
+    /**
+     * Nombre de connexions ouvertes depuis la création.
+     */
+    private int nbOpened = 0;
+
+    /**
+     * Nombre de connexions fermées car invalides ou en erreur.
+     */
+    private int nbDiscarded = 0;
+
+    /**
+     * Nombre de requêtes trouvées dans le cache.
+     */
+    private long nbStatementHits = 0;
+
+    /**
+     * Nombre de requêtes préparées.
+     */
+    private long nbStatementMisses = 0;
+
+    /**
+     * Indique si le groupe est fermé.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructeur de la classe InformixConnectionPool. Aucune connexion
+     * n'est ouverte avant prewarm() ou la première demande.
+     *
+     * @param ifxServer paramètres du serveur Informix.
+     * @param size nombre maximal de connexions ouvertes.
+     */
+    public InformixConnectionPool(DBServer ifxServer, int size) {
+        this(ifxServer, null, size);
+    }
+
+    /**
+     * Constructeur de la classe InformixConnectionPool, pour une base
+     * désignée par son URL JDBC.
+     *
+     * @param ifxServer paramètres du serveur Informix.
+     * @param url URL JDBC de la base, null pour ouvrir les connexions par
+     * DBManager.
+     * @param size nombre maximal de connexions ouvertes.
+     */
+    public InformixConnectionPool(DBServer ifxServer, String url, int size) {
+        this.ifxServer = ifxServer;
+        this.url = url;
+        this.size = size;
+    }
+
+    /**
+     * Ouvre une connexion, par DBManager ou à l'URL JDBC donnée.
+     *
+     * @return la connexion ouverte.
+     * @throws ClassNotFoundException si le pilote JDBC est introuvable.
+     * @throws SQLException en cas d'erreur à l'ouverture de la connexion.
+     */
+    private Connection openConnection() throws ClassNotFoundException, SQLException {
+        return url != null ? DriverManager.getConnection(url) : new DBManager(ifxServer).getConnection();
+    }
+
+    /**
+     * Ouvre toutes les connexions en parallèle, sans attendre. Une erreur
+     * est seulement signalée : la connexion sera ouverte à la demande.
+     *
+     * @param executor groupe de tâches ouvrant les connexions.
+     */
+    public void prewarm(ExecutorService executor) {
+        int count;
+
+        synchronized (this) {
+            count = size - connections.size() - nbOpening;
+            nbOpening += count;
+        }
+        for (int i = 0; i < count; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Connection connection;
+
+                    connection = null;
+                    try {
+                        connection = openConnection();
+                    } catch (ClassNotFoundException | SQLException exception) {
+                        System.out.println("Erreur : ouverture anticipée d'une connexion Informix : " + exception.getMessage());
+                    }
+                    synchronized (InformixConnectionPool.this) {
+                        nbOpening--;
+                        if (connection != null) {
+                            if (closed) {
+                                close(connection);
+                            } else {
+                                nbOpened++;
+                                idle.addLast(register(connection));
+                            }
+                        }
+                        InformixConnectionPool.this.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Retourne une connexion disponible, valide, en l'ouvrant si le nombre
+     * maximal n'est pas atteint, sinon en attendant qu'une connexion soit
+     * rendue.
+     *
+     * @return une connexion, à rendre par release().
+     * @throws ClassNotFoundException si le pilote JDBC est introuvable.
+     * @throws SQLException en cas d'erreur à l'ouverture de la connexion.
+     * @throws InterruptedException si la tâche est interrompue pendant
+     * l'attente.
+     */
+    public Connection acquire() throws ClassNotFoundException, SQLException, InterruptedException {
+        PooledConnection pooledConnection;
+        Connection connection;
+
+        while (true) {
+            pooledConnection = null;
+            synchronized (this) {
+                while (!closed && (pooledConnection = idle.pollLast()) == null && connections.size() + nbOpening >= size) {
+                    wait();
+                }
+                if (closed) {
+                    throw new SQLException("Groupe de connexions Informix fermé");
+                }
+                if (pooledConnection == null) {
+                    nbOpening++;
+                }
+            }
+            if (pooledConnection != null) {
+                if (isValid(pooledConnection)) {
+                    return pooledConnection.connection;
+                }
+                discard(pooledConnection.connection);
+            } else {
+                connection = null;
+                try {
+                    connection = openConnection();
+                } finally {
+                    synchronized (this) {
+                        nbOpening--;
+                        if (connection != null) {
+                            nbOpened++;
+                            register(connection);
+                        }
+                        notifyAll();
+                    }
+                }
+                return connection;
+            }
+        }
+    }
+
+    /**
+     * Rend une connexion obtenue par acquire(). Une connexion fermée entre
+     * temps est retirée du groupe.
+     *
+     * @param connection connexion rendue.
+     */
+    public void release(Connection connection) {
+        PooledConnection pooledConnection;
+        boolean usable;
+
+        try {
+            usable = !connection.isClosed();
+        } catch (SQLException exception) {
+            usable = false;
+        }
+        synchronized (this) {
+            if ((pooledConnection = connections.get(connection)) == null) {
+                return;
+            }
+            if (usable && !closed && !pooledConnection.invalidated) {
+                pooledConnection.lastUsed = System.currentTimeMillis();
+                idle.addLast(pooledConnection);
+                notifyAll();
+                return;
+            }
+        }
+        discard(connection);
+    }
+
+    /**
+     * Ferme une connexion obtenue par acquire(), par exemple après une
+     * erreur de communication. Elle sera remplacée à la demande suivante.
+     *
+     * @param connection connexion à fermer.
+     */
+    public void invalidate(Connection connection) {
+        discard(connection);
+    }
+
+    /**
+     * Ferme les connexions disponibles et marque celles en cours
+     * d'utilisation pour qu'elles soient fermées quand elles seront rendues.
+     * Les suivantes seront rouvertes à la demande.
+     */
+    public void reset() {
+        ArrayList<PooledConnection> discarded;
+
+        synchronized (this) {
+            discarded = new ArrayList<>(idle);
+            idle.clear();
+            for (PooledConnection pooledConnection : connections.values()) {
+                pooledConnection.invalidated = true;
+            }
+        }
+        for (PooledConnection pooledConnection : discarded) {
+            discard(pooledConnection.connection);
+        }
+    }
+
+    /**
+     * Ferme toutes les connexions ; les demandes suivantes sont refusées.
+     */
+    public void close() {
+        ArrayList<PooledConnection> all;
+
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<>(connections.values());
+            connections.clear();
+            idle.clear();
+            notifyAll();
+        }
+        for (PooledConnection pooledConnection : all) {
+            pooledConnection.closeStatements();
+            close(pooledConnection.connection);
+        }
+    }
+
+    /**
+     * Retourne la requête préparée sur une connexion du groupe, depuis son
+     * cache si elle l'a déjà été. La requête ne doit pas être fermée par
+     * l'appelant : elle l'est avec sa connexion.
+     *
+     * @param connection connexion obtenue par acquire().
+     * @param sql requête à préparer.
+     * @return la requête préparée.
+     * @throws SQLException en cas d'erreur de préparation.
+     */
+    public PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        PooledConnection pooledConnection;
+        PreparedStatement preparedStatement;
+
+        synchronized (this) {
+            pooledConnection = connections.get(connection);
+        }
+        if (pooledConnection == null) {
+            throw new SQLException("Connexion Informix hors du groupe");
+        }
+        synchronized (pooledConnection.statements) {
+            if ((preparedStatement = pooledConnection.statements.get(sql)) != null && !preparedStatement.isClosed()) {
+                synchronized (this) {
+                    nbStatementHits++;
+                }
+                return preparedStatement;
+            }
+            preparedStatement = connection.prepareStatement(sql);
+            pooledConnection.statements.put(sql, preparedStatement);
+        }
+        synchronized (this) {
+            nbStatementMisses++;
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Vérifie une connexion : auprès du serveur si elle est restée
+     * inutilisée plus de VALIDATION_INTERVAL secondes, sinon par son seul
+     * état local.
+     */
+    private boolean isValid(PooledConnection pooledConnection) {
+        try {
+            if (pooledConnection.connection.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - pooledConnection.lastUsed > VALIDATION_INTERVAL * 1000L) {
+                return pooledConnection.connection.isValid(VALIDATION_TIMEOUT);
+            }
+            return true;
+        } catch (SQLException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Enregistre une connexion ouverte dans le groupe.
+     *
+     * @return la connexion enregistrée.
+     */
+    private PooledConnection register(Connection connection) {
+        PooledConnection pooledConnection;
+
+        pooledConnection = new PooledConnection(connection);
+        connections.put(connection, pooledConnection);
+        return pooledConnection;
+    }
+
+    /**
+     * Retire une connexion du groupe et la ferme, avec ses requêtes.
+     */
+    private void discard(Connection connection) {
+        PooledConnection pooledConnection;
+
+        synchronized (this) {
+            if ((pooledConnection = connections.remove(connection)) == null) {
+                return;
+            }
+            idle.remove(pooledConnection);
+            nbDiscarded++;
+            notifyAll();
+        }
+        pooledConnection.closeStatements();
+        close(connection);
+    }
+
+    /**
+     * Ferme une connexion, sans signaler d'erreur si elle est déjà rompue.
+     */
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException exception) {
+            Logger.getLogger(InformixConnectionPool.class.getName()).log(Level.WARNING, null, exception);
+        }
+    }
+
+    /**
+     * @return le nombre maximal de connexions ouvertes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes.
+     */
+    public synchronized int getNbOpen() {
+        return connections.size();
+    }
+
+    /**
+     * Retourne le contenu de InformixConnectionPool.
+     *
+     * @return le contenu de InformixConnectionPool.
+     */
+    @Override
+    public synchronized String toString() {
+        return "InformixConnectionPool:{"
+                + "size:" + size
+                + ", open:" + connections.size()
+                + ", idle:" + idle.size()
+                + ", opened:" + nbOpened
+                + ", discarded:" + nbDiscarded
+                + ", statementHits:" + nbStatementHits
+                + ", statementMisses:" + nbStatementMisses
+                + "}";
+    }
+
+    /**
+     * Connexion du groupe, avec ses requêtes préparées.
+     */
+    private static class PooledConnection {
+
+        /**
+         * Connexion Informix.
+         */
+        private final Connection connection;
+
+        /**
+         * Requêtes préparées, de la moins récemment utilisée à la plus
+         * récente.
+         */
+        private final LinkedHashMap<String, PreparedStatement> statements;
+
+        /**
+         * Date à laquelle la connexion a été rendue, en millisecondes.
+         */
+        private long lastUsed;
+
+        /**
+         * Indique si la connexion doit être fermée quand elle sera rendue.
+         */
+        private boolean invalidated = false;
+
+        /**
+         * Constructeur de la classe PooledConnection.
+         */
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            lastUsed = System.currentTimeMillis();
+            statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= STATEMENT_CACHE_SIZE) {
+                        return false;
+                    }
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException exception) {
+                        Logger.getLogger(InformixConnectionPool.class.getName()).log(Level.WARNING, null, exception);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Ferme les requêtes préparées de la connexion.
+         */
+        private void closeStatements() {
+            synchronized (statements) {
+                for (PreparedStatement preparedStatement : statements.values()) {
+                    try {
+                        preparedStatement.close();
+                    } catch (SQLException exception) {
+                        Logger.getLogger(InformixConnectionPool.class.getName()).log(Level.FINE, null, exception);
+                    }
+                }
+                statements.clear();
+            }
+        }
+    }
+}
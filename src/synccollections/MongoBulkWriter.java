@@ -0,0 +1,321 @@
+package synccollections;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import org.bson.Document;
+
+/**
+ * Classe qui regroupe les écritures vers une collection MongoDb en lots non
+ * ordonnés (bulkWrite) au lieu d'une requête par document.
+ * <p>
+ * C'est le chemin d'écriture à utiliser pour toutes les synchronisations qui
+ * mettent à jour la base MongoDb. L'échec d'un lot est signalé et comptabilisé
+ * mais n'interrompt pas le traitement.</p>
+ * <p>
+ * En mode test (dryRun), les lots sont constitués et comptés comme en
+ * fonctionnement normal mais ne sont pas envoyés.</p>
+ * <p>
+ * L'envoi des lots peut être régulé avec les autres requêtes MongoDb (cf.
+ * AdaptiveThrottle) ; un lot en erreur compte alors comme une surcharge.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class MongoBulkWriter {
+
+    /**
+     * Collection MongoDb à mettre à jour.
+     */
+    private final MongoCollection<Document> collection;
+
+    /**
+     * Nombre maximum d'écritures par lot.
+     */
+    private final int batchSize;
+
+    /**
+     * Ecritures en attente d'envoi.
+     */
+    private final ArrayList<WriteModel<Document>> requests;
+
+    /**
+     * Options des écritures groupées : non ordonnées pour que le serveur
+     * poursuive le lot en cas d'erreur sur un document.
+     */
+    private final BulkWriteOptions bulkWriteOptions;
+
+    /**
+     * Indique si les lots sont seulement comptés, sans être envoyés.
+     */
+    private final boolean dryRun;
+
+    /**
+     * Nombre d'écritures demandées.
+     */
+    private int nbRequests = 0;
+
+    /**
+     * Nombre de lots envoyés.
+     */
+    private int nbBatches = 0;
+
+    /**
+     * Nombre de lots en erreur.
+     */
+    private int nbFailedBatches = 0;
+
+    /**
+     * Nombre de documents sélectionnés par les écritures.
+     */
+    private int nbMatched = 0;
+
+    /**
+     * Nombre de documents modifiés par les écritures.
+     */
+    private int nbModified = 0;
+
+    /**
+     * Nombre de documents créés par les écritures (upserts).
+     */
+    private int nbUpserted = 0;
+
+    /**
+     * Nombre d'écritures en erreur.
+     */
+    private int nbErrors = 0;
+
+    /**
+     * Phase cumulant les durées d'envoi des lots, null si non mesurée.
+     */
+    private final SyncMetrics.Phase bulkWritePhase;
+
+    /**
+     * Régulation des requêtes MongoDb, null si non régulées.
+     */
+    private final AdaptiveThrottle mongoThrottle;
+
+    /**
+     * Constructeur de la classe MongoBulkWriter.
+     *
+     * @param collection collection MongoDb à mettre à jour.
+     * @param batchSize nombre maximum d'écritures par lot.
+     */
+    public MongoBulkWriter(MongoCollection<Document> collection, int batchSize) {
+        this(collection, batchSize, false, null);
+    }
+
+    /**
+     * Constructeur de la classe MongoBulkWriter avec mode test et mesure de
+     * la durée d'envoi des lots.
+     *
+     * @param collection collection MongoDb à mettre à jour.
+     * @param batchSize nombre maximum d'écritures par lot.
+     * @param dryRun indique si les lots sont seulement comptés, sans être
+     * envoyés.
+     * @param bulkWritePhase phase cumulant les durées d'envoi des lots, null
+     * si non mesurée.
+     */
+    public MongoBulkWriter(MongoCollection<Document> collection, int batchSize, boolean dryRun,
+            SyncMetrics.Phase bulkWritePhase) {
+        this(collection, batchSize, dryRun, bulkWritePhase, null);
+    }
+
+    /**
+     * Constructeur de la classe MongoBulkWriter avec mode test, mesure de la
+     * durée d'envoi des lots et régulation des requêtes.
+     *
+     * @param collection collection MongoDb à mettre à jour.
+     * @param batchSize nombre maximum d'écritures par lot.
+     * @param dryRun indique si les lots sont seulement comptés, sans être
+     * envoyés.
+     * @param bulkWritePhase phase cumulant les durées d'envoi des lots, null
+     * si non mesurée.
+     * @param mongoThrottle régulation des requêtes MongoDb, null si non
+     * régulées.
+     */
+    public MongoBulkWriter(MongoCollection<Document> collection, int batchSize, boolean dryRun,
+            SyncMetrics.Phase bulkWritePhase, AdaptiveThrottle mongoThrottle) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.dryRun = dryRun;
+        this.bulkWritePhase = bulkWritePhase;
+        this.mongoThrottle = mongoThrottle;
+        requests = new ArrayList<>(batchSize);
+        bulkWriteOptions = new BulkWriteOptions().ordered(false);
+    }
+
+    /**
+     * Ajoute une écriture au lot courant et envoie le lot s'il est plein.
+     *
+     * @param request écriture à effectuer.
+     */
+    public void add(WriteModel<Document> request) {
+        requests.add(request);
+        nbRequests++;
+        if (requests.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Envoie le lot courant au serveur MongoDb et cumule son résultat.
+     */
+    public void flush() {
+        BulkWriteResult bulkWriteResult;
+        boolean success;
+        int size;
+        long start;
+
+        size = requests.size();
+        if (size == 0) {
+            return;
+        }
+
+        nbBatches++;
+        if (dryRun) {
+            requests.clear();
+            return;
+        }
+        if (mongoThrottle != null) {
+            try {
+                start = mongoThrottle.acquire();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                nbFailedBatches++;
+                nbErrors += size;
+                System.out.println("Erreur : lot n°" + nbBatches + " non écrit ("
+                        + size + " écriture(s)) : tâche interrompue");
+                requests.clear();
+                return;
+            }
+        } else {
+            start = System.nanoTime();
+        }
+        success = false;
+        try {
+            bulkWriteResult = collection.bulkWrite(requests, bulkWriteOptions);
+            addResult(bulkWriteResult);
+            success = true;
+        } catch (MongoBulkWriteException exception) {
+            nbFailedBatches++;
+            addResult(exception.getWriteResult());
+            nbErrors += exception.getWriteErrors().size();
+            System.out.println("Erreur : lot n°" + nbBatches + ", "
+                    + exception.getWriteErrors().size() + " écriture(s) sur " + size + " en erreur");
+            for (BulkWriteError bulkWriteError : exception.getWriteErrors()) {
+                System.out.println("  index:" + bulkWriteError.getIndex()
+                        + ", code:" + bulkWriteError.getCode()
+                        + ", message:" + bulkWriteError.getMessage());
+            }
+        } catch (MongoException exception) {
+            nbFailedBatches++;
+            nbErrors += size;
+            System.out.println("Erreur : lot n°" + nbBatches + " non écrit ("
+                    + size + " écriture(s)) : " + exception.getMessage());
+        }
+        if (bulkWritePhase != null) {
+            bulkWritePhase.record(start);
+        }
+        if (mongoThrottle != null) {
+            mongoThrottle.release(start, success);
+        }
+        requests.clear();
+    }
+
+    /**
+     * Cumule le résultat d'un lot.
+     *
+     * @param bulkWriteResult résultat du lot.
+     */
+    private void addResult(BulkWriteResult bulkWriteResult) {
+        if (bulkWriteResult.wasAcknowledged()) {
+            nbMatched += bulkWriteResult.getMatchedCount();
+            if (bulkWriteResult.isModifiedCountAvailable()) {
+                nbModified += bulkWriteResult.getModifiedCount();
+            }
+            nbUpserted += bulkWriteResult.getUpserts().size();
+        }
+    }
+
+    /**
+     * @return si les lots sont seulement comptés, sans être envoyés.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * @return le nombre d'écritures demandées.
+     */
+    public int getNbRequests() {
+        return nbRequests;
+    }
+
+    /**
+     * @return le nombre de lots envoyés.
+     */
+    public int getNbBatches() {
+        return nbBatches;
+    }
+
+    /**
+     * @return le nombre de lots en erreur.
+     */
+    public int getNbFailedBatches() {
+        return nbFailedBatches;
+    }
+
+    /**
+     * @return le nombre de documents sélectionnés par les écritures.
+     */
+    public int getNbMatched() {
+        return nbMatched;
+    }
+
+    /**
+     * @return le nombre de documents modifiés par les écritures.
+     */
+    public int getNbModified() {
+        return nbModified;
+    }
+
+    /**
+     * @return le nombre de documents créés par les écritures.
+     */
+    public int getNbUpserted() {
+        return nbUpserted;
+    }
+
+    /**
+     * @return le nombre d'écritures en erreur.
+     */
+    public int getNbErrors() {
+        return nbErrors;
+    }
+
+    /**
+     * Retourne le bilan des écritures.
+     *
+     * @return le bilan des écritures.
+     */
+    @Override
+    public String toString() {
+        return "MongoBulkWriter:{"
+                + "collection:" + collection.getNamespace().getCollectionName()
+                + ", dryRun:" + dryRun
+                + ", requests:" + nbRequests
+                + ", batches:" + nbBatches
+                + ", failedBatches:" + nbFailedBatches
+                + ", matched:" + nbMatched
+                + ", modified:" + nbModified
+                + ", upserted:" + nbUpserted
+                + ", errors:" + nbErrors
+                + "}";
+    }
+}
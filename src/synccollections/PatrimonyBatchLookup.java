@@ -0,0 +1,512 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Furgent;
+import bkgpi2a.Patrimony;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Classe qui recherche les patrimoines dans la base MongoDb par lots
+ * d'identifiants (uid: {$in: [...]}) au lieu d'une requête par site.
+ * <p>
+ * Les lots sont recherchés en parallèle par le groupe de tâches MongoDb, dans
+ * la limite de maxInFlight lots en cours, et régulés par la régulation des
+ * requêtes MongoDb (cf. AdaptiveThrottle). Les résultats sont exploités dans
+ * l'ordre de lecture des sites pour que l'affichage reste déterministe.</p>
+ * <p>
+ * Pour chaque patrimoine trouvé, la référence et le libellé sont comparés
+ * tels quels à ceux du site. Si un magasin d'empreintes est fourni, l'empreinte des sites
+ * trouvés à l'identique y est mémorisée, et les sites dont l'empreinte n'a pas
+ * changé depuis ne sont plus recherchés dans la base MongoDb.</p>
+ * <p>
+ * Les sites sans patrimoine et les patrimoines modifiés sont enregistrés dans
+ * le rapport des écarts et, si demandé, réécrits à partir du site. Le détail
+ * de chaque site n'est affiché qu'en mode verbeux.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonyBatchLookup implements PatrimonyMatcher {
+
+    /**
+     * Champs lus dans les patrimoines : uniquement ceux qui sont comparés.
+     */
+    private static final BasicDBObject PROJECTION = new BasicDBObject("uid", 1)
+            .append("ref", 1).append("label", 1).append("_id", 0);
+
+    /**
+     * Collection des patrimoines dans la base MongoDb, décodés directement en
+     * objets Patrimony (cf. PatrimonyCodec).
+     */
+    private final MongoCollection<Patrimony> collection;
+
+    /**
+     * Nombre maximum d'identifiants recherchés par requête.
+     */
+    private final int batchSize;
+
+    /**
+     * Groupe de tâches exécutant les requêtes MongoDb.
+     */
+    private final ExecutorService mongoExecutor;
+
+    /**
+     * Nombre maximum de lots en cours de recherche.
+     */
+    private final int maxInFlight;
+
+    /**
+     * Régulation des requêtes MongoDb.
+     */
+    private final AdaptiveThrottle mongoThrottle;
+
+    /**
+     * Client dont les sites sont recherchés.
+     */
+    private final Furgent furgent;
+
+    /**
+     * Sortie des messages de suivi.
+     */
+    private final PrintStream out;
+
+    /**
+     * Indique s'il faut afficher le détail de chaque site.
+     */
+    private final boolean verbose;
+
+    /**
+     * Rapport des écarts.
+     */
+    private final DiscrepancyReport discrepancyReport;
+
+    /**
+     * Compteurs partagés de la synchronisation.
+     */
+    private final SyncCounters syncCounters;
+
+    /**
+     * Phase cumulant les durées des requêtes MongoDb.
+     */
+    private final SyncMetrics.Phase lookupPhase;
+
+    /**
+     * Phase cumulant les durées d'attente du résultat d'un lot.
+     */
+    private final SyncMetrics.Phase waitPhase;
+
+    /**
+     * Magasin des empreintes des sites synchronisés, null si non utilisé.
+     */
+    private final FingerprintStore fingerprintStore;
+
+    /**
+     * Indique si les sites dont l'empreinte n'a pas changé peuvent être
+     * considérés comme synchronisés sans recherche.
+     */
+    private final boolean skipUnchanged;
+
+    /**
+     * Réparation des patrimoines absents ou modifiés, null si non demandée.
+     */
+    private final PatrimonyRepair patrimonyRepair;
+
+    /**
+     * Lot en cours de constitution.
+     */
+    private Batch batch;
+
+    /**
+     * Lots en cours de recherche, dans l'ordre de lecture.
+     */
+    private final ArrayDeque<Batch> pendingBatches;
+
+    /**
+     * Nombre de sites traités.
+     */
+    private int nbSite = 0;
+
+    /**
+     * Nombre de patrimoines trouvés dans la base MongoDb.
+     */
+    private int nbPatrimoniesFound = 0;
+
+    /**
+     * Nombre de patrimoines non trouvés dans la base MongoDb.
+     */
+    private int nbPatrimoniesNotFound = 0;
+
+    /**
+     * Nombre de patrimoines trouvés dont la référence ou le libellé diffère
+     * du site.
+     */
+    private int nbPatrimoniesDrifted = 0;
+
+    /**
+     * Nombre de sites inchangés depuis la dernière synchronisation, non
+     * recherchés.
+     */
+    private int nbPatrimoniesUnchanged = 0;
+
+    /**
+     * Constructeur de la classe PatrimonyBatchLookup.
+     *
+     * @param collection collection des patrimoines, décodés en objets
+     * Patrimony.
+     * @param batchSize nombre maximum d'identifiants par requête.
+     * @param mongoExecutor groupe de tâches exécutant les requêtes MongoDb.
+     * @param maxInFlight nombre maximum de lots en cours de recherche.
+     * @param mongoThrottle régulation des requêtes MongoDb.
+     * @param furgent client dont les sites sont recherchés.
+     * @param out sortie des messages de suivi.
+     * @param verbose indique s'il faut afficher le détail de chaque site.
+     * @param discrepancyReport rapport des écarts.
+     * @param syncCounters compteurs partagés de la synchronisation.
+     * @param syncMetrics mesures des phases de la synchronisation.
+     * @param fingerprintStore magasin des empreintes des sites synchronisés,
+     * null si non utilisé.
+     * @param skipUnchanged indique si les sites inchangés peuvent être
+     * considérés comme synchronisés sans recherche.
+     * @param patrimonyRepair réparation des patrimoines absents ou modifiés,
+     * null si non demandée.
+     */
+    public PatrimonyBatchLookup(MongoCollection<Patrimony> collection, int batchSize,
+            ExecutorService mongoExecutor, int maxInFlight, AdaptiveThrottle mongoThrottle,
+            Furgent furgent, PrintStream out, boolean verbose, DiscrepancyReport discrepancyReport,
+            SyncCounters syncCounters, SyncMetrics syncMetrics,
+            FingerprintStore fingerprintStore, boolean skipUnchanged, PatrimonyRepair patrimonyRepair) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.mongoExecutor = mongoExecutor;
+        this.maxInFlight = maxInFlight;
+        this.mongoThrottle = mongoThrottle;
+        this.furgent = furgent;
+        this.out = out;
+        this.verbose = verbose;
+        this.discrepancyReport = discrepancyReport;
+        this.syncCounters = syncCounters;
+        lookupPhase = syncMetrics.getPhase(SyncMetrics.MONGO_LOOKUP);
+        waitPhase = syncMetrics.getPhase(SyncMetrics.MONGO_WAIT);
+        this.fingerprintStore = fingerprintStore;
+        this.skipUnchanged = skipUnchanged && fingerprintStore != null;
+        this.patrimonyRepair = patrimonyRepair;
+        batch = new Batch(batchSize);
+        pendingBatches = new ArrayDeque<>(maxInFlight);
+    }
+
+    /**
+     * Ajoute un site au lot courant et lance la recherche si le lot est plein.
+     *
+     * @param fsite site à rechercher.
+     * @param aggregateUid identifiant du patrimoine correspondant au site.
+     * @throws IOException en cas d'erreur de conversion d'un patrimoine.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    @Override
+    public void add(Fsite fsite, String aggregateUid) throws IOException, InterruptedException {
+        long fingerprint;
+        boolean unchanged;
+
+        fingerprint = FingerprintStore.fingerprint(fsite.getS3number2(), getLabel(fsite));
+        unchanged = skipUnchanged && fingerprintStore.get(aggregateUid) == fingerprint;
+        batch.add(fsite, aggregateUid, fingerprint, unchanged);
+        if (batch.queryUids.size() >= batchSize || batch.fsites.size() >= 16 * batchSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Retourne le libellé d'un site tel qu'il est repris dans le patrimoine.
+     *
+     * @param fsite site.
+     * @return le libellé du site : adresse, code postal et ville.
+     */
+    public static String getLabel(Fsite fsite) {
+        return fsite.getS3address() + " " + fsite.getS3poscode() + " " + fsite.getS3city();
+    }
+
+    /**
+     * Lance la recherche du lot courant et, si trop de lots sont en cours,
+     * exploite le plus ancien.
+     */
+    private void submit() throws IOException, InterruptedException {
+        final Batch submittedBatch;
+
+        submittedBatch = batch;
+        if (submittedBatch.queryUids.isEmpty()) {
+            submittedBatch.patrimonies = CompletableFuture.completedFuture(new HashMap<String, Patrimony>());
+        } else {
+            submittedBatch.patrimonies = mongoExecutor.submit(new Callable<HashMap<String, Patrimony>>() {
+                @Override
+                public HashMap<String, Patrimony> call() throws InterruptedException {
+                    return find(submittedBatch.queryUids);
+                }
+            });
+        }
+        pendingBatches.addLast(submittedBatch);
+        batch = new Batch(batchSize);
+        while (pendingBatches.size() > maxInFlight) {
+            complete(pendingBatches.removeFirst());
+        }
+    }
+
+    /**
+     * Recherche et exploite tous les lots restants.
+     *
+     * @throws IOException en cas d'erreur de conversion d'un patrimoine.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    @Override
+    public void flush() throws IOException, InterruptedException {
+        if (!batch.fsites.isEmpty()) {
+            submit();
+        }
+        while (!pendingBatches.isEmpty()) {
+            complete(pendingBatches.removeFirst());
+        }
+    }
+
+    /**
+     * Recherche en une seule requête les patrimoines d'un lot.
+     *
+     * @param aggregateUids identifiants des patrimoines à rechercher.
+     * @return les patrimoines trouvés, indexés par identifiant.
+     * @throws InterruptedException si la tâche est interrompue pendant
+     * l'attente de la régulation.
+     */
+    private HashMap<String, Patrimony> find(ArrayList<String> aggregateUids) throws InterruptedException {
+        BasicDBObject filter;
+        MongoCursor<Patrimony> cursor;
+        HashMap<String, Patrimony> patrimonies;
+        Patrimony patrimony;
+        boolean success;
+        long start;
+
+        patrimonies = new HashMap<>(2 * aggregateUids.size());
+        filter = new BasicDBObject("uid", new BasicDBObject("$in", aggregateUids));
+        start = mongoThrottle.acquire();
+        success = false;
+        try {
+            cursor = collection.find(filter).projection(PROJECTION).iterator();
+            try {
+                while (cursor.hasNext()) {
+                    patrimony = cursor.next();
+                    if (!patrimonies.containsKey(patrimony.getUid())) {
+                        patrimonies.put(patrimony.getUid(), patrimony);
+                    }
+                }
+            } finally {
+                cursor.close();
+                lookupPhase.record(start);
+            }
+            success = true;
+        } finally {
+            mongoThrottle.release(start, success);
+        }
+        return patrimonies;
+    }
+
+    /**
+     * Attend le résultat d'un lot puis rapproche les patrimoines trouvés des
+     * sites, dans l'ordre de lecture.
+     */
+    private void complete(Batch completedBatch) throws IOException, InterruptedException {
+        HashMap<String, Patrimony> patrimonies;
+        Patrimony patrimony;
+        Fsite fsite;
+        String aggregateUid;
+        long fingerprint;
+        long start;
+        int i;
+        int n;
+
+        start = System.nanoTime();
+        try {
+            patrimonies = completedBatch.patrimonies.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+            throw new IOException("Erreur lors de la recherche des patrimoines", exception.getCause());
+        } finally {
+            waitPhase.record(start);
+        }
+
+        n = completedBatch.fsites.size();
+        for (i = 0; i < n; i++) {
+            fsite = completedBatch.fsites.get(i);
+            aggregateUid = completedBatch.aggregateUids.get(i);
+            nbSite++;
+            if (verbose) {
+                out.println(nbSite + ", ref:" + fsite.getS3number2() + ", label:" + getLabel(fsite));
+                out.println("  aggregateUid:" + aggregateUid);
+            }
+            fingerprint = completedBatch.fingerprints[i];
+            if (completedBatch.unchanged.get(i)) {
+                if (verbose) {
+                    out.println("  patrimoine inchangé depuis la dernière synchronisation");
+                }
+                nbPatrimoniesFound++;
+                nbPatrimoniesUnchanged++;
+                syncCounters.addSite(true);
+                syncCounters.addUnchanged();
+            } else if ((patrimony = patrimonies.get(aggregateUid)) != null) {
+                nbPatrimoniesFound++;
+                syncCounters.addSite(true);
+                if (Objects.equals(patrimony.getRef(), fsite.getS3number2())
+                        && Objects.equals(patrimony.getLabel(), getLabel(fsite))) {
+                    if (verbose) {
+                        out.println("  patrimoine trouvé, ref:" + patrimony.getRef() + ", label:" + patrimony.getLabel() + ", uid:" + patrimony.getUid());
+                    }
+                    if (fingerprintStore != null) {
+                        fingerprintStore.put(aggregateUid, fingerprint);
+                    }
+                } else {
+                    if (verbose) {
+                        out.println("  patrimoine modifié, ref:" + patrimony.getRef() + ", label:" + patrimony.getLabel() + ", uid:" + patrimony.getUid());
+                    }
+                    nbPatrimoniesDrifted++;
+                    syncCounters.addDrifted();
+                    discrepancyReport.driftedPatrimony(furgent, aggregateUid, fsite.getS3number2(), getLabel(fsite),
+                            patrimony.getRef(), patrimony.getLabel(),
+                            patrimonyRepair != null ? patrimonyRepair.upsert(furgent.getUnum(), fsite, aggregateUid) : null);
+                    if (fingerprintStore != null) {
+                        fingerprintStore.remove(aggregateUid);
+                    }
+                }
+            } else {
+                if (verbose) {
+                    out.println("  patrimoine non trouvé");
+                }
+                nbPatrimoniesNotFound++;
+                syncCounters.addSite(false);
+                discrepancyReport.missingPatrimony(furgent, aggregateUid, fsite.getS3number2(), getLabel(fsite),
+                        patrimonyRepair != null ? patrimonyRepair.upsert(furgent.getUnum(), fsite, aggregateUid) : null);
+                if (fingerprintStore != null) {
+                    fingerprintStore.remove(aggregateUid);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return le nombre de sites traités.
+     */
+    @Override
+    public int getNbSite() {
+        return nbSite;
+    }
+
+    /**
+     * @return le nombre de patrimoines trouvés dans la base MongoDb.
+     */
+    @Override
+    public int getNbPatrimoniesFound() {
+        return nbPatrimoniesFound;
+    }
+
+    /**
+     * @return le nombre de patrimoines non trouvés dans la base MongoDb.
+     */
+    @Override
+    public int getNbPatrimoniesNotFound() {
+        return nbPatrimoniesNotFound;
+    }
+
+    /**
+     * @return le nombre de patrimoines dont la référence ou le libellé diffère
+     * du site.
+     */
+    @Override
+    public int getNbPatrimoniesDrifted() {
+        return nbPatrimoniesDrifted;
+    }
+
+    /**
+     * @return le nombre de sites inchangés, non recherchés.
+     */
+    public int getNbPatrimoniesUnchanged() {
+        return nbPatrimoniesUnchanged;
+    }
+
+    /**
+     * Lot de sites à rechercher.
+     */
+    private static class Batch {
+
+        /**
+         * Identifiants des patrimoines correspondant aux sites.
+         */
+        private final ArrayList<String> aggregateUids;
+
+        /**
+         * Sites, dans le même ordre que les identifiants.
+         */
+        private final ArrayList<Fsite> fsites;
+
+        /**
+         * Empreintes des sites, dans le même ordre que les identifiants.
+         */
+        private long[] fingerprints;
+
+        /**
+         * Indique pour chaque site s'il est inchangé et n'est pas recherché.
+         */
+        private final BitSet unchanged;
+
+        /**
+         * Identifiants des patrimoines à rechercher.
+         */
+        private final ArrayList<String> queryUids;
+
+        /**
+         * Résultat de la recherche, une fois le lot soumis.
+         */
+        private Future<HashMap<String, Patrimony>> patrimonies;
+
+        private Batch(int batchSize) {
+            aggregateUids = new ArrayList<>(batchSize);
+            fsites = new ArrayList<>(batchSize);
+            fingerprints = new long[batchSize];
+            unchanged = new BitSet(batchSize);
+            queryUids = new ArrayList<>(batchSize);
+        }
+
+        /**
+         * Ajoute un site au lot. Un lot de sites inchangés pouvant compter
+         * jusqu'à 16 fois plus de sites que d'identifiants recherchés, la table
+         * des empreintes est agrandie au besoin.
+         */
+        private void add(Fsite fsite, String aggregateUid, long fingerprint, boolean unchangedSite) {
+            int i;
+
+            i = fsites.size();
+            if (i == fingerprints.length) {
+                fingerprints = Arrays.copyOf(fingerprints, Math.max(16, 2 * i));
+            }
+            fsites.add(fsite);
+            aggregateUids.add(aggregateUid);
+            fingerprints[i] = fingerprint;
+            if (unchangedSite) {
+                unchanged.set(i);
+            } else {
+                queryUids.add(aggregateUid);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package synccollections;
+
+import bkgpi2a.Patrimony;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Classe qui décode directement un document BSON de la collection patrimonies
+ * en objet Patrimony, sans passer par une chaîne JSON. Seuls les champs
+ * comparés (uid, ref, label) sont lus, les autres sont sautés.
+ *
+ * @author Thierry Baribaud
+ * @version 0.12
+ */
+public class PatrimonyCodec implements Codec<Patrimony> {
+
+    /**
+     * Décode un patrimoine.
+     *
+     * @param reader lecteur du document BSON.
+     * @param decoderContext contexte du décodage.
+     * @return le patrimoine décodé.
+     */
+    @Override
+    public Patrimony decode(BsonReader reader, DecoderContext decoderContext) {
+        Patrimony patrimony;
+        String name;
+
+        patrimony = new Patrimony();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            name = reader.readName();
+            if (reader.getCurrentBsonType() != BsonType.STRING) {
+                reader.skipValue();
+            } else if (name.equals("uid")) {
+                patrimony.setUid(reader.readString());
+            } else if (name.equals("ref")) {
+                patrimony.setRef(reader.readString());
+            } else if (name.equals("label")) {
+                patrimony.setLabel(reader.readString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return patrimony;
+    }
+
+    /**
+     * Encode les champs comparés d'un patrimoine.
+     *
+     * @param writer rédacteur du document BSON.
+     * @param patrimony patrimoine à encoder.
+     * @param encoderContext contexte de l'encodage.
+     */
+    @Override
+    public void encode(BsonWriter writer, Patrimony patrimony, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (patrimony.getUid() != null) {
+            writer.writeString("uid", patrimony.getUid());
+        }
+        if (patrimony.getRef() != null) {
+            writer.writeString("ref", patrimony.getRef());
+        }
+        if (patrimony.getLabel() != null) {
+            writer.writeString("label", patrimony.getLabel());
+        }
+        writer.writeEndDocument();
+    }
+
+    /**
+     * @return la classe encodée.
+     */
+    @Override
+    public Class<Patrimony> getEncoderClass() {
+        return Patrimony.class;
+    }
+}
@@ -0,0 +1,158 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Furgent;
+import java.io.PrintStream;
+
+/**
+ * Classe qui rapproche les sites Informix des patrimoines en consultant en
+ * mémoire l'ensemble des identifiants lus en une seule fois dans la base
+ * MongoDb, sans requête par site. Les sites sans patrimoine sont enregistrés
+ * dans le rapport des écarts et, si demandé, leur patrimoine est recréé.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonyHashProbe implements PatrimonyMatcher {
+
+    /**
+     * Identifiants des patrimoines de la base MongoDb.
+     */
+    private final UidSet uidSet;
+
+    /**
+     * Client dont les sites sont rapprochés.
+     */
+    private final Furgent furgent;
+
+    /**
+     * Sortie des messages de suivi.
+     */
+    private final PrintStream out;
+
+    /**
+     * Indique s'il faut afficher le détail de chaque site.
+     */
+    private final boolean verbose;
+
+    /**
+     * Rapport des écarts.
+     */
+    private final DiscrepancyReport discrepancyReport;
+
+    /**
+     * Compteurs partagés de la synchronisation.
+     */
+    private final SyncCounters syncCounters;
+
+    /**
+     * Réparation des patrimoines absents, null si non demandée.
+     */
+    private final PatrimonyRepair patrimonyRepair;
+
+    /**
+     * Identifiant du site courant converti en binaire, réutilisé d'un site à
+     * l'autre.
+     */
+    private final long[] uid = new long[2];
+
+    /**
+     * Nombre de sites traités.
+     */
+    private int nbSite = 0;
+
+    /**
+     * Nombre de patrimoines trouvés dans la base MongoDb.
+     */
+    private int nbPatrimoniesFound = 0;
+
+    /**
+     * Nombre de patrimoines non trouvés dans la base MongoDb.
+     */
+    private int nbPatrimoniesNotFound = 0;
+
+    /**
+     * Constructeur de la classe PatrimonyHashProbe.
+     *
+     * @param uidSet identifiants des patrimoines de la base MongoDb.
+     * @param furgent client dont les sites sont rapprochés.
+     * @param out sortie des messages de suivi.
+     * @param verbose indique s'il faut afficher le détail de chaque site.
+     * @param discrepancyReport rapport des écarts.
+     * @param syncCounters compteurs partagés de la synchronisation.
+     * @param patrimonyRepair réparation des patrimoines absents, null si non
+     * demandée.
+     */
+    public PatrimonyHashProbe(UidSet uidSet, Furgent furgent, PrintStream out, boolean verbose,
+            DiscrepancyReport discrepancyReport, SyncCounters syncCounters, PatrimonyRepair patrimonyRepair) {
+        this.uidSet = uidSet;
+        this.furgent = furgent;
+        this.out = out;
+        this.verbose = verbose;
+        this.discrepancyReport = discrepancyReport;
+        this.syncCounters = syncCounters;
+        this.patrimonyRepair = patrimonyRepair;
+    }
+
+    @Override
+    public void add(Fsite fsite, String aggregateUid) throws InterruptedException {
+        boolean found;
+
+        nbSite++;
+        if (verbose) {
+            out.println(nbSite + ", ref:" + fsite.getS3number2()
+                    + ", label:" + PatrimonyBatchLookup.getLabel(fsite));
+            out.println("  aggregateUid:" + aggregateUid);
+        }
+        if (UidSet.parse(aggregateUid, uid)) {
+            found = uidSet.match(uid[0], uid[1]);
+        } else {
+            found = uidSet.matchOther(aggregateUid);
+        }
+        if (found) {
+            if (verbose) {
+                out.println("  patrimoine trouvé, uid:" + aggregateUid);
+            }
+            nbPatrimoniesFound++;
+            syncCounters.addSite(true);
+        } else {
+            if (verbose) {
+                out.println("  patrimoine non trouvé");
+            }
+            nbPatrimoniesNotFound++;
+            syncCounters.addSite(false);
+            discrepancyReport.missingPatrimony(furgent, aggregateUid, fsite.getS3number2(), PatrimonyBatchLookup.getLabel(fsite),
+                    patrimonyRepair != null ? patrimonyRepair.upsert(furgent.getUnum(), fsite, aggregateUid) : null);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public int getNbSite() {
+        return nbSite;
+    }
+
+    @Override
+    public int getNbPatrimoniesFound() {
+        return nbPatrimoniesFound;
+    }
+
+    @Override
+    public int getNbPatrimoniesNotFound() {
+        return nbPatrimoniesNotFound;
+    }
+
+    /**
+     * Seuls les identifiants sont lus : les écarts de contenu ne sont pas
+     * détectés par cette stratégie.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getNbPatrimoniesDrifted() {
+        return 0;
+    }
+}
@@ -0,0 +1,54 @@
+package synccollections;
+
+import bdd.Fsite;
+import java.io.IOException;
+
+/**
+ * Interface des stratégies de rapprochement des sites Informix avec les
+ * patrimoines de la base MongoDb.
+ *
+ * @author Thierry Baribaud
+ * @version 0.14
+ */
+public interface PatrimonyMatcher {
+
+    /**
+     * Rapproche un site de son patrimoine. Selon la stratégie, le résultat
+     * peut n'être connu qu'au prochain appel à flush().
+     *
+     * @param fsite site à rapprocher.
+     * @param aggregateUid identifiant du patrimoine correspondant au site.
+     * @throws IOException en cas d'erreur de lecture d'un patrimoine.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void add(Fsite fsite, String aggregateUid) throws IOException, InterruptedException;
+
+    /**
+     * Termine le rapprochement des sites en attente.
+     *
+     * @throws IOException en cas d'erreur de lecture d'un patrimoine.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void flush() throws IOException, InterruptedException;
+
+    /**
+     * @return le nombre de sites traités.
+     */
+    public int getNbSite();
+
+    /**
+     * @return le nombre de patrimoines trouvés dans la base MongoDb.
+     */
+    public int getNbPatrimoniesFound();
+
+    /**
+     * @return le nombre de patrimoines non trouvés dans la base MongoDb.
+     */
+    public int getNbPatrimoniesNotFound();
+
+    /**
+     * @return le nombre de patrimoines trouvés dont la référence ou le libellé
+     * diffère du site.
+     */
+    public int getNbPatrimoniesDrifted();
+}
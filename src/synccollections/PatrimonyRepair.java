@@ -0,0 +1,132 @@
+package synccollections;
+
+import bdd.Fsite;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import java.util.ArrayList;
+import java.util.Date;
+import org.bson.Document;
+
+/**
+ * Classe qui répare les patrimoines absents ou modifiés de la base MongoDb à
+ * partir des sites Informix.
+ * <p>
+ * Chaque patrimoine est réécrit par un upsert sur son identifiant agrégé
+ * (uid) : la référence et le libellé du site sont repris. Si le document
+ * n'existe pas, il est créé complet ($setOnInsert) : société du client
+ * (companyUid), adresse du site, étiquettes vides et date de création, pour
+ * être retrouvé comme les patrimoines existants. Les écritures sont envoyées par lots non ordonnés (cf.
+ * MongoBulkWriter). En mode test, les écritures sont constituées et comptées
+ * de la même façon mais ne sont pas envoyées.</p>
+ * <p>
+ * Une instance est propre à un client et n'est utilisée que par une tâche à
+ * la fois.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonyRepair {
+
+    /**
+     * Action enregistrée dans le rapport des écarts pour un patrimoine réparé.
+     */
+    public static final String UPSERT = "upsert";
+
+    /**
+     * Action enregistrée dans le rapport des écarts pour un patrimoine à
+     * réparer, en mode test.
+     */
+    public static final String DRY_RUN = "dry-run";
+
+    /**
+     * Options des écritures : création du patrimoine s'il n'existe pas.
+     */
+    private static final UpdateOptions UPSERT_OPTIONS = new UpdateOptions().upsert(true);
+
+    /**
+     * Ecritures groupées vers la collection des patrimoines.
+     */
+    private final MongoBulkWriter mongoBulkWriter;
+
+    /**
+     * Constructeur de la classe PatrimonyRepair.
+     *
+     * @param collection collection des patrimoines.
+     * @param batchSize nombre maximum d'écritures par lot.
+     * @param dryRun indique si les écritures sont seulement comptées, sans
+     * être envoyées.
+     * @param syncMetrics mesures des phases de la synchronisation.
+     * @param mongoThrottle régulation des requêtes MongoDb.
+     */
+    public PatrimonyRepair(MongoCollection<Document> collection, int batchSize, boolean dryRun,
+            SyncMetrics syncMetrics, AdaptiveThrottle mongoThrottle) {
+        mongoBulkWriter = new MongoBulkWriter(collection, batchSize, dryRun,
+                syncMetrics.getPhase(SyncMetrics.MONGO_BULK_WRITE), mongoThrottle);
+    }
+
+    /**
+     * Demande la réécriture du patrimoine correspondant à un site.
+     *
+     * @param unum numéro du client du site.
+     * @param fsite site Informix.
+     * @param aggregateUid identifiant du patrimoine.
+     * @return l'action à enregistrer dans le rapport des écarts.
+     */
+    public String upsert(int unum, Fsite fsite, String aggregateUid) {
+        mongoBulkWriter.add(newUpsert(unum, fsite, aggregateUid));
+        return mongoBulkWriter.isDryRun() ? DRY_RUN : UPSERT;
+    }
+
+    /**
+     * Construit l'écriture du patrimoine correspondant à un site.
+     *
+     * @param unum numéro du client du site.
+     * @param fsite site Informix.
+     * @param aggregateUid identifiant du patrimoine.
+     * @return l'upsert du patrimoine.
+     */
+    static UpdateOneModel<Document> newUpsert(int unum, Fsite fsite, String aggregateUid) {
+        return new UpdateOneModel<Document>(
+                new BasicDBObject("uid", aggregateUid),
+                new BasicDBObject("$set", new BasicDBObject("ref", fsite.getS3number2())
+                        .append("label", PatrimonyBatchLookup.getLabel(fsite)))
+                .append("$setOnInsert", new BasicDBObject("companyUid", AggregateUidEncoder.encodeCompany(unum))
+                        .append("address", new BasicDBObject("street", fsite.getS3address())
+                                .append("zipCode", fsite.getS3poscode())
+                                .append("city", fsite.getS3city()))
+                        .append("tags", new ArrayList<String>())
+                        .append("creationDate", new Date())),
+                UPSERT_OPTIONS);
+    }
+
+    /**
+     * Envoie les écritures en attente et cumule leur bilan dans les compteurs
+     * de la synchronisation. A appeler une fois, en fin de traitement du
+     * client.
+     *
+     * @param syncCounters compteurs de la synchronisation.
+     */
+    public void flush(SyncCounters syncCounters) {
+        mongoBulkWriter.flush();
+        syncCounters.addWrites(mongoBulkWriter);
+    }
+
+    /**
+     * @return les écritures groupées vers la collection des patrimoines.
+     */
+    public MongoBulkWriter getMongoBulkWriter() {
+        return mongoBulkWriter;
+    }
+
+    /**
+     * Retourne le contenu de PatrimonyRepair.
+     *
+     * @return le contenu de PatrimonyRepair.
+     */
+    @Override
+    public String toString() {
+        return "PatrimonyRepair:{" + mongoBulkWriter + "}";
+    }
+}
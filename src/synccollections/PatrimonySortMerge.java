@@ -0,0 +1,423 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Furgent;
+import bkgpi2a.Patrimony;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Classe qui rapproche les sites Informix des patrimoines de la base MongoDb
+ * en mémoire bornée (stratégie sort).
+ * <p>
+ * Les sites de tous les clients et les patrimoines (uid, ref, label) sont
+ * triés séparément par identifiant agrégé (cf. ExternalSorter), puis les deux
+ * flux triés sont fusionnés en une seule passe : un site sans patrimoine est
+ * absent, un patrimoine sans site est orphelin, un site et son patrimoine
+ * sont comparés. Contrairement aux stratégies lookup et hash, ni la liste des
+ * sites d'un client ni les identifiants de tous les patrimoines ne sont
+ * conservés en mémoire : seul le budget de tri, partagé entre les deux
+ * tris, est utilisé, quelle que soit la taille des données.</p>
+ * <p>
+ * Les sites sont déposés au fil de leur lecture par les matchers obtenus par
+ * getMatcher() ; les résultats par client ne sont connus qu'après merge().
+ * </p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonySortMerge {
+
+    /**
+     * Champs des patrimoines lus dans la base MongoDb.
+     */
+    private static final BasicDBObject PROJECTION = new BasicDBObject("uid", 1).append("ref", 1).append("label", 1).append("_id", 0);
+
+    /**
+     * Tri des sites : uid, unum, ref, adresse, code postal, ville.
+     */
+    private final ExternalSorter siteSorter;
+
+    /**
+     * Tri des patrimoines : uid, ref, label.
+     */
+    private final ExternalSorter patrimonySorter;
+
+    /**
+     * Répartition entre les processus.
+     */
+    private final SyncPartition partition;
+
+    /**
+     * Rapport des écarts.
+     */
+    private final DiscrepancyReport discrepancyReport;
+
+    /**
+     * Réparation des patrimoines absents ou modifiés, null si non demandée.
+     */
+    private final PatrimonyRepair patrimonyRepair;
+
+    /**
+     * Mesure de la durée de la fusion.
+     */
+    private final SyncMetrics.Phase mergePhase;
+
+    /**
+     * Indique s'il faut afficher le détail de chaque site.
+     */
+    private final boolean verbose;
+
+    /**
+     * Sites déposés, par numéro de client.
+     */
+    private final HashMap<Integer, ClientSites> clients = new HashMap<>();
+
+    /**
+     * Nombre de patrimoines de la base MongoDb sans site Informix.
+     */
+    private int nbOrphaned = 0;
+
+    /**
+     * Constructeur de la classe PatrimonySortMerge.
+     *
+     * @param memoryBudget mémoire allouée aux deux tris, en octets.
+     * @param partition répartition entre les processus.
+     * @param discrepancyReport rapport des écarts.
+     * @param patrimonyRepair réparation des patrimoines absents ou modifiés,
+     * null si non demandée.
+     * @param syncMetrics mesures de la synchronisation.
+     * @param verbose indique s'il faut afficher le détail de chaque site.
+     */
+    public PatrimonySortMerge(long memoryBudget, SyncPartition partition, DiscrepancyReport discrepancyReport,
+            PatrimonyRepair patrimonyRepair, SyncMetrics syncMetrics, boolean verbose) {
+        siteSorter = new ExternalSorter("sites", 6, memoryBudget / 2, syncMetrics.getPhase(SyncMetrics.SORT_SPILL));
+        patrimonySorter = new ExternalSorter("patrimonies", 3, memoryBudget / 2, syncMetrics.getPhase(SyncMetrics.SORT_SPILL));
+        this.partition = partition;
+        this.discrepancyReport = discrepancyReport;
+        this.patrimonyRepair = patrimonyRepair;
+        mergePhase = syncMetrics.getPhase(SyncMetrics.SORT_MERGE);
+        this.verbose = verbose;
+    }
+
+    /**
+     * Retourne le matcher qui dépose les sites d'un client dans le tri des
+     * sites. Ses compteurs, comme le bilan du client, ne sont complets
+     * qu'après merge().
+     *
+     * @param furgent client dont les sites sont déposés.
+     * @param out sortie des messages de suivi du client.
+     * @param syncCounters compteurs du client.
+     * @param clientSyncResult bilan du client, complété par merge().
+     * @return le matcher du client.
+     */
+    public synchronized PatrimonyMatcher getMatcher(Furgent furgent, PrintStream out, SyncCounters syncCounters,
+            ClientSyncResult clientSyncResult) {
+        ClientSites clientSites;
+
+        clientSites = new ClientSites(furgent, out, syncCounters, clientSyncResult);
+        clients.put(furgent.getUnum(), clientSites);
+        return clientSites;
+    }
+
+    /**
+     * Lit les patrimoines de la base MongoDb et les dépose dans le tri des
+     * patrimoines. Avec une répartition par identifiant, seuls ceux de la
+     * partition sont retenus.
+     *
+     * @param patrimonies collection des patrimoines.
+     * @throws IOException en cas d'erreur d'écriture d'une série.
+     */
+    public void loadPatrimonies(MongoCollection<Patrimony> patrimonies) throws IOException {
+        MongoCursor<Patrimony> cursor;
+        Patrimony patrimony;
+
+        cursor = patrimonies.find().projection(PROJECTION).iterator();
+        try {
+            while (cursor.hasNext()) {
+                patrimony = cursor.next();
+                if (patrimony.getUid() != null && partition.acceptsUid(patrimony.getUid())) {
+                    patrimonySorter.add(patrimony.getUid(), patrimony.getRef(), patrimony.getLabel());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Fusionne les sites et les patrimoines triés, enregistre les écarts
+     * dans le rapport et complète le bilan de chaque client. A appeler une
+     * seule fois, une fois tous les sites et patrimoines déposés.
+     *
+     * @param orphans indique s'il faut rechercher les patrimoines sans site
+     * Informix : seulement si les sites de tous les clients ont été déposés.
+     * @throws IOException en cas d'erreur de lecture d'une série.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void merge(boolean orphans) throws IOException, InterruptedException {
+        ExternalSorter.Records sites;
+        ExternalSorter.Records patrimonies;
+        String[] site;
+        String[] patrimony;
+        int comparison;
+        long start;
+
+        start = System.nanoTime();
+        sites = siteSorter.sort();
+        patrimonies = patrimonySorter.sort();
+        site = sites.next();
+        patrimony = patrimonies.next();
+        while (site != null || patrimony != null) {
+            comparison = site == null ? 1 : patrimony == null ? -1 : ExternalSorter.compareKeys(site[0], patrimony[0]);
+            if (comparison < 0) {
+                match(site, null);
+                site = sites.next();
+            } else if (comparison > 0) {
+                if (orphans) {
+                    if (verbose) {
+                        System.out.println("  patrimoine sans site Informix, uid:" + patrimony[0]);
+                    }
+                    nbOrphaned++;
+                    discrepancyReport.orphanedPatrimony(patrimony[0]);
+                }
+                patrimony = nextPatrimony(patrimonies, patrimony[0]);
+            } else {
+                match(site, patrimony);
+                site = sites.next();
+                if (site == null || ExternalSorter.compareKeys(site[0], patrimony[0]) != 0) {
+                    patrimony = nextPatrimony(patrimonies, patrimony[0]);
+                }
+            }
+        }
+        for (ClientSites clientSites : clients.values()) {
+            clientSites.clientSyncResult.setNbPatrimoniesFound(clientSites.nbPatrimoniesFound);
+            clientSites.clientSyncResult.setNbPatrimoniesNotFound(clientSites.nbPatrimoniesNotFound);
+            clientSites.clientSyncResult.setNbPatrimoniesDrifted(clientSites.nbPatrimoniesDrifted);
+        }
+        mergePhase.record(start);
+    }
+
+    /**
+     * Retourne le patrimoine suivant d'identifiant différent : un
+     * identifiant en double dans la base MongoDb n'est rapproché qu'une fois.
+     */
+    private static String[] nextPatrimony(ExternalSorter.Records patrimonies, String uid) throws IOException {
+        String[] patrimony;
+
+        do {
+            patrimony = patrimonies.next();
+        } while (patrimony != null && ExternalSorter.compareKeys(patrimony[0], uid) == 0);
+        return patrimony;
+    }
+
+    /**
+     * Compare un site à son patrimoine, null s'il est absent, et compte le
+     * résultat pour son client.
+     */
+    private void match(String[] record, String[] patrimony) throws InterruptedException {
+        ClientSites clientSites;
+        Fsite fsite;
+        String label;
+
+        clientSites = clients.get(Integer.valueOf(record[1]));
+        fsite = new SortedSite(record);
+        label = PatrimonyBatchLookup.getLabel(fsite);
+        if (verbose) {
+            System.out.println("Client:" + clientSites.furgent.getUname() + ", ref:" + fsite.getS3number2() + ", label:" + label);
+            System.out.println("  aggregateUid:" + record[0]);
+        }
+        if (patrimony == null) {
+            if (verbose) {
+                System.out.println("  patrimoine non trouvé");
+            }
+            clientSites.nbPatrimoniesNotFound++;
+            clientSites.syncCounters.addSite(false);
+            discrepancyReport.missingPatrimony(clientSites.furgent, record[0], fsite.getS3number2(), label,
+                    patrimonyRepair != null ? patrimonyRepair.upsert(clientSites.furgent.getUnum(), fsite, record[0]) : null);
+            return;
+        }
+        clientSites.nbPatrimoniesFound++;
+        clientSites.syncCounters.addSite(true);
+        if (Objects.equals(patrimony[1], fsite.getS3number2()) && Objects.equals(patrimony[2], label)) {
+            if (verbose) {
+                System.out.println("  patrimoine trouvé, ref:" + patrimony[1] + ", label:" + patrimony[2] + ", uid:" + patrimony[0]);
+            }
+        } else {
+            if (verbose) {
+                System.out.println("  patrimoine modifié, ref:" + patrimony[1] + ", label:" + patrimony[2] + ", uid:" + patrimony[0]);
+            }
+            clientSites.nbPatrimoniesDrifted++;
+            clientSites.syncCounters.addDrifted();
+            discrepancyReport.driftedPatrimony(clientSites.furgent, record[0], fsite.getS3number2(), label,
+                    patrimony[1], patrimony[2],
+                    patrimonyRepair != null ? patrimonyRepair.upsert(clientSites.furgent.getUnum(), fsite, record[0]) : null);
+        }
+    }
+
+    /**
+     * Supprime les fichiers temporaires des deux tris.
+     */
+    public void close() {
+        siteSorter.close();
+        patrimonySorter.close();
+    }
+
+    /**
+     * @return le nombre de patrimoines de la base MongoDb sans site Informix.
+     */
+    public int getNbOrphaned() {
+        return nbOrphaned;
+    }
+
+    /**
+     * Retourne le contenu de PatrimonySortMerge.
+     *
+     * @return le contenu de PatrimonySortMerge.
+     */
+    @Override
+    public String toString() {
+        return "PatrimonySortMerge:{"
+                + "clients:" + clients.size()
+                + ", sites:" + siteSorter
+                + ", patrimonies:" + patrimonySorter
+                + ", orphaned:" + nbOrphaned
+                + "}";
+    }
+
+    /**
+     * Sites d'un client, déposés dans le tri des sites, et résultat de leur
+     * rapprochement.
+     */
+    private class ClientSites implements PatrimonyMatcher {
+
+        /**
+         * Client dont les sites sont déposés.
+         */
+        private final Furgent furgent;
+
+        /**
+         * Sortie des messages de suivi du client.
+         */
+        private final PrintStream out;
+
+        /**
+         * Compteurs du client.
+         */
+        private final SyncCounters syncCounters;
+
+        /**
+         * Bilan du client.
+         */
+        private final ClientSyncResult clientSyncResult;
+
+        /**
+         * Nombre de sites déposés.
+         */
+        private int nbSite = 0;
+
+        /**
+         * Nombre de patrimoines trouvés dans la base MongoDb.
+         */
+        private int nbPatrimoniesFound = 0;
+
+        /**
+         * Nombre de patrimoines non trouvés dans la base MongoDb.
+         */
+        private int nbPatrimoniesNotFound = 0;
+
+        /**
+         * Nombre de patrimoines trouvés dont la référence ou le libellé
+         * diffère du site.
+         */
+        private int nbPatrimoniesDrifted = 0;
+
+        /**
+         * Constructeur de la classe ClientSites.
+         */
+        private ClientSites(Furgent furgent, PrintStream out, SyncCounters syncCounters, ClientSyncResult clientSyncResult) {
+            this.furgent = furgent;
+            this.out = out;
+            this.syncCounters = syncCounters;
+            this.clientSyncResult = clientSyncResult;
+        }
+
+        @Override
+        public void add(Fsite fsite, String aggregateUid) throws IOException {
+            nbSite++;
+            if (verbose) {
+                out.println(nbSite + ", ref:" + fsite.getS3number2() + ", aggregateUid:" + aggregateUid);
+            }
+            siteSorter.add(aggregateUid, String.valueOf(furgent.getUnum()), fsite.getS3number2(),
+                    fsite.getS3address(), fsite.getS3poscode(), fsite.getS3city());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public int getNbSite() {
+            return nbSite;
+        }
+
+        @Override
+        public int getNbPatrimoniesFound() {
+            return nbPatrimoniesFound;
+        }
+
+        @Override
+        public int getNbPatrimoniesNotFound() {
+            return nbPatrimoniesNotFound;
+        }
+
+        @Override
+        public int getNbPatrimoniesDrifted() {
+            return nbPatrimoniesDrifted;
+        }
+    }
+
+    /**
+     * Site relu dans le tri des sites, pour la comparaison, le rapport des
+     * écarts et la réparation.
+     */
+    private static class SortedSite extends Fsite {
+
+        /**
+         * Enregistrement trié : uid, unum, ref, adresse, code postal, ville.
+         */
+        private final String[] record;
+
+        /**
+         * Constructeur de la classe SortedSite.
+         */
+        private SortedSite(String[] record) {
+            this.record = record;
+        }
+
+        @Override
+        public String getS3number2() {
+            return record[2];
+        }
+
+        @Override
+        public String getS3address() {
+            return record[3];
+        }
+
+        @Override
+        public String getS3poscode() {
+            return record[4];
+        }
+
+        @Override
+        public String getS3city() {
+            return record[5];
+        }
+    }
+}
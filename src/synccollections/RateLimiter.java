@@ -0,0 +1,127 @@
+package synccollections;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plafond de lignes lues par seconde dans une base de données : les lectures
+ * sont espacées régulièrement, quel que soit le nombre de tâches.
+ * <p>
+ * Contrairement à AdaptiveThrottle, qui régule les requêtes, le plafond porte
+ * sur chaque ligne. Le prochain créneau est réservé par une opération
+ * atomique, sans verrou partagé entre les tâches ; sans plafond, les sources
+ * de lignes ne sont pas enveloppées et ne coûtent rien.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class RateLimiter {
+
+    /**
+     * Nom de la base régulée, pour l'affichage.
+     */
+    private final String name;
+
+    /**
+     * Plafond de lignes par seconde, 0 si aucun.
+     */
+    private final long maxPerSecond;
+
+    /**
+     * Intervalle minimum entre deux lignes, en nanosecondes, 0 si aucun.
+     */
+    private final long interval;
+
+    /**
+     * Date à partir de laquelle la prochaine ligne peut être lue
+     * (System.nanoTime()).
+     */
+    private final AtomicLong nextPermit;
+
+    /**
+     * Durée cumulée d'attente des lectures retenues, en nanosecondes.
+     */
+    private final AtomicLong waitTime = new AtomicLong();
+
+    /**
+     * Constructeur de la classe RateLimiter.
+     *
+     * @param name nom de la base régulée, pour l'affichage.
+     * @param maxPerSecond plafond de lignes par seconde, 0 si aucun.
+     */
+    public RateLimiter(String name, long maxPerSecond) {
+        this.name = name;
+        this.maxPerSecond = Math.max(0, maxPerSecond);
+        interval = this.maxPerSecond > 0 ? 1000000000L / this.maxPerSecond : 0;
+        nextPermit = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Attend le tour de la prochaine ligne. Un créneau non utilisé n'est pas
+     * reporté : après une pause, les lectures ne partent pas en rafale.
+     *
+     * @throws InterruptedException si la tâche est interrompue pendant
+     * l'attente.
+     */
+    public void acquire() throws InterruptedException {
+        long now;
+        long next;
+        long permit;
+
+        if (interval == 0) {
+            return;
+        }
+        do {
+            now = System.nanoTime();
+            next = nextPermit.get();
+            permit = Math.max(next, now);
+        } while (!nextPermit.compareAndSet(next, permit + interval));
+        if (permit > now) {
+            TimeUnit.NANOSECONDS.sleep(permit - now);
+            waitTime.addAndGet(permit - now);
+        }
+    }
+
+    /**
+     * Plafonne une source de lignes : chaque ligne lue attend son tour.
+     *
+     * @param <T> type des lignes lues.
+     * @param rowSource source de lignes à plafonner.
+     * @return la source de lignes plafonnée, ou la même source s'il n'y a pas
+     * de plafond.
+     */
+    public <T> RowSource<T> limit(final RowSource<T> rowSource) {
+        if (interval == 0) {
+            return rowSource;
+        }
+        return new RowSource<T>() {
+            @Override
+            public T next() throws SQLException, InterruptedException {
+                acquire();
+                return rowSource.next();
+            }
+        };
+    }
+
+    /**
+     * @return le plafond de lignes par seconde, 0 si aucun.
+     */
+    public long getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
+    /**
+     * Retourne le contenu de RateLimiter.
+     *
+     * @return le contenu de RateLimiter.
+     */
+    @Override
+    public String toString() {
+        return "RateLimiter:{"
+                + "name:" + name
+                + ", maxPerSecond:" + maxPerSecond
+                + ", waitMs:" + waitTime.get() / 1000000
+                + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package synccollections;
+
+import java.sql.SQLException;
+
+/**
+ * Interface des sources de lignes Informix lues une à une : table lue par
+ * JDBC (cf. FurgentDAO, FsiteDAO), éventuellement régulée (cf.
+ * AdaptiveThrottle), ou instantané local (cf. SyncSnapshot).
+ *
+ * @param <T> type des lignes lues (Furgent, Fsite).
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public interface RowSource<T> {
+
+    /**
+     * Lit la ligne suivante.
+     *
+     * @return la ligne suivante, null à la fin de la source.
+     * @throws SQLException en cas d'erreur de lecture de la base Informix.
+     * @throws InterruptedException si la tâche est interrompue pendant
+     * l'attente de la régulation.
+     */
+    public T next() throws SQLException, InterruptedException;
+}
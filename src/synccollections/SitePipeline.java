@@ -0,0 +1,233 @@
+package synccollections;
+
+import bdd.Fsite;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Classe qui découple la lecture des sites Informix de leur rapprochement
+ * avec les patrimoines de la base MongoDb.
+ * <p>
+ * La tâche Informix ne fait que lire les sites et les déposer dans une file
+ * bornée. Une tâche dédiée les retire de la file, calcule leur identifiant et
+ * les confie à la stratégie de rapprochement, qui recherche les lots en
+ * parallèle. Lecture et recherches se recouvrent : la durée tend vers la plus
+ * longue des deux au lieu de leur somme. Si les recherches ne suivent pas, la
+ * file se remplit et la lecture attend, ce qui borne la mémoire utilisée.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SitePipeline {
+
+    /**
+     * Nombre minimum de sites en attente dans la file.
+     */
+    public static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Marque de fin de la file.
+     */
+    private static final Fsite END_OF_SITES = new Fsite();
+
+    /**
+     * Stratégie de rapprochement des sites.
+     */
+    private final PatrimonyMatcher patrimonyMatcher;
+
+    /**
+     * Numéro du client dont les sites sont rapprochés.
+     */
+    private final int unum;
+
+    /**
+     * Part du travail traitée par le processus : les sites des autres
+     * partitions sont ignorés.
+     */
+    private final SyncPartition partition;
+
+    /**
+     * Sites lus en attente de rapprochement.
+     */
+    private final BlockingQueue<Fsite> fsites;
+
+    /**
+     * Phase cumulant les durées de calcul des identifiants.
+     */
+    private final SyncMetrics.Phase hashPhase;
+
+    /**
+     * Phase cumulant les durées d'attente de la lecture, file pleine.
+     */
+    private final SyncMetrics.Phase putPhase;
+
+    /**
+     * Phase cumulant les durées d'attente du rapprochement, file vide.
+     */
+    private final SyncMetrics.Phase takePhase;
+
+    /**
+     * Tâche de rapprochement.
+     */
+    private final Future<Integer> consumer;
+
+    /**
+     * Indique si la marque de fin a été déposée.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructeur de la classe SitePipeline. Lance la tâche de
+     * rapprochement.
+     *
+     * @param patrimonyMatcher stratégie de rapprochement des sites.
+     * @param unum numéro du client dont les sites sont rapprochés.
+     * @param partition part du travail traitée par le processus.
+     * @param capacity nombre maximum de sites en attente dans la file.
+     * @param executor groupe de tâches exécutant le rapprochement.
+     * @param syncMetrics mesures des phases de la synchronisation.
+     */
+    public SitePipeline(PatrimonyMatcher patrimonyMatcher, int unum, SyncPartition partition, int capacity,
+            ExecutorService executor, SyncMetrics syncMetrics) {
+        this.patrimonyMatcher = patrimonyMatcher;
+        this.unum = unum;
+        this.partition = partition;
+        fsites = new ArrayBlockingQueue<>(Math.max(capacity, MIN_CAPACITY));
+        hashPhase = syncMetrics.getPhase(SyncMetrics.UID_HASH);
+        putPhase = syncMetrics.getPhase(SyncMetrics.PIPELINE_PUT);
+        takePhase = syncMetrics.getPhase(SyncMetrics.PIPELINE_TAKE);
+        consumer = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return match();
+            }
+        });
+    }
+
+    /**
+     * Retire les sites de la file jusqu'à la marque de fin et les rapproche
+     * de leur patrimoine. Après une erreur ou une interruption, la file
+     * continue d'être vidée jusqu'à la marque de fin pour ne pas bloquer la
+     * lecture, qui peut ainsi rendre sa connexion Informix ; l'interruption
+     * est ensuite rétablie et signalée.
+     *
+     * @return le nombre de sites rapprochés.
+     */
+    private int match() throws IOException, InterruptedException {
+        Fsite fsite;
+        String aggregateUid;
+        Exception error;
+        long start;
+        int nbSite;
+
+        error = null;
+        nbSite = 0;
+        start = System.nanoTime();
+        while (true) {
+            try {
+                fsite = fsites.take();
+            } catch (InterruptedException exception) {
+                if (error == null) {
+                    error = exception;
+                }
+                continue;
+            }
+            if (fsite == END_OF_SITES) {
+                break;
+            }
+            takePhase.record(start);
+            if (error == null) {
+                try {
+                    start = System.nanoTime();
+                    aggregateUid = SyncSnapshot.getAggregateUid(unum, fsite);
+                    hashPhase.record(start);
+                    if (partition.acceptsUid(aggregateUid)) {
+                        patrimonyMatcher.add(fsite, aggregateUid);
+                        nbSite++;
+                    }
+                } catch (IOException | InterruptedException | RuntimeException exception) {
+                    error = exception;
+                }
+            }
+            start = System.nanoTime();
+        }
+        if (error instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            throw (InterruptedException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
+        patrimonyMatcher.flush();
+        return nbSite;
+    }
+
+    /**
+     * Dépose un site dans la file, en attendant s'il le faut qu'une place se
+     * libère.
+     *
+     * @param fsite site lu dans la base Informix.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void put(Fsite fsite) throws InterruptedException {
+        long start;
+
+        if (!fsites.offer(fsite)) {
+            start = System.nanoTime();
+            fsites.put(fsite);
+            putPhase.record(start);
+        }
+    }
+
+    /**
+     * Signale la fin de la lecture et attend que tous les sites soient
+     * rapprochés.
+     *
+     * @throws IOException en cas d'erreur lors du rapprochement.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void finish() throws IOException, InterruptedException {
+        close();
+        try {
+            consumer.get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+            throw new IOException("Erreur lors du rapprochement des sites", exception.getCause());
+        }
+    }
+
+    /**
+     * Dépose la marque de fin si ce n'est déjà fait, sans attendre le
+     * rapprochement. A appeler si la lecture est interrompue par une erreur.
+     *
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public void close() throws InterruptedException {
+        if (!closed) {
+            closed = true;
+            fsites.put(END_OF_SITES);
+        }
+    }
+
+    /**
+     * Retourne le contenu de SitePipeline.
+     *
+     * @return le contenu de SitePipeline.
+     */
+    @Override
+    public String toString() {
+        return "SitePipeline:{"
+                + "unum:" + unum
+                + ", pending:" + fsites.size()
+                + ", capacity:" + (fsites.size() + fsites.remainingCapacity())
+                + "}";
+    }
+}
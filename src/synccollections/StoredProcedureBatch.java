@@ -0,0 +1,445 @@
+package synccollections;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+/**
+ * Classe qui regroupe les appels d'une procédure stockée Informix (par
+ * exemple {call addMessage(?, ?, ?)}) en lots, avec une transaction par lot,
+ * au lieu d'une requête et d'une validation par appel.
+ * <p>
+ * Si la procédure ne retourne rien, les appels d'un lot sont envoyés en une
+ * seule fois (addBatch/executeBatch). Le JDBC ne permet pas de lire les
+ * valeurs retournées par des appels groupés : si la procédure retourne un
+ * code (retcode, nbtrials), les appels d'un lot sont exécutés l'un après
+ * l'autre avec la même requête préparée, et validés ensemble : seuls le
+ * nombre de transactions et la préparation sont alors économisés, pas les
+ * allers-retours avec le serveur.</p>
+ * <p>
+ * La requête est préparée par le groupe de connexions (cf.
+ * InformixConnectionPool) : elle ne l'est qu'une fois par connexion et
+ * reste ouverte avec elle.</p>
+ * <p>
+ * Un appel est en échec si la base le refuse ou si son code retour est
+ * négatif. Les échecs sont comptés et conservés pour le bilan ; un lot
+ * refusé en bloc est annulé puis rejoué appel par appel pour isoler les
+ * appels en échec. En mode test (dryRun), les lots sont constitués et
+ * comptés mais ne sont pas exécutés.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class StoredProcedureBatch {
+
+    /**
+     * Nombre maximum d'échecs conservés pour le bilan.
+     */
+    public static final int MAX_FAILURES = 1000;
+
+    /**
+     * Connexion à la base Informix.
+     */
+    private final Connection connection;
+
+    /**
+     * Appel de la procédure stockée.
+     */
+    private final String procedureCall;
+
+    /**
+     * Nombre maximum d'appels par lot.
+     */
+    private final int batchSize;
+
+    /**
+     * Indique si la procédure retourne un code (retcode, nbtrials).
+     */
+    private final boolean returning;
+
+    /**
+     * Indique si les lots sont seulement comptés, sans être exécutés.
+     */
+    private final boolean dryRun;
+
+    /**
+     * Requête préparée, conservée par le groupe de connexions, null en mode
+     * test.
+     */
+    private final PreparedStatement preparedStatement;
+
+    /**
+     * Paramètres des appels en attente.
+     */
+    private final ArrayList<Object[]> calls;
+
+    /**
+     * Appels en échec, dans la limite de MAX_FAILURES.
+     */
+    private final ArrayList<CallResult> failures;
+
+    /**
+     * Nombre d'appels demandés.
+     */
+    private int nbCalls = 0;
+
+    /**
+     * Nombre de lots exécutés.
+     */
+    private int nbBatches = 0;
+
+    /**
+     * Nombre de lots rejoués appel par appel.
+     */
+    private int nbReplayedBatches = 0;
+
+    /**
+     * Nombre d'appels en échec.
+     */
+    private int nbFailed = 0;
+
+    /**
+     * Constructeur de la classe StoredProcedureBatch.
+     *
+     * @param informixPool groupe de connexions d'où provient la connexion,
+     * qui prépare et conserve la requête.
+     * @param connection connexion à la base Informix.
+     * @param procedureCall appel de la procédure, par exemple {call
+     * addMessage(?, ?, ?)}.
+     * @param batchSize nombre maximum d'appels par lot.
+     * @param returning indique si la procédure retourne un code (retcode,
+     * nbtrials).
+     * @param dryRun indique si les lots sont seulement comptés, sans être
+     * exécutés.
+     * @throws SQLException en cas d'erreur à la préparation de la requête.
+     */
+    public StoredProcedureBatch(InformixConnectionPool informixPool, Connection connection, String procedureCall,
+            int batchSize, boolean returning, boolean dryRun) throws SQLException {
+        this(connection, dryRun ? null : informixPool.prepareStatement(connection, procedureCall), procedureCall,
+                batchSize, returning, dryRun);
+    }
+
+    /**
+     * Constructeur de la classe StoredProcedureBatch, à partir de la requête
+     * déjà préparée.
+     */
+    StoredProcedureBatch(Connection connection, PreparedStatement preparedStatement, String procedureCall,
+            int batchSize, boolean returning, boolean dryRun) {
+        this.connection = connection;
+        this.preparedStatement = preparedStatement;
+        this.procedureCall = procedureCall;
+        this.batchSize = batchSize;
+        this.returning = returning;
+        this.dryRun = dryRun;
+        calls = new ArrayList<>(batchSize);
+        failures = new ArrayList<>();
+    }
+
+    /**
+     * Ajoute un appel au lot courant et exécute le lot s'il est plein.
+     *
+     * @param parameters paramètres de l'appel, dans l'ordre de la procédure.
+     * @throws SQLException en cas d'erreur de connexion à la base.
+     */
+    public void add(Object... parameters) throws SQLException {
+        calls.add(parameters);
+        nbCalls++;
+        if (calls.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Exécute le lot courant dans une transaction.
+     *
+     * @throws SQLException en cas d'erreur de connexion à la base.
+     */
+    public void flush() throws SQLException {
+        boolean autoCommit;
+        int first;
+
+        if (calls.isEmpty()) {
+            return;
+        }
+        nbBatches++;
+        first = nbCalls - calls.size() + 1;
+        if (dryRun) {
+            calls.clear();
+            return;
+        }
+
+        autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            if (returning) {
+                executeOneByOne(first);
+            } else {
+                executeBatch(first);
+            }
+            connection.commit();
+        } catch (SQLException exception) {
+            connection.rollback();
+            throw exception;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            calls.clear();
+        }
+    }
+
+    /**
+     * Envoie les appels du lot en une seule fois. Si le lot est refusé, il
+     * est annulé puis rejoué appel par appel.
+     */
+    private void executeBatch(int first) throws SQLException {
+        int[] updateCounts;
+        int i;
+
+        for (Object[] parameters : calls) {
+            setParameters(parameters);
+            preparedStatement.addBatch();
+        }
+        try {
+            updateCounts = preparedStatement.executeBatch();
+            for (i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                    addFailure(new CallResult(first + i, calls.get(i), null, null, "exécution refusée"));
+                }
+            }
+        } catch (BatchUpdateException exception) {
+            preparedStatement.clearBatch();
+            connection.rollback();
+            nbReplayedBatches++;
+            System.out.println("Erreur : lot n°" + nbBatches + " refusé (" + exception.getMessage()
+                    + "), appels rejoués un par un");
+            executeOneByOne(first);
+        }
+    }
+
+    /**
+     * Exécute les appels du lot l'un après l'autre, en lisant leur code
+     * retour si la procédure en retourne un.
+     */
+    private void executeOneByOne(int first) throws SQLException {
+        ResultSet resultSet;
+        Integer retcode;
+        Integer nbtrials;
+        int i;
+
+        for (i = 0; i < calls.size(); i++) {
+            setParameters(calls.get(i));
+            retcode = null;
+            nbtrials = null;
+            try {
+                if (returning) {
+                    resultSet = preparedStatement.executeQuery();
+                    try {
+                        if (resultSet.next()) {
+                            retcode = resultSet.getInt(1);
+                            if (resultSet.getMetaData().getColumnCount() >= 2) {
+                                nbtrials = resultSet.getInt(2);
+                            }
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                    if (retcode != null && retcode < 0) {
+                        addFailure(new CallResult(first + i, calls.get(i), retcode, nbtrials, null));
+                    }
+                } else {
+                    preparedStatement.execute();
+                }
+            } catch (SQLException exception) {
+                addFailure(new CallResult(first + i, calls.get(i), retcode, nbtrials, exception.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Affecte les paramètres d'un appel à la requête préparée.
+     */
+    private void setParameters(Object[] parameters) throws SQLException {
+        int i;
+
+        for (i = 0; i < parameters.length; i++) {
+            preparedStatement.setObject(i + 1, parameters[i]);
+        }
+    }
+
+    /**
+     * Compte un appel en échec et le conserve pour le bilan.
+     */
+    private void addFailure(CallResult callResult) {
+        nbFailed++;
+        if (failures.size() < MAX_FAILURES) {
+            failures.add(callResult);
+        }
+    }
+
+    /**
+     * Exécute le dernier lot. La requête préparée reste ouverte : elle est
+     * fermée avec sa connexion par le groupe de connexions.
+     *
+     * @throws SQLException en cas d'erreur de connexion à la base.
+     */
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.clearParameters();
+            }
+        }
+    }
+
+    /**
+     * @return le nombre d'appels demandés.
+     */
+    public int getNbCalls() {
+        return nbCalls;
+    }
+
+    /**
+     * @return le nombre de lots exécutés.
+     */
+    public int getNbBatches() {
+        return nbBatches;
+    }
+
+    /**
+     * @return le nombre de lots rejoués appel par appel.
+     */
+    public int getNbReplayedBatches() {
+        return nbReplayedBatches;
+    }
+
+    /**
+     * @return le nombre d'appels en échec.
+     */
+    public int getNbFailed() {
+        return nbFailed;
+    }
+
+    /**
+     * @return les appels en échec, dans la limite de MAX_FAILURES.
+     */
+    public ArrayList<CallResult> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return si les lots sont seulement comptés, sans être exécutés.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Retourne le bilan des appels.
+     *
+     * @return le bilan des appels.
+     */
+    @Override
+    public String toString() {
+        return "StoredProcedureBatch:{"
+                + "procedureCall:" + procedureCall
+                + ", dryRun:" + dryRun
+                + ", calls:" + nbCalls
+                + ", batches:" + nbBatches
+                + ", replayedBatches:" + nbReplayedBatches
+                + ", failed:" + nbFailed
+                + "}";
+    }
+
+    /**
+     * Résultat d'un appel en échec.
+     */
+    public static class CallResult {
+
+        /**
+         * Numéro de l'appel, à partir de 1.
+         */
+        private final int index;
+
+        /**
+         * Paramètres de l'appel.
+         */
+        private final Object[] parameters;
+
+        /**
+         * Code retour de la procédure, null si non lu.
+         */
+        private final Integer retcode;
+
+        /**
+         * Nombre d'essais retourné par la procédure, null si non lu.
+         */
+        private final Integer nbtrials;
+
+        /**
+         * Message d'erreur de la base, null si aucun.
+         */
+        private final String message;
+
+        private CallResult(int index, Object[] parameters, Integer retcode, Integer nbtrials, String message) {
+            this.index = index;
+            this.parameters = parameters;
+            this.retcode = retcode;
+            this.nbtrials = nbtrials;
+            this.message = message;
+        }
+
+        /**
+         * @return le numéro de l'appel, à partir de 1.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return les paramètres de l'appel.
+         */
+        public Object[] getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return le code retour de la procédure, null si non lu.
+         */
+        public Integer getRetcode() {
+            return retcode;
+        }
+
+        /**
+         * @return le nombre d'essais retourné par la procédure, null si non
+         * lu.
+         */
+        public Integer getNbtrials() {
+            return nbtrials;
+        }
+
+        /**
+         * @return le message d'erreur de la base, null si aucun.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Retourne le contenu de CallResult.
+         *
+         * @return le contenu de CallResult.
+         */
+        @Override
+        public String toString() {
+            return "appel n°" + index
+                    + (parameters.length > 0 ? ", " + parameters[0] : "")
+                    + (retcode != null ? ", retcode:" + retcode : "")
+                    + (nbtrials != null ? ", nbtrials:" + nbtrials : "")
+                    + (message != null ? ", " + message : "");
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package synccollections;
+
+import bkgpi2a.Patrimony;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import utils.Md5;
+
+/**
+ * Programme qui mesure les performances du traitement d'un site lors de la
+ * synchronisation des patrimoines, sans base de données : calcul de
+ * l'identifiant agrégé, construction du filtre de recherche par lot, décodage
+ * d'un patrimoine et rapprochement trouvé / non trouvé.
+ * <p>
+ * Les sites Informix et la collection patrimonies sont simulés en mémoire.
+ * Chaque mesure est précédée d'une période de chauffe et donne le nombre
+ * d'opérations par seconde ainsi que le nombre d'octets alloués par opération
+ * (si la JVM le permet). Les résultats peuvent être ajoutés à un fichier pour
+ * comparer deux versions du programme.</p>
+ * <p>
+ * Usage : java synccollections.SyncBenchmark [-rows n] [-batchsize n]
+ * [-seconds n] [-label libellé] [-o fichier]</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.16
+ */
+public class SyncBenchmark {
+
+    /**
+     * Nombre de sites simulés. Valeur par défaut : 100000.
+     */
+    private int nbRows = 100000;
+
+    /**
+     * Nombre d'identifiants par lot. Valeur par défaut : 100.
+     */
+    private int batchSize = 100;
+
+    /**
+     * Durée de chaque mesure, et de sa chauffe, en secondes. Valeur par
+     * défaut : 2.
+     */
+    private int seconds = 2;
+
+    /**
+     * Libellé des résultats, par exemple la version mesurée.
+     */
+    private String label = "";
+
+    /**
+     * Fichier auquel ajouter les résultats, null si aucun.
+     */
+    private String outputFilename = null;
+
+    /**
+     * Références des sites simulés.
+     */
+    private String[] s3number2s;
+
+    /**
+     * Identifiants agrégés des sites simulés.
+     */
+    private String[] aggregateUids;
+
+    /**
+     * Patrimoines simulés, un site sur deux en a un.
+     */
+    private HashMap<String, Patrimony> patrimonies;
+
+    /**
+     * Patrimoine encodé en BSON, tel que renvoyé par la base MongoDb.
+     */
+    private byte[] bsonPatrimony;
+
+    /**
+     * Cumul des résultats des opérations, pour qu'elles ne soient pas
+     * éliminées par le compilateur.
+     */
+    private long sink = 0;
+
+    /**
+     * Résultats des mesures.
+     */
+    private final ArrayList<String> results = new ArrayList<>();
+
+    /**
+     * Constructeur de la classe SyncBenchmark.
+     *
+     * @param args arguments de la ligne de commande.
+     * @throws GetArgsException en cas d'erreur avec les paramètres en ligne de
+     * commande.
+     */
+    public SyncBenchmark(String[] args) throws GetArgsException {
+        int i;
+
+        i = 0;
+        while (i < args.length) {
+            if (i + 1 >= args.length) {
+                usage();
+                throw new GetArgsException("Valeur manquante pour : " + args[i]);
+            }
+            try {
+                if (args[i].equals("-rows")) {
+                    nbRows = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-batchsize")) {
+                    batchSize = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-seconds")) {
+                    seconds = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-label")) {
+                    label = args[i + 1];
+                } else if (args[i].equals("-o")) {
+                    outputFilename = args[i + 1];
+                } else {
+                    usage();
+                    throw new GetArgsException("Mauvais argument : " + args[i]);
+                }
+            } catch (NumberFormatException exception) {
+                usage();
+                throw new GetArgsException("Valeur non numérique pour " + args[i] + " : " + args[i + 1]);
+            }
+            i += 2;
+        }
+        if (nbRows < 1 || batchSize < 1 || seconds < 1) {
+            usage();
+            throw new GetArgsException("Les valeurs de -rows, -batchsize et -seconds doivent être supérieures à 0");
+        }
+    }
+
+    /**
+     * Affiche le mode d'utilisation du programme.
+     */
+    public static void usage() {
+        System.out.println("Usage : java synccollections.SyncBenchmark [-rows n] [-batchsize n]"
+                + " [-seconds n] [-label libellé] [-o fichier]");
+    }
+
+    /**
+     * Prépare les données simulées.
+     */
+    private void prepare() {
+        Document document;
+        BasicOutputBuffer outputBuffer;
+        Patrimony patrimony;
+        int i;
+
+        System.out.println("Préparation de " + nbRows + " site(s) simulé(s) ...");
+        s3number2s = new String[nbRows];
+        aggregateUids = new String[nbRows];
+        patrimonies = new HashMap<>();
+        for (i = 0; i < nbRows; i++) {
+            s3number2s[i] = "S" + (1000000 + i);
+            aggregateUids[i] = Md5.encode("s3:" + 4956 + ":" + s3number2s[i]);
+            if (i % 2 == 0) {
+                patrimony = new Patrimony();
+                patrimony.setUid(aggregateUids[i]);
+                patrimony.setRef(s3number2s[i]);
+                patrimony.setLabel("12 rue de la Paix 75002 Paris");
+                patrimonies.put(aggregateUids[i], patrimony);
+            }
+        }
+
+        document = new Document("_id", new ObjectId())
+                .append("uid", aggregateUids[0])
+                .append("ref", s3number2s[0])
+                .append("label", "12 rue de la Paix 75002 Paris")
+                .append("companyUid", Md5.encode("u:4956"))
+                .append("address", new Document("street", "12 rue de la Paix")
+                        .append("zipCode", "75002")
+                        .append("city", "Paris")
+                        .append("location", new Document("lat", 48.8691).append("lng", 2.3318)))
+                .append("tags", new ArrayList<String>())
+                .append("creationDate", new Date());
+        outputBuffer = new BasicOutputBuffer();
+        new DocumentCodec().encode(new BsonBinaryWriter(outputBuffer), document, EncoderContext.builder().build());
+        bsonPatrimony = outputBuffer.toByteArray();
+        System.out.println("Données simulées prêtes, patrimoine BSON de " + bsonPatrimony.length + " octets.");
+    }
+
+    /**
+     * Lance toutes les mesures.
+     */
+    private void run() {
+        final PatrimonyCodec patrimonyCodec;
+        final DecoderContext decoderContext;
+        final DocumentCodec documentCodec;
+        final ObjectMapper objectMapper;
+        final PrintStream nullOutput;
+
+        patrimonyCodec = new PatrimonyCodec();
+        documentCodec = new DocumentCodec();
+        decoderContext = DecoderContext.builder().build();
+        objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        nullOutput = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+
+        measure(new Measure("uid.md5", 1) {
+            @Override
+            int operation(int row) {
+                return Md5.encode("s3:" + 4956 + ":" + s3number2s[row]).length();
+            }
+        });
+
+        measure(new Measure("uid.encoder", 1) {
+            @Override
+            int operation(int row) {
+                return AggregateUidEncoder.encodePatrimony(4956, s3number2s[row]).length();
+            }
+        });
+
+        measure(new Measure("filter.in", batchSize) {
+            @Override
+            int operation(int row) {
+                ArrayList<String> uids;
+                BasicDBObject filter;
+                int i;
+
+                uids = new ArrayList<>(batchSize);
+                for (i = 0; i < batchSize; i++) {
+                    uids.add(aggregateUids[(row + i) % nbRows]);
+                }
+                filter = new BasicDBObject("uid", new BasicDBObject("$in", uids));
+                return filter.size();
+            }
+        });
+
+        measure(new Measure("decode.objectmapper", 1) {
+            @Override
+            int operation(int row) {
+                Document document;
+                Patrimony patrimony;
+
+                document = documentCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bsonPatrimony)), decoderContext);
+                try {
+                    patrimony = objectMapper.readValue(document.toJson(), Patrimony.class);
+                } catch (IOException exception) {
+                    throw new IllegalStateException(exception);
+                }
+                return patrimony.getUid() != null ? 1 : 0;
+            }
+        });
+
+        measure(new Measure("decode.codec", 1) {
+            @Override
+            int operation(int row) {
+                Patrimony patrimony;
+
+                patrimony = patrimonyCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bsonPatrimony)), decoderContext);
+                return patrimony.getUid() != null ? 1 : 0;
+            }
+        });
+
+        measure(new Measure("match.loop", 1) {
+            @Override
+            int operation(int row) {
+                Patrimony patrimony;
+                String aggregateUid;
+
+                aggregateUid = AggregateUidEncoder.encodePatrimony(4956, s3number2s[row]);
+                nullOutput.println("  aggregateUid:" + aggregateUid);
+                if ((patrimony = patrimonies.get(aggregateUid)) != null) {
+                    nullOutput.println("  patrimoine trouvé, ref:" + patrimony.getRef() + ", label:" + patrimony.getLabel() + ", uid:" + patrimony.getUid());
+                    return 1;
+                } else {
+                    nullOutput.println("  patrimoine non trouvé");
+                    return 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * Chauffe puis mesure une opération.
+     *
+     * @param measure opération à mesurer.
+     */
+    private void measure(Measure measure) {
+        ThreadMXBean threadMXBean;
+        com.sun.management.ThreadMXBean allocationMXBean;
+        long deadline;
+        long start;
+        long elapsed;
+        long allocatedBefore;
+        long allocatedBytes;
+        long nbOperations;
+        int row;
+        double opsPerSecond;
+        String result;
+
+        threadMXBean = ManagementFactory.getThreadMXBean();
+        allocationMXBean = null;
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        }
+
+        System.out.println("Mesure de " + measure.name + " ...");
+        row = 0;
+        deadline = System.nanoTime() + seconds * 1000000000L;
+        while (System.nanoTime() < deadline) {
+            sink += measure.operation(row);
+            row = (row + measure.rowsPerOperation) % nbRows;
+        }
+
+        allocatedBefore = allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+        nbOperations = 0;
+        start = System.nanoTime();
+        deadline = start + seconds * 1000000000L;
+        do {
+            sink += measure.operation(row);
+            row = (row + measure.rowsPerOperation) % nbRows;
+            nbOperations++;
+        } while ((nbOperations & 0xff) != 0 || System.nanoTime() < deadline);
+        elapsed = System.nanoTime() - start;
+        allocatedBytes = allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore : -1;
+
+        nbOperations *= measure.rowsPerOperation;
+        opsPerSecond = nbOperations * 1e9 / elapsed;
+        result = String.format("%-12s %-24s %14.0f sites/s %12s B/site", label, measure.name, opsPerSecond,
+                allocatedBytes >= 0 ? String.format("%.1f", (double) allocatedBytes / nbOperations) : "n/a");
+        System.out.println(result);
+        results.add(result);
+    }
+
+    /**
+     * Ajoute les résultats au fichier demandé.
+     *
+     * @throws IOException en cas d'erreur d'écriture.
+     */
+    private void save() throws IOException {
+        PrintWriter printWriter;
+
+        if (outputFilename == null) {
+            return;
+        }
+        printWriter = new PrintWriter(new FileWriter(outputFilename, true));
+        try {
+            for (String result : results) {
+                printWriter.println(result);
+            }
+        } finally {
+            printWriter.close();
+        }
+        System.out.println("Résultats ajoutés au fichier " + outputFilename);
+    }
+
+    /**
+     * Opération mesurée.
+     */
+    private abstract static class Measure {
+
+        /**
+         * Nom de la mesure.
+         */
+        private final String name;
+
+        /**
+         * Nombre de sites traités par opération.
+         */
+        private final int rowsPerOperation;
+
+        /**
+         * Constructeur de la classe Measure.
+         *
+         * @param name nom de la mesure.
+         * @param rowsPerOperation nombre de sites traités par opération.
+         */
+        Measure(String name, int rowsPerOperation) {
+            this.name = name;
+            this.rowsPerOperation = rowsPerOperation;
+        }
+
+        /**
+         * Exécute l'opération une fois.
+         *
+         * @param row rang du premier site traité.
+         * @return une valeur dépendant du résultat, pour que l'opération ne
+         * soit pas éliminée par le compilateur.
+         */
+        abstract int operation(int row);
+    }
+
+    /**
+     * Programme principal pour lancer les mesures.
+     *
+     * @param args arguments de la ligne de commande.
+     */
+    public static void main(String[] args) {
+        SyncBenchmark syncBenchmark;
+
+        try {
+            syncBenchmark = new SyncBenchmark(args);
+            syncBenchmark.prepare();
+            if (!AggregateUidEncoder.checkCompatibility()) {
+                System.out.println("Attention : calcul des identifiants différent de utils.Md5");
+            }
+            syncBenchmark.run();
+            syncBenchmark.save();
+            if (syncBenchmark.sink == Long.MIN_VALUE) {
+                System.out.println("sink:" + syncBenchmark.sink);
+            }
+        } catch (GetArgsException | IOException exception) {
+            Logger.getLogger(SyncBenchmark.class.getName()).log(Level.SEVERE, null, exception);
+        }
+        System.out.println("Fin des mesures");
+    }
+}
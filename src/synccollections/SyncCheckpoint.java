@@ -0,0 +1,356 @@
+package synccollections;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe qui enregistre périodiquement l'avancement d'une synchronisation
+ * dans un point de reprise, pour la reprendre là où elle s'est arrêtée
+ * (option -resume) au lieu de tout recommencer.
+ * <p>
+ * Pour les patrimoines, l'unité de reprise est le client : les sites d'un
+ * client sont rapprochés par lots, en parallèle, et ses compteurs ne sont
+ * cohérents qu'une fois tous ses sites traités. Le point de reprise conserve
+ * le bilan de chaque client terminé. Pour les sociétés, lues dans l'ordre des
+ * numéros de client, il conserve le dernier numéro dont la recherche et
+ * l'écriture sont faites. Dans les deux cas, il conserve les compteurs du
+ * travail fait, cumulés à ceux de la reprise.</p>
+ * <p>
+ * Le point de reprise est enregistré au plus toutes les interval secondes,
+ * à l'arrêt sur erreur, et supprimé à la fin d'une synchronisation complète.
+ * Il n'est repris que si les options de la synchronisation n'ont pas
+ * changé.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncCheckpoint {
+
+    /**
+     * Intervalle par défaut entre deux enregistrements, en secondes.
+     */
+    public static final int DEFAULT_INTERVAL = 60;
+
+    /**
+     * Fichier du point de reprise.
+     */
+    private final File file;
+
+    /**
+     * Options de la synchronisation.
+     */
+    private final String options;
+
+    /**
+     * Intervalle entre deux enregistrements, en nanosecondes.
+     */
+    private final long interval;
+
+    /**
+     * Bilans des clients terminés, par numéro de client.
+     */
+    private final LinkedHashMap<Integer, ClientSyncResult> clientResults;
+
+    /**
+     * Dernière clé des patrimoines de chaque client terminé, par numéro de
+     * client.
+     */
+    private final LinkedHashMap<Integer, Long> watermarks;
+
+    /**
+     * Compteurs du travail fait.
+     */
+    private final LinkedHashMap<String, Long> counters;
+
+    /**
+     * Compteurs relus dans le point de reprise.
+     */
+    private final LinkedHashMap<String, Long> resumedCounters;
+
+    /**
+     * Dernière clé traitée, pour une lecture dans l'ordre des clés.
+     */
+    private long lastKey = 0;
+
+    /**
+     * Indique si la synchronisation reprend un point de reprise.
+     */
+    private boolean resumed = false;
+
+    /**
+     * Date du dernier enregistrement, en nanosecondes.
+     */
+    private long lastSaveTime;
+
+    /**
+     * Constructeur de la classe SyncCheckpoint.
+     *
+     * @param filename nom du fichier du point de reprise.
+     * @param options options de la synchronisation, qui doivent être
+     * identiques pour reprendre.
+     * @param interval intervalle entre deux enregistrements, en secondes.
+     */
+    public SyncCheckpoint(String filename, String options, int interval) {
+        file = new File(filename);
+        this.options = options;
+        this.interval = TimeUnit.SECONDS.toNanos(interval);
+        clientResults = new LinkedHashMap<>();
+        watermarks = new LinkedHashMap<>();
+        counters = new LinkedHashMap<>();
+        resumedCounters = new LinkedHashMap<>();
+        lastSaveTime = System.nanoTime();
+    }
+
+    /**
+     * Relit le point de reprise s'il existe et correspond aux mêmes options.
+     *
+     * @return si la synchronisation reprend le point de reprise.
+     * @throws IOException en cas d'erreur de lecture du point de reprise.
+     */
+    public synchronized boolean resume() throws IOException {
+        Properties properties;
+        InputStream inputStream;
+
+        if (!file.exists()) {
+            return false;
+        }
+        properties = new Properties();
+        inputStream = new FileInputStream(file);
+        try {
+            properties.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        if (!options.equals(properties.getProperty("options"))) {
+            System.out.println("Attention : point de reprise " + file.getPath() + " d'une synchronisation aux options"
+                    + " différentes (" + properties.getProperty("options") + "), ignoré");
+            return false;
+        }
+        load(properties);
+        resumedCounters.putAll(counters);
+        resumed = true;
+        return true;
+    }
+
+    /**
+     * Relit le contenu du point de reprise.
+     */
+    private void load(Properties properties) throws IOException {
+        ClientSyncResult clientSyncResult;
+        String name;
+        String prefix;
+        int unum;
+
+        try {
+            lastKey = Long.parseLong(properties.getProperty("lastKey", "0"));
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith("counter.")) {
+                    counters.put(key.substring("counter.".length()), Long.parseLong(properties.getProperty(key)));
+                } else if (key.startsWith("client.") && key.endsWith(".uuid")) {
+                    name = key.substring("client.".length(), key.length() - ".uuid".length());
+                    unum = Integer.parseInt(name);
+                    prefix = "client." + name + ".";
+                    clientSyncResult = new ClientSyncResult(unum, properties.getProperty(key),
+                            properties.getProperty(prefix + "uname"));
+                    clientSyncResult.setNbSite(Integer.parseInt(properties.getProperty(prefix + "sites", "0")));
+                    clientSyncResult.setNbSkipped(Integer.parseInt(properties.getProperty(prefix + "skipped", "0")));
+                    clientSyncResult.setNbPatrimoniesFound(Integer.parseInt(properties.getProperty(prefix + "found", "0")));
+                    clientSyncResult.setNbPatrimoniesNotFound(Integer.parseInt(properties.getProperty(prefix + "notFound", "0")));
+                    clientSyncResult.setNbPatrimoniesDrifted(Integer.parseInt(properties.getProperty(prefix + "drifted", "0")));
+                    clientSyncResult.setStatus(properties.getProperty(prefix + "status", "ok"));
+                    clientResults.put(unum, clientSyncResult);
+                    watermarks.put(unum, Long.parseLong(properties.getProperty(prefix + "watermark", "0")));
+                }
+            }
+        } catch (NumberFormatException exception) {
+            lastKey = 0;
+            counters.clear();
+            clientResults.clear();
+            watermarks.clear();
+            throw new IOException("Point de reprise invalide : " + file.getPath(), exception);
+        }
+    }
+
+    /**
+     * @return si la synchronisation reprend un point de reprise.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return les compteurs relus dans le point de reprise.
+     */
+    public Map<String, Long> getResumedCounters() {
+        return resumedCounters;
+    }
+
+    /**
+     * Indique si un client a été traité avant la reprise.
+     *
+     * @param unum numéro du client.
+     * @return si le client a été traité.
+     */
+    public synchronized boolean isClientDone(int unum) {
+        return clientResults.containsKey(unum);
+    }
+
+    /**
+     * @return les bilans des clients terminés.
+     */
+    public synchronized ArrayList<ClientSyncResult> getClientResults() {
+        return new ArrayList<>(clientResults.values());
+    }
+
+    /**
+     * @return la dernière clé des patrimoines de chaque client terminé.
+     */
+    public synchronized Map<Integer, Long> getWatermarks() {
+        return new LinkedHashMap<>(watermarks);
+    }
+
+    /**
+     * Enregistre un client terminé et cumule ses compteurs. Le point de
+     * reprise est enregistré si l'intervalle est écoulé.
+     *
+     * @param clientSyncResult bilan du client.
+     * @param clientCounters compteurs du client.
+     * @param watermark dernière clé des patrimoines du client.
+     */
+    public synchronized void clientDone(ClientSyncResult clientSyncResult, SyncCounters clientCounters, long watermark) {
+        Long value;
+
+        clientResults.put(clientSyncResult.getUnum(), clientSyncResult);
+        watermarks.put(clientSyncResult.getUnum(), watermark);
+        for (Map.Entry<String, Long> entry : clientCounters.toMap().entrySet()) {
+            value = counters.get(entry.getKey());
+            counters.put(entry.getKey(), (value != null ? value : 0) + entry.getValue());
+        }
+        if (isDue()) {
+            save();
+        }
+    }
+
+    /**
+     * @return la dernière clé traitée, 0 si aucune.
+     */
+    public synchronized long getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * Enregistre la dernière clé traitée et les compteurs correspondants, puis
+     * le point de reprise.
+     *
+     * @param lastKey dernière clé traitée.
+     * @param syncCounters compteurs du travail fait jusqu'à cette clé.
+     */
+    public synchronized void setLastKey(long lastKey, SyncCounters syncCounters) {
+        this.lastKey = lastKey;
+        counters.clear();
+        counters.putAll(syncCounters.toMap());
+        save();
+    }
+
+    /**
+     * @return si l'intervalle depuis le dernier enregistrement est écoulé.
+     */
+    public synchronized boolean isDue() {
+        return System.nanoTime() - lastSaveTime >= interval;
+    }
+
+    /**
+     * Enregistre le point de reprise, en remplaçant l'ancien fichier
+     * seulement une fois le nouveau complètement écrit. Une erreur est
+     * signalée sans interrompre la synchronisation.
+     */
+    public synchronized void save() {
+        Properties properties;
+        File tmpFile;
+        OutputStream outputStream;
+        ClientSyncResult clientSyncResult;
+        String prefix;
+
+        lastSaveTime = System.nanoTime();
+        properties = new Properties();
+        properties.setProperty("options", options);
+        properties.setProperty("lastKey", String.valueOf(lastKey));
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            properties.setProperty("counter." + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        for (Map.Entry<Integer, ClientSyncResult> entry : clientResults.entrySet()) {
+            clientSyncResult = entry.getValue();
+            prefix = "client." + entry.getKey() + ".";
+            properties.setProperty(prefix + "uuid", String.valueOf(clientSyncResult.getUuid()));
+            if (clientSyncResult.getUname() != null) {
+                properties.setProperty(prefix + "uname", clientSyncResult.getUname());
+            }
+            properties.setProperty(prefix + "sites", String.valueOf(clientSyncResult.getNbSite()));
+            properties.setProperty(prefix + "skipped", String.valueOf(clientSyncResult.getNbSkipped()));
+            properties.setProperty(prefix + "found", String.valueOf(clientSyncResult.getNbPatrimoniesFound()));
+            properties.setProperty(prefix + "notFound", String.valueOf(clientSyncResult.getNbPatrimoniesNotFound()));
+            properties.setProperty(prefix + "drifted", String.valueOf(clientSyncResult.getNbPatrimoniesDrifted()));
+            properties.setProperty(prefix + "status", clientSyncResult.getStatus());
+            properties.setProperty(prefix + "watermark", String.valueOf(watermarks.get(entry.getKey())));
+        }
+        tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            outputStream = new FileOutputStream(tmpFile);
+            try {
+                properties.store(outputStream, "Point de reprise de SyncCollections");
+            } finally {
+                outputStream.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Impossible de remplacer le point de reprise " + file.getPath());
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Impossible d'écrire le point de reprise " + file.getPath());
+            }
+        } catch (IOException exception) {
+            System.out.println("Erreur : point de reprise non enregistré : " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Supprime le point de reprise, à la fin d'une synchronisation complète.
+     */
+    public synchronized void delete() {
+        if (file.exists() && !file.delete()) {
+            System.out.println("Erreur : impossible de supprimer le point de reprise " + file.getPath());
+        }
+    }
+
+    /**
+     * @return le nom du fichier du point de reprise.
+     */
+    public String getFilename() {
+        return file.getPath();
+    }
+
+    /**
+     * Retourne le contenu de SyncCheckpoint.
+     *
+     * @return le contenu de SyncCheckpoint.
+     */
+    @Override
+    public String toString() {
+        return "SyncCheckpoint:{"
+                + "file:" + file.getPath()
+                + ", options:" + options
+                + ", resumed:" + resumed
+                + ", lastKey:" + lastKey
+                + ", clients:" + clientResults.size()
+                + ", counters:" + counters
+                + "}";
+    }
+}
@@ -6,40 +6,52 @@ import bdd.Ftype;
 import bdd.FtypeDAO;
 import bdd.Furgent;
 import bdd.FurgentDAO;
-import bkgpi2a.Company;
 import bkgpi2a.Identifiants;
 import bkgpi2a.Patrimony;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.result.UpdateResult;
 import java.io.*;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import utils.ApplicationProperties;
-import utils.DBManager;
 import utils.DBServer;
 import utils.DBServerException;
-import utils.Md5;
 
 /**
  * SyncCollections, Programme Java permettant de synchroniser les collections
  * d'une base de données MongoDB par rapport à une base de données Informix
  *
  * @author Thierry Baribaud.
- * @version 0.06
+ * @version 0.31
  */
 public class SyncCollections {
 
+    /**
+     * Décodeurs des documents MongoDb : les patrimoines et les sociétés sont
+     * décodés directement depuis le BSON (cf. PatrimonyCodec, CompanyCodec).
+     */
+    private static final CodecRegistry CODEC_REGISTRY = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new PatrimonyCodec(), new CompanyCodec()),
+            MongoClient.getDefaultCodecRegistry());
+
     /**
      * mgoDbServerType : prod pour le serveur de production, pre-prod pour le
      * serveur de pré-production. Valeur par défaut : pre-prod.
@@ -78,25 +90,200 @@ public class SyncCollections {
      */
     private static boolean testMode = false;
 
+    /**
+     * batchSize : nombre d'identifiants regroupés dans une même requête
+     * MongoDb. Valeur par défaut : 100.
+     */
+    private int batchSize = 100;
+
+    /**
+     * syncWorkers : groupes de tâches utilisés pour paralléliser la
+     * synchronisation, dimensionnés par les propriétés nb.thread du fichier
+     * MyDatabases.prop.
+     */
+    private SyncWorkers syncWorkers;
+
+    /**
+     * strategy : stratégie de rapprochement des patrimoines, lookup pour des
+     * recherches par lots, hash pour une lecture unique de tous les
+     * identifiants, sort pour un tri des sites et des patrimoines en mémoire
+     * bornée. Valeur par défaut : lookup.
+     */
+    private String strategy = "lookup";
+
+    /**
+     * sortMemory : mémoire allouée au tri des sites et des patrimoines avec
+     * la stratégie sort, en mégaoctets. Valeur par défaut : 64.
+     */
+    private int sortMemory = 64;
+
+    /**
+     * changesLag : ancienneté minimale des lignes lues dans le journal des
+     * modifications, en secondes. Valeur par défaut :
+     * ChangeCapture.DEFAULT_LAG.
+     */
+    private int changesLag = ChangeCapture.DEFAULT_LAG;
+
+    /**
+     * patrimonySortMerge : tri et fusion des sites et des patrimoines pendant
+     * une synchronisation des patrimoines avec la stratégie sort, null sinon.
+     */
+    private PatrimonySortMerge patrimonySortMerge = null;
+
+    /**
+     * fullScan : force la relecture complète des tables Informix, sans tenir
+     * compte des clés déjà traitées. Valeur par défaut : false.
+     */
+    private boolean fullScan = false;
+
+    /**
+     * incremental : ne traite que les sites et les clients de clé supérieure
+     * à la dernière clé mémorisée. Valeur par défaut : false, toutes les clés
+     * sont traitées.
+     */
+    private boolean incremental = false;
+
+    /**
+     * syncState : état des synchronisations conservé d'une exécution à
+     * l'autre (dernières clés traitées).
+     */
+    private SyncState syncState;
+
+    /**
+     * fingerprintStore : empreintes des sites trouvés à l'identique dans la
+     * base MongoDb, null si non utilisé.
+     */
+    private FingerprintStore fingerprintStore = null;
+
+    /**
+     * pipeline : lit les sites Informix en parallèle de leur rapprochement
+     * avec les patrimoines. Valeur par défaut : false.
+     */
+    private boolean pipeline = false;
+
+    /**
+     * repair : réécrit les patrimoines absents ou modifiés à partir des sites
+     * Informix. En mode test, les écritures sont seulement comptées et
+     * enregistrées dans le rapport des écarts. Valeur par défaut : false.
+     */
+    private boolean repair = false;
+
+    /**
+     * partition : part du travail traitée par ce processus lorsque la
+     * synchronisation est répartie entre plusieurs processus. Par défaut, tout
+     * le travail est traité.
+     */
+    private SyncPartition partition = SyncPartition.ALL;
+
+    /**
+     * snapshot : instantané local des tables Informix lu à la place de la
+     * base Informix, null pour lire la base Informix.
+     */
+    private SyncSnapshot snapshot = null;
+
+    /**
+     * resume : reprend une synchronisation interrompue à partir de son point
+     * de reprise. Valeur par défaut : false.
+     */
+    private boolean resume = false;
+
+    /**
+     * discrepancyReport : rapport des écarts constatés (patrimoines et
+     * sociétés absents, patrimoines modifiés ou sans site Informix).
+     */
+    private DiscrepancyReport discrepancyReport;
+
     /**
      * Constructeur de la classe SyncCollections
      * <p>
      * Les arguments en ligne de commande permettent de changer le mode de
      * fonctionnement.</p><ul>
-     * <li>-mgodb prod|pre-prod : référence à la base de données MongoDB, par
-     * défaut désigne la base de données de pré-production. Voir fichier
+     * <li>-mgodb prod|pre-prod|local : référence à la base de données MongoDB,
+     * par défaut désigne la base de données de pré-production, local désigne
+     * la base de test de SyncLoadTest. Voir fichier
      * myDatabases.prop (optionnel).</li>
      * <li>-ifxdb prod|pre-prod|prod2|pre-prod2 : référence à la base de données
      * Informix, par défaut désigne la base de données de pré-production. Voir
      * fichier myDatabases.prop (optionnel).</li>
-     * <li>-patrimonies clientCompanyUuid : demande la synchronisation des
-     * patrimoines du client ayant l'identifiant clientCompanyUuid (paramètre
+     * <li>-patrimonies all|clientCompanyUuid[,clientCompanyUuid...]|@fichier :
+     * demande la synchronisation des patrimoines de tous les clients, des
+     * clients dont les identifiants sont donnés ou des clients dont les
+     * identifiants sont listés dans le fichier, un par ligne (paramètre
+     * optionnel).</li>
+     * <li>-companies : demande la synchronisation des sociétés (paramètre
      * optionnel).</li>
-     * <li>-d : le programme fonctionne en mode débug le rendant plus verbeux,
-     * désactivé par défaut (optionnel).</li>
+     * <li>-changes : applique aux patrimoines et aux sociétés les
+     * modifications des sites et des clients enregistrées dans le journal
+     * des modifications Informix depuis la dernière exécution, au lieu de
+     * comparer les tables. Avec -daemon, la base MongoDb est tenue à jour en
+     * continu (paramètre optionnel).</li>
+     * <li>-lag secondes : ancienneté minimale des lignes lues dans le journal
+     * des modifications, 10 s par défaut. Une transaction validée plus tard
+     * après l'insertion de sa ligne risque de ne jamais être appliquée
+     * (optionnel).</li>
+     * <li>-batchsize n : nombre d'identifiants recherchés ou d'écritures
+     * envoyées par requête MongoDb, 100 par défaut (optionnel).</li>
+     * <li>-strategy lookup|hash|sort : stratégie de rapprochement des
+     * patrimoines, lookup par défaut. hash lit une seule fois les identifiants
+     * de tous les patrimoines et signale aussi, pour -patrimonies all, les
+     * patrimoines sans site Informix. sort trie les sites et les patrimoines
+     * par identifiant, sur disque au-delà de la mémoire allouée, puis les
+     * fusionne en une passe : mêmes écarts que hash, modifications comprises,
+     * en mémoire bornée. Les sites sont tous relus (optionnel).</li>
+     * <li>-sortmemory Mo : mémoire allouée au tri avec -strategy sort, 64 Mo
+     * par défaut (optionnel).</li>
+     * <li>-full : relit complètement les tables Informix et, avec
+     * -fingerprints, recherche tous les sites. C'est le comportement par
+     * défaut pour les clés (optionnel).</li>
+     * <li>-incremental : ne traite que les sites et les clients créés depuis
+     * la dernière exécution réussie, de numéro supérieur à la dernière clé
+     * mémorisée. Les numéros étant attribués à la création, un site ou un
+     * client modifié depuis n'est pas revu. La dernière clé d'un client
+     * n'avance pas tant qu'un de ses patrimoines est absent ou modifié sans
+     * être réparé. Les sites sont tous lus dans la base Informix, seuls les
+     * nouveaux sont recherchés dans la base MongoDb. Incompatible avec -full
+     * (optionnel).</li>
+     * <li>-fingerprints : compare le contenu des sites, relus en totalité,
+     * à l'empreinte mémorisée lors de la dernière exécution et ne recherche
+     * dans la base MongoDb que les sites nouveaux ou modifiés (optionnel).</li>
+     * <li>-pipeline : lit les sites Informix en parallèle de leur
+     * rapprochement avec les patrimoines, au travers d'une file bornée
+     * (optionnel).</li>
+     * <li>-repair : réécrit par lots d'upserts les patrimoines absents ou
+     * modifiés à partir des sites Informix (optionnel).</li>
+     * <li>-partition k/n [-partitionby unum|uid] : ne traite que la k-ième
+     * des n parts du travail, réparties par numéro de client (par défaut) ou
+     * par identifiant agrégé. Les fichiers d'état, d'empreintes, d'écarts et
+     * de mesures portent le suffixe .partk-n (optionnel).</li>
+     * <li>-export fichier : écrit dans le fichier un instantané des clients,
+     * de leur raison d'appel n°1 et de leurs sites (tous les clients ou ceux
+     * de -patrimonies), avec leurs identifiants agrégés, puis s'arrête
+     * (optionnel).</li>
+     * <li>-snapshot fichier : lit les clients et les sites dans l'instantané
+     * au lieu de la base Informix, qui n'est pas sollicitée. Toutes les clés
+     * sont traitées et l'état des synchronisations n'est pas enregistré
+     * (optionnel).</li>
+     * <li>-resume : reprend une synchronisation interrompue à partir de son
+     * point de reprise, enregistré périodiquement dans le fichier
+     * SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.&lt;collection&gt;.checkpoint :
+     * les clients déjà traités ne sont pas relus et les compteurs sont
+     * cumulés. Les écarts sont ajoutés au fichier des écarts (optionnel).</li>
+     * <li>-daemon secondes : le programme reste lancé et relance les
+     * synchronisations demandées toutes les n secondes, en conservant ses
+     * connexions. L'état de la dernière exécution est enregistré dans le
+     * fichier SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.status. Incompatible
+     * avec -export et -snapshot (optionnel).</li>
+     * <li>-report fichier : fichier des écarts, au format CSV si son nom se
+     * termine par .csv, JSON Lines sinon. Par défaut
+     * SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.report.jsonl (optionnel).</li>
+     * <li>-d : le programme fonctionne en mode débug le rendant plus verbeux
+     * (détail de chaque site et de chaque client), désactivé par défaut
+     * (optionnel). Sinon seuls l'avancement et le bilan sont affichés.</li>
      * <li>-t : le programme fonctionne en mode de test, les transactions en
      * base de données ne sont pas exécutées, désactivé par défaut
-     * (optionnel).</li>
+     * (optionnel). Les écritures sont constituées et comptées comme en
+     * fonctionnement normal, et l'état des synchronisations n'est pas
+     * enregistré.</li>
      * </ul>
      *
      * @param args arguments de la ligne de commande.
@@ -115,8 +302,8 @@ public class SyncCollections {
         GetArgs getArgs;
         MongoClient mongoClient;
         MongoDatabase mongoDatabase;
-        DBManager informixDbManager;
         Connection informixConnection;
+        SyncDaemon syncDaemon;
 
         System.out.println("Création d'une instance de SyncCollections ...");
 
@@ -126,8 +313,32 @@ public class SyncCollections {
         setIfxDbServerType(getArgs.getInformixDbServerType());
         debugMode = getArgs.getDebugMode();
         testMode = getArgs.getTestMode();
+        setBatchSize(getArgs.getBatchSize());
+        setStrategy(getArgs.getStrategy());
+        setSortMemory(getArgs.getSortMemory());
+        setChangesLag(getArgs.getChangesLag());
+        setFullScan(getArgs.getFullScan());
+        setIncremental(getArgs.getIncremental());
+        setPipeline(getArgs.getPipeline());
+        setRepair(getArgs.getRepair());
+        setPartition(getArgs.getPartition());
+        setResume(getArgs.getResume());
         System.out.println("Argument(s) en ligne de commande lus().");
 
+        if (getArgs.getSnapshotFilename() != null) {
+            System.out.println("Lecture de l'instantané : " + getArgs.getSnapshotFilename());
+            snapshot = new SyncSnapshot(getArgs.getSnapshotFilename());
+            System.out.println("Instantané lu : " + snapshot.getClients().size() + " client(s), "
+                    + snapshot.getNbSites() + " site(s), base Informix " + snapshot.getIfxDbServerType()
+                    + " du " + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(snapshot.getCreationDate()));
+            if (!snapshot.getIfxDbServerType().equals(ifxDbServerType)) {
+                System.out.println("Attention : instantané de la base Informix " + snapshot.getIfxDbServerType()
+                        + ", -ifxdb " + ifxDbServerType + " ignoré");
+                setIfxDbServerType(snapshot.getIfxDbServerType());
+            }
+            setFullScan(true);
+        }
+
         System.out.println("Lecture des paramètres d'exécution ...");
         applicationProperties = new ApplicationProperties("MyDatabases.prop");
         System.out.println("Paramètres d'exécution lus.");
@@ -146,52 +357,233 @@ public class SyncCollections {
             System.out.println(ifxServer);
         }
 
+        syncWorkers = new SyncWorkers(applicationProperties, mgoDbServerType, ifxDbServerType, ifxServer);
+        if (debugMode) {
+            System.out.println(syncWorkers);
+        }
+        if (snapshot == null) {
+            System.out.println("Ouverture de " + syncWorkers.getInformixPool().getSize()
+                    + " connexion(s) au serveur Informix : " + ifxServer.getName());
+            syncWorkers.prewarmInformixConnections();
+        }
+
         System.out.println("Ouverture de la connexion au serveur MongoDb : " + mgoServer.getName());
         mongoClient = new MongoClient(mgoServer.getIpAddress(), (int) mgoServer.getPortNumber());
 
         System.out.println("Connexion à la base de données : " + mgoServer.getDbName());
         mongoDatabase = mongoClient.getDatabase(mgoServer.getDbName());
 
-        System.out.println("Ouverture de la connexion au serveur Informix : " + ifxServer.getName());
-        informixDbManager = new DBManager(ifxServer);
+        syncDaemon = null;
+        try {
+            if (snapshot == null) {
+                System.out.println("Connexion à la base de données : " + ifxServer.getDbName());
+                informixConnection = syncWorkers.getInformixPool().acquire();
+            } else {
+                informixConnection = null;
+            }
+
+            if (!AggregateUidEncoder.checkCompatibility()) {
+                System.out.println("Attention : calcul des identifiants différent de utils.Md5, utils.Md5 sera utilisé");
+            }
 
-        System.out.println("Connexion à la base de données : " + ifxServer.getDbName());
-        informixConnection = informixDbManager.getConnection();
+            if (getArgs.getExportFilename() != null) {
+                exportSnapshot(informixConnection, getArgs.getClientCompanyUuids(), getArgs.getExportFilename());
+                return;
+            }
+
+            if (partition.isPartitioned()) {
+                System.out.println("Partition traitée : " + partition);
+            }
+            syncState = new SyncState(partition.isPartitioned() ? "SyncCollections" + partition.getSuffix() + ".state" : SyncState.DEFAULT_FILENAME,
+                    ifxDbServerType, mgoDbServerType);
+            if (debugMode) {
+                System.out.println(syncState);
+            }
 
-//        System.out.println("Synchronisation des sociétés ...");
-//        syncCompanies(mongoDatabase, informixConnection);
-//        System.out.println("Synchronisation des sociétés ...");
-//        splTester(informixConnection);
-        if (getArgs.getReadPatrimonies()) {
-            syncPatrimonies(mongoDatabase, informixConnection, getArgs.getClientCompanyUuid());
+            if (getArgs.getFingerprints()) {
+                fingerprintStore = new FingerprintStore("SyncCollections." + ifxDbServerType + "." + mgoDbServerType + partition.getSuffix() + ".fingerprints");
+                if (debugMode) {
+                    System.out.println(fingerprintStore);
+                }
+            }
+
+            if (getArgs.getDaemonInterval() > 0) {
+                syncDaemon = new SyncDaemon("SyncCollections." + ifxDbServerType + "." + mgoDbServerType + partition.getSuffix() + ".status",
+                        getArgs.getDaemonInterval());
+            }
+
+            if (syncDaemon != null) {
+                runDaemon(syncDaemon, getArgs, mongoDatabase, informixConnection);
+            } else {
+                runSyncs(getArgs, mongoDatabase, informixConnection);
+            }
+        } finally {
+            if (debugMode) {
+                System.out.println(syncWorkers.getInformixPool());
+            }
+            syncWorkers.shutdown();
+            if (fingerprintStore != null) {
+                fingerprintStore.close();
+            }
+            if (syncDaemon != null) {
+                mongoClient.close();
+                syncDaemon.terminated();
+            }
         }
 
     }
 
+    /**
+     * Exécute les synchronisations demandées, avec un nouveau rapport des
+     * écarts.
+     *
+     * @param getArgs arguments de la ligne de commande.
+     * @param mongoDatabase base de données MongoDb.
+     * @param informixConnection connexion à la base Informix, null avec
+     * -snapshot.
+     * @return true si les synchronisations se sont terminées sans erreur.
+     * @throws IOException en cas d'erreur d'écriture du rapport des écarts.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    private boolean runSyncs(GetArgs getArgs, MongoDatabase mongoDatabase, Connection informixConnection)
+            throws IOException, InterruptedException {
+        boolean succeeded;
+
+        discrepancyReport = new DiscrepancyReport(getArgs.getReportFilename() != null ? getArgs.getReportFilename()
+                : "SyncCollections." + ifxDbServerType + "." + mgoDbServerType + partition.getSuffix() + ".report.jsonl", resume);
+
+        succeeded = true;
+        try {
+            if (getArgs.getChanges()) {
+                System.out.println("Application des modifications Informix ...");
+                succeeded &= syncChanges(mongoDatabase, informixConnection);
+            }
+            if (getArgs.getReadCompanies()) {
+                System.out.println("Synchronisation des sociétés ...");
+                succeeded &= syncCompanies(mongoDatabase, informixConnection);
+            }
+//            System.out.println("Synchronisation des sociétés ...");
+//            splTester(informixConnection);
+            if (getArgs.getReadPatrimonies()) {
+                succeeded &= syncPatrimonies(mongoDatabase, informixConnection, getArgs.getClientCompanyUuids());
+            }
+        } finally {
+            discrepancyReport.close();
+            System.out.println(getNbDiscrepancies()
+                    + " écart(s) enregistré(s) dans le fichier " + discrepancyReport.getFilename()
+                    + " : " + discrepancyReport.getNbMissing() + " absent(s), "
+                    + discrepancyReport.getNbDrifted() + " modifié(s), "
+                    + discrepancyReport.getNbOrphaned() + " sans site Informix");
+        }
+        return succeeded;
+    }
+
+    /**
+     * Relance les synchronisations demandées à l'intervalle du démon, jusqu'à
+     * l'arrêt du programme.
+     * <p>
+     * Le client MongoDb, les connexions Informix et les groupes de tâches
+     * sont conservés d'une synchronisation à l'autre, ainsi que l'état des
+     * synchronisations : avec -incremental, seuls les sites et les clients
+     * créés depuis la précédente sont traités. Le client MongoDb se
+     * reconnecte de lui-même ; après une synchronisation en erreur, les
+     * connexions Informix sont fermées et rouvertes au début de la suivante,
+     * qui reprend à partir du point de reprise.</p>
+     *
+     * @param syncDaemon cadence et état du démon.
+     * @param getArgs arguments de la ligne de commande.
+     * @param mongoDatabase base de données MongoDb.
+     * @param informixConnection connexion à la base Informix, obtenue du
+     * groupe de connexions.
+     */
+    private void runDaemon(SyncDaemon syncDaemon, GetArgs getArgs, MongoDatabase mongoDatabase,
+            Connection informixConnection) {
+        SimpleDateFormat dateFormat;
+        boolean succeeded;
+        String status;
+        long start;
+
+        dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+        System.out.println("Mode démon : synchronisation toutes les " + getArgs.getDaemonInterval()
+                + " s, état enregistré dans le fichier " + syncDaemon.getFilename());
+        try {
+            while (syncDaemon.await()) {
+                syncDaemon.runStarted();
+                System.out.println("Synchronisation n°" + (syncDaemon.getNbRuns() + 1) + " du "
+                        + dateFormat.format(new Date()) + " ...");
+                start = System.nanoTime();
+                try {
+                    if (informixConnection != null && informixConnection.isClosed()) {
+                        syncWorkers.getInformixPool().invalidate(informixConnection);
+                        informixConnection = null;
+                    }
+                    if (informixConnection == null) {
+                        System.out.println("Ouverture de la connexion au serveur Informix ...");
+                        informixConnection = syncWorkers.getInformixPool().acquire();
+                    }
+                    succeeded = runSyncs(getArgs, mongoDatabase, informixConnection);
+                    status = (succeeded ? "ok, " : "erreur, ") + getNbDiscrepancies() + " écart(s)";
+                } catch (ClassNotFoundException | SQLException | IOException | RuntimeException exception) {
+                    Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+                    succeeded = false;
+                    status = "erreur : " + exception.getMessage();
+                } catch (InterruptedException exception) {
+                    Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+                    syncDaemon.stop();
+                    succeeded = false;
+                    status = "interrompue";
+                }
+                if (!succeeded) {
+                    if (informixConnection != null) {
+                        syncWorkers.getInformixPool().invalidate(informixConnection);
+                        informixConnection = null;
+                    }
+                    syncWorkers.resetInformixConnections();
+                }
+                setResume(!succeeded);
+                syncDaemon.runFinished(succeeded, status);
+                System.out.println("Synchronisation n°" + syncDaemon.getNbRuns() + " terminée en "
+                        + ((System.nanoTime() - start) / 1000000) + " ms : " + status
+                        + (syncDaemon.isStopped() ? "" : ", prochaine le " + dateFormat.format(syncDaemon.getNextRun())));
+                if (syncDaemon.getNbConsecutiveFailures() > 1) {
+                    System.out.println("Erreur : " + syncDaemon.getNbConsecutiveFailures() + " synchronisation(s) en erreur consécutive(s)");
+                }
+            }
+        } finally {
+            System.out.println("Arrêt du démon après " + syncDaemon.getNbRuns() + " synchronisation(s)");
+            if (informixConnection != null) {
+                syncWorkers.getInformixPool().release(informixConnection);
+            }
+        }
+    }
+
+    /**
+     * @return le nombre d'écarts enregistrés par la dernière synchronisation.
+     */
+    private long getNbDiscrepancies() {
+        return discrepancyReport.getNbMissing() + discrepancyReport.getNbDrifted() + discrepancyReport.getNbOrphaned();
+    }
+
     /**
      * Méthode pour tester l'utilisation de procédures stockées depuis Java
+     * <p>
+     * Les appels passent par StoredProcedureBatch : regroupés par lots de
+     * batchSize avec une transaction par lot, non exécutés en mode test.</p>
      *
      * @param informixConnection connexion à la base de données Informix
      */
     public void splTester(Connection informixConnection) {
-        PreparedStatement preparedStatement;
-        ResultSet resultSet;
+        StoredProcedureBatch storedProcedureBatch;
         Timestamp timestamp;
 
         timestamp = new Timestamp(System.currentTimeMillis());
         System.out.println("timestamp:" + timestamp);
         try {
-            preparedStatement = informixConnection.prepareStatement("{call addMessage(?, ?, ?)}");
-            preparedStatement.setInt(1, 4956554);
-            preparedStatement.setString(2, "Maître Corbeau, sur un arbre perché, Tenait en son bec un fromage. Maître Renard, par l'odeur alléché, Lui tint à peu près ce langage : 'Hé ! bonjour, Monsieur du Corbeau. Que vous êtes joli ! que vous me semblez beau ! Sans mentir, si votre ramage Se rapporte à votre plumage, Vous êtes le Phénix des hôtes de ces bois.' A ces mots le Corbeau ne se sent pas de joie ; Et pour montrer sa belle voix, Il ouvre un large bec, laisse tomber sa proie. Le Renard s'en saisit, et dit : 'Mon bon Monsieur, Apprenez que tout flatteur Vit aux dépens de celui qui l'écoute : Cette leçon vaut bien un fromage, sans doute. Le Corbeau, honteux et confus, Jura, mais un peu tard, qu'on ne l'y prendrait plus.");
-            preparedStatement.setTimestamp(3, timestamp);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                System.out.println("retcode:" + resultSet.getInt(1));
-                System.out.println("nbtrials:" + resultSet.getInt(2));
-            }
-            resultSet.close();
-            preparedStatement.close();
+            storedProcedureBatch = new StoredProcedureBatch(syncWorkers.getInformixPool(), informixConnection,
+                    "{call addMessage(?, ?, ?)}", batchSize, true, testMode);
+            storedProcedureBatch.add(4956554, "Maître Corbeau, sur un arbre perché, Tenait en son bec un fromage. Maître Renard, par l'odeur alléché, Lui tint à peu près ce langage : 'Hé ! bonjour, Monsieur du Corbeau. Que vous êtes joli ! que vous me semblez beau ! Sans mentir, si votre ramage Se rapporte à votre plumage, Vous êtes le Phénix des hôtes de ces bois.' A ces mots le Corbeau ne se sent pas de joie ; Et pour montrer sa belle voix, Il ouvre un large bec, laisse tomber sa proie. Le Renard s'en saisit, et dit : 'Mon bon Monsieur, Apprenez que tout flatteur Vit aux dépens de celui qui l'écoute : Cette leçon vaut bien un fromage, sans doute. Le Corbeau, honteux et confus, Jura, mais un peu tard, qu'on ne l'y prendrait plus.", timestamp);
+            storedProcedureBatch.close();
+            reportFailures(storedProcedureBatch);
 
 //            preparedStatement = informixConnection.prepareStatement("{call findCall(?, ?)}");
 //            preparedStatement.setString(1, "49");
@@ -209,157 +601,989 @@ public class SyncCollections {
         }
     }
 
+    /**
+     * Affiche le bilan d'appels groupés de procédure stockée et le détail des
+     * appels en échec.
+     *
+     * @param storedProcedureBatch appels groupés, une fois exécutés.
+     */
+    private void reportFailures(StoredProcedureBatch storedProcedureBatch) {
+        if (storedProcedureBatch.isDryRun()) {
+            System.out.println("Mode test : " + storedProcedureBatch.getNbCalls() + " appel(s) en "
+                    + storedProcedureBatch.getNbBatches() + " lot(s) non exécuté(s)");
+            return;
+        }
+        System.out.println(storedProcedureBatch.getNbCalls() + " appel(s) en "
+                + storedProcedureBatch.getNbBatches() + " lot(s), "
+                + storedProcedureBatch.getNbFailed() + " en échec");
+        for (StoredProcedureBatch.CallResult failure : storedProcedureBatch.getFailures()) {
+            System.out.println("  Erreur : " + failure);
+        }
+        if (storedProcedureBatch.getNbFailed() > storedProcedureBatch.getFailures().size()) {
+            System.out.println("  ... " + (storedProcedureBatch.getNbFailed() - storedProcedureBatch.getFailures().size())
+                    + " autre(s) échec(s) non affiché(s)");
+        }
+    }
+
     /**
      * Méthode pour synchroniser les patrimoines par rapport à la base de
      * données Informix.
+     * <p>
+     * Chaque client est traité par le groupe de tâches Informix avec sa propre
+     * connexion, réutilisée d'un client à l'autre. Les patrimoines sont
+     * recherchés dans la base MongoDb par lots de batchSize identifiants, en
+     * parallèle. Les écarts sont enregistrés dans le rapport des écarts.
+     * L'avancement est affiché périodiquement, puis le bilan des clients en
+     * écart ; en mode débug, les messages de chaque client sont affichés dans
+     * l'ordre de lecture des clients, suivis du bilan de tous les clients. La
+     * durée de chaque phase est mesurée et enregistrée à la fin dans le
+     * fichier SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.patrimonies.metrics.json.</p>
+     * <p>
+     * Avec -incremental, les sites déjà traités lors d'une exécution réussie
+     * (numéro de site inférieur ou égal à la dernière clé mémorisée pour le
+     * client) sont ignorés après leur lecture. La dernière clé n'avance que
+     * si tous les patrimoines du client ont été trouvés identiques à leur
+     * site, ou réparés sans erreur : les écarts restent signalés aux
+     * exécutions suivantes.</p>
+     * <p>
+     * Avec la stratégie sort, les patrimoines sont lus et triés en parallèle
+     * de la lecture des sites ; les sites de tous les clients sont triés puis
+     * rapprochés en une seule fusion (cf. PatrimonySortMerge), en mémoire
+     * bornée par -sortmemory. Les clients ne sont pas enregistrés dans le
+     * point de reprise : une reprise relit tous les sites.</p>
+     * <p>
+     * Les patrimoines ne sont pas synchronisés par SyncEngine : leur source
+     * n'est pas une table lue par clé unique croissante, mais les sites de
+     * chaque client pour sa raison d'appel n°1, avec une dernière clé par
+     * client, et leurs stratégies (lookup, hash, sort), le pipeline et les
+     * empreintes ne se réduisent pas à une comparaison ligne à ligne. Seule la
+     * lecture des clients est commune avec les sociétés (cf.
+     * CompanySyncTask).</p>
+     *
+     * @param clientCompanyUuids identifiants des clients à traiter, null pour
+     * traiter tous les clients.
+     * @return true si tous les clients ont été traités sans erreur.
      */
-    private void syncPatrimonies(MongoDatabase mongoDatabase, Connection informixConnection, String clientCompanyUuid) {
+    private boolean syncPatrimonies(MongoDatabase mongoDatabase, Connection informixConnection, ArrayList<String> clientCompanyUuids) {
+        long nbPatrimonies;
+        UidSet uidSet;
+        ArrayList<String> orphanUids;
+        PatrimonyRepair sortRepair;
+        Future<Void> patrimoniesLoad;
+        Thread loadThread;
+        boolean orphans;
         Furgent furgent;
         FurgentDAO furgentDAO;
-        Ftype ftype;
-        FtypeDAO ftypeDAO;
-        Fsite fsite;
-        FsiteDAO fsiteDAO;
-        int nbSite;
-        Patrimony patrimony;
-        ObjectMapper objectMapper;
+        CompanySyncTask clientTask;
+        RowSource<Furgent> clientSource;
         MongoCollection<Document> collection;
-        MongoCursor<Document> cursor;
-        BasicDBObject filter;
-        String aggregateUid;
-        int nbPatrimoniesFound;
-        int nbPatrimoniesNotFound;
-
-        objectMapper = new ObjectMapper();
+        MongoCollection<Patrimony> patrimonies;
+        SyncCounters syncCounters;
+        ArrayList<Future<ClientSyncResult>> results;
+        ArrayList<ClientSyncResult> clientSyncResults;
+        ClientSyncResult clientSyncResult;
+        SyncProgress syncProgress;
+        SyncMetrics syncMetrics;
+        SyncCheckpoint syncCheckpoint;
+        Map<Integer, Long> watermarks;
+        boolean resumed;
+        boolean succeeded;
+        int nbFailed;
+        long start;
 
+        succeeded = false;
+        syncMetrics = new SyncMetrics("patrimonies");
         collection = mongoDatabase.getCollection("patrimonies");
-        System.out.println(collection.count() + " patrimonie(s) dans la base MongoDb");
+        patrimonies = collection.withDocumentClass(Patrimony.class).withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(new TimedCodec<>(new PatrimonyCodec(), syncMetrics.getPhase(SyncMetrics.MONGO_DECODE))),
+                CODEC_REGISTRY));
+        nbPatrimonies = collection.count();
+        System.out.println(nbPatrimonies + " patrimonie(s) dans la base MongoDb");
+
+        uidSet = null;
+        if (strategy.equals("hash")) {
+            System.out.println("Lecture des identifiants des patrimoines ...");
+            start = System.nanoTime();
+            uidSet = loadPatrimonyUids(collection, nbPatrimonies);
+            syncMetrics.getPhase(SyncMetrics.MONGO_UID_SCAN).record(start);
+            System.out.println(uidSet.size() + " identifiant(s) de patrimoine lu(s)");
+        }
 
+        sortRepair = null;
+        patrimoniesLoad = null;
+        if (strategy.equals("sort")) {
+            if (repair) {
+                sortRepair = new PatrimonyRepair(collection, batchSize, testMode, syncMetrics,
+                        syncWorkers.getMongoThrottle());
+            }
+            patrimonySortMerge = new PatrimonySortMerge(sortMemory * 1024L * 1024L, partition, discrepancyReport,
+                    sortRepair, syncMetrics, debugMode);
+            System.out.println("Tri des patrimoines et des sites en " + sortMemory + " Mo ...");
+            patrimoniesLoad = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    patrimonySortMerge.loadPatrimonies(patrimonies);
+                    return null;
+                }
+            });
+            loadThread = new Thread((FutureTask<Void>) patrimoniesLoad, "SyncCollections-sort-load");
+            loadThread.setDaemon(true);
+            loadThread.start();
+        }
+
+        syncCounters = new SyncCounters();
+        syncCheckpoint = openCheckpoint("patrimonies", clientCompanyUuids);
+        resumed = syncCheckpoint.isResumed();
+        if (resumed) {
+            syncCounters.add(syncCheckpoint.getResumedCounters());
+            watermarks = syncCheckpoint.getWatermarks();
+            for (ClientSyncResult resumedResult : syncCheckpoint.getClientResults()) {
+                syncState.setWatermark("patrimonies." + resumedResult.getUuid(), watermarks.get(resumedResult.getUnum()));
+            }
+            System.out.println("Reprise : " + watermarks.size() + " client(s) déjà traité(s), "
+                    + syncCounters.getNbSite() + " site(s)");
+        }
+        results = new ArrayList<>();
+        syncProgress = new SyncProgress("patrimonies", syncCounters, syncMetrics, SyncProgress.DEFAULT_INTERVAL);
         try {
-            furgentDAO = new FurgentDAO(informixConnection);
-            if (clientCompanyUuid != null) {
-                furgentDAO.filterByUuid(clientCompanyUuid);
-            }
-            furgentDAO.orderBy("unum");
-            System.out.println("  SelectStatement=" + furgentDAO.getSelectStatement());
-            furgentDAO.setSelectPreparedStatement();
-            if ((furgent = furgentDAO.select()) != null) {
-                System.out.println("Client:" + furgent.getUname() + ", unum=" + furgent.getUnum() + ", uuid:" + furgent.getUuid());
-                ftypeDAO = new FtypeDAO(informixConnection);
-                ftypeDAO.filterByCode(furgent.getUnum(), 1);
-                System.out.println("  SelectStatement=" + ftypeDAO.getSelectStatement());
-                ftypeDAO.setSelectPreparedStatement();
-                if ((ftype = ftypeDAO.select()) != null) {
-                    System.out.println("Raison d'appel:" + ftype.getTtypename() + ", ttnum:" + ftype.getTtnum());
-                    fsiteDAO = new FsiteDAO(informixConnection);
-                    fsiteDAO.filterByType(furgent.getUnum(), ftype.getTtnum());
-                    System.out.println("  SelectStatement=" + fsiteDAO.getSelectStatement());
-                    fsiteDAO.setSelectPreparedStatement();
-                    nbSite = 0;
-                    nbPatrimoniesFound = 0;
-                    nbPatrimoniesNotFound = 0;
-                    while ((fsite = fsiteDAO.select()) != null) {
-                        nbSite++;
-                        System.out.println(nbSite + ", ref:" + fsite.getS3number2()
-                                + ", label:" + fsite.getS3address()
-                                + " " + fsite.getS3poscode()
-                                + " " + fsite.getS3city());
-                        aggregateUid = Md5.encode("s3:" + furgent.getUnum() + ":" + fsite.getS3number2());
-                        System.out.println("  aggregateUid:" + aggregateUid);
-                        filter = new BasicDBObject("uid", aggregateUid);
-                        cursor = collection.find(filter).iterator();
-                        if (cursor.hasNext()) {
-                            patrimony = objectMapper.readValue(cursor.next().toJson(), Patrimony.class);
-                            System.out.println("  patrimoine trouvé, ref:" + patrimony.getRef() + ", label:" + patrimony.getLabel() + ", uid:" + patrimony.getUid());
-                            nbPatrimoniesFound++;
-                        } else {
-                            System.out.println("  patrimoine non trouvé");
-                            nbPatrimoniesNotFound++;
+            if (clientCompanyUuids == null) {
+                clientTask = new CompanySyncTask(snapshot, discrepancyReport, debugMode);
+                clientSource = clientTask.open(informixConnection);
+                try {
+                    while ((furgent = clientSource.next()) != null) {
+                        if (partition.acceptsClient(furgent.getUnum()) && !syncCheckpoint.isClientDone(furgent.getUnum())) {
+                            results.add(submitClientPatrimonies(patrimonies, uidSet, furgent, syncCounters, syncMetrics,
+                                    syncCheckpoint));
                         }
                     }
-                    if (nbSite == 0) {
-                        System.out.println("Erreur : aucun site trouvé pour uuid:" + clientCompanyUuid);
+                } finally {
+                    clientTask.close();
+                }
+            } else if (snapshot != null) {
+                for (String clientCompanyUuid : clientCompanyUuids) {
+                    if ((furgent = snapshot.getClient(clientCompanyUuid)) != null) {
+                        if (partition.acceptsClient(furgent.getUnum()) && !syncCheckpoint.isClientDone(furgent.getUnum())) {
+                            results.add(submitClientPatrimonies(patrimonies, uidSet, furgent, syncCounters, syncMetrics,
+                                    syncCheckpoint));
+                        }
                     } else {
-                        System.out.println(nbSite + " site(s) trouvé(s) pour uuid:" + clientCompanyUuid);
-                        System.out.println(nbPatrimoniesFound + " site(s) trouvé(s) dans la base Mongo");
-                        System.out.println(nbPatrimoniesNotFound + " site(s) non trouvé(s) dans la base Mongo");
+                        System.out.println("Erreur : client non trouvé dans l'instantané pour uuid:" + clientCompanyUuid);
                     }
-                    fsiteDAO.closeSelectPreparedStatement();
-                } else {
-                    System.out.println("Erreur : raison d'appel n°1 non trouvé pour uuid:" + clientCompanyUuid);
                 }
-                ftypeDAO.closeSelectPreparedStatement();
             } else {
-                System.out.println("Erreur : client non trouvé pour uuid:" + clientCompanyUuid);
+                for (String clientCompanyUuid : clientCompanyUuids) {
+                    furgentDAO = new FurgentDAO(informixConnection);
+                    furgentDAO.filterByUuid(clientCompanyUuid);
+                    furgentDAO.orderBy("unum");
+                    if (debugMode) {
+                        System.out.println("  SelectStatement=" + furgentDAO.getSelectStatement());
+                    }
+                    furgentDAO.setSelectPreparedStatement();
+                    if ((furgent = furgentDAO.select()) != null) {
+                        if (partition.acceptsClient(furgent.getUnum()) && !syncCheckpoint.isClientDone(furgent.getUnum())) {
+                            results.add(submitClientPatrimonies(patrimonies, uidSet, furgent, syncCounters, syncMetrics,
+                                    syncCheckpoint));
+                        }
+                    } else {
+                        System.out.println("Erreur : client non trouvé pour uuid:" + clientCompanyUuid);
+                    }
+                    furgentDAO.closeSelectPreparedStatement();
+                }
+            }
+
+            clientSyncResults = syncCheckpoint.getClientResults();
+            nbFailed = 0;
+            for (Future<ClientSyncResult> result : results) {
+                clientSyncResult = result.get();
+                if (clientSyncResult.isFailed()) {
+                    nbFailed++;
+                }
+                if (debugMode) {
+                    System.out.print(clientSyncResult.getOutput());
+                }
+                clientSyncResult.setOutput("");
+                clientSyncResults.add(clientSyncResult);
             }
-            furgentDAO.closeSelectPreparedStatement();
+            orphans = clientCompanyUuids == null && !(partition.isPartitioned() && !partition.isByUid())
+                    && !resumed && nbFailed == 0 && (snapshot == null || snapshot.isComplete());
+            if (patrimonySortMerge != null) {
+                patrimoniesLoad.get();
+                System.out.println("Rapprochement des sites et des patrimoines triés ...");
+                patrimonySortMerge.merge(orphans);
+                if (sortRepair != null) {
+                    sortRepair.flush(syncCounters);
+                }
+                if (debugMode) {
+                    System.out.println(patrimonySortMerge);
+                }
+            }
+            System.out.printf("Débit moyen : %.0f site(s)/s%n", syncProgress.stop());
+
+            if (!clientSyncResults.isEmpty()) {
+                System.out.println(debugMode ? "Bilan par client :" : "Bilan des clients en écart :");
+                System.out.println(ClientSyncResult.getSummaryHeader());
+                for (ClientSyncResult summary : clientSyncResults) {
+                    if (debugMode || summary.hasDiscrepancy()) {
+                        System.out.println(summary.getSummaryLine());
+                    }
+                }
+                System.out.println(syncCounters.getNbClient() + " client(s), "
+                        + syncCounters.getNbSite() + " site(s), "
+                        + syncCounters.getNbPatrimoniesFound() + " trouvé(s), "
+                        + syncCounters.getNbPatrimoniesNotFound() + " non trouvé(s) dans la base Mongo");
+                if (syncCounters.getNbPatrimoniesDrifted() > 0) {
+                    System.out.println(syncCounters.getNbPatrimoniesDrifted() + " patrimoine(s) modifié(s) par rapport à Informix");
+                }
+                if (fingerprintStore != null) {
+                    System.out.println(syncCounters.getNbPatrimoniesUnchanged() + " site(s) inchangé(s) depuis la dernière synchronisation");
+                }
+                if (repair && testMode) {
+                    System.out.println("Mode test : " + syncCounters.getNbWrites() + " patrimoine(s) à réécrire, écriture(s) non faite(s)");
+                } else if (repair) {
+                    System.out.println(syncCounters.getNbWrites() + " patrimoine(s) réécrit(s) : "
+                            + syncCounters.getNbUpserted() + " créé(s), "
+                            + syncCounters.getNbModified() + " modifié(s), "
+                            + syncCounters.getNbWriteErrors() + " en erreur");
+                }
+            }
+            saveSyncState();
+            if (nbFailed > 0) {
+                syncCheckpoint.save();
+                System.out.println("Erreur : " + nbFailed + " client(s) en erreur, à reprendre avec -resume"
+                        + " (point de reprise " + syncCheckpoint.getFilename() + ")");
+            } else {
+                syncCheckpoint.delete();
+            }
+            syncCheckpoint = null;
+            if (patrimonySortMerge != null && orphans) {
+                System.out.println(patrimonySortMerge.getNbOrphaned() + " patrimoine(s) de la base Mongo sans site Informix");
+            } else if ((uidSet != null || patrimonySortMerge != null) && clientCompanyUuids == null
+                    && partition.isPartitioned() && !partition.isByUid()) {
+                System.out.println("Patrimoines sans site Informix non recherchés avec une répartition par client,"
+                        + " utiliser -partitionby uid");
+            } else if ((uidSet != null || patrimonySortMerge != null) && clientCompanyUuids == null && (resumed || nbFailed > 0)) {
+                System.out.println("Patrimoines sans site Informix non recherchés : clients repris ou en erreur");
+            } else if ((uidSet != null || patrimonySortMerge != null) && clientCompanyUuids == null
+                    && snapshot != null && !snapshot.isComplete()) {
+                System.out.println("Patrimoines sans site Informix non recherchés : instantané partiel");
+            } else if (uidSet != null && clientCompanyUuids == null && syncCounters.getNbSkipped() > 0) {
+                System.out.println("Patrimoines sans site Informix non recherchés : "
+                        + syncCounters.getNbSkipped() + " site(s) ignoré(s), ne pas utiliser -incremental");
+            } else if (uidSet != null && clientCompanyUuids == null) {
+                orphanUids = uidSet.getUnmatched();
+                for (String orphanUid : orphanUids) {
+                    if (debugMode) {
+                        System.out.println("  patrimoine sans site Informix, uid:" + orphanUid);
+                    }
+                    discrepancyReport.orphanedPatrimony(orphanUid);
+                }
+                System.out.println(orphanUids.size() + " patrimoine(s) de la base Mongo sans site Informix");
+            }
+            saveMetrics(syncMetrics, syncCounters);
+            if (debugMode) {
+                System.out.println(syncCounters);
+                System.out.println(syncMetrics);
+            }
+            succeeded = nbFailed == 0;
         } catch (ClassNotFoundException exception) {
             Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
         } catch (SQLException exception) {
             Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (ExecutionException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception.getCause());
         } catch (IOException exception) {
             Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (InterruptedException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } finally {
+            syncProgress.stop();
+            if (patrimonySortMerge != null) {
+                patrimonySortMerge.close();
+                patrimonySortMerge = null;
+            }
+            if (syncCheckpoint != null) {
+                syncCheckpoint.save();
+                System.out.println("Point de reprise enregistré dans le fichier " + syncCheckpoint.getFilename()
+                        + ", à reprendre avec -resume");
+            }
         }
+        return succeeded;
     }
 
     /**
-     * Méthode pour synchroniser les clients par rapport à la base de données
-     * Informix.
+     * Confie la synchronisation des patrimoines d'un client au groupe de
+     * tâches Informix. Une erreur sur un client est reportée dans son bilan
+     * sans interrompre le traitement des autres clients. Un client traité
+     * sans erreur est enregistré dans le point de reprise.
+     *
+     * @return le résultat du client, une fois traité.
      */
-    private void syncCompanies(MongoDatabase mongoDatabase, Connection informixConnection) {
-        Furgent emergencyService;
-        FurgentDAO furgentDAO;
-        int i;
-        String aggregateUid;
-        MongoCollection<Document> collection;
+    private Future<ClientSyncResult> submitClientPatrimonies(final MongoCollection<Patrimony> patrimonies,
+            final UidSet uidSet, final Furgent furgent, final SyncCounters syncCounters, final SyncMetrics syncMetrics,
+            final SyncCheckpoint syncCheckpoint) {
+        return syncWorkers.getInformixExecutor().submit(new Callable<ClientSyncResult>() {
+            @Override
+            public ClientSyncResult call() throws Exception {
+                ClientSyncResult clientSyncResult;
+                SyncCounters clientCounters;
+                ByteArrayOutputStream output;
+                PrintStream out;
+                Connection connection;
+
+                clientSyncResult = new ClientSyncResult(furgent);
+                clientCounters = new SyncCounters(syncCounters);
+                output = new ByteArrayOutputStream();
+                out = new PrintStream(output, false, "UTF-8");
+                connection = null;
+                try {
+                    if (snapshot == null) {
+                        connection = syncWorkers.getInformixPool().acquire();
+                    }
+                    syncClientPatrimonies(connection, patrimonies, uidSet, furgent, clientCounters, syncMetrics, out,
+                            clientSyncResult);
+                    if (patrimonySortMerge == null) {
+                        syncCheckpoint.clientDone(clientSyncResult, clientCounters,
+                                syncState.getWatermark("patrimonies." + furgent.getUuid()));
+                    }
+                } catch (ClassNotFoundException | SQLException | IOException | RuntimeException exception) {
+                    out.println("Erreur : client uuid:" + furgent.getUuid() + " : " + exception);
+                    clientSyncResult.setStatus("erreur : " + exception.getMessage());
+                } finally {
+                    if (connection != null) {
+                        syncWorkers.getInformixPool().release(connection);
+                    }
+                }
+                out.flush();
+                clientSyncResult.setOutput(output.toString("UTF-8"));
+                return clientSyncResult;
+            }
+        });
+    }
+
+    /**
+     * Lit en une seule requête les identifiants de tous les patrimoines de la
+     * base MongoDb. Avec une répartition par identifiant, seuls ceux de la
+     * partition sont conservés.
+     *
+     * @return les identifiants des patrimoines.
+     */
+    private UidSet loadPatrimonyUids(MongoCollection<Document> collection, long nbPatrimonies) {
+        UidSet uidSet;
         MongoCursor<Document> cursor;
-        int n;
-        ObjectMapper objectMapper;
-        Company company;
-        int nbCompany;
-        BasicDBObject filter;
-        UpdateResult updateResult;
+        String uid;
 
-        objectMapper = new ObjectMapper();
+        uidSet = new UidSet(partition.isByUid() ? nbPatrimonies / partition.getCount() : nbPatrimonies);
+        cursor = collection.find().projection(new BasicDBObject("uid", 1).append("_id", 0)).iterator();
+        try {
+            while (cursor.hasNext()) {
+                uid = cursor.next().getString("uid");
+                if (uid == null || partition.acceptsUid(uid)) {
+                    uidSet.add(uid);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return uidSet;
+    }
 
-        collection = mongoDatabase.getCollection("companies");
-        System.out.println(collection.count() + " compagnie(s) dans la base MongoDb");
+    /**
+     * Méthode pour synchroniser les patrimoines d'un client par rapport à la
+     * base de données Informix, ou à l'instantané avec -snapshot.
+     *
+     * @param informixConnection connexion à la base Informix, null avec
+     * -snapshot.
+     * @param uidSet identifiants des patrimoines pour la stratégie hash, null
+     * pour rechercher les patrimoines par lots.
+     */
+    private void syncClientPatrimonies(Connection informixConnection, MongoCollection<Patrimony> patrimonies,
+            UidSet uidSet, Furgent furgent, SyncCounters syncCounters, SyncMetrics syncMetrics, PrintStream out,
+            ClientSyncResult clientSyncResult)
+            throws ClassNotFoundException, SQLException, IOException, InterruptedException {
+        Ftype ftype;
+        FtypeDAO ftypeDAO;
+        final FsiteDAO fsiteDAO;
+        SyncSnapshot.Client client;
+        boolean success;
+        long start;
 
+        syncCounters.addClient();
+        out.println("Client:" + furgent.getUname() + ", unum=" + furgent.getUnum() + ", uuid:" + furgent.getUuid());
+        if (furgent instanceof SyncSnapshot.Client) {
+            client = (SyncSnapshot.Client) furgent;
+            if (client.getTtnum() >= 0) {
+                out.println("Raison d'appel:" + client.getTtypename() + ", ttnum:" + client.getTtnum());
+                matchClientSites(client.getSites(), patrimonies, uidSet, furgent, syncCounters, syncMetrics, out,
+                        clientSyncResult);
+            } else {
+                out.println("Erreur : raison d'appel n°1 non trouvé pour uuid:" + furgent.getUuid());
+                clientSyncResult.setStatus("raison d'appel n°1 absente");
+            }
+            return;
+        }
+        start = syncWorkers.getInformixThrottle().acquire();
+        success = false;
         try {
-            furgentDAO = new FurgentDAO(informixConnection);
-            furgentDAO.orderBy("unum");
-            System.out.println("  SelectStatement=" + furgentDAO.getSelectStatement());
-            furgentDAO.setSelectPreparedStatement();
-            i = 0;
-            nbCompany = 0;
-            while ((emergencyService = furgentDAO.select()) != null) {
-                i++;
-                System.out.println("Client(" + i + ")=" + emergencyService);
-                aggregateUid = Md5.encode("u:" + emergencyService.getUnum());
-//                System.out.println("  aggregateUid:" + aggregateUid);
-                filter = new BasicDBObject("uid", aggregateUid);
-//                cursor = collection.find(filter).iterator();
-//                if (cursor.hasNext()) {
-//                    nbCompany++;
-//                    company = objectMapper.readValue(cursor.next().toJson(), Company.class);
-//                    updateResult = collection.updateOne(filter, new BasicDBObject("$set", new BasicDBObject("id", emergencyService.getUnum())));
-//                    System.out.println("  trouvé : " + company.getLabel() + ", uid:" + company.getUid() + ", updateResult:" + updateResult);
-//                }
-                updateResult = collection.updateOne(filter, new BasicDBObject("$set", new BasicDBObject("id", emergencyService.getUnum())));
-                if (updateResult.getMatchedCount() > 0) {
-                    nbCompany++;
-                    System.out.println("  trouvé : updateResult:" + updateResult);
+            ftypeDAO = new FtypeDAO(informixConnection);
+            ftypeDAO.filterByCode(furgent.getUnum(), 1);
+            out.println("  SelectStatement=" + ftypeDAO.getSelectStatement());
+            ftypeDAO.setSelectPreparedStatement();
+            if ((ftype = ftypeDAO.select()) != null) {
+                out.println("Raison d'appel:" + ftype.getTtypename() + ", ttnum:" + ftype.getTtnum());
+                fsiteDAO = new FsiteDAO(informixConnection);
+                fsiteDAO.filterByType(furgent.getUnum(), ftype.getTtnum());
+                fsiteDAO.orderBy("s3num");
+                out.println("  SelectStatement=" + fsiteDAO.getSelectStatement());
+                fsiteDAO.setSelectPreparedStatement();
+                matchClientSites(getSiteSource(fsiteDAO), patrimonies, uidSet, furgent, syncCounters, syncMetrics,
+                        out, clientSyncResult);
+                fsiteDAO.closeSelectPreparedStatement();
+            } else {
+                out.println("Erreur : raison d'appel n°1 non trouvé pour uuid:" + furgent.getUuid());
+                clientSyncResult.setStatus("raison d'appel n°1 absente");
+            }
+            ftypeDAO.closeSelectPreparedStatement();
+            success = true;
+        } finally {
+            syncWorkers.getInformixThrottle().release(start, success);
+        }
+    }
+
+    /**
+     * Retourne les sites lus par une requête Informix préparée, au débit
+     * plafonné par le plafond de lignes Informix (cf. RateLimiter).
+     * L'appelant régule la requête elle-même (cf. AdaptiveThrottle), de son
+     * exécution à la fermeture du curseur.
+     *
+     * @param fsiteDAO requête préparée de lecture des sites.
+     * @return la source des sites.
+     */
+    private RowSource<Fsite> getSiteSource(final FsiteDAO fsiteDAO) {
+        return syncWorkers.getInformixRateLimiter().limit(new RowSource<Fsite>() {
+            @Override
+            public Fsite next() throws SQLException {
+                return fsiteDAO.select();
+            }
+        });
+    }
+
+    /**
+     * Rapproche les sites d'un client, lus dans la base Informix ou dans
+     * l'instantané, des patrimoines de la base MongoDb.
+     *
+     * <p>
+     * Avec -pipeline, les sites lus sont déposés dans une file bornée et
+     * rapprochés par une autre tâche (cf. SitePipeline) : la lecture se
+     * poursuit pendant les recherches MongoDb.</p>
+     *
+     * @param fsites sites du client, par numéro croissant.
+     * @param uidSet identifiants des patrimoines pour la stratégie hash, null
+     * pour rechercher les patrimoines par lots.
+     */
+    private void matchClientSites(RowSource<Fsite> fsites, MongoCollection<Patrimony> patrimonies,
+            UidSet uidSet, Furgent furgent, SyncCounters syncCounters, SyncMetrics syncMetrics, PrintStream out,
+            ClientSyncResult clientSyncResult)
+            throws SQLException, IOException, InterruptedException {
+        Fsite fsite;
+        int nbSite;
+        PatrimonyMatcher patrimonyMatcher;
+        String aggregateUid;
+        String watermarkName;
+        long watermark;
+        long lastKey;
+        boolean resolved;
+        int nbSkipped;
+        SitePipeline sitePipeline;
+        PatrimonyRepair patrimonyRepair;
+        SyncMetrics.Phase fetchPhase;
+        SyncMetrics.Phase hashPhase;
+        long start;
+
+        fetchPhase = syncMetrics.getPhase(SyncMetrics.INFORMIX_FETCH);
+        hashPhase = syncMetrics.getPhase(SyncMetrics.UID_HASH);
+        patrimonyRepair = null;
+        if (repair && patrimonySortMerge == null) {
+            patrimonyRepair = new PatrimonyRepair(patrimonies.withDocumentClass(Document.class), batchSize, testMode, syncMetrics,
+                    syncWorkers.getMongoThrottle());
+        }
+        if (patrimonySortMerge != null) {
+            patrimonyMatcher = patrimonySortMerge.getMatcher(furgent, out, syncCounters, clientSyncResult);
+        } else if (uidSet != null) {
+            patrimonyMatcher = new PatrimonyHashProbe(uidSet, furgent, out, debugMode, discrepancyReport, syncCounters,
+                    patrimonyRepair);
+        } else {
+            patrimonyMatcher = new PatrimonyBatchLookup(patrimonies, batchSize,
+                    syncWorkers.getMongoExecutor(), syncWorkers.getMgoNbThread(), syncWorkers.getMongoThrottle(),
+                    furgent, out, debugMode, discrepancyReport, syncCounters, syncMetrics,
+                    fingerprintStore, !fullScan, patrimonyRepair);
+        }
+        watermarkName = "patrimonies." + furgent.getUuid();
+        watermark = (!incremental || fullScan || patrimonySortMerge != null || (fingerprintStore != null && uidSet == null))
+                ? 0 : syncState.getWatermark(watermarkName);
+        if (watermark > 0) {
+            out.println("  Sites déjà traités jusqu'au n°" + watermark);
+        }
+        lastKey = watermark;
+        nbSkipped = 0;
+        sitePipeline = null;
+        if (pipeline) {
+            sitePipeline = new SitePipeline(patrimonyMatcher, furgent.getUnum(), partition,
+                    4 * batchSize * syncWorkers.getMgoNbThread(), syncWorkers.getPipelineExecutor(), syncMetrics);
+        }
+        try {
+            start = System.nanoTime();
+            while ((fsite = fsites.next()) != null) {
+                fetchPhase.record(start);
+                if (fsite.getS3num() <= watermark) {
+                    nbSkipped++;
+                } else if (sitePipeline != null) {
+                    lastKey = Math.max(lastKey, fsite.getS3num());
+                    sitePipeline.put(fsite);
+                } else {
+                    lastKey = Math.max(lastKey, fsite.getS3num());
+                    start = System.nanoTime();
+                    aggregateUid = SyncSnapshot.getAggregateUid(furgent.getUnum(), fsite);
+                    hashPhase.record(start);
+                    if (partition.acceptsUid(aggregateUid)) {
+                        patrimonyMatcher.add(fsite, aggregateUid);
+                    }
                 }
+                start = System.nanoTime();
+            }
+            if (sitePipeline != null) {
+                sitePipeline.finish();
+            } else {
+                patrimonyMatcher.flush();
+            }
+            if (patrimonyRepair != null) {
+                patrimonyRepair.flush(syncCounters);
+            }
+        } finally {
+            if (sitePipeline != null) {
+                sitePipeline.close();
+            }
+        }
+        resolved = patrimonyRepair != null
+                ? patrimonyRepair.getMongoBulkWriter().getNbErrors() == 0
+                : patrimonyMatcher.getNbPatrimoniesNotFound() + patrimonyMatcher.getNbPatrimoniesDrifted() == 0;
+        if (patrimonySortMerge == null && resolved) {
+            syncState.setWatermark(watermarkName, lastKey);
+        } else if (patrimonySortMerge == null && incremental && lastKey > watermark) {
+            out.println("  Dernière clé maintenue au n°" + watermark + " : écarts non réparés");
+        }
+        syncCounters.addSkipped(nbSkipped);
+        clientSyncResult.setNbSkipped(nbSkipped);
+        nbSite = patrimonyMatcher.getNbSite();
+        clientSyncResult.setNbSite(nbSite);
+        clientSyncResult.setNbPatrimoniesFound(patrimonyMatcher.getNbPatrimoniesFound());
+        clientSyncResult.setNbPatrimoniesNotFound(patrimonyMatcher.getNbPatrimoniesNotFound());
+        clientSyncResult.setNbPatrimoniesDrifted(patrimonyMatcher.getNbPatrimoniesDrifted());
+        if (nbSite == 0 && nbSkipped > 0) {
+            out.println("Aucun nouveau site pour uuid:" + furgent.getUuid() + ", " + nbSkipped + " site(s) ignoré(s)");
+        } else if (nbSite == 0) {
+            out.println("Erreur : aucun site trouvé pour uuid:" + furgent.getUuid());
+            clientSyncResult.setStatus("aucun site");
+        } else if (patrimonySortMerge != null) {
+            out.println(nbSite + " site(s) trié(s) pour uuid:" + furgent.getUuid()
+                    + ", rapprochés après la lecture de tous les clients");
+        } else {
+            out.println(nbSite + " site(s) trouvé(s) pour uuid:" + furgent.getUuid());
+            out.println(patrimonyMatcher.getNbPatrimoniesFound() + " site(s) trouvé(s) dans la base Mongo");
+            out.println(patrimonyMatcher.getNbPatrimoniesNotFound() + " site(s) non trouvé(s) dans la base Mongo");
+            if (patrimonyMatcher.getNbPatrimoniesDrifted() > 0) {
+                out.println(patrimonyMatcher.getNbPatrimoniesDrifted() + " patrimoine(s) modifié(s) par rapport au site");
+            }
+            if (patrimonyRepair != null) {
+                out.println(patrimonyRepair);
             }
-            furgentDAO.closeSelectPreparedStatement();
-            System.out.println(i + " client(s) lu(s), " + nbCompany + " société(s) trouvée(s)");
+        }
+    }
+
+    /**
+     * Méthode pour synchroniser les sociétés par rapport aux clients de la
+     * base de données Informix (cf. CompanySyncTask).
+     *
+     * @return true si toutes les écritures ont été faites sans erreur.
+     */
+    private boolean syncCompanies(MongoDatabase mongoDatabase, Connection informixConnection) {
+        return syncCollection(new CompanySyncTask(snapshot, discrepancyReport, debugMode), mongoDatabase, informixConnection);
+    }
+
+    /**
+     * Méthode pour synchroniser une collection par rapport à la base de
+     * données Informix, décrite par une tâche et exécutée par SyncEngine.
+     * <p>
+     * Les documents sont recherchés par lots dans la base MongoDb, en
+     * parallèle, et les mises à jour envoyées par lots non ordonnés de
+     * batchSize écritures. Avec -incremental, seules les lignes créées
+     * depuis la dernière exécution réussie sont traitées. Avec -resume, la
+     * synchronisation reprend après la dernière clé du point de reprise. La
+     * durée de chaque phase est mesurée et enregistrée à la fin dans le
+     * fichier SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.&lt;collection&gt;.metrics.json.</p>
+     *
+     * @param syncTask tâche décrivant la collection.
+     * @return true si toutes les écritures ont été faites sans erreur.
+     */
+    private <T> boolean syncCollection(SyncTask<T> syncTask, MongoDatabase mongoDatabase, Connection informixConnection) {
+        SyncEngine<T> syncEngine;
+        SyncCounters syncCounters;
+        SyncMetrics syncMetrics;
+        SyncCheckpoint syncCheckpoint;
+        boolean succeeded;
 
+        succeeded = false;
+        syncMetrics = new SyncMetrics(syncTask.getCollection());
+        syncCounters = new SyncCounters();
+        syncCheckpoint = openCheckpoint(syncTask.getCollection(), null);
+        syncEngine = new SyncEngine<>(syncTask, mongoDatabase, syncWorkers, batchSize, testMode, debugMode, partition,
+                syncMetrics, syncCounters, syncCheckpoint);
+        try {
+            System.out.println(mongoDatabase.getCollection(syncTask.getCollection()).count() + " document(s) dans la collection "
+                    + syncTask.getCollection() + " de la base MongoDb");
+            succeeded = syncEngine.run(informixConnection,
+                    incremental && !fullScan ? syncState.getWatermark(syncTask.getCollection()) : 0);
+            if (succeeded && !testMode) {
+                syncState.setWatermark(syncTask.getCollection(), syncEngine.getLastKey());
+            }
+            saveSyncState();
+            syncCheckpoint.delete();
+            syncCheckpoint = null;
+            saveMetrics(syncMetrics, syncCounters);
+            if (debugMode) {
+                System.out.println(syncEngine);
+                System.out.println(syncMetrics);
+            }
         } catch (ClassNotFoundException exception) {
             Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
         } catch (SQLException exception) {
             Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (ExecutionException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception.getCause());
+        } catch (InterruptedException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } finally {
+            if (syncCheckpoint != null && syncCheckpoint.getLastKey() > 0) {
+                System.out.println("Point de reprise enregistré dans le fichier " + syncCheckpoint.getFilename()
+                        + ", à reprendre avec -resume");
+            }
         }
+        return succeeded;
+    }
+
+    /**
+     * Méthode pour appliquer à la base MongoDb les modifications des clients
+     * et des sites Informix enregistrées dans le journal des modifications
+     * (cf. ChangeCapture).
+     * <p>
+     * Le journal est lu par micro-lots de batchSize lignes à partir de la
+     * dernière ligne appliquée, conservée dans l'état des synchronisations
+     * et enregistrée après chaque micro-lot. La lecture s'arrête au premier
+     * lot d'écritures en erreur : le micro-lot sera relu à la prochaine
+     * exécution. La durée de chaque phase est enregistrée à la fin dans le
+     * fichier SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.changes.metrics.json.</p>
+     *
+     * @return true si toutes les modifications lues ont été appliquées.
+     */
+    private boolean syncChanges(MongoDatabase mongoDatabase, Connection informixConnection) {
+        ChangeCapture changeCapture;
+        SyncCounters syncCounters;
+        SyncProgress syncProgress;
+        SyncMetrics syncMetrics;
+        boolean succeeded;
+        int nbRows;
+
+        succeeded = false;
+        syncMetrics = new SyncMetrics("changes");
+        syncCounters = new SyncCounters();
+        syncProgress = new SyncProgress("changes", syncCounters, syncMetrics, SyncProgress.DEFAULT_INTERVAL);
+        changeCapture = null;
+        try {
+            changeCapture = new ChangeCapture(informixConnection, syncWorkers.getInformixPool(),
+                    mongoDatabase.getCollection("patrimonies"), mongoDatabase.getCollection("companies"), batchSize, changesLag,
+                    testMode, partition, discrepancyReport,
+                    syncMetrics, syncWorkers.getMongoThrottle(), syncWorkers.getInformixThrottle(),
+                    syncWorkers.getInformixRateLimiter(), syncState.getWatermark("changes"));
+            if (changeCapture.getLastKey() > 0) {
+                System.out.println("  Modifications déjà appliquées jusqu'au n°" + changeCapture.getLastKey());
+            }
+            do {
+                nbRows = changeCapture.apply(syncCounters);
+                if (changeCapture.getNbFailedBatches() > 0) {
+                    break;
+                }
+                if (nbRows > 0) {
+                    syncState.setWatermark("changes", changeCapture.getLastKey());
+                    if (!testMode) {
+                        syncState.save();
+                    }
+                }
+            } while (nbRows >= batchSize);
+            changeCapture.flush(syncCounters);
+            syncProgress.stop();
+            System.out.println(syncCounters.getNbChanges() + " modification(s) lue(s), "
+                    + syncCounters.getNbClient() + " société(s) et "
+                    + (syncCounters.getNbWrites() - syncCounters.getNbClient()) + " patrimoine(s) à réécrire, "
+                    + syncCounters.getNbSkipped() + " ignorée(s)");
+            if (testMode) {
+                System.out.println("Mode test : " + syncCounters.getNbWrites() + " écriture(s) non faite(s),"
+                        + " état des synchronisations non enregistré");
+            } else if (changeCapture.getNbFailedBatches() > 0) {
+                System.out.println("Erreur : " + changeCapture.getNbFailedBatches() + " lot(s) en erreur, "
+                        + syncCounters.getNbWriteErrors() + " écriture(s) non faite(s), modifications à relire après le n°"
+                        + changeCapture.getLastKey());
+            } else {
+                System.out.println(syncCounters.getNbWrites() + " écriture(s) : "
+                        + syncCounters.getNbUpserted() + " créé(s), "
+                        + syncCounters.getNbModified() + " modifié(s), dernière modification appliquée n°"
+                        + changeCapture.getLastKey());
+            }
+            saveMetrics(syncMetrics, syncCounters);
+            if (debugMode) {
+                System.out.println(changeCapture);
+                System.out.println(syncMetrics);
+            }
+            succeeded = changeCapture.getNbFailedBatches() == 0;
+        } catch (ClassNotFoundException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (SQLException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (IOException exception) {
+            System.out.println("Erreur : état des synchronisations non enregistré : " + exception.getMessage());
+        } catch (InterruptedException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } finally {
+            syncProgress.stop();
+            if (changeCapture != null) {
+                try {
+                    changeCapture.close();
+                } catch (SQLException exception) {
+                    Logger.getLogger(SyncCollections.class.getName()).log(Level.WARNING, null, exception);
+                }
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Enregistre l'état des synchronisations, sauf en mode test : les
+     * écritures n'ayant pas été faites, les mêmes clés doivent être traitées
+     * à la prochaine exécution. Avec -snapshot, l'état de la base Informix
+     * n'est pas connu et n'est pas enregistré non plus.
+     */
+    private void saveSyncState() {
+        if (testMode) {
+            System.out.println("Mode test : état des synchronisations non enregistré");
+            return;
+        }
+        if (snapshot != null) {
+            System.out.println("Instantané : état des synchronisations non enregistré");
+            return;
+        }
+        try {
+            syncState.save();
+        } catch (IOException exception) {
+            System.out.println("Erreur : état des synchronisations non enregistré : " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Enregistre les mesures d'une synchronisation dans le fichier
+     * SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.&lt;collection&gt;.metrics.json.
+     *
+     * @param syncMetrics mesures des phases de la synchronisation.
+     * @param syncCounters compteurs de la synchronisation.
+     */
+    private void saveMetrics(SyncMetrics syncMetrics, SyncCounters syncCounters) {
+        LinkedHashMap<String, Object> settings;
+        String filename;
+
+        settings = new LinkedHashMap<>();
+        settings.put("ifxdb", ifxDbServerType);
+        settings.put("mgodb", mgoDbServerType);
+        settings.put("batchSize", batchSize);
+        settings.put("strategy", strategy);
+        settings.put("sortMemory", sortMemory);
+        settings.put("changesLag", changesLag);
+        settings.put("fullScan", fullScan);
+        settings.put("incremental", incremental);
+        settings.put("fingerprints", fingerprintStore != null);
+        settings.put("pipeline", pipeline);
+        settings.put("repair", repair);
+        settings.put("testMode", testMode);
+        settings.put("partition", partition.getIndex() + "/" + partition.getCount());
+        settings.put("partitionBy", partition.getBy());
+        settings.put("snapshot", snapshot != null ? snapshot.getFilename() : "");
+        settings.put("resume", resume);
+        settings.put("mgoNbThread", syncWorkers.getMgoNbThread());
+        settings.put("ifxNbThread", syncWorkers.getIfxNbThread());
+        settings.put("mgoMaxOps", syncWorkers.getMongoThrottle().getMaxOpsPerSecond());
+        settings.put("mgoLatencyMs", syncWorkers.getMongoThrottle().getLatencyTargetMillis());
+        settings.put("ifxMaxOps", syncWorkers.getInformixRateLimiter().getMaxPerSecond());
+        settings.put("ifxLatencyMs", syncWorkers.getInformixThrottle().getLatencyTargetMillis());
+        filename = "SyncCollections." + ifxDbServerType + "." + mgoDbServerType + partition.getSuffix() + "." + syncMetrics.getCollection() + ".metrics.json";
+        try {
+            syncMetrics.save(filename, syncCounters, settings);
+            System.out.println("Mesures enregistrées dans le fichier " + filename);
+        } catch (IOException exception) {
+            System.out.println("Erreur : mesures non enregistrées : " + exception.getMessage());
+        }
+        System.out.println("Régulation MongoDb : " + syncWorkers.getMongoThrottle());
+        System.out.println("Régulation Informix : " + syncWorkers.getInformixThrottle());
+        System.out.println("Plafond de lignes Informix : " + syncWorkers.getInformixRateLimiter());
+    }
+
+    /**
+     * Prépare le point de reprise d'une synchronisation, dans le fichier
+     * SyncCollections.&lt;ifxdb&gt;.&lt;mgodb&gt;.&lt;collection&gt;.checkpoint, et
+     * le relit avec -resume. Les options qui changent le travail à faire
+     * doivent être les mêmes pour reprendre.
+     *
+     * @param collection nom de la collection synchronisée.
+     * @param clientCompanyUuids identifiants des clients à traiter, null pour
+     * tous les clients.
+     * @return le point de reprise.
+     */
+    private SyncCheckpoint openCheckpoint(String collection, ArrayList<String> clientCompanyUuids) {
+        SyncCheckpoint syncCheckpoint;
+        String options;
+
+        options = collection
+                + ",strategy=" + strategy
+                + ",full=" + fullScan
+                + ",incremental=" + incremental
+                + ",fingerprints=" + (fingerprintStore != null)
+                + ",repair=" + repair
+                + ",test=" + testMode
+                + ",partition=" + partition
+                + ",clients=" + (clientCompanyUuids != null ? Integer.toHexString(clientCompanyUuids.hashCode()) : "all")
+                + ",snapshot=" + (snapshot != null ? snapshot.getFilename() : "");
+        syncCheckpoint = new SyncCheckpoint("SyncCollections." + ifxDbServerType + "." + mgoDbServerType + partition.getSuffix()
+                + "." + collection + ".checkpoint", options, SyncCheckpoint.DEFAULT_INTERVAL);
+        if (resume) {
+            try {
+                if (!syncCheckpoint.resume()) {
+                    System.out.println("Aucun point de reprise utilisable, synchronisation complète");
+                }
+            } catch (IOException exception) {
+                System.out.println("Erreur : point de reprise illisible, synchronisation complète : " + exception.getMessage());
+            }
+        }
+        if (debugMode) {
+            System.out.println(syncCheckpoint);
+        }
+        return syncCheckpoint;
+    }
+
+    /**
+     * Ecrit un instantané des clients, de leur raison d'appel n°1 et de leurs
+     * sites, avec leurs identifiants agrégés, pour des rapprochements
+     * ultérieurs sans la base Informix (cf. -snapshot).
+     *
+     * @param informixConnection connexion à la base Informix.
+     * @param clientCompanyUuids identifiants des clients à exporter, null pour
+     * exporter tous les clients.
+     * @param filename nom de l'instantané.
+     */
+    private void exportSnapshot(Connection informixConnection, ArrayList<String> clientCompanyUuids, String filename) {
+        SyncSnapshot.Writer writer;
+        ArrayList<Furgent> emergencyServices;
+        Furgent furgent;
+        FurgentDAO furgentDAO;
+        Ftype ftype;
+        FtypeDAO ftypeDAO;
+        Fsite fsite;
+        FsiteDAO fsiteDAO;
+        RowSource<Fsite> fsites;
+        SyncMetrics syncMetrics;
+        SyncMetrics.Phase fetchPhase;
+        boolean success;
+        long throttleStart;
+        long start;
+
+        System.out.println("Export de la base Informix dans l'instantané " + filename + " ...");
+        syncMetrics = new SyncMetrics("export");
+        fetchPhase = syncMetrics.getPhase(SyncMetrics.INFORMIX_FETCH);
+        writer = null;
+        try {
+            emergencyServices = new ArrayList<>();
+            furgentDAO = new FurgentDAO(informixConnection);
+            if (clientCompanyUuids == null) {
+                furgentDAO.orderBy("unum");
+                furgentDAO.setSelectPreparedStatement();
+                while ((furgent = furgentDAO.select()) != null) {
+                    emergencyServices.add(furgent);
+                }
+                furgentDAO.closeSelectPreparedStatement();
+            } else {
+                for (String clientCompanyUuid : clientCompanyUuids) {
+                    furgentDAO = new FurgentDAO(informixConnection);
+                    furgentDAO.filterByUuid(clientCompanyUuid);
+                    furgentDAO.setSelectPreparedStatement();
+                    if ((furgent = furgentDAO.select()) != null) {
+                        emergencyServices.add(furgent);
+                    } else {
+                        System.out.println("Erreur : client non trouvé pour uuid:" + clientCompanyUuid);
+                    }
+                    furgentDAO.closeSelectPreparedStatement();
+                }
+            }
 
+            writer = new SyncSnapshot.Writer(filename, ifxDbServerType, clientCompanyUuids == null);
+            for (Furgent emergencyService : emergencyServices) {
+                throttleStart = syncWorkers.getInformixThrottle().acquire();
+                success = false;
+                try {
+                    ftypeDAO = new FtypeDAO(informixConnection);
+                    ftypeDAO.filterByCode(emergencyService.getUnum(), 1);
+                    ftypeDAO.setSelectPreparedStatement();
+                    ftype = ftypeDAO.select();
+                    writer.writeClient(emergencyService, ftype);
+                    if (ftype != null) {
+                        fsiteDAO = new FsiteDAO(informixConnection);
+                        fsiteDAO.filterByType(emergencyService.getUnum(), ftype.getTtnum());
+                        fsiteDAO.orderBy("s3num");
+                        fsiteDAO.setSelectPreparedStatement();
+                        fsites = getSiteSource(fsiteDAO);
+                        start = System.nanoTime();
+                        while ((fsite = fsites.next()) != null) {
+                            fetchPhase.record(start);
+                            writer.writeSite(fsite);
+                            start = System.nanoTime();
+                        }
+                        fsiteDAO.closeSelectPreparedStatement();
+                    }
+                    ftypeDAO.closeSelectPreparedStatement();
+                    success = true;
+                } finally {
+                    syncWorkers.getInformixThrottle().release(throttleStart, success);
+                }
+                if (debugMode) {
+                    System.out.println("  Client:" + emergencyService.getUname() + ", unum=" + emergencyService.getUnum()
+                            + (ftype != null ? "" : ", raison d'appel n°1 absente"));
+                }
+            }
+            writer.close();
+            System.out.println(writer.getNbClients() + " client(s) et " + writer.getNbSites()
+                    + " site(s) exporté(s) dans l'instantané " + writer.getFilename()
+                    + " (" + new File(writer.getFilename()).length() + " octets)");
+            writer = null;
+            if (debugMode) {
+                System.out.println(syncMetrics);
+            }
+        } catch (ClassNotFoundException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (SQLException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (IOException exception) {
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            Logger.getLogger(SyncCollections.class.getName()).log(Level.SEVERE, null, exception);
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+        }
     }
 
     /**
@@ -390,6 +1614,154 @@ public class SyncCollections {
         return (ifxDbServerType);
     }
 
+    /**
+     * @return batchSize le nombre d'identifiants par requête MongoDb
+     */
+    public int getBatchSize() {
+        return (batchSize);
+    }
+
+    /**
+     * @param batchSize définit le nombre d'identifiants par requête MongoDb
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return strategy la stratégie de rapprochement des patrimoines
+     */
+    public String getStrategy() {
+        return (strategy);
+    }
+
+    /**
+     * @param strategy définit la stratégie de rapprochement des patrimoines
+     */
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return la mémoire allouée au tri avec la stratégie sort, en mégaoctets
+     */
+    public int getSortMemory() {
+        return sortMemory;
+    }
+
+    /**
+     * @param sortMemory définit la mémoire allouée au tri avec la stratégie
+     * sort, en mégaoctets
+     */
+    public void setSortMemory(int sortMemory) {
+        this.sortMemory = sortMemory;
+    }
+
+    /**
+     * @return l'ancienneté minimale des lignes lues dans le journal des
+     * modifications, en secondes
+     */
+    public int getChangesLag() {
+        return changesLag;
+    }
+
+    /**
+     * @param changesLag définit l'ancienneté minimale des lignes lues dans le
+     * journal des modifications, en secondes
+     */
+    public void setChangesLag(int changesLag) {
+        this.changesLag = changesLag;
+    }
+
+    /**
+     * @return fullScan s'il faut relire complètement les tables Informix
+     */
+    public boolean getFullScan() {
+        return (fullScan);
+    }
+
+    /**
+     * @param fullScan demande ou non la relecture complète des tables Informix
+     */
+    public void setFullScan(boolean fullScan) {
+        this.fullScan = fullScan;
+    }
+
+    /**
+     * @return s'il ne faut traiter que les sites et les clients créés depuis
+     * la dernière exécution réussie
+     */
+    public boolean getIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental demande ou non de ne traiter que les sites et les
+     * clients créés depuis la dernière exécution réussie
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return s'il faut lire les sites en parallèle de leur rapprochement
+     */
+    public boolean getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline demande ou non la lecture des sites en parallèle de
+     * leur rapprochement
+     */
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @return s'il faut réparer les patrimoines absents ou modifiés
+     */
+    public boolean getRepair() {
+        return repair;
+    }
+
+    /**
+     * @param repair demande ou non la réparation des patrimoines absents ou
+     * modifiés
+     */
+    public void setRepair(boolean repair) {
+        this.repair = repair;
+    }
+
+    /**
+     * @return s'il faut reprendre une synchronisation interrompue
+     */
+    public boolean getResume() {
+        return resume;
+    }
+
+    /**
+     * @param resume demande ou non la reprise d'une synchronisation
+     * interrompue
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * @return la part du travail traitée par ce processus
+     */
+    public SyncPartition getPartition() {
+        return partition;
+    }
+
+    /**
+     * @param partition définit la part du travail traitée par ce processus
+     */
+    public void setPartition(SyncPartition partition) {
+        this.partition = partition;
+    }
+
     /**
      * Retourne le contenu de SyncCollections
      *
@@ -400,6 +1772,18 @@ public class SyncCollections {
         return "SyncCollections:{"
                 + "mgodb:" + getMgoDbServerType()
                 + ", ifxdb:" + getIfxDbServerType()
+                + ", batchSize:" + getBatchSize()
+                + ", strategy:" + getStrategy()
+                + ", sortMemory:" + getSortMemory()
+                + ", changesLag:" + getChangesLag()
+                + ", fullScan:" + getFullScan()
+                + ", incremental:" + getIncremental()
+                + ", fingerprints:" + (fingerprintStore != null)
+                + ", pipeline:" + getPipeline()
+                + ", repair:" + getRepair()
+                + ", testMode:" + getTestMode()
+                + ", partition:" + getPartition()
+                + ", resume:" + getResume()
                 + "}";
     }
 
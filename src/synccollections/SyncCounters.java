@@ -0,0 +1,438 @@
+package synccollections;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe qui cumule les compteurs d'une synchronisation. Les compteurs peuvent
+ * être incrémentés simultanément par plusieurs tâches.
+ * <p>
+ * Les compteurs d'un client peuvent être rattachés à ceux de la
+ * synchronisation : chaque incrément est alors reporté sur les deux, ce qui
+ * permet de connaître la part du client (cf. SyncCheckpoint).</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.26
+ */
+public class SyncCounters {
+
+    /**
+     * Compteurs auxquels reporter chaque incrément, null si aucun.
+     */
+    private final SyncCounters parent;
+
+    /**
+     * Nombre de clients traités.
+     */
+    private final AtomicInteger nbClient = new AtomicInteger();
+
+    /**
+     * Nombre de sites lus dans la base Informix.
+     */
+    private final AtomicInteger nbSite = new AtomicInteger();
+
+    /**
+     * Nombre de sites ignorés car déjà traités lors d'une exécution
+     * précédente.
+     */
+    private final AtomicInteger nbSkipped = new AtomicInteger();
+
+    /**
+     * Nombre de patrimoines trouvés dans la base MongoDb.
+     */
+    private final AtomicInteger nbPatrimoniesFound = new AtomicInteger();
+
+    /**
+     * Nombre de patrimoines non trouvés dans la base MongoDb.
+     */
+    private final AtomicInteger nbPatrimoniesNotFound = new AtomicInteger();
+
+    /**
+     * Nombre de patrimoines trouvés dont la référence ou le libellé diffère
+     * du site.
+     */
+    private final AtomicInteger nbPatrimoniesDrifted = new AtomicInteger();
+
+    /**
+     * Nombre de sites inchangés depuis la dernière synchronisation, non
+     * recherchés dans la base MongoDb.
+     */
+    private final AtomicInteger nbPatrimoniesUnchanged = new AtomicInteger();
+
+    /**
+     * Nombre de sociétés trouvées dans la base MongoDb.
+     */
+    private final AtomicInteger nbCompaniesFound = new AtomicInteger();
+
+    /**
+     * Nombre de sociétés non trouvées dans la base MongoDb.
+     */
+    private final AtomicInteger nbCompaniesNotFound = new AtomicInteger();
+
+    /**
+     * Nombre d'écritures demandées pour réparer la base MongoDb.
+     */
+    private final AtomicInteger nbWrites = new AtomicInteger();
+
+    /**
+     * Nombre de documents créés par les écritures.
+     */
+    private final AtomicInteger nbUpserted = new AtomicInteger();
+
+    /**
+     * Nombre de documents modifiés par les écritures.
+     */
+    private final AtomicInteger nbModified = new AtomicInteger();
+
+    /**
+     * Nombre d'écritures en erreur.
+     */
+    private final AtomicInteger nbWriteErrors = new AtomicInteger();
+
+    /**
+     * Nombre de modifications lues dans le journal des modifications
+     * Informix.
+     */
+    private final AtomicInteger nbChanges = new AtomicInteger();
+
+    /**
+     * Constructeur de la classe SyncCounters.
+     */
+    public SyncCounters() {
+        this(null);
+    }
+
+    /**
+     * Constructeur de la classe SyncCounters, avec report des incréments.
+     *
+     * @param parent compteurs auxquels reporter chaque incrément, par exemple
+     * ceux de la synchronisation pour les compteurs d'un client.
+     */
+    public SyncCounters(SyncCounters parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Compte un client traité.
+     */
+    public void addClient() {
+        nbClient.incrementAndGet();
+        if (parent != null) {
+            parent.addClient();
+        }
+    }
+
+    /**
+     * Compte un site et le résultat de sa recherche dans la base MongoDb.
+     *
+     * @param found indique si le patrimoine a été trouvé.
+     */
+    public void addSite(boolean found) {
+        nbSite.incrementAndGet();
+        if (found) {
+            nbPatrimoniesFound.incrementAndGet();
+        } else {
+            nbPatrimoniesNotFound.incrementAndGet();
+        }
+        if (parent != null) {
+            parent.addSite(found);
+        }
+    }
+
+    /**
+     * Compte une société et le résultat de sa recherche dans la base MongoDb.
+     *
+     * @param found indique si la société a été trouvée.
+     */
+    public void addCompany(boolean found) {
+        if (found) {
+            nbCompaniesFound.incrementAndGet();
+        } else {
+            nbCompaniesNotFound.incrementAndGet();
+        }
+        if (parent != null) {
+            parent.addCompany(found);
+        }
+    }
+
+    /**
+     * Compte un patrimoine dont le contenu diffère du site.
+     */
+    public void addDrifted() {
+        nbPatrimoniesDrifted.incrementAndGet();
+        if (parent != null) {
+            parent.addDrifted();
+        }
+    }
+
+    /**
+     * Compte un site inchangé, non recherché.
+     */
+    public void addUnchanged() {
+        nbPatrimoniesUnchanged.incrementAndGet();
+        if (parent != null) {
+            parent.addUnchanged();
+        }
+    }
+
+    /**
+     * Compte des sites ignorés.
+     *
+     * @param nbSkipped nombre de sites ignorés.
+     */
+    public void addSkipped(int nbSkipped) {
+        this.nbSkipped.addAndGet(nbSkipped);
+        if (parent != null) {
+            parent.addSkipped(nbSkipped);
+        }
+    }
+
+    /**
+     * Compte des modifications lues dans le journal des modifications.
+     *
+     * @param nbChanges nombre de modifications lues.
+     */
+    public void addChanges(int nbChanges) {
+        this.nbChanges.addAndGet(nbChanges);
+        if (parent != null) {
+            parent.addChanges(nbChanges);
+        }
+    }
+
+    /**
+     * Cumule le bilan d'écritures groupées.
+     *
+     * @param mongoBulkWriter écritures groupées, une fois envoyées.
+     */
+    public void addWrites(MongoBulkWriter mongoBulkWriter) {
+        nbWrites.addAndGet(mongoBulkWriter.getNbRequests());
+        nbUpserted.addAndGet(mongoBulkWriter.getNbUpserted());
+        nbModified.addAndGet(mongoBulkWriter.getNbModified());
+        nbWriteErrors.addAndGet(mongoBulkWriter.getNbErrors());
+        if (parent != null) {
+            parent.addWrites(mongoBulkWriter);
+        }
+    }
+
+    /**
+     * Cumule des compteurs enregistrés, par exemple ceux d'un point de
+     * reprise.
+     *
+     * @param counters compteurs, par nom (cf. toMap()).
+     */
+    public void add(Map<String, Long> counters) {
+        add(nbClient, counters.get("clients"));
+        add(nbSite, counters.get("sites"));
+        add(nbSkipped, counters.get("skipped"));
+        add(nbPatrimoniesFound, counters.get("patrimoniesFound"));
+        add(nbPatrimoniesNotFound, counters.get("patrimoniesNotFound"));
+        add(nbPatrimoniesDrifted, counters.get("patrimoniesDrifted"));
+        add(nbPatrimoniesUnchanged, counters.get("patrimoniesUnchanged"));
+        add(nbCompaniesFound, counters.get("companiesFound"));
+        add(nbCompaniesNotFound, counters.get("companiesNotFound"));
+        add(nbWrites, counters.get("writes"));
+        add(nbUpserted, counters.get("upserted"));
+        add(nbModified, counters.get("modified"));
+        add(nbWriteErrors, counters.get("writeErrors"));
+        add(nbChanges, counters.get("changes"));
+        if (parent != null) {
+            parent.add(counters);
+        }
+    }
+
+    /**
+     * Cumule un compteur enregistré, s'il est présent.
+     */
+    private static void add(AtomicInteger counter, Long value) {
+        if (value != null) {
+            counter.addAndGet(value.intValue());
+        }
+    }
+
+    /**
+     * @return les compteurs, par nom.
+     */
+    public LinkedHashMap<String, Long> toMap() {
+        LinkedHashMap<String, Long> counters;
+
+        counters = new LinkedHashMap<>();
+        counters.put("clients", (long) getNbClient());
+        counters.put("sites", (long) getNbSite());
+        counters.put("skipped", (long) getNbSkipped());
+        counters.put("patrimoniesFound", (long) getNbPatrimoniesFound());
+        counters.put("patrimoniesNotFound", (long) getNbPatrimoniesNotFound());
+        counters.put("patrimoniesDrifted", (long) getNbPatrimoniesDrifted());
+        counters.put("patrimoniesUnchanged", (long) getNbPatrimoniesUnchanged());
+        counters.put("companiesFound", (long) getNbCompaniesFound());
+        counters.put("companiesNotFound", (long) getNbCompaniesNotFound());
+        counters.put("writes", (long) getNbWrites());
+        counters.put("upserted", (long) getNbUpserted());
+        counters.put("modified", (long) getNbModified());
+        counters.put("writeErrors", (long) getNbWriteErrors());
+        counters.put("changes", (long) getNbChanges());
+        return counters;
+    }
+
+    /**
+     * @return le nombre de clients traités.
+     */
+    public int getNbClient() {
+        return nbClient.get();
+    }
+
+    /**
+     * @return le nombre de sites lus.
+     */
+    public int getNbSite() {
+        return nbSite.get();
+    }
+
+    /**
+     * @return le nombre de sites ignorés.
+     */
+    public int getNbSkipped() {
+        return nbSkipped.get();
+    }
+
+    /**
+     * @return le nombre de patrimoines trouvés.
+     */
+    public int getNbPatrimoniesFound() {
+        return nbPatrimoniesFound.get();
+    }
+
+    /**
+     * @return le nombre de patrimoines non trouvés.
+     */
+    public int getNbPatrimoniesNotFound() {
+        return nbPatrimoniesNotFound.get();
+    }
+
+    /**
+     * @return le nombre de patrimoines dont le contenu diffère du site.
+     */
+    public int getNbPatrimoniesDrifted() {
+        return nbPatrimoniesDrifted.get();
+    }
+
+    /**
+     * @return le nombre de sites inchangés, non recherchés.
+     */
+    public int getNbPatrimoniesUnchanged() {
+        return nbPatrimoniesUnchanged.get();
+    }
+
+    /**
+     * @return le nombre de sociétés trouvées.
+     */
+    public int getNbCompaniesFound() {
+        return nbCompaniesFound.get();
+    }
+
+    /**
+     * @return le nombre de sociétés non trouvées.
+     */
+    public int getNbCompaniesNotFound() {
+        return nbCompaniesNotFound.get();
+    }
+
+    /**
+     * @return le nombre d'écritures demandées.
+     */
+    public int getNbWrites() {
+        return nbWrites.get();
+    }
+
+    /**
+     * @return le nombre de documents créés.
+     */
+    public int getNbUpserted() {
+        return nbUpserted.get();
+    }
+
+    /**
+     * @return le nombre de documents modifiés.
+     */
+    public int getNbModified() {
+        return nbModified.get();
+    }
+
+    /**
+     * @return le nombre d'écritures en erreur.
+     */
+    public int getNbWriteErrors() {
+        return nbWriteErrors.get();
+    }
+
+    /**
+     * @return le nombre d'éléments traités : sites et sociétés recherchés,
+     * modifications lues.
+     */
+    public long getNbProcessed() {
+        return (long) getNbSite() + getNbCompaniesFound() + getNbCompaniesNotFound() + getNbChanges();
+    }
+
+    /**
+     * @return le nombre de modifications lues dans le journal des
+     * modifications.
+     */
+    public int getNbChanges() {
+        return nbChanges.get();
+    }
+
+    /**
+     * @return l'avancement de la synchronisation, limité aux compteurs
+     * utilisés.
+     */
+    public String getProgress() {
+        StringBuilder progress;
+
+        progress = new StringBuilder();
+        if (getNbChanges() > 0) {
+            progress.append(getNbChanges()).append(" modification(s), ");
+        }
+        progress.append(getNbClient()).append(" client(s)");
+        if (getNbSite() > 0 || getNbSkipped() > 0) {
+            progress.append(", ").append(getNbSite()).append(" site(s), ")
+                    .append(getNbPatrimoniesFound()).append(" trouvé(s), ")
+                    .append(getNbPatrimoniesNotFound()).append(" non trouvé(s)");
+            if (getNbPatrimoniesDrifted() > 0) {
+                progress.append(", ").append(getNbPatrimoniesDrifted()).append(" modifié(s)");
+            }
+            if (getNbSkipped() > 0) {
+                progress.append(", ").append(getNbSkipped()).append(" ignoré(s)");
+            }
+        }
+        if (getNbCompaniesFound() > 0 || getNbCompaniesNotFound() > 0) {
+            progress.append(", ").append(getNbCompaniesFound()).append(" société(s) trouvée(s), ")
+                    .append(getNbCompaniesNotFound()).append(" non trouvée(s)");
+        }
+        return progress.toString();
+    }
+
+    /**
+     * Retourne le contenu de SyncCounters.
+     *
+     * @return le contenu de SyncCounters.
+     */
+    @Override
+    public String toString() {
+        return "SyncCounters:{"
+                + "nbClient:" + getNbClient()
+                + ", nbSite:" + getNbSite()
+                + ", nbSkipped:" + getNbSkipped()
+                + ", nbPatrimoniesFound:" + getNbPatrimoniesFound()
+                + ", nbPatrimoniesNotFound:" + getNbPatrimoniesNotFound()
+                + ", nbPatrimoniesDrifted:" + getNbPatrimoniesDrifted()
+                + ", nbPatrimoniesUnchanged:" + getNbPatrimoniesUnchanged()
+                + ", nbCompaniesFound:" + getNbCompaniesFound()
+                + ", nbCompaniesNotFound:" + getNbCompaniesNotFound()
+                + ", nbWrites:" + getNbWrites()
+                + ", nbUpserted:" + getNbUpserted()
+                + ", nbModified:" + getNbModified()
+                + ", nbWriteErrors:" + getNbWriteErrors()
+                + ", nbChanges:" + getNbChanges()
+                + "}";
+    }
+}
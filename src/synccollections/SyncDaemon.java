@@ -0,0 +1,335 @@
+package synccollections;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe qui cadence les synchronisations du mode démon (option -daemon) et
+ * publie l'état de la dernière exécution.
+ * <p>
+ * Le programme reste lancé entre deux synchronisations : le client MongoDb,
+ * les connexions Informix et les groupes de tâches sont conservés, les
+ * paramètres d'exécution ne sont lus qu'une fois et les synchronisations
+ * suivantes s'exécutent sur une JVM déjà optimisée. Une synchronisation
+ * démarre toutes les interval secondes ; si la précédente a duré plus
+ * longtemps, la suivante démarre dès qu'elle est terminée.</p>
+ * <p>
+ * L'état du démon est enregistré dans un fichier de propriétés au début et
+ * à la fin de chaque synchronisation : nombre d'exécutions et d'échecs,
+ * dates, durée et résultat de la dernière exécution, date de la prochaine.
+ * L'arrêt du programme (Ctrl-C, kill) attend la fin de la synchronisation en
+ * cours, au plus STOP_TIMEOUT secondes.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncDaemon {
+
+    /**
+     * Durée maximale d'attente de la synchronisation en cours à l'arrêt, en
+     * secondes.
+     */
+    public static final int STOP_TIMEOUT = 300;
+
+    /**
+     * Fichier d'état du démon.
+     */
+    private final File file;
+
+    /**
+     * Intervalle entre deux synchronisations, en millisecondes.
+     */
+    private final long interval;
+
+    /**
+     * Date de lancement du démon.
+     */
+    private final Date startDate;
+
+    /**
+     * Verrou d'attente de la prochaine synchronisation.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Décompte de l'arrêt du démon, attendu par l'arrêt du programme.
+     */
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    /**
+     * Tâche exécutée à l'arrêt du programme.
+     */
+    private final Thread shutdownHook;
+
+    /**
+     * Indique si l'arrêt du démon est demandé.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Indique si une synchronisation est en cours.
+     */
+    private boolean running = false;
+
+    /**
+     * Nombre de synchronisations exécutées.
+     */
+    private int nbRuns = 0;
+
+    /**
+     * Nombre de synchronisations en échec.
+     */
+    private int nbFailures = 0;
+
+    /**
+     * Nombre de synchronisations en échec depuis la dernière réussie.
+     */
+    private int nbConsecutiveFailures = 0;
+
+    /**
+     * Date de début de la dernière synchronisation, en millisecondes.
+     */
+    private long lastStart = 0;
+
+    /**
+     * Date de fin de la dernière synchronisation, en millisecondes.
+     */
+    private long lastEnd = 0;
+
+    /**
+     * Résultat de la dernière synchronisation.
+     */
+    private String lastStatus = "";
+
+    /**
+     * Date de la prochaine synchronisation, en millisecondes.
+     */
+    private long nextRun;
+
+    /**
+     * Constructeur de la classe SyncDaemon. L'arrêt du programme est
+     * intercepté pour laisser se terminer la synchronisation en cours.
+     *
+     * @param filename nom du fichier d'état du démon.
+     * @param interval intervalle entre deux synchronisations, en secondes.
+     */
+    public SyncDaemon(String filename, int interval) {
+        file = new File(filename);
+        this.interval = TimeUnit.SECONDS.toMillis(interval);
+        startDate = new Date();
+        nextRun = startDate.getTime();
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SyncDaemon.this.stop();
+                try {
+                    if (!terminated.await(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                        System.out.println("Erreur : synchronisation en cours non terminée après "
+                                + STOP_TIMEOUT + " s, arrêt forcé");
+                    }
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "SyncDaemon-stop");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Attend la date de la prochaine synchronisation.
+     *
+     * @return true s'il faut lancer la synchronisation, false si l'arrêt du
+     * démon est demandé.
+     */
+    public boolean await() {
+        long delay;
+
+        synchronized (lock) {
+            while (!stopped && (delay = nextRun - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(delay);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    stopped = true;
+                }
+            }
+        }
+        return !stopped;
+    }
+
+    /**
+     * Enregistre le début d'une synchronisation et programme la suivante.
+     */
+    public synchronized void runStarted() {
+        running = true;
+        lastStart = System.currentTimeMillis();
+        nextRun += interval;
+        if (nextRun < lastStart) {
+            nextRun = lastStart;
+        }
+        save();
+    }
+
+    /**
+     * Enregistre la fin d'une synchronisation.
+     *
+     * @param succeeded si la synchronisation s'est terminée sans erreur.
+     * @param status résultat de la synchronisation.
+     */
+    public synchronized void runFinished(boolean succeeded, String status) {
+        running = false;
+        lastEnd = System.currentTimeMillis();
+        lastStatus = status;
+        nbRuns++;
+        if (succeeded) {
+            nbConsecutiveFailures = 0;
+        } else {
+            nbFailures++;
+            nbConsecutiveFailures++;
+        }
+        if (nextRun < lastEnd) {
+            nextRun = lastEnd;
+        }
+        save();
+    }
+
+    /**
+     * Demande l'arrêt du démon : la synchronisation en cours se termine, la
+     * suivante n'est pas lancée.
+     */
+    public void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Signale l'arrêt effectif du démon, une fois les connexions fermées.
+     */
+    public void terminated() {
+        synchronized (this) {
+            save();
+        }
+        terminated.countDown();
+    }
+
+    /**
+     * @return si l'arrêt du démon est demandé.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return le nombre de synchronisations exécutées.
+     */
+    public synchronized int getNbRuns() {
+        return nbRuns;
+    }
+
+    /**
+     * @return le nombre de synchronisations en échec depuis la dernière
+     * réussie.
+     */
+    public synchronized int getNbConsecutiveFailures() {
+        return nbConsecutiveFailures;
+    }
+
+    /**
+     * @return la date de la prochaine synchronisation.
+     */
+    public synchronized Date getNextRun() {
+        return new Date(nextRun);
+    }
+
+    /**
+     * Enregistre l'état du démon, en remplaçant l'ancien fichier seulement
+     * une fois le nouveau complètement écrit. Une erreur est signalée sans
+     * interrompre le démon.
+     */
+    private void save() {
+        Properties properties;
+        SimpleDateFormat dateFormat;
+        File tmpFile;
+        OutputStream outputStream;
+
+        dateFormat = new SimpleDateFormat(SyncMetrics.DATE_FORMAT);
+        properties = new Properties();
+        properties.setProperty("pid", ManagementFactory.getRuntimeMXBean().getName());
+        properties.setProperty("started", dateFormat.format(startDate));
+        properties.setProperty("state", stopped && !running ? "stopped" : running ? "running" : "waiting");
+        properties.setProperty("intervalS", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(interval)));
+        properties.setProperty("runs", String.valueOf(nbRuns));
+        properties.setProperty("failures", String.valueOf(nbFailures));
+        properties.setProperty("consecutiveFailures", String.valueOf(nbConsecutiveFailures));
+        if (lastStart > 0) {
+            properties.setProperty("lastStart", dateFormat.format(new Date(lastStart)));
+        }
+        if (lastEnd >= lastStart && lastEnd > 0) {
+            properties.setProperty("lastEnd", dateFormat.format(new Date(lastEnd)));
+            properties.setProperty("lastDurationMs", String.valueOf(lastEnd - lastStart));
+            properties.setProperty("lastStatus", lastStatus);
+        }
+        if (!stopped) {
+            properties.setProperty("nextRun", dateFormat.format(new Date(nextRun)));
+        }
+        tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            outputStream = new FileOutputStream(tmpFile);
+            try {
+                properties.store(outputStream, "Etat du démon SyncCollections");
+            } finally {
+                outputStream.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Impossible de remplacer le fichier d'état " + file.getPath());
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Impossible d'écrire le fichier d'état " + file.getPath());
+            }
+        } catch (IOException exception) {
+            System.out.println("Erreur : état du démon non enregistré : " + exception.getMessage());
+        }
+    }
+
+    /**
+     * @return la tâche exécutée à l'arrêt du programme.
+     */
+    Thread getShutdownHook() {
+        return shutdownHook;
+    }
+
+    /**
+     * @return le nom du fichier d'état du démon.
+     */
+    public String getFilename() {
+        return file.getPath();
+    }
+
+    /**
+     * Retourne le contenu de SyncDaemon.
+     *
+     * @return le contenu de SyncDaemon.
+     */
+    @Override
+    public synchronized String toString() {
+        return "SyncDaemon:{"
+                + "file:" + file.getPath()
+                + ", intervalS:" + TimeUnit.MILLISECONDS.toSeconds(interval)
+                + ", runs:" + nbRuns
+                + ", failures:" + nbFailures
+                + ", consecutiveFailures:" + nbConsecutiveFailures
+                + ", lastStatus:" + lastStatus
+                + ", stopped:" + stopped
+                + "}";
+    }
+}
@@ -0,0 +1,448 @@
+package synccollections;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.WriteModel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.configuration.CodecRegistries;
+
+/**
+ * Classe qui synchronise une collection MongoDb par rapport à une table
+ * Informix, décrite par une tâche (cf. SyncTask).
+ * <p>
+ * Les lignes Informix sont lues par clé croissante. Avec une dernière clé
+ * (-incremental), celles déjà traitées lors d'une exécution réussie sont
+ * ignorées ; la dernière clé retenue s'arrête avant la première ligne dont le
+ * document est absent sans être réécrit, pour qu'elle soit revue. Les lignes des
+ * autres partitions sont écartées. Les documents sont recherchés par lots de
+ * batchSize identifiants, jusqu'à mgodb.nb.thread lots en parallèle, pendant
+ * que la lecture se poursuit. Les lots sont exploités dans l'ordre de
+ * lecture : chaque ligne est comparée à son document par la tâche, les
+ * écritures qui en résultent sont envoyées par lots non ordonnés (cf.
+ * MongoBulkWriter). L'exécution de la requête Informix, les recherches et
+ * les écritures sont régulées (cf. AdaptiveThrottle) ; la lecture dure toute
+ * la synchronisation et n'est donc régulée qu'à son ouverture, son débit de
+ * lignes pouvant être plafonné (cf. RateLimiter).</p>
+ * <p>
+ * Au plus toutes les 60 secondes, une fois les écritures des lots exploités
+ * envoyées, la dernière clé est enregistrée dans le point de reprise avec
+ * les compteurs. L'avancement est affiché périodiquement et la durée de
+ * chaque phase est mesurée.</p>
+ *
+ * @param <T> type des lignes Informix.
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncEngine<T> {
+
+    /**
+     * Tâche décrivant la collection synchronisée.
+     */
+    private final SyncTask<T> syncTask;
+
+    /**
+     * Collection MongoDb synchronisée, décodée en documents.
+     */
+    private final MongoCollection<Document> collection;
+
+    /**
+     * Groupes de tâches de la synchronisation.
+     */
+    private final SyncWorkers syncWorkers;
+
+    /**
+     * Nombre d'identifiants recherchés et d'écritures envoyées par requête.
+     */
+    private final int batchSize;
+
+    /**
+     * Indique si les écritures sont seulement comptées, sans être envoyées.
+     */
+    private final boolean testMode;
+
+    /**
+     * Indique si chaque ligne est affichée.
+     */
+    private final boolean debugMode;
+
+    /**
+     * Part du travail traitée par le processus.
+     */
+    private final SyncPartition partition;
+
+    /**
+     * Mesures des phases de la synchronisation.
+     */
+    private final SyncMetrics syncMetrics;
+
+    /**
+     * Compteurs de la synchronisation.
+     */
+    private final SyncCounters syncCounters;
+
+    /**
+     * Point de reprise de la synchronisation.
+     */
+    private final SyncCheckpoint syncCheckpoint;
+
+    /**
+     * Ecritures groupées vers la collection.
+     */
+    private MongoBulkWriter mongoBulkWriter;
+
+    /**
+     * Dernière clé lue.
+     */
+    private long lastKey = 0;
+
+    /**
+     * Clé de la première ligne dont le document est absent et n'a pas été
+     * réécrit, Long.MAX_VALUE s'il n'y en a pas.
+     */
+    private long unresolvedKey = Long.MAX_VALUE;
+
+    /**
+     * Nombre de lignes comparées.
+     */
+    private int nbRows = 0;
+
+    /**
+     * Nombre de lignes ignorées, déjà traitées.
+     */
+    private int nbSkipped = 0;
+
+    /**
+     * Constructeur de la classe SyncEngine.
+     *
+     * @param syncTask tâche décrivant la collection synchronisée.
+     * @param mongoDatabase base de données MongoDb.
+     * @param syncWorkers groupes de tâches de la synchronisation.
+     * @param batchSize nombre d'identifiants recherchés et d'écritures
+     * envoyées par requête.
+     * @param testMode indique si les écritures sont seulement comptées, sans
+     * être envoyées.
+     * @param debugMode indique si chaque ligne est affichée.
+     * @param partition part du travail traitée par le processus.
+     * @param syncMetrics mesures des phases de la synchronisation.
+     * @param syncCounters compteurs de la synchronisation.
+     * @param syncCheckpoint point de reprise de la synchronisation.
+     */
+    public SyncEngine(SyncTask<T> syncTask, MongoDatabase mongoDatabase, SyncWorkers syncWorkers, int batchSize,
+            boolean testMode, boolean debugMode, SyncPartition partition, SyncMetrics syncMetrics,
+            SyncCounters syncCounters, SyncCheckpoint syncCheckpoint) {
+        this.syncTask = syncTask;
+        this.syncWorkers = syncWorkers;
+        this.batchSize = batchSize;
+        this.testMode = testMode;
+        this.debugMode = debugMode;
+        this.partition = partition;
+        this.syncMetrics = syncMetrics;
+        this.syncCounters = syncCounters;
+        this.syncCheckpoint = syncCheckpoint;
+        collection = mongoDatabase.getCollection(syncTask.getCollection()).withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(new TimedCodec<>(new DocumentCodec(), syncMetrics.getPhase(SyncMetrics.MONGO_DECODE))),
+                MongoClient.getDefaultCodecRegistry()));
+    }
+
+    /**
+     * Synchronise la collection.
+     *
+     * @param informixConnection connexion à la base Informix, null avec
+     * -snapshot.
+     * @param watermark dernière clé traitée lors d'une exécution réussie, 0
+     * pour tout traiter.
+     * @return true si toutes les écritures ont été faites sans erreur.
+     * @throws ClassNotFoundException si le pilote JDBC est introuvable.
+     * @throws SQLException en cas d'erreur de lecture de la base Informix.
+     * @throws ExecutionException en cas d'erreur lors d'une recherche.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public boolean run(Connection informixConnection, long watermark)
+            throws ClassNotFoundException, SQLException, ExecutionException, InterruptedException {
+        RowSource<T> rowSource;
+        ArrayDeque<Future<Batch>> pending;
+        SyncProgress syncProgress;
+        SyncMetrics.Phase fetchPhase;
+        SyncMetrics.Phase hashPhase;
+        Batch batch;
+        T row;
+        String uid;
+        boolean success;
+        long checkpointKey;
+        long key;
+        long start;
+
+        checkpointKey = 0;
+        if (syncCheckpoint.isResumed()) {
+            syncCounters.add(syncCheckpoint.getResumedCounters());
+            checkpointKey = syncCheckpoint.getLastKey();
+            System.out.println("Reprise après la clé n°" + checkpointKey);
+        }
+        if (watermark > 0) {
+            System.out.println("  Eléments déjà traités jusqu'à la clé n°" + watermark);
+        }
+        lastKey = Math.max(watermark, checkpointKey);
+        fetchPhase = syncMetrics.getPhase(SyncMetrics.INFORMIX_FETCH);
+        hashPhase = syncMetrics.getPhase(SyncMetrics.UID_HASH);
+        mongoBulkWriter = new MongoBulkWriter(collection, batchSize, testMode, syncMetrics.getPhase(SyncMetrics.MONGO_BULK_WRITE),
+                syncWorkers.getMongoThrottle());
+        pending = new ArrayDeque<>();
+        batch = new Batch();
+        syncProgress = new SyncProgress(syncTask.getCollection(), syncCounters, syncMetrics, SyncProgress.DEFAULT_INTERVAL);
+        if (informixConnection != null) {
+            start = syncWorkers.getInformixThrottle().acquire();
+            success = false;
+            try {
+                rowSource = syncWorkers.getInformixRateLimiter().limit(syncTask.open(informixConnection));
+                success = true;
+            } finally {
+                syncWorkers.getInformixThrottle().release(start, success);
+            }
+        } else {
+            rowSource = syncTask.open(null);
+        }
+        try {
+            start = System.nanoTime();
+            while ((row = rowSource.next()) != null) {
+                fetchPhase.record(start);
+                key = syncTask.getKey(row);
+                if (key <= checkpointKey) {
+                    start = System.nanoTime();
+                    continue;
+                }
+                if (key <= watermark) {
+                    nbSkipped++;
+                    start = System.nanoTime();
+                    continue;
+                }
+                lastKey = Math.max(lastKey, key);
+                if (!partition.acceptsClient(syncTask.getUnum(row))) {
+                    start = System.nanoTime();
+                    continue;
+                }
+                start = System.nanoTime();
+                uid = syncTask.getUid(row);
+                hashPhase.record(start);
+                if (partition.acceptsUid(uid)) {
+                    nbRows++;
+                    if (debugMode) {
+                        System.out.println(syncTask.getCollection() + "(" + nbRows + ")=" + row);
+                    }
+                    batch.add(row, uid, key);
+                    if (batch.rows.size() >= batchSize) {
+                        submit(batch, pending);
+                        batch = new Batch();
+                    }
+                }
+                start = System.nanoTime();
+            }
+            submit(batch, pending);
+            while (!pending.isEmpty()) {
+                process(pending.poll());
+            }
+            mongoBulkWriter.flush();
+            syncCounters.addSkipped(nbSkipped);
+            syncCounters.addWrites(mongoBulkWriter);
+            System.out.printf("Débit moyen : %.0f élément(s)/s%n", syncProgress.stop());
+        } finally {
+            syncProgress.stop();
+            for (Future<Batch> future : pending) {
+                future.cancel(true);
+            }
+            syncTask.close();
+        }
+
+        System.out.println(nbRows + " élément(s) lu(s), " + nbSkipped + " ignoré(s), " + syncTask.getSummary(syncCounters));
+        if (testMode) {
+            System.out.println("Mode test : " + mongoBulkWriter.getNbRequests() + " écriture(s) en "
+                    + mongoBulkWriter.getNbBatches() + " lot(s) non faite(s)");
+        } else if (mongoBulkWriter.getNbFailedBatches() > 0) {
+            System.out.println("Erreur : " + mongoBulkWriter.getNbFailedBatches() + " lot(s) en erreur sur "
+                    + mongoBulkWriter.getNbBatches() + ", " + mongoBulkWriter.getNbErrors() + " écriture(s) non faite(s)");
+        } else {
+            System.out.println(mongoBulkWriter.getNbRequests() + " écriture(s) : "
+                    + mongoBulkWriter.getNbModified() + " document(s) modifié(s)");
+        }
+        if (debugMode) {
+            System.out.println(mongoBulkWriter);
+        }
+        return testMode || mongoBulkWriter.getNbFailedBatches() == 0;
+    }
+
+    /**
+     * Lance la recherche d'un lot et, si trop de lots sont en cours, exploite
+     * le plus ancien.
+     */
+    private void submit(final Batch batch, ArrayDeque<Future<Batch>> pending)
+            throws ExecutionException, InterruptedException {
+        if (batch.rows.isEmpty()) {
+            return;
+        }
+        pending.add(syncWorkers.getMongoExecutor().submit(new Callable<Batch>() {
+            @Override
+            public Batch call() throws Exception {
+                return lookup(batch);
+            }
+        }));
+        while (pending.size() > syncWorkers.getMgoNbThread()) {
+            process(pending.poll());
+        }
+    }
+
+    /**
+     * Recherche en une seule requête les documents d'un lot.
+     */
+    private Batch lookup(Batch batch) throws InterruptedException {
+        MongoCursor<Document> cursor;
+        Document document;
+        boolean success;
+        long start;
+
+        start = syncWorkers.getMongoThrottle().acquire();
+        success = false;
+        try {
+            cursor = collection.find(new BasicDBObject("uid", new BasicDBObject("$in", batch.uids)))
+                    .projection(syncTask.getProjection()).iterator();
+            try {
+                while (cursor.hasNext()) {
+                    document = cursor.next();
+                    batch.documents.put(document.getString("uid"), document);
+                }
+            } finally {
+                cursor.close();
+                syncMetrics.getPhase(SyncMetrics.MONGO_LOOKUP).record(start);
+            }
+            success = true;
+        } finally {
+            syncWorkers.getMongoThrottle().release(start, success);
+        }
+        return batch;
+    }
+
+    /**
+     * Attend le résultat d'une recherche, compare chaque ligne du lot à son
+     * document et enregistre le point de reprise s'il est temps.
+     */
+    private void process(Future<Batch> future) throws ExecutionException, InterruptedException {
+        SyncCounters checkpointCounters;
+        WriteModel<Document> writeModel;
+        Document document;
+        Batch batch;
+        int i;
+        long start;
+
+        start = System.nanoTime();
+        batch = future.get();
+        syncMetrics.getPhase(SyncMetrics.MONGO_WAIT).record(start);
+        for (i = 0; i < batch.rows.size(); i++) {
+            document = batch.documents.get(batch.uids.get(i));
+            writeModel = syncTask.compare(batch.rows.get(i), batch.uids.get(i), document, syncCounters);
+            if (writeModel != null) {
+                mongoBulkWriter.add(writeModel);
+            } else if (document == null) {
+                unresolvedKey = Math.min(unresolvedKey, batch.keys[i]);
+            }
+        }
+        if (syncCheckpoint.isDue()) {
+            mongoBulkWriter.flush();
+            if (mongoBulkWriter.getNbFailedBatches() == 0) {
+                checkpointCounters = new SyncCounters();
+                checkpointCounters.add(syncCounters.toMap());
+                checkpointCounters.addWrites(mongoBulkWriter);
+                syncCheckpoint.setLastKey(batch.lastKey, checkpointCounters);
+            }
+        }
+    }
+
+    /**
+     * @return la dernière clé lue, ou celle qui précède la première ligne
+     * dont le document est absent, à mémoriser si la synchronisation a
+     * réussi.
+     */
+    public long getLastKey() {
+        return Math.min(lastKey, unresolvedKey - 1);
+    }
+
+    /**
+     * @return le nombre de lignes comparées.
+     */
+    public int getNbRows() {
+        return nbRows;
+    }
+
+    /**
+     * @return les écritures groupées vers la collection.
+     */
+    public MongoBulkWriter getMongoBulkWriter() {
+        return mongoBulkWriter;
+    }
+
+    /**
+     * Retourne le contenu de SyncEngine.
+     *
+     * @return le contenu de SyncEngine.
+     */
+    @Override
+    public String toString() {
+        return "SyncEngine:{"
+                + "collection:" + syncTask.getCollection()
+                + ", batchSize:" + batchSize
+                + ", lastKey:" + lastKey
+                + ", nbRows:" + nbRows
+                + ", nbSkipped:" + nbSkipped
+                + "}";
+    }
+
+    /**
+     * Lot de lignes recherchées en une seule requête.
+     */
+    private class Batch {
+
+        /**
+         * Lignes Informix du lot.
+         */
+        private final ArrayList<T> rows = new ArrayList<>(batchSize);
+
+        /**
+         * Identifiants des documents, dans l'ordre des lignes.
+         */
+        private final ArrayList<String> uids = new ArrayList<>(batchSize);
+
+        /**
+         * Documents trouvés, par identifiant.
+         */
+        private final HashMap<String, Document> documents = new HashMap<>(2 * batchSize);
+
+        /**
+         * Clés des lignes du lot.
+         */
+        private final long[] keys = new long[batchSize];
+
+        /**
+         * Clé de la dernière ligne du lot.
+         */
+        private long lastKey;
+
+        /**
+         * Ajoute une ligne au lot.
+         */
+        private void add(T row, String uid, long key) {
+            keys[rows.size()] = key;
+            rows.add(row);
+            uids.add(uid);
+            lastKey = key;
+        }
+    }
+}
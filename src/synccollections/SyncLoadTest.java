@@ -0,0 +1,1025 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Ftype;
+import bdd.Furgent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bson.Document;
+import utils.ApplicationProperties;
+import utils.DBServer;
+
+/**
+ * Programme qui mesure les performances de SyncCollections de bout en bout,
+ * sur des données synthétiques, sans toucher aux bases de production.
+ * <p>
+ * Les clients, leur raison d'appel n°1 et leurs sites sont générés dans un
+ * instantané (cf. SyncSnapshot), qui tient lieu de base Informix. Les sociétés
+ * et les patrimoines correspondants sont insérés dans la base MongoDb locale
+ * (type local du fichier MyDatabases.prop), avec les mêmes identifiants
+ * agrégés que la synchronisation. Une part configurable des données diverge
+ * volontairement : patrimoines absents, modifiés ou sans site, sociétés
+ * absentes.</p>
+ * <p>
+ * SyncCollections est ensuite lancé dans la même JVM sur ces données. Le
+ * bilan donne, pour chaque collection, le nombre de lignes traitées par
+ * seconde et les centiles des phases lus dans les fichiers de mesures, ainsi
+ * que la durée totale, le pic de mémoire (heap) relevé toutes les 50 ms et
+ * l'activité du ramasse-miettes.</p>
+ * <p>
+ * Avec -sql, les clients, leur raison d'appel et leurs sites sont chargés
+ * dans une base SQL locale désignée par son URL JDBC (propriété
+ * &lt;type&gt;.ifxdb.url, type local par défaut), selon le schéma et les
+ * insertions du fichier donné, et SyncCollections lit cette base par le même
+ * chemin que la base Informix : requêtes des DAO, groupe de connexions
+ * (InformixConnectionPool), régulation des requêtes Informix et tâche de
+ * lecture des sites de SitePipeline. Sans -sql, l'instantané remplace la base
+ * Informix et ces lectures ne sont pas mesurées ; le bilan le signale.</p>
+ * <p>
+ * Usage : java synccollections.SyncLoadTest [-clients n] [-sites n]
+ * [-missing %] [-drifted %] [-orphaned %] [-missingcompanies %] [-seed n]
+ * [-ifxdb informixdb] [-sql schéma] [-drop|-reuse] [-label libellé]
+ * [-o fichier] [-- option...]</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncLoadTest {
+
+    /**
+     * Type de la base MongoDb de test, seule base dans laquelle les données
+     * sont générées.
+     */
+    private static final String MGODB_SERVER_TYPE = "local";
+
+    /**
+     * Nombre de documents par insertion groupée.
+     */
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    /**
+     * Intervalle entre deux relevés de la mémoire, en millisecondes.
+     */
+    private static final long HEAP_SAMPLING_INTERVAL = 50;
+
+    /**
+     * Collections mesurées.
+     */
+    private static final String[] COLLECTIONS = {"patrimonies", "companies"};
+
+    /**
+     * Nombre de clients générés. Valeur par défaut : 100.
+     */
+    private int nbClients = 100;
+
+    /**
+     * Nombre de sites générés, répartis entre les clients. Valeur par défaut :
+     * 1000000.
+     */
+    private long nbSites = 1000000;
+
+    /**
+     * Pourcentage de sites sans patrimoine. Valeur par défaut : 1.
+     */
+    private double missingRate = 1;
+
+    /**
+     * Pourcentage de sites dont le patrimoine est modifié. Valeur par
+     * défaut : 1.
+     */
+    private double driftedRate = 1;
+
+    /**
+     * Nombre de patrimoines sans site, en pourcentage du nombre de sites.
+     * Valeur par défaut : 1.
+     */
+    private double orphanedRate = 1;
+
+    /**
+     * Pourcentage de clients sans société. Valeur par défaut : 1.
+     */
+    private double missingCompanyRate = 1;
+
+    /**
+     * Graine du générateur, pour reproduire les mêmes données. Valeur par
+     * défaut : 1.
+     */
+    private long seed = 1;
+
+    /**
+     * Type du serveur Informix enregistré dans l'instantané, ou de la base SQL
+     * locale avec -sql. Valeur par défaut : pre-prod, local avec -sql.
+     */
+    private String ifxDbServerType = null;
+
+    /**
+     * Fichier du schéma et des insertions de la base SQL locale, null pour
+     * générer un instantané.
+     */
+    private String sqlFilename = null;
+
+    /**
+     * Indique si les collections de la base de test sont vidées avant la
+     * génération.
+     */
+    private boolean drop = false;
+
+    /**
+     * Indique si les données déjà générées sont réutilisées.
+     */
+    private boolean reuse = false;
+
+    /**
+     * Libellé des résultats, par exemple la version mesurée.
+     */
+    private String label = "";
+
+    /**
+     * Fichier auquel ajouter les résultats, null si aucun.
+     */
+    private String outputFilename = null;
+
+    /**
+     * Options passées telles quelles à SyncCollections.
+     */
+    private final ArrayList<String> syncOptions = new ArrayList<>();
+
+    /**
+     * Nombre de patrimoines absents générés, -1 si les données sont
+     * réutilisées.
+     */
+    private long nbMissing = -1;
+
+    /**
+     * Nombre de patrimoines modifiés générés, -1 si les données sont
+     * réutilisées.
+     */
+    private long nbDrifted = -1;
+
+    /**
+     * Nombre de patrimoines sans site générés, -1 si les données sont
+     * réutilisées.
+     */
+    private long nbOrphaned = -1;
+
+    /**
+     * Nombre de sociétés absentes générées, -1 si les données sont
+     * réutilisées.
+     */
+    private long nbMissingCompanies = -1;
+
+    /**
+     * Résultats des mesures.
+     */
+    private final ArrayList<String> results = new ArrayList<>();
+
+    /**
+     * Constructeur de la classe SyncLoadTest.
+     *
+     * @param args arguments de la ligne de commande.
+     * @throws GetArgsException en cas d'erreur avec les paramètres en ligne de
+     * commande.
+     */
+    public SyncLoadTest(String[] args) throws GetArgsException {
+        int i;
+
+        i = 0;
+        while (i < args.length) {
+            if (args[i].equals("--")) {
+                for (i++; i < args.length; i++) {
+                    syncOptions.add(args[i]);
+                }
+                break;
+            } else if (args[i].equals("-drop")) {
+                drop = true;
+                i++;
+                continue;
+            } else if (args[i].equals("-reuse")) {
+                reuse = true;
+                i++;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage();
+                throw new GetArgsException("Valeur manquante pour : " + args[i]);
+            }
+            try {
+                if (args[i].equals("-clients")) {
+                    nbClients = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-sites")) {
+                    nbSites = Long.parseLong(args[i + 1]);
+                } else if (args[i].equals("-missing")) {
+                    missingRate = Double.parseDouble(args[i + 1]);
+                } else if (args[i].equals("-drifted")) {
+                    driftedRate = Double.parseDouble(args[i + 1]);
+                } else if (args[i].equals("-orphaned")) {
+                    orphanedRate = Double.parseDouble(args[i + 1]);
+                } else if (args[i].equals("-missingcompanies")) {
+                    missingCompanyRate = Double.parseDouble(args[i + 1]);
+                } else if (args[i].equals("-seed")) {
+                    seed = Long.parseLong(args[i + 1]);
+                } else if (args[i].equals("-ifxdb")) {
+                    ifxDbServerType = args[i + 1];
+                } else if (args[i].equals("-sql")) {
+                    sqlFilename = args[i + 1];
+                } else if (args[i].equals("-label")) {
+                    label = args[i + 1];
+                } else if (args[i].equals("-o")) {
+                    outputFilename = args[i + 1];
+                } else {
+                    usage();
+                    throw new GetArgsException("Mauvais argument : " + args[i]);
+                }
+            } catch (NumberFormatException exception) {
+                usage();
+                throw new GetArgsException("Valeur non numérique pour " + args[i] + " : " + args[i + 1]);
+            }
+            i += 2;
+        }
+        if (nbClients < 1 || nbSites < nbClients) {
+            usage();
+            throw new GetArgsException("Il faut au moins un client et au moins un site par client");
+        }
+        if (missingRate < 0 || driftedRate < 0 || orphanedRate < 0 || missingCompanyRate < 0
+                || missingRate + driftedRate > 100 || missingCompanyRate > 100) {
+            usage();
+            throw new GetArgsException("Pourcentages d'écarts invalides");
+        }
+        if (drop && reuse) {
+            usage();
+            throw new GetArgsException("Les options -drop et -reuse sont incompatibles");
+        }
+        if (ifxDbServerType == null) {
+            ifxDbServerType = sqlFilename != null ? "local" : "pre-prod";
+        }
+        for (String option : syncOptions) {
+            if (option.equals("-mgodb") || option.equals("-ifxdb") || option.equals("-snapshot")
+                    || option.equals("-export") || option.equals("-daemon")) {
+                usage();
+                throw new GetArgsException("Option de SyncCollections fixée par SyncLoadTest : " + option);
+            }
+        }
+    }
+
+    /**
+     * Affiche le mode d'utilisation du programme.
+     */
+    public static void usage() {
+        System.out.println("Usage : java synccollections.SyncLoadTest [-clients n] [-sites n]"
+                + " [-missing %] [-drifted %] [-orphaned %] [-missingcompanies %] [-seed n]"
+                + " [-ifxdb informixdb] [-sql schéma] [-drop|-reuse] [-label libellé] [-o fichier] [-- option...]");
+    }
+
+    /**
+     * Retourne l'URL JDBC de la base SQL locale. Une base sans URL est une
+     * base Informix, dans laquelle rien n'est chargé.
+     *
+     * @param applicationProperties paramètres d'exécution.
+     * @return l'URL JDBC de la base SQL locale.
+     * @throws IOException si la propriété url est absente.
+     */
+    private String getSqlUrl(ApplicationProperties applicationProperties) throws IOException {
+        String url;
+
+        url = applicationProperties.getProperty(ifxDbServerType + ".ifxdb.url");
+        if (url == null) {
+            throw new IOException("Propriété " + ifxDbServerType + ".ifxdb.url absente : -sql exige une base SQL locale");
+        }
+        return url;
+    }
+
+    /**
+     * @return le nom de l'instantané généré.
+     */
+    private String getSnapshotFilename() {
+        return "SyncLoadTest." + ifxDbServerType + ".snapshot";
+    }
+
+    /**
+     * Génère les sites dans l'instantané, ou dans la base SQL locale avec
+     * -sql, et les sociétés et les patrimoines dans la base MongoDb de test.
+     *
+     * @throws Exception en cas d'erreur de lecture des paramètres, d'écriture
+     * de l'instantané ou d'accès aux bases.
+     */
+    private void generate() throws Exception {
+        ApplicationProperties applicationProperties;
+        DBServer mgoServer;
+        MongoClient mongoClient;
+        MongoDatabase mongoDatabase;
+        MongoCollection<Document> patrimonies;
+        MongoCollection<Document> companies;
+        SyncSnapshot.Writer writer;
+        SqlLoader sqlLoader;
+        SyntheticType type;
+        ArrayList<Document> patrimonyBatch;
+        ArrayList<Document> companyBatch;
+        SyntheticClient client;
+        SyntheticSite site;
+        Random random;
+        String patrimonyLabel;
+        String ref;
+        long nbClientSites;
+        long s3num;
+        long i;
+        double draw;
+        int unum;
+        int c;
+
+        applicationProperties = new ApplicationProperties("MyDatabases.prop");
+        mgoServer = new DBServer(MGODB_SERVER_TYPE, "mgodb", applicationProperties);
+        System.out.println("Ouverture de la connexion au serveur MongoDb de test : " + mgoServer.getName());
+        mongoClient = new MongoClient(mgoServer.getIpAddress(), (int) mgoServer.getPortNumber());
+        writer = null;
+        sqlLoader = null;
+        try {
+            mongoDatabase = mongoClient.getDatabase(mgoServer.getDbName());
+            patrimonies = mongoDatabase.getCollection("patrimonies");
+            companies = mongoDatabase.getCollection("companies");
+            if (drop) {
+                System.out.println("Suppression des collections de la base de test " + mgoServer.getDbName() + " ...");
+                patrimonies.drop();
+                companies.drop();
+            } else if (patrimonies.count() > 0 || companies.count() > 0) {
+                throw new IOException("Base de test " + mgoServer.getDbName()
+                        + " non vide, utiliser -drop pour la vider ou -reuse pour réutiliser ses données");
+            }
+
+            System.out.println("Génération de " + nbClients + " client(s) et " + nbSites + " site(s), graine " + seed + " ...");
+            random = new Random(seed);
+            if (sqlFilename != null) {
+                System.out.println("Chargement de la base SQL locale de type " + ifxDbServerType
+                        + " selon le schéma " + sqlFilename + " ...");
+                sqlLoader = new SqlLoader(getSqlUrl(applicationProperties), sqlFilename, drop);
+            } else {
+                writer = new SyncSnapshot.Writer(getSnapshotFilename(), ifxDbServerType, true);
+            }
+            type = new SyntheticType();
+            patrimonyBatch = new ArrayList<>(INSERT_BATCH_SIZE);
+            companyBatch = new ArrayList<>(INSERT_BATCH_SIZE);
+            nbMissing = 0;
+            nbDrifted = 0;
+            nbOrphaned = 0;
+            nbMissingCompanies = 0;
+            s3num = 0;
+            for (c = 0; c < nbClients; c++) {
+                unum = 1000 + c;
+                client = new SyntheticClient(unum);
+                if (sqlLoader != null) {
+                    sqlLoader.writeClient(client, type);
+                } else {
+                    writer.writeClient(client, type);
+                }
+                if (random.nextDouble() * 100 < missingCompanyRate) {
+                    nbMissingCompanies++;
+                } else {
+                    companyBatch.add(new Document("uid", AggregateUidEncoder.encodeCompany(unum))
+                            .append("label", client.getUname())
+                            .append("id", unum));
+                    insert(companies, companyBatch, false);
+                }
+
+                nbClientSites = nbSites / nbClients + (c < nbSites % nbClients ? 1 : 0);
+                for (i = 0; i < nbClientSites; i++) {
+                    s3num++;
+                    site = new SyntheticSite((int) s3num, random);
+                    if (sqlLoader != null) {
+                        sqlLoader.writeSite(site);
+                    } else {
+                        writer.writeSite(site);
+                    }
+                    draw = random.nextDouble() * 100;
+                    if (draw < missingRate) {
+                        nbMissing++;
+                        continue;
+                    }
+                    patrimonyLabel = PatrimonyBatchLookup.getLabel(site);
+                    if (draw < missingRate + driftedRate) {
+                        nbDrifted++;
+                        patrimonyLabel = patrimonyLabel + " bis";
+                    }
+                    patrimonyBatch.add(newPatrimony(unum, site.getS3number2(), patrimonyLabel));
+                    insert(patrimonies, patrimonyBatch, false);
+                    if (s3num % 100000 == 0) {
+                        System.out.println("  " + s3num + " site(s) généré(s)");
+                    }
+                }
+            }
+
+            System.out.println("Génération des patrimoines sans site ...");
+            for (i = 0; i < (long) (nbSites * orphanedRate / 100); i++) {
+                unum = 1000 + random.nextInt(nbClients);
+                ref = "O" + (1000000 + i);
+                patrimonyBatch.add(newPatrimony(unum, ref, "Patrimoine sans site " + ref));
+                insert(patrimonies, patrimonyBatch, false);
+                nbOrphaned++;
+            }
+            insert(patrimonies, patrimonyBatch, true);
+            insert(companies, companyBatch, true);
+
+            if (sqlLoader != null) {
+                sqlLoader.close();
+                sqlLoader = null;
+            } else {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+            if (sqlLoader != null) {
+                sqlLoader.abort();
+            }
+            mongoClient.close();
+        }
+        System.out.println("Données générées : "
+                + (sqlFilename != null ? "base SQL locale " + ifxDbServerType : "instantané " + getSnapshotFilename()) + ", "
+                + nbMissing + " patrimoine(s) absent(s), " + nbDrifted + " patrimoine(s) modifié(s), "
+                + nbOrphaned + " patrimoine(s) sans site, " + nbMissingCompanies + " société(s) absente(s)");
+    }
+
+    /**
+     * Construit un patrimoine.
+     */
+    private static Document newPatrimony(int unum, String ref, String label) {
+        return new Document("uid", AggregateUidEncoder.encodePatrimony(unum, ref))
+                .append("ref", ref)
+                .append("label", label)
+                .append("companyUid", AggregateUidEncoder.encodeCompany(unum));
+    }
+
+    /**
+     * Insère un lot de documents s'il est plein, ou s'il n'est pas vide à la
+     * fin de la génération.
+     */
+    private static void insert(MongoCollection<Document> collection, ArrayList<Document> batch, boolean last) {
+        if (batch.size() >= INSERT_BATCH_SIZE || (last && !batch.isEmpty())) {
+            collection.insertMany(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Lance SyncCollections sur les données générées et mesure son exécution.
+     *
+     * @throws Exception en cas d'erreur de la synchronisation ou de lecture
+     * des fichiers de mesures.
+     */
+    private void run() throws Exception {
+        final MemoryMXBean memoryMXBean;
+        final AtomicLong peakHeap;
+        final Thread sampler;
+        ArrayList<String> args;
+        long baselineHeap;
+        long gcCountBefore;
+        long gcTimeBefore;
+        long start;
+        long startMillis;
+        long elapsed;
+
+        if (sqlFilename != null) {
+            getSqlUrl(new ApplicationProperties("MyDatabases.prop"));
+        } else if (!new File(getSnapshotFilename()).exists()) {
+            throw new IOException("Instantané " + getSnapshotFilename() + " absent, relancer sans -reuse");
+        }
+        args = new ArrayList<>();
+        args.add("-mgodb");
+        args.add(MGODB_SERVER_TYPE);
+        args.add("-ifxdb");
+        args.add(ifxDbServerType);
+        if (sqlFilename == null) {
+            args.add("-snapshot");
+            args.add(getSnapshotFilename());
+        }
+        if (!syncOptions.contains("-patrimonies")) {
+            args.add("-patrimonies");
+            args.add("all");
+        }
+        if (!syncOptions.contains("-companies")) {
+            args.add("-companies");
+        }
+        args.addAll(syncOptions);
+
+        memoryMXBean = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        baselineHeap = memoryMXBean.getHeapMemoryUsage().getUsed();
+        peakHeap = new AtomicLong(baselineHeap);
+        sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long used;
+
+                while (!Thread.currentThread().isInterrupted()) {
+                    used = memoryMXBean.getHeapMemoryUsage().getUsed();
+                    if (used > peakHeap.get()) {
+                        peakHeap.set(used);
+                    }
+                    try {
+                        Thread.sleep(HEAP_SAMPLING_INTERVAL);
+                    } catch (InterruptedException exception) {
+                        return;
+                    }
+                }
+            }
+        }, "SyncLoadTest.heap");
+        sampler.setDaemon(true);
+
+        gcCountBefore = getGcCount();
+        gcTimeBefore = getGcTime();
+        System.out.println("Lancement de SyncCollections " + String.join(" ", args) + " ...");
+        sampler.start();
+        startMillis = System.currentTimeMillis();
+        start = System.nanoTime();
+        try {
+            new SyncCollections(args.toArray(new String[args.size()]));
+        } finally {
+            elapsed = System.nanoTime() - start;
+            sampler.interrupt();
+            sampler.join();
+        }
+
+        for (String collection : COLLECTIONS) {
+            report(collection, startMillis);
+        }
+        addResult(String.format("%-12s %-12s %10.1f s %12.0f sites/s %10.1f Mo heap (%.1f Mo au repos) %6d GC %8d ms",
+                label, "total", elapsed / 1e9, nbSites * 1e9 / elapsed,
+                peakHeap.get() / 1048576.0, baselineHeap / 1048576.0,
+                getGcCount() - gcCountBefore, getGcTime() - gcTimeBefore));
+        if (nbMissing >= 0) {
+            addResult(String.format("%-12s %-12s attendus : %d patrimoine(s) absent(s), %d modifié(s), %d sans site,"
+                    + " %d société(s) absente(s)", label, "écarts", nbMissing, nbDrifted, nbOrphaned, nbMissingCompanies));
+        }
+        if (sqlFilename != null) {
+            addResult(String.format("%-12s %-12s base SQL locale %s : lectures JDBC, InformixConnectionPool, régulation"
+                    + " Informix et lecture des sites de SitePipeline mesurées, avec le pilote et le serveur de la base"
+                    + " locale au lieu d'Informix", label, "limites", ifxDbServerType));
+        } else {
+            addResult(String.format("%-12s %-12s instantané : lectures JDBC Informix, InformixConnectionPool,"
+                    + " régulation Informix et lecture des sites de SitePipeline non mesurées", label, "limites"));
+        }
+    }
+
+    /**
+     * Ajoute au bilan les mesures d'une collection, lues dans le fichier de
+     * mesures écrit par SyncCollections.
+     */
+    private void report(String collection, long startMillis) throws IOException {
+        File file;
+        JsonNode node;
+        JsonNode phase;
+        Iterator<Map.Entry<String, JsonNode>> fields;
+        Map.Entry<String, JsonNode> field;
+        StringBuilder counters;
+
+        file = new File("SyncCollections." + ifxDbServerType + "." + MGODB_SERVER_TYPE + "." + collection + ".metrics.json");
+        if (!file.exists() || file.lastModified() < startMillis - 1000) {
+            System.out.println("Pas de mesures pour " + collection + " : " + file.getPath());
+            return;
+        }
+        node = new ObjectMapper().readTree(file);
+        addResult(String.format("%-12s %-12s %10d lignes %12.0f lignes/s %10d ms",
+                label, collection, node.path("rows").asLong(), node.path("rowsPerSecond").asDouble(),
+                node.path("durationMs").asLong()));
+        fields = node.path("phases").fields();
+        while (fields.hasNext()) {
+            field = fields.next();
+            phase = field.getValue();
+            addResult(String.format("%-12s   %-22s %10d appels  p50 %10.1f us  p95 %10.1f us  p99 %10.1f us  max %10.1f us",
+                    label, field.getKey(), phase.path("count").asLong(), phase.path("p50Us").asDouble(),
+                    phase.path("p95Us").asDouble(), phase.path("p99Us").asDouble(), phase.path("maxUs").asDouble()));
+        }
+        counters = new StringBuilder();
+        fields = node.path("counters").fields();
+        while (fields.hasNext()) {
+            field = fields.next();
+            if (field.getValue().asLong() != 0) {
+                counters.append(counters.length() > 0 ? ", " : "").append(field.getKey()).append(":").append(field.getValue().asLong());
+            }
+        }
+        addResult(String.format("%-12s   compteurs : %s", label, counters));
+    }
+
+    /**
+     * Affiche un résultat et le garde pour le fichier des résultats.
+     */
+    private void addResult(String result) {
+        System.out.println(result);
+        results.add(result);
+    }
+
+    /**
+     * @return le nombre de passages du ramasse-miettes depuis le lancement.
+     */
+    private static long getGcCount() {
+        long count;
+
+        count = 0;
+        for (GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, garbageCollectorMXBean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return la durée cumulée du ramasse-miettes depuis le lancement, en
+     * millisecondes.
+     */
+    private static long getGcTime() {
+        long time;
+
+        time = 0;
+        for (GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, garbageCollectorMXBean.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Ajoute les résultats au fichier demandé.
+     *
+     * @throws IOException en cas d'erreur d'écriture.
+     */
+    private void save() throws IOException {
+        PrintWriter printWriter;
+
+        if (outputFilename == null) {
+            return;
+        }
+        printWriter = new PrintWriter(new FileWriter(outputFilename, true));
+        try {
+            for (String result : results) {
+                printWriter.println(result);
+            }
+        } finally {
+            printWriter.close();
+        }
+        System.out.println("Résultats ajoutés au fichier " + outputFilename);
+    }
+
+    /**
+     * Chargement des données générées dans une base SQL locale, tenant lieu
+     * de base Informix.
+     * <p>
+     * Le fichier du schéma contient des instructions SQL terminées par « ; »,
+     * les lignes commençant par « -- » étant ignorées. Les instructions
+     * « insert into furgent », « insert into ftype » et « insert into fsite »
+     * insèrent une ligne, avec dans l'ordre les paramètres (unum, uuid,
+     * uname), (unum, ttnum, ttypename) et (unum, ttnum, s3num, s3number2,
+     * s3address, s3poscode, s3city) ; les autres instructions créent le
+     * schéma. Avec -drop, les tables furgent, ftype et fsite sont d'abord
+     * supprimées.</p>
+     */
+    private static class SqlLoader {
+
+        /**
+         * Tables chargées, dans l'ordre de suppression.
+         */
+        private static final String[] TABLES = {"fsite", "ftype", "furgent"};
+
+        /**
+         * Connexion à la base SQL locale.
+         */
+        private final Connection connection;
+
+        /**
+         * Insertions, par table.
+         */
+        private final HashMap<String, PreparedStatement> inserts = new HashMap<>();
+
+        /**
+         * Numéro du client en cours.
+         */
+        private int unum;
+
+        /**
+         * Numéro de la raison d'appel du client en cours.
+         */
+        private int ttnum;
+
+        /**
+         * Nombre de lignes en attente d'envoi.
+         */
+        private int nbPending = 0;
+
+        /**
+         * Constructeur de la classe SqlLoader : crée le schéma et prépare les
+         * insertions.
+         *
+         * @param url URL JDBC de la base SQL locale.
+         * @param filename fichier du schéma et des insertions.
+         * @param drop indique si les tables existantes sont supprimées.
+         * @throws IOException en cas d'erreur de lecture du schéma.
+         * @throws SQLException en cas d'erreur de création du schéma.
+         */
+        private SqlLoader(String url, String filename, boolean drop) throws IOException, SQLException {
+            Statement statement;
+            String table;
+
+            connection = DriverManager.getConnection(url);
+            try {
+                statement = connection.createStatement();
+                try {
+                    if (drop) {
+                        for (String name : TABLES) {
+                            try {
+                                statement.execute("drop table " + name);
+                            } catch (SQLException exception) {
+                                System.out.println("  Table " + name + " non supprimée : " + exception.getMessage());
+                            }
+                        }
+                    }
+                    for (String sql : readStatements(filename)) {
+                        table = getInsertTable(sql);
+                        if (table != null) {
+                            inserts.put(table, connection.prepareStatement(sql));
+                        } else {
+                            statement.execute(sql);
+                        }
+                    }
+                } finally {
+                    statement.close();
+                }
+                for (String name : TABLES) {
+                    if (!inserts.containsKey(name)) {
+                        throw new IOException("Insertion dans la table " + name + " absente du schéma " + filename);
+                    }
+                }
+                connection.setAutoCommit(false);
+            } catch (IOException | SQLException exception) {
+                abort();
+                throw exception;
+            }
+        }
+
+        /**
+         * Lit les instructions du fichier du schéma.
+         */
+        private static ArrayList<String> readStatements(String filename) throws IOException {
+            BufferedReader bufferedReader;
+            ArrayList<String> statements;
+            StringBuilder sql;
+            String line;
+
+            statements = new ArrayList<>();
+            sql = new StringBuilder();
+            bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8));
+            try {
+                while ((line = bufferedReader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("--")) {
+                        continue;
+                    }
+                    sql.append(sql.length() > 0 ? " " : "").append(line);
+                    if (line.endsWith(";")) {
+                        sql.setLength(sql.length() - 1);
+                        statements.add(sql.toString());
+                        sql.setLength(0);
+                    }
+                }
+            } finally {
+                bufferedReader.close();
+            }
+            if (sql.length() > 0) {
+                statements.add(sql.toString());
+            }
+            return statements;
+        }
+
+        /**
+         * @return la table chargée par une instruction d'insertion, null pour
+         * une autre instruction.
+         */
+        private static String getInsertTable(String sql) {
+            String[] words;
+
+            words = sql.toLowerCase(Locale.ROOT).split("[\\s(]+", 4);
+            if (words.length >= 3 && words[0].equals("insert") && words[1].equals("into")) {
+                for (String table : TABLES) {
+                    if (words[2].equals(table)) {
+                        return table;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Insère un client et sa raison d'appel n°1.
+         */
+        private void writeClient(Furgent furgent, Ftype ftype) throws SQLException {
+            PreparedStatement preparedStatement;
+
+            unum = furgent.getUnum();
+            ttnum = ftype.getTtnum();
+            preparedStatement = inserts.get("furgent");
+            preparedStatement.setInt(1, unum);
+            preparedStatement.setString(2, furgent.getUuid());
+            preparedStatement.setString(3, furgent.getUname());
+            preparedStatement.executeUpdate();
+            preparedStatement = inserts.get("ftype");
+            preparedStatement.setInt(1, unum);
+            preparedStatement.setInt(2, ttnum);
+            preparedStatement.setString(3, ftype.getTtypename());
+            preparedStatement.executeUpdate();
+        }
+
+        /**
+         * Insère un site du client en cours, par lots.
+         */
+        private void writeSite(Fsite fsite) throws SQLException {
+            PreparedStatement preparedStatement;
+
+            preparedStatement = inserts.get("fsite");
+            preparedStatement.setInt(1, unum);
+            preparedStatement.setInt(2, ttnum);
+            preparedStatement.setInt(3, fsite.getS3num());
+            preparedStatement.setString(4, fsite.getS3number2());
+            preparedStatement.setString(5, fsite.getS3address());
+            preparedStatement.setString(6, fsite.getS3poscode());
+            preparedStatement.setString(7, fsite.getS3city());
+            preparedStatement.addBatch();
+            if (++nbPending >= INSERT_BATCH_SIZE) {
+                preparedStatement.executeBatch();
+                connection.commit();
+                nbPending = 0;
+            }
+        }
+
+        /**
+         * Envoie les dernières lignes et ferme la connexion.
+         */
+        private void close() throws SQLException {
+            try {
+                inserts.get("fsite").executeBatch();
+                connection.commit();
+            } finally {
+                abort();
+            }
+        }
+
+        /**
+         * Ferme la connexion, sans valider les lignes en attente.
+         */
+        private void abort() {
+            try {
+                connection.close();
+            } catch (SQLException exception) {
+                Logger.getLogger(SyncLoadTest.class.getName()).log(Level.WARNING, null, exception);
+            }
+        }
+    }
+
+    /**
+     * Client généré.
+     */
+    private static class SyntheticClient extends Furgent {
+
+        /**
+         * Numéro du client.
+         */
+        private final int unum;
+
+        /**
+         * Constructeur de la classe SyntheticClient.
+         */
+        private SyntheticClient(int unum) {
+            this.unum = unum;
+        }
+
+        @Override
+        public int getUnum() {
+            return unum;
+        }
+
+        @Override
+        public String getUuid() {
+            return "loadtest-" + unum;
+        }
+
+        @Override
+        public String getUname() {
+            return "Client de charge " + unum;
+        }
+    }
+
+    /**
+     * Raison d'appel n°1 générée.
+     */
+    private static class SyntheticType extends Ftype {
+
+        @Override
+        public int getTtnum() {
+            return 1;
+        }
+
+        @Override
+        public String getTtypename() {
+            return "Raison d'appel n°1";
+        }
+    }
+
+    /**
+     * Site généré.
+     */
+    private static class SyntheticSite extends Fsite {
+
+        /**
+         * Numéro du site.
+         */
+        private final int s3num;
+
+        /**
+         * Numéro de la voie.
+         */
+        private final int streetNumber;
+
+        /**
+         * Code postal du site.
+         */
+        private final String s3poscode;
+
+        /**
+         * Constructeur de la classe SyntheticSite.
+         */
+        private SyntheticSite(int s3num, Random random) {
+            this.s3num = s3num;
+            streetNumber = 1 + random.nextInt(200);
+            s3poscode = String.format("%05d", 1000 + random.nextInt(95000));
+        }
+
+        @Override
+        public int getS3num() {
+            return s3num;
+        }
+
+        @Override
+        public String getS3number2() {
+            return "S" + (1000000 + s3num);
+        }
+
+        @Override
+        public String getS3address() {
+            return streetNumber + " rue de la Charge";
+        }
+
+        @Override
+        public String getS3poscode() {
+            return s3poscode;
+        }
+
+        @Override
+        public String getS3city() {
+            return "Ville " + s3poscode;
+        }
+    }
+
+    /**
+     * Programme principal pour lancer SyncLoadTest.
+     *
+     * @param args paramètres en ligne de commande.
+     */
+    public static void main(String[] args) {
+        SyncLoadTest syncLoadTest;
+
+        try {
+            syncLoadTest = new SyncLoadTest(args);
+            if (!syncLoadTest.reuse) {
+                syncLoadTest.generate();
+            }
+            syncLoadTest.run();
+            syncLoadTest.save();
+        } catch (Exception exception) {
+            Logger.getLogger(SyncLoadTest.class.getName()).log(Level.SEVERE, null, exception);
+        }
+        System.out.println("Fin du test de charge");
+    }
+}
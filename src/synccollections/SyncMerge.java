@@ -0,0 +1,336 @@
+package synccollections;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Programme qui regroupe les fichiers produits par les partitions d'une
+ * synchronisation répartie (cf. option -partition de SyncCollections) et
+ * affiche un bilan unique.
+ * <p>
+ * Les fichiers de mesures (*.metrics.json) sont regroupés par collection :
+ * les compteurs et les histogrammes des phases sont additionnés, la durée
+ * retenue est celle de la partition la plus longue. Les fichiers d'écarts
+ * sont mis bout à bout dans un seul fichier, au format CSV si ce sont des
+ * fichiers .csv, JSON Lines sinon.</p>
+ * <p>
+ * Usage : java synccollections.SyncMerge [-o préfixe] fichier...</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncMerge {
+
+    /**
+     * Préfixe des fichiers produits. Valeur par défaut :
+     * SyncCollections.merged.
+     */
+    private String prefix = "SyncCollections.merged";
+
+    /**
+     * Fichiers de mesures à regrouper.
+     */
+    private final ArrayList<String> metricsFilenames = new ArrayList<>();
+
+    /**
+     * Fichiers d'écarts à regrouper.
+     */
+    private final ArrayList<String> reportFilenames = new ArrayList<>();
+
+    /**
+     * Lecteur des fichiers JSON.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Constructeur de la classe SyncMerge.
+     *
+     * @param args arguments de la ligne de commande.
+     * @throws GetArgsException en cas d'erreur avec les paramètres en ligne de
+     * commande.
+     */
+    public SyncMerge(String[] args) throws GetArgsException {
+        int i;
+
+        i = 0;
+        while (i < args.length) {
+            if (args[i].equals("-o")) {
+                if (i + 1 >= args.length) {
+                    usage();
+                    throw new GetArgsException("Préfixe non défini");
+                }
+                prefix = args[++i];
+            } else if (args[i].startsWith("-")) {
+                usage();
+                throw new GetArgsException("Mauvais argument : " + args[i]);
+            } else if (args[i].endsWith(".metrics.json")) {
+                metricsFilenames.add(args[i]);
+            } else {
+                reportFilenames.add(args[i]);
+            }
+            i++;
+        }
+        if (metricsFilenames.isEmpty() && reportFilenames.isEmpty()) {
+            usage();
+            throw new GetArgsException("Aucun fichier à regrouper");
+        }
+    }
+
+    /**
+     * Affiche le mode d'utilisation du programme.
+     */
+    public static void usage() {
+        System.out.println("Usage : java synccollections.SyncMerge [-o préfixe] fichier...");
+    }
+
+    /**
+     * Regroupe les fichiers de mesures, par collection.
+     *
+     * @throws IOException en cas d'erreur de lecture ou d'écriture.
+     */
+    public void mergeMetrics() throws IOException {
+        LinkedHashMap<String, ArrayList<JsonNode>> collections;
+        ArrayList<JsonNode> nodes;
+        JsonNode node;
+        String collection;
+
+        collections = new LinkedHashMap<>();
+        for (String filename : metricsFilenames) {
+            node = objectMapper.readTree(new File(filename));
+            collection = node.path("collection").asText("?");
+            if ((nodes = collections.get(collection)) == null) {
+                nodes = new ArrayList<>();
+                collections.put(collection, nodes);
+            }
+            nodes.add(node);
+        }
+        for (Map.Entry<String, ArrayList<JsonNode>> entry : collections.entrySet()) {
+            mergeMetrics(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Regroupe les mesures des partitions d'une collection et affiche leur
+     * bilan.
+     */
+    private void mergeMetrics(String collection, ArrayList<JsonNode> nodes) throws IOException {
+        SyncMetrics syncMetrics;
+        SyncMetrics.Phase phase;
+        LinkedHashMap<String, Long> counters;
+        LinkedHashMap<String, Object> settings;
+        ArrayList<String> partitions;
+        Map.Entry<String, JsonNode> field;
+        Iterator<Map.Entry<String, JsonNode>> fields;
+        long[] histogram;
+        Date startDate;
+        Date date;
+        String filename;
+        long rows;
+        long elapsed;
+        Long value;
+
+        startDate = null;
+        rows = 0;
+        elapsed = 0;
+        counters = new LinkedHashMap<>();
+        settings = new LinkedHashMap<>();
+        partitions = new ArrayList<>();
+        for (JsonNode node : nodes) {
+            try {
+                date = new SimpleDateFormat(SyncMetrics.DATE_FORMAT).parse(node.path("start").asText());
+                if (startDate == null || date.before(startDate)) {
+                    startDate = date;
+                }
+            } catch (ParseException exception) {
+                System.out.println("Erreur : date de début invalide : " + node.path("start").asText());
+            }
+            rows += node.path("rows").asLong();
+            elapsed = Math.max(elapsed, node.path("durationMs").asLong() * 1000000);
+            fields = node.path("counters").fields();
+            while (fields.hasNext()) {
+                field = fields.next();
+                value = counters.get(field.getKey());
+                counters.put(field.getKey(), (value != null ? value : 0) + field.getValue().asLong());
+            }
+            if (settings.isEmpty()) {
+                fields = node.path("settings").fields();
+                while (fields.hasNext()) {
+                    field = fields.next();
+                    if (field.getValue().isNumber()) {
+                        settings.put(field.getKey(), field.getValue().numberValue());
+                    } else if (field.getValue().isBoolean()) {
+                        settings.put(field.getKey(), field.getValue().booleanValue());
+                    } else {
+                        settings.put(field.getKey(), field.getValue().asText());
+                    }
+                }
+            }
+            partitions.add(node.path("settings").path("partition").asText("1/1"));
+        }
+        settings.put("partition", String.join(",", partitions));
+
+        syncMetrics = new SyncMetrics(collection, startDate != null ? startDate : new Date());
+        for (JsonNode node : nodes) {
+            fields = node.path("phases").fields();
+            while (fields.hasNext()) {
+                field = fields.next();
+                histogram = new long[SyncMetrics.Phase.getNbBuckets()];
+                for (JsonNode bucket : field.getValue().path("histogram")) {
+                    histogram[SyncMetrics.Phase.getBucket(bucket.path("leNs").asLong())] += bucket.path("count").asLong();
+                }
+                phase = syncMetrics.getPhase(field.getKey());
+                phase.merge(field.getValue().path("count").asLong(),
+                        Math.round(field.getValue().path("totalMs").asDouble() * 1e6),
+                        Math.round(field.getValue().path("maxUs").asDouble() * 1e3),
+                        histogram);
+            }
+        }
+
+        filename = prefix + "." + collection + ".metrics.json";
+        syncMetrics.save(filename, rows, elapsed, counters, settings);
+        System.out.println("Collection " + collection + " : " + nodes.size() + " partition(s) " + partitions
+                + ", " + rows + " élément(s) en " + (elapsed / 1000000) + " ms"
+                + String.format(", %.0f/s", elapsed > 0 ? rows * 1e9 / elapsed : 0));
+        System.out.println("  " + counters);
+        System.out.println("  " + syncMetrics.getProgress());
+        System.out.println("  Mesures regroupées dans le fichier " + filename);
+    }
+
+    /**
+     * Met bout à bout les fichiers d'écarts et compte les écarts par type.
+     * Les écarts CSV sont lus enregistrement par enregistrement : une valeur
+     * entre guillemets peut contenir des fins de ligne.
+     *
+     * @throws IOException en cas d'erreur de lecture ou d'écriture.
+     */
+    public void mergeReports() throws IOException {
+        TreeMap<String, Integer> nbByType;
+        BufferedReader reader;
+        Writer writer;
+        StringBuilder record;
+        String filename;
+        String line;
+        String type;
+        boolean csv;
+        boolean header;
+        Integer nb;
+        int nbLines;
+
+        if (reportFilenames.isEmpty()) {
+            return;
+        }
+        csv = reportFilenames.get(0).toLowerCase().endsWith(".csv");
+        for (String reportFilename : reportFilenames) {
+            if (reportFilename.toLowerCase().endsWith(".csv") != csv) {
+                throw new IOException("Fichiers d'écarts de formats différents : " + reportFilename);
+            }
+        }
+        filename = prefix + ".report." + (csv ? "csv" : "jsonl");
+        nbByType = new TreeMap<>();
+        nbLines = 0;
+        header = true;
+        record = new StringBuilder();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF-8"), 1 << 16);
+        try {
+            for (String reportFilename : reportFilenames) {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(reportFilename), "UTF-8"), 1 << 16);
+                try {
+                    if (csv && (line = readRecord(reader, csv, record)) != null && header) {
+                        writer.write(line);
+                        writer.write('\n');
+                        header = false;
+                    }
+                    while ((line = readRecord(reader, csv, record)) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        writer.write(line);
+                        writer.write('\n');
+                        nbLines++;
+                        type = csv ? line.substring(0, Math.max(line.indexOf(';'), 0))
+                                : objectMapper.readTree(line).path("type").asText();
+                        nb = nbByType.get(type);
+                        nbByType.put(type, nb != null ? nb + 1 : 1);
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.println(nbLines + " écart(s) de " + reportFilenames.size() + " fichier(s) regroupé(s) dans le fichier "
+                + filename + " : " + nbByType);
+    }
+
+    /**
+     * Lit l'enregistrement suivant d'un fichier d'écarts, sans sa fin de
+     * ligne. En CSV, une fin de ligne entre guillemets fait partie de la
+     * valeur et non de l'enregistrement.
+     *
+     * @param reader fichier d'écarts.
+     * @param csv indique si le fichier est au format CSV.
+     * @param record tampon de lecture.
+     * @return l'enregistrement, null en fin de fichier.
+     * @throws IOException en cas d'erreur de lecture.
+     */
+    static String readRecord(BufferedReader reader, boolean csv, StringBuilder record) throws IOException {
+        boolean quoted;
+        int c;
+
+        record.setLength(0);
+        quoted = false;
+        while ((c = reader.read()) != -1) {
+            if (c == '"' && csv) {
+                quoted = !quoted;
+            } else if (c == '\n' && !quoted) {
+                break;
+            }
+            record.append((char) c);
+        }
+        if (c == -1 && record.length() == 0) {
+            return null;
+        }
+        if (record.length() > 0 && record.charAt(record.length() - 1) == '\r' && !quoted) {
+            record.setLength(record.length() - 1);
+        }
+        return record.toString();
+    }
+
+    /**
+     * Programme principal pour lancer SyncMerge.
+     *
+     * @param args paramètres de ligne de commande (cf. usage()).
+     */
+    public static void main(String[] args) {
+        SyncMerge syncMerge;
+
+        try {
+            syncMerge = new SyncMerge(args);
+            syncMerge.mergeMetrics();
+            syncMerge.mergeReports();
+        } catch (GetArgsException | IOException exception) {
+            Logger.getLogger(SyncMerge.class.getName()).log(Level.SEVERE, null, exception);
+        }
+        System.out.println("Fin du regroupement");
+    }
+}
@@ -0,0 +1,474 @@
+package synccollections;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Classe qui mesure la durée des phases d'une synchronisation (lecture
+ * Informix, calcul des identifiants, recherche et décodage MongoDb,
+ * écritures...) et les enregistre à la fin dans un fichier JSON.
+ * <p>
+ * Pour chaque phase, le nombre d'appels, la durée totale, la durée maximale
+ * et un histogramme des durées par puissances de 2 de nanosecondes sont
+ * cumulés sans verrou : une mesure coûte deux lectures de l'horloge et
+ * quelques incréments atomiques.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.28
+ */
+public class SyncMetrics {
+
+    /**
+     * Lecture d'un site ou d'un client dans la base Informix.
+     */
+    public static final String INFORMIX_FETCH = "informix.fetch";
+
+    /**
+     * Calcul d'un identifiant agrégé.
+     */
+    public static final String UID_HASH = "uid.hash";
+
+    /**
+     * Recherche d'un lot dans la base MongoDb.
+     */
+    public static final String MONGO_LOOKUP = "mongo.lookup";
+
+    /**
+     * Attente du résultat d'un lot recherché en parallèle.
+     */
+    public static final String MONGO_WAIT = "mongo.wait";
+
+    /**
+     * Décodage d'un document MongoDb.
+     */
+    public static final String MONGO_DECODE = "mongo.decode";
+
+    /**
+     * Lecture des identifiants de tous les patrimoines (stratégie hash).
+     */
+    public static final String MONGO_UID_SCAN = "mongo.uidscan";
+
+    /**
+     * Envoi d'un lot d'écritures à la base MongoDb.
+     */
+    public static final String MONGO_BULK_WRITE = "mongo.bulkwrite";
+
+    /**
+     * Attente de la lecture Informix, file des sites pleine (cf.
+     * SitePipeline).
+     */
+    public static final String PIPELINE_PUT = "pipeline.put";
+
+    /**
+     * Attente du rapprochement, file des sites vide (cf. SitePipeline).
+     */
+    public static final String PIPELINE_TAKE = "pipeline.take";
+
+    /**
+     * Tri et écriture d'une série d'identifiants sur disque (stratégie sort,
+     * cf. ExternalSorter).
+     */
+    public static final String SORT_SPILL = "sort.spill";
+
+    /**
+     * Fusion des sites et des patrimoines triés (stratégie sort, cf.
+     * PatrimonySortMerge).
+     */
+    public static final String SORT_MERGE = "sort.merge";
+
+    /**
+     * Format de la date de début dans le fichier des mesures.
+     */
+    public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+
+    /**
+     * Nom de la collection synchronisée.
+     */
+    private final String collection;
+
+    /**
+     * Date de début de la synchronisation.
+     */
+    private final Date startDate;
+
+    /**
+     * Début de la synchronisation, en nanosecondes.
+     */
+    private final long startTime;
+
+    /**
+     * Phases mesurées, dans l'ordre de création.
+     */
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    /**
+     * Constructeur de la classe SyncMetrics.
+     *
+     * @param collection nom de la collection synchronisée.
+     */
+    public SyncMetrics(String collection) {
+        this(collection, new Date());
+    }
+
+    /**
+     * Constructeur de la classe SyncMetrics pour une synchronisation
+     * commencée à une date donnée, par exemple pour regrouper les mesures de
+     * plusieurs partitions (cf. SyncMerge).
+     *
+     * @param collection nom de la collection synchronisée.
+     * @param startDate date de début de la synchronisation.
+     */
+    public SyncMetrics(String collection, Date startDate) {
+        this.collection = collection;
+        this.startDate = startDate;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Retourne la phase de nom donné, créée au premier appel. A appeler une
+     * fois, avant la boucle de traitement.
+     *
+     * @param name nom de la phase.
+     * @return la phase.
+     */
+    public synchronized Phase getPhase(String name) {
+        Phase phase;
+
+        if ((phase = phases.get(name)) == null) {
+            phase = new Phase(name);
+            phases.put(name, phase);
+        }
+        return phase;
+    }
+
+    /**
+     * @return le nom de la collection synchronisée.
+     */
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return la durée moyenne de chaque phase, pour la ligne d'avancement.
+     */
+    public synchronized String getProgress() {
+        StringBuilder progress;
+
+        progress = new StringBuilder();
+        for (Phase phase : phases.values()) {
+            if (phase.getCount() > 0) {
+                if (progress.length() > 0) {
+                    progress.append(", ");
+                }
+                progress.append(phase.name).append(String.format(" %.1f µs", phase.getMean() / 1e3));
+            }
+        }
+        return progress.toString();
+    }
+
+    /**
+     * Enregistre les mesures dans un fichier JSON.
+     *
+     * @param filename nom du fichier.
+     * @param syncCounters compteurs de la synchronisation.
+     * @param settings paramètres de la synchronisation (taille des lots,
+     * nombre de tâches...).
+     * @throws IOException en cas d'erreur d'écriture du fichier.
+     */
+    public synchronized void save(String filename, SyncCounters syncCounters, Map<String, Object> settings) throws IOException {
+        save(filename, syncCounters.getNbProcessed(), System.nanoTime() - startTime, syncCounters.toMap(), settings);
+    }
+
+    /**
+     * Enregistre les mesures dans un fichier JSON, avec des compteurs et une
+     * durée donnés.
+     *
+     * @param filename nom du fichier.
+     * @param rows nombre d'éléments traités.
+     * @param elapsed durée de la synchronisation, en nanosecondes.
+     * @param counters compteurs de la synchronisation, par nom.
+     * @param settings paramètres de la synchronisation.
+     * @throws IOException en cas d'erreur d'écriture du fichier.
+     */
+    public synchronized void save(String filename, long rows, long elapsed, Map<String, Long> counters,
+            Map<String, Object> settings) throws IOException {
+        JsonGenerator generator;
+        long[] histogram;
+        int i;
+
+        generator = new JsonFactory().createGenerator(new File(filename), JsonEncoding.UTF8);
+        try {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeStringField("collection", collection);
+            generator.writeStringField("start", new SimpleDateFormat(DATE_FORMAT).format(startDate));
+            generator.writeNumberField("durationMs", elapsed / 1000000);
+            generator.writeNumberField("rows", rows);
+            generator.writeNumberField("rowsPerSecond", elapsed > 0 ? rows * 1e9 / elapsed : 0);
+
+            generator.writeObjectFieldStart("settings");
+            for (Map.Entry<String, Object> setting : settings.entrySet()) {
+                generator.writeObjectField(setting.getKey(), setting.getValue());
+            }
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("counters");
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                generator.writeNumberField(counter.getKey(), counter.getValue());
+            }
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("phases");
+            for (Phase phase : phases.values()) {
+                generator.writeObjectFieldStart(phase.name);
+                generator.writeNumberField("count", phase.getCount());
+                generator.writeNumberField("totalMs", phase.total.get() / 1e6);
+                generator.writeNumberField("meanUs", phase.getMean() / 1e3);
+                generator.writeNumberField("maxUs", phase.max.get() / 1e3);
+                generator.writeNumberField("p50Us", phase.getPercentile(0.50) / 1e3);
+                generator.writeNumberField("p95Us", phase.getPercentile(0.95) / 1e3);
+                generator.writeNumberField("p99Us", phase.getPercentile(0.99) / 1e3);
+                generator.writeArrayFieldStart("histogram");
+                histogram = phase.getHistogram();
+                for (i = 0; i < histogram.length; i++) {
+                    if (histogram[i] > 0) {
+                        generator.writeStartObject();
+                        generator.writeNumberField("leNs", Phase.upperBound(i));
+                        generator.writeNumberField("count", histogram[i]);
+                        generator.writeEndObject();
+                    }
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * Retourne le contenu de SyncMetrics.
+     *
+     * @return le contenu de SyncMetrics.
+     */
+    @Override
+    public String toString() {
+        return "SyncMetrics:{"
+                + "collection:" + collection
+                + ", phases:" + phases.values()
+                + "}";
+    }
+
+    /**
+     * Mesures d'une phase. Peut être mise à jour simultanément par plusieurs
+     * tâches.
+     */
+    public static class Phase {
+
+        /**
+         * Nombre de tranches de l'histogramme : une par puissance de 2.
+         */
+        private static final int NB_BUCKETS = 64;
+
+        /**
+         * Nom de la phase.
+         */
+        private final String name;
+
+        /**
+         * Nombre d'appels.
+         */
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * Durée totale, en nanosecondes.
+         */
+        private final AtomicLong total = new AtomicLong();
+
+        /**
+         * Durée maximale, en nanosecondes.
+         */
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Nombre d'appels par tranche de durée : la tranche i compte les
+         * durées inférieures ou égales à 2^i - 1 nanosecondes.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(NB_BUCKETS);
+
+        /**
+         * Constructeur de la classe Phase.
+         *
+         * @param name nom de la phase.
+         */
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Enregistre la durée d'un appel.
+         *
+         * @param start début de l'appel, lu par System.nanoTime().
+         */
+        public void record(long start) {
+            add(System.nanoTime() - start);
+        }
+
+        /**
+         * Enregistre une durée.
+         *
+         * @param duration durée en nanosecondes.
+         */
+        public void add(long duration) {
+            long currentMax;
+
+            if (duration < 0) {
+                duration = 0;
+            }
+            count.incrementAndGet();
+            total.addAndGet(duration);
+            buckets.incrementAndGet(NB_BUCKETS - Long.numberOfLeadingZeros(duration));
+            while (duration > (currentMax = max.get())) {
+                if (max.compareAndSet(currentMax, duration)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Ajoute les mesures d'une phase enregistrée par ailleurs, par exemple
+         * par une autre partition (cf. SyncMerge).
+         *
+         * @param count nombre d'appels.
+         * @param duration durée totale, en nanosecondes.
+         * @param maxDuration durée maximale, en nanosecondes.
+         * @param histogram nombre d'appels par tranche de durée.
+         */
+        public void merge(long count, long duration, long maxDuration, long[] histogram) {
+            long currentMax;
+            int i;
+
+            this.count.addAndGet(count);
+            total.addAndGet(duration);
+            for (i = 0; i < NB_BUCKETS && i < histogram.length; i++) {
+                buckets.addAndGet(i, histogram[i]);
+            }
+            while (maxDuration > (currentMax = max.get())) {
+                if (max.compareAndSet(currentMax, maxDuration)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @return le nombre d'appels.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return la durée moyenne, en nanosecondes.
+         */
+        public double getMean() {
+            long n;
+
+            n = count.get();
+            return n > 0 ? (double) total.get() / n : 0;
+        }
+
+        /**
+         * @return le nombre d'appels par tranche de durée.
+         */
+        public long[] getHistogram() {
+            long[] histogram;
+            int i;
+
+            histogram = new long[NB_BUCKETS];
+            for (i = 0; i < NB_BUCKETS; i++) {
+                histogram[i] = buckets.get(i);
+            }
+            return histogram;
+        }
+
+        /**
+         * Estime un centile par la borne supérieure de la tranche qui le
+         * contient.
+         *
+         * @param fraction centile recherché, entre 0 et 1.
+         * @return la durée estimée, en nanosecondes.
+         */
+        public long getPercentile(double fraction) {
+            long[] histogram;
+            long n;
+            long cumulated;
+            int i;
+
+            histogram = getHistogram();
+            n = 0;
+            for (i = 0; i < NB_BUCKETS; i++) {
+                n += histogram[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            cumulated = 0;
+            for (i = 0; i < NB_BUCKETS; i++) {
+                cumulated += histogram[i];
+                if (cumulated >= Math.ceil(fraction * n)) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        /**
+         * @return la borne supérieure d'une tranche, en nanosecondes.
+         */
+        private static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        /**
+         * Retrouve une tranche à partir de sa borne supérieure, telle
+         * qu'enregistrée dans le fichier des mesures.
+         *
+         * @param upperBound borne supérieure de la tranche, en nanosecondes.
+         * @return le numéro de la tranche.
+         */
+        public static int getBucket(long upperBound) {
+            return upperBound == Long.MAX_VALUE ? NB_BUCKETS - 1 : NB_BUCKETS - Long.numberOfLeadingZeros(upperBound);
+        }
+
+        /**
+         * @return le nombre de tranches de l'histogramme.
+         */
+        public static int getNbBuckets() {
+            return NB_BUCKETS;
+        }
+
+        /**
+         * Retourne le contenu de Phase.
+         *
+         * @return le contenu de Phase.
+         */
+        @Override
+        public String toString() {
+            return name + ":{count:" + getCount()
+                    + ", meanUs:" + String.format("%.1f", getMean() / 1e3)
+                    + ", maxUs:" + String.format("%.1f", max.get() / 1e3)
+                    + "}";
+        }
+    }
+}
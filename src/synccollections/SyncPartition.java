@@ -0,0 +1,171 @@
+package synccollections;
+
+/**
+ * Classe qui répartit de façon déterministe le travail d'une synchronisation
+ * entre n processus indépendants, lancés par exemple sur des serveurs
+ * différents, sans coordination entre eux.
+ * <p>
+ * La partition k/n (1 &lt;= k &lt;= n) retient soit les clients dont le
+ * numéro (unum) vaut k - 1 modulo n, soit les sites et les sociétés dont
+ * l'identifiant agrégé (uid) vaut k - 1 modulo n. La répartition par client
+ * évite de relire les sites des autres partitions ; la répartition par
+ * identifiant équilibre mieux les partitions quand quelques clients ont
+ * beaucoup de sites, et permet de rechercher dans chaque partition les
+ * patrimoines sans site Informix.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.22
+ */
+public class SyncPartition {
+
+    /**
+     * Répartition par numéro de client.
+     */
+    public static final String BY_UNUM = "unum";
+
+    /**
+     * Répartition par identifiant agrégé.
+     */
+    public static final String BY_UID = "uid";
+
+    /**
+     * Partition unique : tout le travail est fait par le processus.
+     */
+    public static final SyncPartition ALL = new SyncPartition(1, 1, BY_UNUM);
+
+    /**
+     * Numéro de la partition, de 1 à count.
+     */
+    private final int index;
+
+    /**
+     * Nombre de partitions.
+     */
+    private final int count;
+
+    /**
+     * Critère de répartition : BY_UNUM ou BY_UID.
+     */
+    private final String by;
+
+    /**
+     * Constructeur de la classe SyncPartition.
+     *
+     * @param index numéro de la partition, de 1 à count.
+     * @param count nombre de partitions.
+     * @param by critère de répartition : BY_UNUM ou BY_UID.
+     */
+    public SyncPartition(int index, int count, String by) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Partition invalide : " + index + "/" + count);
+        }
+        if (!BY_UNUM.equals(by) && !BY_UID.equals(by)) {
+            throw new IllegalArgumentException("Critère de répartition invalide : " + by);
+        }
+        this.index = index;
+        this.count = count;
+        this.by = by;
+    }
+
+    /**
+     * @return si le travail est réparti entre plusieurs processus.
+     */
+    public boolean isPartitioned() {
+        return count > 1;
+    }
+
+    /**
+     * @return si la répartition se fait par identifiant agrégé.
+     */
+    public boolean isByUid() {
+        return isPartitioned() && BY_UID.equals(by);
+    }
+
+    /**
+     * Indique si un client relève de la partition. Avec la répartition par
+     * identifiant, tous les clients sont lus.
+     *
+     * @param unum numéro du client.
+     * @return si le client relève de la partition.
+     */
+    public boolean acceptsClient(int unum) {
+        if (!isPartitioned() || isByUid()) {
+            return true;
+        }
+        return Math.floorMod(unum, count) == index - 1;
+    }
+
+    /**
+     * Indique si un site ou une société relève de la partition. Avec la
+     * répartition par client, tous les identifiants sont retenus.
+     *
+     * @param aggregateUid identifiant agrégé, en hexadécimal.
+     * @return si l'identifiant relève de la partition.
+     */
+    public boolean acceptsUid(String aggregateUid) {
+        if (!isByUid()) {
+            return true;
+        }
+        return Math.floorMod(hash(aggregateUid), count) == index - 1;
+    }
+
+    /**
+     * Réduit un identifiant agrégé à un entier : ses 15 premiers chiffres
+     * hexadécimaux, déjà uniformément répartis puisque issus d'un MD5.
+     */
+    private static long hash(String aggregateUid) {
+        long hash;
+        int digit;
+        int i;
+        int n;
+
+        hash = 0;
+        n = Math.min(aggregateUid.length(), 15);
+        for (i = 0; i < n; i++) {
+            if ((digit = Character.digit(aggregateUid.charAt(i), 16)) < 0) {
+                return aggregateUid.hashCode();
+            }
+            hash = (hash << 4) | digit;
+        }
+        return hash;
+    }
+
+    /**
+     * @return le suffixe des fichiers propres à la partition (état, empreintes,
+     * rapport, mesures), vide sans répartition.
+     */
+    public String getSuffix() {
+        return isPartitioned() ? ".part" + index + "-" + count : "";
+    }
+
+    /**
+     * @return le numéro de la partition, de 1 à count.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return le nombre de partitions.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return le critère de répartition.
+     */
+    public String getBy() {
+        return by;
+    }
+
+    /**
+     * Retourne le contenu de SyncPartition.
+     *
+     * @return le contenu de SyncPartition.
+     */
+    @Override
+    public String toString() {
+        return index + "/" + count + (isPartitioned() ? " par " + by : "");
+    }
+}
@@ -0,0 +1,127 @@
+package synccollections;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe qui affiche périodiquement l'avancement d'une synchronisation à
+ * partir de ses compteurs, avec le débit depuis le dernier affichage et la
+ * durée moyenne de chacune de ses phases.
+ *
+ * @author Thierry Baribaud
+ * @version 0.24
+ */
+public class SyncProgress {
+
+    /**
+     * Intervalle par défaut entre deux affichages, en secondes.
+     */
+    public static final int DEFAULT_INTERVAL = 10;
+
+    /**
+     * Nom de la synchronisation suivie.
+     */
+    private final String name;
+
+    /**
+     * Compteurs de la synchronisation suivie.
+     */
+    private final SyncCounters syncCounters;
+
+    /**
+     * Mesures des phases de la synchronisation suivie.
+     */
+    private final SyncMetrics syncMetrics;
+
+    /**
+     * Tâche d'affichage.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Date de début, en nanosecondes.
+     */
+    private final long startTime;
+
+    /**
+     * Nombre d'éléments déjà traités au début, repris d'une exécution
+     * précédente.
+     */
+    private final long startNbProcessed;
+
+    /**
+     * Date du dernier affichage, en nanosecondes.
+     */
+    private long lastTime;
+
+    /**
+     * Nombre d'éléments traités lors du dernier affichage.
+     */
+    private long lastNbProcessed;
+
+    /**
+     * Constructeur de la classe SyncProgress. Lance l'affichage périodique.
+     *
+     * @param name nom de la synchronisation suivie.
+     * @param syncCounters compteurs de la synchronisation suivie.
+     * @param syncMetrics mesures des phases de la synchronisation suivie.
+     * @param interval intervalle entre deux affichages, en secondes.
+     */
+    public SyncProgress(String name, SyncCounters syncCounters, SyncMetrics syncMetrics, int interval) {
+        this.name = name;
+        this.syncCounters = syncCounters;
+        this.syncMetrics = syncMetrics;
+        startTime = System.nanoTime();
+        lastTime = startTime;
+        startNbProcessed = syncCounters.getNbProcessed();
+        lastNbProcessed = startNbProcessed;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread;
+
+                thread = new Thread(runnable, "SyncProgress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println(getProgressLine());
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return la ligne d'avancement, avec le débit depuis le dernier appel.
+     */
+    private synchronized String getProgressLine() {
+        long now;
+        long nbProcessed;
+        double rate;
+
+        now = System.nanoTime();
+        nbProcessed = syncCounters.getNbProcessed();
+        rate = now > lastTime ? (nbProcessed - lastNbProcessed) * 1e9 / (now - lastTime) : 0;
+        lastTime = now;
+        lastNbProcessed = nbProcessed;
+        return String.format("Avancement %s : %s, %.0f/s, %d s | %s", name, syncCounters.getProgress(), rate,
+                TimeUnit.NANOSECONDS.toSeconds(now - startTime), syncMetrics.getProgress());
+    }
+
+    /**
+     * Arrête l'affichage périodique.
+     *
+     * @return le débit moyen depuis le début, en éléments par seconde.
+     */
+    public double stop() {
+        long elapsed;
+
+        scheduler.shutdownNow();
+        elapsed = System.nanoTime() - startTime;
+        return elapsed > 0 ? (syncCounters.getNbProcessed() - startNbProcessed) * 1e9 / elapsed : 0;
+    }
+}
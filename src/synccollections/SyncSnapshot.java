@@ -0,0 +1,748 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Ftype;
+import bdd.Furgent;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Classe qui conserve dans un fichier binaire local un instantané des tables
+ * Informix lues par la synchronisation (clients, raison d'appel n°1, sites),
+ * avec les identifiants agrégés déjà calculés.
+ * <p>
+ * L'instantané est écrit une fois (cf. Writer, option -export), puis relu
+ * autant de fois que nécessaire (option -snapshot) pour rapprocher les
+ * patrimoines et les sociétés de la base MongoDb sans solliciter la base
+ * Informix. Le fichier est projeté en mémoire en lecture seule : seul un
+ * index des clients est construit à l'ouverture, les sites sont décodés au
+ * fil de la lecture, chaque tâche disposant de sa propre vue du fichier.</p>
+ * <p>
+ * Format, en big-endian : l'en-tête ("SYNCSNP1", date de création, serveur
+ * Informix, indicateur d'export complet), puis pour chaque client un
+ * enregistrement 'C' (numéro, uuid, nom, raison d'appel, identifiant de la
+ * société) suivi de ses sites 'S' (numéro, identifiant du patrimoine,
+ * référence, adresse, code postal, ville), et enfin un enregistrement 'E'
+ * avec le nombre de clients et de sites. Les identifiants sont stockés en
+ * binaire (deux entiers longs), les chaînes en UTF-8 précédées de leur
+ * longueur sur deux octets (0xffff pour null).</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.23
+ */
+public class SyncSnapshot {
+
+    /**
+     * Signature et version du format.
+     */
+    public static final String MAGIC = "SYNCSNP1";
+
+    /**
+     * Enregistrement d'un client.
+     */
+    private static final byte CLIENT = 'C';
+
+    /**
+     * Enregistrement d'un site.
+     */
+    private static final byte SITE = 'S';
+
+    /**
+     * Enregistrement de fin.
+     */
+    private static final byte END = 'E';
+
+    /**
+     * Longueur marquant une chaîne null.
+     */
+    private static final int NULL_LENGTH = 0xffff;
+
+    /**
+     * Nom du fichier.
+     */
+    private final String filename;
+
+    /**
+     * Contenu du fichier, projeté en mémoire.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Date de création de l'instantané.
+     */
+    private final Date creationDate;
+
+    /**
+     * Type du serveur Informix exporté (prod, pre-prod, ...).
+     */
+    private final String ifxDbServerType;
+
+    /**
+     * Indique si tous les clients ont été exportés.
+     */
+    private final boolean complete;
+
+    /**
+     * Clients, dans l'ordre du fichier (numéro croissant).
+     */
+    private final ArrayList<Client> clients;
+
+    /**
+     * Clients par identifiant.
+     */
+    private final HashMap<String, Client> clientsByUuid;
+
+    /**
+     * Nombre total de sites.
+     */
+    private long nbSites;
+
+    /**
+     * Constructeur de la classe SyncSnapshot. Projette le fichier en mémoire
+     * et construit l'index des clients.
+     *
+     * @param filename nom du fichier.
+     * @throws IOException en cas d'erreur de lecture ou de fichier invalide.
+     */
+    public SyncSnapshot(String filename) throws IOException {
+        RandomAccessFile file;
+        FileChannel channel;
+        byte[] magic;
+
+        this.filename = filename;
+        file = new RandomAccessFile(filename, "r");
+        try {
+            channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Instantané trop volumineux (plus de 2 Go) : " + filename);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+
+        clients = new ArrayList<>();
+        clientsByUuid = new HashMap<>();
+        try {
+            magic = new byte[MAGIC.length()];
+            buffer.get(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+                throw new IOException("Fichier qui n'est pas un instantané : " + filename);
+            }
+            creationDate = new Date(buffer.getLong());
+            ifxDbServerType = getString(buffer);
+            complete = buffer.get() != 0;
+            index();
+        } catch (BufferUnderflowException | IllegalArgumentException exception) {
+            throw new IOException("Instantané tronqué : " + filename, exception);
+        }
+    }
+
+    /**
+     * Parcourt le fichier pour indexer les clients et vérifie son
+     * enregistrement de fin.
+     */
+    private void index() throws IOException {
+        Client client;
+        byte type;
+        long nbSite;
+
+        client = null;
+        nbSite = 0;
+        while ((type = buffer.get()) != END) {
+            if (type == CLIENT) {
+                client = new Client(buffer);
+                clients.add(client);
+                clientsByUuid.put(client.getUuid(), client);
+            } else if (type == SITE && client != null) {
+                Site.skip(buffer);
+                client.nbSites++;
+                nbSite++;
+            } else {
+                throw new IOException("Enregistrement invalide à la position " + (buffer.position() - 1)
+                        + " de l'instantané " + filename);
+            }
+        }
+        if (buffer.getInt() != clients.size() || buffer.getLong() != nbSite) {
+            throw new IOException("Instantané incohérent : " + filename);
+        }
+        nbSites = nbSite;
+    }
+
+    /**
+     * Retourne l'identifiant agrégé d'un site : celui de l'instantané s'il en
+     * provient, sinon celui calculé par AggregateUidEncoder.
+     *
+     * @param unum numéro du client.
+     * @param fsite site Informix.
+     * @return l'identifiant du patrimoine, en hexadécimal.
+     */
+    public static String getAggregateUid(int unum, Fsite fsite) {
+        if (fsite instanceof Site) {
+            return ((Site) fsite).aggregateUid;
+        }
+        return AggregateUidEncoder.encodePatrimony(unum, fsite.getS3number2());
+    }
+
+    /**
+     * Retourne l'identifiant agrégé de la société d'un client : celui de
+     * l'instantané s'il en provient, sinon celui calculé par
+     * AggregateUidEncoder.
+     *
+     * @param furgent client Informix.
+     * @return l'identifiant de la société, en hexadécimal.
+     */
+    public static String getCompanyUid(Furgent furgent) {
+        if (furgent instanceof Client) {
+            return ((Client) furgent).companyUid;
+        }
+        return AggregateUidEncoder.encodeCompany(furgent.getUnum());
+    }
+
+    /**
+     * Retourne un client d'après son identifiant.
+     *
+     * @param uuid identifiant du client.
+     * @return le client, null s'il n'est pas dans l'instantané.
+     */
+    public Client getClient(String uuid) {
+        return clientsByUuid.get(uuid);
+    }
+
+    /**
+     * @return les clients de l'instantané, par numéro croissant.
+     */
+    public ArrayList<Client> getClients() {
+        return clients;
+    }
+
+    /**
+     * @return une source des clients de l'instantané, par numéro croissant.
+     */
+    public RowSource<Furgent> getClientSource() {
+        return new RowSource<Furgent>() {
+            private int i = 0;
+
+            @Override
+            public Furgent next() {
+                return i < clients.size() ? clients.get(i++) : null;
+            }
+        };
+    }
+
+    /**
+     * @return le nom du fichier.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return la date de création de l'instantané.
+     */
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * @return le type du serveur Informix exporté.
+     */
+    public String getIfxDbServerType() {
+        return ifxDbServerType;
+    }
+
+    /**
+     * @return si tous les clients ont été exportés.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return le nombre total de sites.
+     */
+    public long getNbSites() {
+        return nbSites;
+    }
+
+    /**
+     * Lit une chaîne de caractères.
+     */
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes;
+        int length;
+
+        length = buffer.getShort() & 0xffff;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Passe une chaîne de caractères.
+     */
+    private static void skipString(ByteBuffer buffer) {
+        int length;
+
+        length = buffer.getShort() & 0xffff;
+        if (length != NULL_LENGTH) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Convertit un identifiant binaire en hexadécimal.
+     */
+    private static String toHex(long high, long low) {
+        StringBuilder uid;
+
+        uid = new StringBuilder(32);
+        UidSet.appendHex(uid, high);
+        UidSet.appendHex(uid, low);
+        return uid.toString();
+    }
+
+    /**
+     * Retourne le contenu de SyncSnapshot.
+     *
+     * @return le contenu de SyncSnapshot.
+     */
+    @Override
+    public String toString() {
+        return "SyncSnapshot:{"
+                + "filename:" + filename
+                + ", created:" + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(creationDate)
+                + ", ifxdb:" + ifxDbServerType
+                + ", complete:" + complete
+                + ", clients:" + clients.size()
+                + ", sites:" + nbSites
+                + ", size:" + buffer.capacity()
+                + "}";
+    }
+
+    /**
+     * Client lu dans l'instantané, avec sa raison d'appel n°1 et l'index de
+     * ses sites.
+     */
+    public static class Client extends Furgent {
+
+        /**
+         * Contenu de l'instantané.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Numéro du client.
+         */
+        private final int unum;
+
+        /**
+         * Identifiant du client.
+         */
+        private final String uuid;
+
+        /**
+         * Nom du client.
+         */
+        private final String uname;
+
+        /**
+         * Numéro de la raison d'appel n°1, -1 si absente.
+         */
+        private final int ttnum;
+
+        /**
+         * Libellé de la raison d'appel n°1.
+         */
+        private final String ttypename;
+
+        /**
+         * Identifiant de la société, en hexadécimal.
+         */
+        private final String companyUid;
+
+        /**
+         * Position du premier site dans l'instantané.
+         */
+        private final int sitesOffset;
+
+        /**
+         * Nombre de sites.
+         */
+        private int nbSites = 0;
+
+        /**
+         * Décode un client à la position courante.
+         */
+        private Client(ByteBuffer buffer) {
+            this.buffer = buffer;
+            unum = buffer.getInt();
+            uuid = getString(buffer);
+            uname = getString(buffer);
+            ttnum = buffer.getInt();
+            ttypename = getString(buffer);
+            companyUid = toHex(buffer.getLong(), buffer.getLong());
+            sitesOffset = buffer.position();
+        }
+
+        @Override
+        public int getUnum() {
+            return unum;
+        }
+
+        @Override
+        public String getUuid() {
+            return uuid;
+        }
+
+        @Override
+        public String getUname() {
+            return uname;
+        }
+
+        /**
+         * @return le numéro de la raison d'appel n°1, -1 si absente.
+         */
+        public int getTtnum() {
+            return ttnum;
+        }
+
+        /**
+         * @return le libellé de la raison d'appel n°1.
+         */
+        public String getTtypename() {
+            return ttypename;
+        }
+
+        /**
+         * @return le nombre de sites du client.
+         */
+        public int getNbSites() {
+            return nbSites;
+        }
+
+        /**
+         * Retourne une source des sites du client, par numéro croissant. Chaque
+         * source a sa propre position dans le fichier : plusieurs tâches
+         * peuvent lire l'instantané en même temps.
+         *
+         * @return une source des sites du client.
+         */
+        public RowSource<Fsite> getSites() {
+            final ByteBuffer sites;
+
+            sites = buffer.duplicate();
+            sites.position(sitesOffset);
+            return new RowSource<Fsite>() {
+                private int remaining = nbSites;
+
+                @Override
+                public Fsite next() {
+                    if (remaining == 0) {
+                        return null;
+                    }
+                    remaining--;
+                    sites.get();
+                    return new Site(sites);
+                }
+            };
+        }
+
+        /**
+         * Retourne le contenu de Client.
+         *
+         * @return le contenu de Client.
+         */
+        @Override
+        public String toString() {
+            return "Client:{"
+                    + "unum:" + unum
+                    + ", uuid:" + uuid
+                    + ", uname:" + uname
+                    + ", ttnum:" + ttnum
+                    + ", sites:" + nbSites
+                    + "}";
+        }
+    }
+
+    /**
+     * Site lu dans l'instantané, avec son identifiant agrégé.
+     */
+    public static class Site extends Fsite {
+
+        /**
+         * Numéro du site.
+         */
+        private final int s3num;
+
+        /**
+         * Identifiant du patrimoine, en hexadécimal.
+         */
+        private final String aggregateUid;
+
+        /**
+         * Référence du site.
+         */
+        private final String s3number2;
+
+        /**
+         * Adresse du site.
+         */
+        private final String s3address;
+
+        /**
+         * Code postal du site.
+         */
+        private final String s3poscode;
+
+        /**
+         * Ville du site.
+         */
+        private final String s3city;
+
+        /**
+         * Décode un site à la position courante.
+         */
+        private Site(ByteBuffer buffer) {
+            s3num = buffer.getInt();
+            aggregateUid = toHex(buffer.getLong(), buffer.getLong());
+            s3number2 = getString(buffer);
+            s3address = getString(buffer);
+            s3poscode = getString(buffer);
+            s3city = getString(buffer);
+        }
+
+        /**
+         * Passe un site à la position courante, sans le décoder.
+         */
+        private static void skip(ByteBuffer buffer) {
+            buffer.position(buffer.position() + 4 + 16);
+            skipString(buffer);
+            skipString(buffer);
+            skipString(buffer);
+            skipString(buffer);
+        }
+
+        @Override
+        public int getS3num() {
+            return s3num;
+        }
+
+        @Override
+        public String getS3number2() {
+            return s3number2;
+        }
+
+        @Override
+        public String getS3address() {
+            return s3address;
+        }
+
+        @Override
+        public String getS3poscode() {
+            return s3poscode;
+        }
+
+        @Override
+        public String getS3city() {
+            return s3city;
+        }
+
+        /**
+         * @return l'identifiant du patrimoine, en hexadécimal.
+         */
+        public String getAggregateUid() {
+            return aggregateUid;
+        }
+    }
+
+    /**
+     * Ecriture d'un instantané. Le fichier est écrit sous un nom temporaire
+     * et ne remplace l'ancien qu'une fois complet.
+     */
+    public static class Writer {
+
+        /**
+         * Fichier de l'instantané.
+         */
+        private final File file;
+
+        /**
+         * Fichier temporaire en cours d'écriture.
+         */
+        private final File tmpFile;
+
+        /**
+         * Flux d'écriture.
+         */
+        private final DataOutputStream outputStream;
+
+        /**
+         * Identifiant calculé.
+         */
+        private final long[] uid = new long[2];
+
+        /**
+         * Numéro du client en cours d'écriture.
+         */
+        private int unum;
+
+        /**
+         * Nombre de clients écrits.
+         */
+        private int nbClients = 0;
+
+        /**
+         * Nombre de sites écrits.
+         */
+        private long nbSites = 0;
+
+        /**
+         * Constructeur de la classe Writer. Ecrit l'en-tête.
+         *
+         * @param filename nom du fichier.
+         * @param ifxDbServerType type du serveur Informix exporté.
+         * @param complete indique si tous les clients sont exportés.
+         * @throws IOException en cas d'erreur d'écriture.
+         */
+        public Writer(String filename, String ifxDbServerType, boolean complete) throws IOException {
+            file = new File(filename);
+            tmpFile = new File(filename + ".tmp");
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+            outputStream.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            outputStream.writeLong(System.currentTimeMillis());
+            writeString(ifxDbServerType);
+            outputStream.writeByte(complete ? 1 : 0);
+        }
+
+        /**
+         * Ecrit un client et sa raison d'appel n°1. Ses sites doivent suivre.
+         *
+         * @param furgent client Informix.
+         * @param ftype raison d'appel n°1 du client, null si absente.
+         * @throws IOException en cas d'erreur d'écriture.
+         */
+        public void writeClient(Furgent furgent, Ftype ftype) throws IOException {
+            unum = furgent.getUnum();
+            AggregateUidEncoder.digestCompany(unum, uid);
+            outputStream.writeByte(CLIENT);
+            outputStream.writeInt(unum);
+            writeString(furgent.getUuid());
+            writeString(furgent.getUname());
+            outputStream.writeInt(ftype != null ? ftype.getTtnum() : -1);
+            writeString(ftype != null ? ftype.getTtypename() : null);
+            outputStream.writeLong(uid[0]);
+            outputStream.writeLong(uid[1]);
+            nbClients++;
+        }
+
+        /**
+         * Ecrit un site du dernier client écrit.
+         *
+         * @param fsite site Informix.
+         * @throws IOException en cas d'erreur d'écriture.
+         */
+        public void writeSite(Fsite fsite) throws IOException {
+            AggregateUidEncoder.digestPatrimony(unum, fsite.getS3number2(), uid);
+            outputStream.writeByte(SITE);
+            outputStream.writeInt(fsite.getS3num());
+            outputStream.writeLong(uid[0]);
+            outputStream.writeLong(uid[1]);
+            writeString(fsite.getS3number2());
+            writeString(fsite.getS3address());
+            writeString(fsite.getS3poscode());
+            writeString(fsite.getS3city());
+            nbSites++;
+        }
+
+        /**
+         * Ecrit une chaîne de caractères.
+         */
+        private void writeString(String value) throws IOException {
+            byte[] bytes;
+
+            if (value == null) {
+                outputStream.writeShort(NULL_LENGTH);
+                return;
+            }
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length >= NULL_LENGTH) {
+                throw new IOException("Chaîne trop longue pour l'instantané : " + value.substring(0, 32) + "...");
+            }
+            outputStream.writeShort(bytes.length);
+            outputStream.write(bytes);
+        }
+
+        /**
+         * Ecrit l'enregistrement de fin et remplace l'ancien instantané.
+         *
+         * @throws IOException en cas d'erreur d'écriture.
+         */
+        public void close() throws IOException {
+            try {
+                outputStream.writeByte(END);
+                outputStream.writeInt(nbClients);
+                outputStream.writeLong(nbSites);
+            } finally {
+                outputStream.close();
+            }
+            if (tmpFile.length() > Integer.MAX_VALUE) {
+                throw new IOException("Instantané trop volumineux (plus de 2 Go) : " + tmpFile.getPath());
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Impossible de remplacer l'instantané " + file.getPath());
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Impossible d'écrire l'instantané " + file.getPath());
+            }
+        }
+
+        /**
+         * Abandonne l'écriture et supprime le fichier temporaire.
+         */
+        public void abort() {
+            try {
+                outputStream.close();
+            } catch (IOException exception) {
+            }
+            tmpFile.delete();
+        }
+
+        /**
+         * @return le nombre de clients écrits.
+         */
+        public int getNbClients() {
+            return nbClients;
+        }
+
+        /**
+         * @return le nombre de sites écrits.
+         */
+        public long getNbSites() {
+            return nbSites;
+        }
+
+        /**
+         * @return le nom du fichier.
+         */
+        public String getFilename() {
+            return file.getPath();
+        }
+    }
+}
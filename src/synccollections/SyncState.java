@@ -0,0 +1,137 @@
+package synccollections;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Classe qui conserve localement, d'une exécution à l'autre, l'état des
+ * synchronisations : dernière clé traitée (watermark) par collection et par
+ * client.
+ * <p>
+ * Les clés sont préfixées par les types de serveurs Informix et MongoDb pour
+ * que les exécutions sur des environnements différents ne se mélangent pas.
+ * L'état peut être lu et modifié simultanément par plusieurs tâches.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.13
+ */
+public class SyncState {
+
+    /**
+     * Nom par défaut du fichier d'état.
+     */
+    public static final String DEFAULT_FILENAME = "SyncCollections.state";
+
+    /**
+     * Fichier d'état.
+     */
+    private final File file;
+
+    /**
+     * Préfixe des clés : &lt;ifxdb&gt;.&lt;mgodb&gt;.
+     */
+    private final String prefix;
+
+    /**
+     * Contenu du fichier d'état.
+     */
+    private final Properties properties;
+
+    /**
+     * Constructeur de la classe SyncState. Lit le fichier d'état s'il existe.
+     *
+     * @param filename nom du fichier d'état.
+     * @param ifxDbServerType type de serveur Informix.
+     * @param mgoDbServerType type de serveur MongoDb.
+     * @throws IOException en cas d'erreur de lecture du fichier d'état.
+     */
+    public SyncState(String filename, String ifxDbServerType, String mgoDbServerType) throws IOException {
+        InputStream inputStream;
+
+        file = new File(filename);
+        prefix = ifxDbServerType + "." + mgoDbServerType + ".";
+        properties = new Properties();
+        if (file.exists()) {
+            inputStream = new FileInputStream(file);
+            try {
+                properties.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    /**
+     * Retourne la dernière clé traitée.
+     *
+     * @param name nom de la synchronisation, par exemple
+     * patrimonies.&lt;uuid&gt; ou companies.
+     * @return la dernière clé traitée, 0 si aucune.
+     */
+    public synchronized long getWatermark(String name) {
+        String value;
+
+        value = properties.getProperty(prefix + name + ".watermark");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * Mémorise la dernière clé traitée.
+     *
+     * @param name nom de la synchronisation.
+     * @param watermark dernière clé traitée.
+     */
+    public synchronized void setWatermark(String name, long watermark) {
+        properties.setProperty(prefix + name + ".watermark", String.valueOf(watermark));
+    }
+
+    /**
+     * Enregistre l'état dans le fichier, en remplaçant l'ancien fichier
+     * seulement une fois le nouveau complètement écrit.
+     *
+     * @throws IOException en cas d'erreur d'écriture du fichier d'état.
+     */
+    public synchronized void save() throws IOException {
+        File tmpFile;
+        OutputStream outputStream;
+
+        tmpFile = new File(file.getPath() + ".tmp");
+        outputStream = new FileOutputStream(tmpFile);
+        try {
+            properties.store(outputStream, "Etat des synchronisations de SyncCollections");
+        } finally {
+            outputStream.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Impossible de remplacer le fichier d'état " + file.getPath());
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Impossible d'écrire le fichier d'état " + file.getPath());
+        }
+    }
+
+    /**
+     * Retourne le contenu de SyncState.
+     *
+     * @return le contenu de SyncState.
+     */
+    @Override
+    public String toString() {
+        return "SyncState:{"
+                + "file:" + file.getPath()
+                + ", prefix:" + prefix
+                + "}";
+    }
+}
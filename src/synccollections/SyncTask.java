@@ -0,0 +1,95 @@
+package synccollections;
+
+import com.mongodb.client.model.WriteModel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * Interface des synchronisations d'une collection MongoDb par rapport à une
+ * table Informix, exécutées par SyncEngine.
+ * <p>
+ * Une tâche ne décrit que ce qui est propre à la collection : la source des
+ * lignes Informix, par clé croissante, l'identifiant agrégé du document
+ * correspondant à une ligne, les champs lus dans la base MongoDb et la
+ * comparaison d'une ligne à son document. La lecture, les recherches par
+ * lots en parallèle, les écritures groupées, la reprise, l'avancement et les
+ * mesures sont assurés par SyncEngine pour toutes les collections.</p>
+ *
+ * @param <T> type des lignes Informix (Furgent, ...).
+ * @author Thierry Baribaud
+ * @version 0.27
+ */
+public interface SyncTask<T> {
+
+    /**
+     * @return le nom de la collection MongoDb synchronisée, qui nomme aussi
+     * l'état, le point de reprise et les mesures de la synchronisation.
+     */
+    public String getCollection();
+
+    /**
+     * Ouvre la source des lignes Informix, par clé croissante.
+     *
+     * @param informixConnection connexion à la base Informix, null avec
+     * -snapshot.
+     * @return la source des lignes.
+     * @throws ClassNotFoundException si le pilote JDBC est introuvable.
+     * @throws SQLException en cas d'erreur de lecture de la base Informix.
+     */
+    public RowSource<T> open(Connection informixConnection) throws ClassNotFoundException, SQLException;
+
+    /**
+     * Ferme la source des lignes Informix.
+     *
+     * @throws SQLException en cas d'erreur de fermeture.
+     */
+    public void close() throws SQLException;
+
+    /**
+     * @param row ligne Informix.
+     * @return la clé de la ligne, croissante dans la source, mémorisée pour
+     * ne traiter que les nouvelles lignes à l'exécution suivante.
+     */
+    public long getKey(T row);
+
+    /**
+     * @param row ligne Informix.
+     * @return le numéro du client de la ligne, pour la répartition par
+     * client.
+     */
+    public int getUnum(T row);
+
+    /**
+     * @param row ligne Informix.
+     * @return l'identifiant agrégé (uid) du document correspondant.
+     */
+    public String getUid(T row);
+
+    /**
+     * @return les champs des documents lus dans la base MongoDb, uid compris.
+     */
+    public Bson getProjection();
+
+    /**
+     * Compare une ligne Informix au document correspondant, compte le
+     * résultat et signale les écarts.
+     *
+     * @param row ligne Informix.
+     * @param uid identifiant agrégé du document.
+     * @param document document lu dans la base MongoDb, null s'il est absent.
+     * @param syncCounters compteurs de la synchronisation.
+     * @return l'écriture à faire pour mettre le document à jour, null s'il
+     * n'y en a pas.
+     * @throws InterruptedException si la tâche est interrompue.
+     */
+    public WriteModel<Document> compare(T row, String uid, Document document, SyncCounters syncCounters)
+            throws InterruptedException;
+
+    /**
+     * @param syncCounters compteurs de la synchronisation.
+     * @return le bilan de la comparaison, pour l'affichage.
+     */
+    public String getSummary(SyncCounters syncCounters);
+}
@@ -0,0 +1,278 @@
+package synccollections;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import utils.ApplicationProperties;
+import utils.DBServer;
+
+/**
+ * Classe qui gère les groupes de tâches utilisés pour paralléliser la
+ * synchronisation.
+ * <p>
+ * Le nombre de tâches de chaque groupe est lu dans le fichier
+ * MyDatabases.prop (propriétés &lt;type&gt;.mgodb.nb.thread et
+ * &lt;type&gt;.ifxdb.nb.thread). Les recherches MongoDb partagent le même
+ * MongoClient ; les connexions Informix sont partagées par un groupe de
+ * connexions (cf. InformixConnectionPool) dimensionné pour les tâches
+ * Informix plus la lecture principale. En mode pipeline, chaque client
+ * traité dispose en plus d'une tâche de rapprochement.</p>
+ * <p>
+ * Les requêtes adressées à chaque base sont régulées (cf. AdaptiveThrottle)
+ * selon les propriétés facultatives &lt;type&gt;.mgodb.latency.ms et
+ * &lt;type&gt;.ifxdb.latency.ms (durée cible d'une requête, en millisecondes,
+ * au-delà de laquelle le nombre de requêtes simultanées est réduit) et
+ * &lt;type&gt;.mgodb.max.ops (plafond de requêtes MongoDb par seconde). Côté
+ * Informix, &lt;type&gt;.ifxdb.max.ops plafonne les lignes lues par seconde
+ * (cf. RateLimiter).</p>
+ * <p>
+ * En mode démon, les tâches et les connexions sont conservées d'une
+ * synchronisation à l'autre ; après une erreur, les connexions sont fermées
+ * et rouvertes à la demande suivante.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncWorkers {
+
+    /**
+     * Nombre de tâches par défaut si la propriété nb.thread est absente.
+     */
+    public static final int DEFAULT_NB_THREAD = 1;
+
+    /**
+     * Nombre de tâches pour les requêtes MongoDb.
+     */
+    private final int mgoNbThread;
+
+    /**
+     * Nombre de tâches pour les requêtes Informix.
+     */
+    private final int ifxNbThread;
+
+    /**
+     * Groupe de tâches pour les requêtes MongoDb.
+     */
+    private final ExecutorService mongoExecutor;
+
+    /**
+     * Groupe de tâches pour les traitements par client, avec accès Informix.
+     */
+    private final ExecutorService informixExecutor;
+
+    /**
+     * Groupe de tâches rapprochant les sites lus par les tâches Informix (cf.
+     * SitePipeline).
+     */
+    private final ExecutorService pipelineExecutor;
+
+    /**
+     * Connexions Informix partagées par les tâches et la lecture principale.
+     */
+    private final InformixConnectionPool informixPool;
+
+    /**
+     * Régulation des requêtes MongoDb : recherches et écritures groupées.
+     */
+    private final AdaptiveThrottle mongoThrottle;
+
+    /**
+     * Régulation des requêtes Informix : une requête par instruction
+     * exécutée, tenue jusqu'à la fermeture de son curseur.
+     */
+    private final AdaptiveThrottle informixThrottle;
+
+    /**
+     * Plafond de lignes lues par seconde dans Informix.
+     */
+    private final RateLimiter informixRateLimiter;
+
+    /**
+     * Constructeur de la classe SyncWorkers.
+     *
+     * @param applicationProperties paramètres d'exécution.
+     * @param mgoDbServerType type de serveur MongoDb (prod, pre-prod).
+     * @param ifxDbServerType type de serveur Informix (prod, pre-prod, ...).
+     * @param ifxServer paramètres du serveur Informix.
+     */
+    public SyncWorkers(ApplicationProperties applicationProperties,
+            String mgoDbServerType, String ifxDbServerType, DBServer ifxServer) {
+        mgoNbThread = getNbThread(applicationProperties, mgoDbServerType + ".mgodb.nb.thread");
+        ifxNbThread = getNbThread(applicationProperties, ifxDbServerType + ".ifxdb.nb.thread");
+        mongoExecutor = Executors.newFixedThreadPool(mgoNbThread);
+        informixExecutor = Executors.newFixedThreadPool(ifxNbThread);
+        pipelineExecutor = Executors.newFixedThreadPool(ifxNbThread);
+        informixPool = new InformixConnectionPool(ifxServer,
+                applicationProperties.getProperty(ifxDbServerType + ".ifxdb.url"), ifxNbThread + 1);
+        mongoThrottle = new AdaptiveThrottle("mgodb", 2 * ifxNbThread + mgoNbThread + 1,
+                getLimit(applicationProperties, mgoDbServerType + ".mgodb.max.ops"),
+                getLimit(applicationProperties, mgoDbServerType + ".mgodb.latency.ms"));
+        informixThrottle = new AdaptiveThrottle("ifxdb", ifxNbThread + 1, 0,
+                getLimit(applicationProperties, ifxDbServerType + ".ifxdb.latency.ms"));
+        informixRateLimiter = new RateLimiter("ifxdb",
+                getLimit(applicationProperties, ifxDbServerType + ".ifxdb.max.ops"));
+    }
+
+    /**
+     * Lit un nombre de tâches dans les paramètres d'exécution.
+     *
+     * @param applicationProperties paramètres d'exécution.
+     * @param key nom de la propriété.
+     * @return le nombre de tâches, DEFAULT_NB_THREAD si la propriété est
+     * absente ou invalide.
+     */
+    private static int getNbThread(ApplicationProperties applicationProperties, String key) {
+        String value;
+        int nbThread;
+
+        value = applicationProperties.getProperty(key);
+        if (value == null) {
+            return DEFAULT_NB_THREAD;
+        }
+        try {
+            nbThread = Integer.parseInt(value.trim());
+        } catch (NumberFormatException exception) {
+            System.out.println("Erreur : valeur invalide pour " + key + " : " + value);
+            return DEFAULT_NB_THREAD;
+        }
+        return nbThread > 0 ? nbThread : DEFAULT_NB_THREAD;
+    }
+
+    /**
+     * Lit une limite de régulation dans les paramètres d'exécution.
+     *
+     * @param applicationProperties paramètres d'exécution.
+     * @param key nom de la propriété.
+     * @return la limite, 0 (aucune limite) si la propriété est absente ou
+     * invalide.
+     */
+    private static long getLimit(ApplicationProperties applicationProperties, String key) {
+        String value;
+        long limit;
+
+        value = applicationProperties.getProperty(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            limit = Long.parseLong(value.trim());
+        } catch (NumberFormatException exception) {
+            System.out.println("Erreur : valeur invalide pour " + key + " : " + value);
+            return 0;
+        }
+        return limit > 0 ? limit : 0;
+    }
+
+    /**
+     * Ouvre en parallèle, par les tâches Informix, toutes les connexions du
+     * groupe, sans attendre.
+     */
+    public void prewarmInformixConnections() {
+        informixPool.prewarm(informixExecutor);
+    }
+
+    /**
+     * Ferme les connexions Informix, par exemple après une erreur de
+     * connexion. Elles sont rouvertes à la demande suivante.
+     */
+    public void resetInformixConnections() {
+        informixPool.reset();
+    }
+
+    /**
+     * Arrête les groupes de tâches et ferme les connexions Informix.
+     */
+    public void shutdown() {
+        mongoExecutor.shutdown();
+        informixExecutor.shutdown();
+        pipelineExecutor.shutdown();
+        try {
+            informixExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            pipelineExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            mongoExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        informixPool.close();
+    }
+
+    /**
+     * @return le nombre de tâches pour les requêtes MongoDb.
+     */
+    public int getMgoNbThread() {
+        return mgoNbThread;
+    }
+
+    /**
+     * @return le nombre de tâches pour les requêtes Informix.
+     */
+    public int getIfxNbThread() {
+        return ifxNbThread;
+    }
+
+    /**
+     * @return les connexions Informix partagées.
+     */
+    public InformixConnectionPool getInformixPool() {
+        return informixPool;
+    }
+
+    /**
+     * @return la régulation des requêtes MongoDb.
+     */
+    public AdaptiveThrottle getMongoThrottle() {
+        return mongoThrottle;
+    }
+
+    /**
+     * @return la régulation des requêtes Informix.
+     */
+    public AdaptiveThrottle getInformixThrottle() {
+        return informixThrottle;
+    }
+
+    /**
+     * @return le plafond de lignes lues par seconde dans Informix.
+     */
+    public RateLimiter getInformixRateLimiter() {
+        return informixRateLimiter;
+    }
+
+    /**
+     * @return le groupe de tâches pour les requêtes MongoDb.
+     */
+    public ExecutorService getMongoExecutor() {
+        return mongoExecutor;
+    }
+
+    /**
+     * @return le groupe de tâches pour les traitements par client.
+     */
+    public ExecutorService getInformixExecutor() {
+        return informixExecutor;
+    }
+
+    /**
+     * @return le groupe de tâches rapprochant les sites lus.
+     */
+    public ExecutorService getPipelineExecutor() {
+        return pipelineExecutor;
+    }
+
+    /**
+     * Retourne le contenu de SyncWorkers.
+     *
+     * @return le contenu de SyncWorkers.
+     */
+    @Override
+    public String toString() {
+        return "SyncWorkers:{"
+                + "mgoNbThread:" + mgoNbThread
+                + ", ifxNbThread:" + ifxNbThread
+                + ", informixPool:" + informixPool
+                + ", mongoThrottle:" + mongoThrottle
+                + ", informixThrottle:" + informixThrottle
+                + ", informixRateLimiter:" + informixRateLimiter
+                + "}";
+    }
+}
@@ -0,0 +1,78 @@
+package synccollections;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Classe qui mesure la durée du décodage des documents par un autre codec,
+ * pour les mesures de performances d'une synchronisation.
+ *
+ * @param <T> classe décodée.
+ * @author Thierry Baribaud
+ * @version 0.18
+ */
+public class TimedCodec<T> implements Codec<T> {
+
+    /**
+     * Codec mesuré.
+     */
+    private final Codec<T> codec;
+
+    /**
+     * Phase cumulant les durées de décodage.
+     */
+    private final SyncMetrics.Phase decodePhase;
+
+    /**
+     * Constructeur de la classe TimedCodec.
+     *
+     * @param codec codec mesuré.
+     * @param decodePhase phase cumulant les durées de décodage.
+     */
+    public TimedCodec(Codec<T> codec, SyncMetrics.Phase decodePhase) {
+        this.codec = codec;
+        this.decodePhase = decodePhase;
+    }
+
+    /**
+     * Décode un document en mesurant la durée du décodage.
+     *
+     * @param reader lecteur du document BSON.
+     * @param decoderContext contexte du décodage.
+     * @return l'objet décodé.
+     */
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        long start;
+
+        start = System.nanoTime();
+        try {
+            return codec.decode(reader, decoderContext);
+        } finally {
+            decodePhase.record(start);
+        }
+    }
+
+    /**
+     * Encode un objet, sans mesure.
+     *
+     * @param writer rédacteur du document BSON.
+     * @param value objet à encoder.
+     * @param encoderContext contexte de l'encodage.
+     */
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        codec.encode(writer, value, encoderContext);
+    }
+
+    /**
+     * @return la classe encodée.
+     */
+    @Override
+    public Class<T> getEncoderClass() {
+        return codec.getEncoderClass();
+    }
+}
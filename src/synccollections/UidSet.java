@@ -0,0 +1,365 @@
+package synccollections;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Classe qui mémorise un ensemble d'identifiants MD5 (32 caractères
+ * hexadécimaux) sous forme compacte : chaque identifiant est stocké en deux
+ * entiers longs dans une table à adressage ouvert.
+ * <p>
+ * Chaque identifiant peut être marqué comme rapproché, ce qui permet de lister
+ * ensuite les identifiants jamais rapprochés. Une fois l'ensemble construit,
+ * la recherche et le marquage peuvent être faits par plusieurs tâches
+ * simultanément. Les identifiants qui ne sont pas des MD5 en hexadécimal
+ * minuscule sont conservés à part, tels quels, et comparés exactement comme
+ * des chaînes : un même identifiant écrit en majuscules ne correspond donc pas,
+ * comme avec la recherche par lots.</p>
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class UidSet {
+
+    /**
+     * Taux de remplissage maximum de la table.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+
+    /**
+     * Poids forts des identifiants.
+     */
+    private long[] highs;
+
+    /**
+     * Poids faibles des identifiants.
+     */
+    private long[] lows;
+
+    /**
+     * Indique, par position dans la table, si la case est occupée.
+     */
+    private long[] used;
+
+    /**
+     * Indique, par position dans la table, si l'identifiant a été rapproché.
+     */
+    private AtomicLongArray matched;
+
+    /**
+     * Masque pour calculer une position dans la table.
+     */
+    private int mask;
+
+    /**
+     * Nombre d'identifiants MD5 dans l'ensemble.
+     */
+    private int size = 0;
+
+    /**
+     * Identifiants qui ne sont pas des MD5.
+     */
+    private final HashSet<String> otherUids = new HashSet<>();
+
+    /**
+     * Identifiants qui ne sont pas des MD5 et qui ont été rapprochés.
+     */
+    private final HashSet<String> otherMatchedUids = new HashSet<>();
+
+    /**
+     * Constructeur de la classe UidSet.
+     *
+     * @param expectedSize nombre d'identifiants attendus.
+     */
+    public UidSet(long expectedSize) {
+        int capacity;
+
+        capacity = 16;
+        while (capacity < (1 << 30) && capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Alloue une table vide de la capacité donnée.
+     */
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        used = new long[(capacity + 63) >>> 6];
+        matched = new AtomicLongArray((capacity + 63) >>> 6);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Ajoute un identifiant à l'ensemble. N'est pas prévu pour être appelé par
+     * plusieurs tâches simultanément.
+     *
+     * @param uid identifiant à ajouter.
+     */
+    public void add(String uid) {
+        long[] value;
+
+        value = new long[2];
+        if (parse(uid, value)) {
+            add(value[0], value[1]);
+        } else if (uid != null) {
+            otherUids.add(uid);
+        }
+    }
+
+    /**
+     * Ajoute un identifiant MD5 donné en binaire à l'ensemble.
+     *
+     * @param high poids forts de l'identifiant.
+     * @param low poids faibles de l'identifiant.
+     */
+    public void add(long high, long low) {
+        int slot;
+
+        if ((size + 1) > (mask + 1) * LOAD_FACTOR) {
+            grow();
+        }
+        slot = find(high, low);
+        if (!isUsed(used, slot)) {
+            highs[slot] = high;
+            lows[slot] = low;
+            used[slot >>> 6] |= 1L << slot;
+            size++;
+        }
+    }
+
+    /**
+     * Double la capacité de la table.
+     */
+    private void grow() {
+        long[] oldHighs;
+        long[] oldLows;
+        long[] oldUsed;
+        int slot;
+        int i;
+
+        oldHighs = highs;
+        oldLows = lows;
+        oldUsed = used;
+        allocate(2 * oldHighs.length);
+        for (i = 0; i < oldHighs.length; i++) {
+            if (isUsed(oldUsed, i)) {
+                slot = find(oldHighs[i], oldLows[i]);
+                highs[slot] = oldHighs[i];
+                lows[slot] = oldLows[i];
+                used[slot >>> 6] |= 1L << slot;
+            }
+        }
+    }
+
+    /**
+     * Recherche la position d'un identifiant, ou la case libre où il serait
+     * rangé.
+     */
+    private int find(long high, long low) {
+        int slot;
+
+        slot = (int) (low ^ (low >>> 32) ^ high) & mask;
+        while (isUsed(used, slot) && (highs[slot] != high || lows[slot] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Recherche un identifiant et le marque comme rapproché s'il est présent.
+     * Pour rapprocher de nombreux identifiants, il vaut mieux les convertir
+     * avec parse() dans une table réutilisée et appeler match(long, long).
+     *
+     * @param uid identifiant à rechercher.
+     * @return true si l'identifiant est présent dans l'ensemble.
+     */
+    public boolean match(String uid) {
+        long[] value;
+
+        value = new long[2];
+        if (parse(uid, value)) {
+            return match(value[0], value[1]);
+        }
+        return matchOther(uid);
+    }
+
+    /**
+     * Recherche un identifiant qui n'est pas un MD5 et le marque comme
+     * rapproché s'il est présent.
+     *
+     * @param uid identifiant à rechercher.
+     * @return true si l'identifiant est présent dans l'ensemble.
+     */
+    public boolean matchOther(String uid) {
+        if (uid != null && otherUids.contains(uid)) {
+            synchronized (otherMatchedUids) {
+                otherMatchedUids.add(uid);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recherche un identifiant MD5 donné en binaire et le marque comme
+     * rapproché s'il est présent.
+     *
+     * @param high poids forts de l'identifiant.
+     * @param low poids faibles de l'identifiant.
+     * @return true si l'identifiant est présent dans l'ensemble.
+     */
+    public boolean match(long high, long low) {
+        int slot;
+        int index;
+        long bit;
+        long bits;
+
+        slot = find(high, low);
+        if (!isUsed(used, slot)) {
+            return false;
+        }
+        index = slot >>> 6;
+        bit = 1L << slot;
+        while (((bits = matched.get(index)) & bit) == 0) {
+            if (matched.compareAndSet(index, bits, bits | bit)) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return les identifiants de l'ensemble qui n'ont jamais été rapprochés.
+     */
+    public ArrayList<String> getUnmatched() {
+        ArrayList<String> unmatched;
+        StringBuilder uid;
+        int i;
+
+        unmatched = new ArrayList<>();
+        uid = new StringBuilder(32);
+        for (i = 0; i <= mask; i++) {
+            if (isUsed(used, i) && (matched.get(i >>> 6) & (1L << i)) == 0) {
+                uid.setLength(0);
+                appendHex(uid, highs[i]);
+                appendHex(uid, lows[i]);
+                unmatched.add(uid.toString());
+            }
+        }
+        for (String otherUid : otherUids) {
+            if (!otherMatchedUids.contains(otherUid)) {
+                unmatched.add(otherUid);
+            }
+        }
+        return unmatched;
+    }
+
+    /**
+     * @return le nombre d'identifiants de l'ensemble.
+     */
+    public int size() {
+        return size + otherUids.size();
+    }
+
+    /**
+     * Indique si une case de la table est occupée.
+     */
+    private static boolean isUsed(long[] bitSet, int slot) {
+        return (bitSet[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Indique si un identifiant est un MD5 en hexadécimal minuscule.
+     */
+    static boolean isMd5(String uid) {
+        int i;
+
+        if (uid == null || uid.length() != 32) {
+            return false;
+        }
+        for (i = 0; i < 32; i++) {
+            if (digit(uid.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convertit en une seule passe un identifiant MD5 en hexadécimal minuscule
+     * en deux entiers longs.
+     *
+     * @param uid identifiant à convertir.
+     * @param value table de deux entiers longs recevant les poids forts puis
+     * les poids faibles de l'identifiant.
+     * @return false si l'identifiant n'est pas un MD5 en hexadécimal
+     * minuscule, value est alors indéfinie.
+     */
+    public static boolean parse(String uid, long[] value) {
+        long high;
+        long low;
+        int digit;
+        int i;
+
+        if (uid == null || uid.length() != 32) {
+            return false;
+        }
+        high = 0;
+        low = 0;
+        for (i = 0; i < 32; i++) {
+            if ((digit = digit(uid.charAt(i))) < 0) {
+                return false;
+            }
+            if (i < 16) {
+                high = (high << 4) | digit;
+            } else {
+                low = (low << 4) | digit;
+            }
+        }
+        value[0] = high;
+        value[1] = low;
+        return true;
+    }
+
+    /**
+     * Convertit 16 caractères hexadécimaux minuscules en entier long.
+     */
+    static long parseHex(String uid, int offset) {
+        long value;
+        int i;
+
+        value = 0;
+        for (i = offset; i < offset + 16; i++) {
+            value = (value << 4) | digit(uid.charAt(i));
+        }
+        return value;
+    }
+
+    /**
+     * Retourne la valeur d'un chiffre hexadécimal minuscule, -1 pour tout
+     * autre caractère.
+     */
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Ajoute un entier long en 16 caractères hexadécimaux minuscules.
+     */
+    static void appendHex(StringBuilder uid, long value) {
+        int shift;
+
+        for (shift = 60; shift >= 0; shift -= 4) {
+            uid.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package synccollections;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests de la classe AdaptiveThrottle.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class AdaptiveThrottleTest {
+
+    /**
+     * Une requête en erreur divise la limite par deux, une seule fois pour
+     * les requêtes lancées avant la réduction.
+     */
+    @Test
+    public void testBackoffOnFailure() throws InterruptedException {
+        AdaptiveThrottle adaptiveThrottle;
+        long start1;
+        long start2;
+
+        adaptiveThrottle = new AdaptiveThrottle("test", 8, 0, 0);
+        assertEquals(8, adaptiveThrottle.getLimit());
+        Thread.sleep(1);
+        start1 = adaptiveThrottle.acquire();
+        start2 = adaptiveThrottle.acquire();
+        adaptiveThrottle.release(start1, false);
+        assertEquals(4, adaptiveThrottle.getLimit());
+        adaptiveThrottle.release(start2, false);
+        assertEquals(4, adaptiveThrottle.getLimit());
+        assertEquals(1, adaptiveThrottle.getNbBackoffs());
+        assertEquals(2, adaptiveThrottle.getNbErrors());
+        assertEquals(2, adaptiveThrottle.getNbOps());
+    }
+
+    /**
+     * Avec une durée cible, la limite part de 1 et croît tant que les
+     * requêtes restent sous la cible, sans dépasser le maximum.
+     */
+    @Test
+    public void testGrowth() throws InterruptedException {
+        AdaptiveThrottle adaptiveThrottle;
+        int i;
+
+        adaptiveThrottle = new AdaptiveThrottle("test", 4, 0, 60000);
+        assertEquals(1, adaptiveThrottle.getLimit());
+        adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+        assertEquals(2, adaptiveThrottle.getLimit());
+        for (i = 0; i < 50; i++) {
+            adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+            assertTrue(adaptiveThrottle.getLimit() <= 4);
+        }
+        assertEquals(4, adaptiveThrottle.getLimit());
+        assertEquals(0, adaptiveThrottle.getNbBackoffs());
+    }
+
+    /**
+     * Des requêtes plus longues que la durée cible réduisent la limite, sans
+     * descendre sous une requête.
+     */
+    @Test
+    public void testLatencyBackoff() throws InterruptedException {
+        AdaptiveThrottle adaptiveThrottle;
+        long start;
+        int i;
+
+        adaptiveThrottle = new AdaptiveThrottle("test", 4, 0, 1);
+        for (i = 0; i < 3; i++) {
+            start = adaptiveThrottle.acquire();
+            Thread.sleep(5);
+            adaptiveThrottle.release(start, true);
+        }
+        assertEquals(1, adaptiveThrottle.getLimit());
+        assertTrue(adaptiveThrottle.getNbBackoffs() > 0);
+        assertEquals(0, adaptiveThrottle.getNbErrors());
+    }
+
+    /**
+     * Le plafond de requêtes par seconde espace régulièrement les requêtes.
+     */
+    @Test
+    public void testOpsPerSecond() throws InterruptedException {
+        AdaptiveThrottle adaptiveThrottle;
+        long start;
+        int i;
+
+        adaptiveThrottle = new AdaptiveThrottle("test", 4, 100, 0);
+        start = System.nanoTime();
+        for (i = 0; i < 11; i++) {
+            adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+        }
+        assertTrue((System.nanoTime() - start) / 1000000 >= 95);
+    }
+
+    /**
+     * Une tâche interrompue en attente d'une place sous la limite n'occupe
+     * pas de place.
+     */
+    @Test
+    public void testInterruptedWhileWaiting() throws InterruptedException {
+        AdaptiveThrottle adaptiveThrottle;
+        AtomicBoolean interrupted;
+        Thread thread;
+        long start;
+
+        adaptiveThrottle = new AdaptiveThrottle("test", 1, 0, 0);
+        start = adaptiveThrottle.acquire();
+        interrupted = new AtomicBoolean();
+        thread = startAcquire(adaptiveThrottle, interrupted);
+        waitForState(thread, Thread.State.WAITING);
+        thread.interrupt();
+        thread.join();
+        assertTrue(interrupted.get());
+        adaptiveThrottle.release(start, true);
+        adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+        assertEquals(2, adaptiveThrottle.getNbOps());
+    }
+
+    /**
+     * Une tâche interrompue pendant l'espacement des requêtes libère la place
+     * qu'elle avait obtenue.
+     */
+    @Test
+    public void testInterruptedWhileSpacing() throws InterruptedException {
+        AdaptiveThrottle adaptiveThrottle;
+        AtomicBoolean interrupted;
+        Thread thread;
+
+        adaptiveThrottle = new AdaptiveThrottle("test", 1, 4, 0);
+        adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+        interrupted = new AtomicBoolean();
+        thread = startAcquire(adaptiveThrottle, interrupted);
+        waitForState(thread, Thread.State.TIMED_WAITING);
+        thread.interrupt();
+        thread.join();
+        assertTrue(interrupted.get());
+        adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+        assertEquals(2, adaptiveThrottle.getNbOps());
+    }
+
+    /**
+     * Lance une tâche qui attend son tour et note si elle a été interrompue.
+     */
+    private static Thread startAcquire(final AdaptiveThrottle adaptiveThrottle, final AtomicBoolean interrupted) {
+        Thread thread;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    adaptiveThrottle.release(adaptiveThrottle.acquire(), true);
+                } catch (InterruptedException exception) {
+                    interrupted.set(true);
+                }
+            }
+        }, "AdaptiveThrottleTest");
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Attend qu'une tâche soit dans l'état donné.
+     */
+    private static void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+        while (thread.getState() != state) {
+            Thread.sleep(1);
+        }
+    }
+}
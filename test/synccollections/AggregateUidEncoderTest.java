@@ -0,0 +1,169 @@
+package synccollections;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import utils.Md5;
+
+/**
+ * Tests de la classe AggregateUidEncoder : les identifiants doivent être
+ * identiques à ceux de utils.Md5, en hexadécimal comme en binaire.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class AggregateUidEncoderTest {
+
+    /**
+     * Numéros de clients testés.
+     */
+    private static final int[] UNUMS = {0, 1, 9, 10, 4956, -1, -4956, 99999999,
+        Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1};
+
+    /**
+     * Références de sites testées.
+     */
+    private static final String[] S3NUMBER2S = {"A001", "", null, " ", " A-12/B:3 ", "null",
+        "Café", "Bâtiment É", "日本", "ÿ", "\u0080", "a\u0000b", longKey(63), longKey(64), longKey(65),
+        longKey(1000)};
+
+    /**
+     * Le calcul local est reconnu compatible avec utils.Md5.
+     */
+    @Test
+    public void testCheckCompatibility() {
+        assertTrue(AggregateUidEncoder.checkCompatibility());
+    }
+
+    /**
+     * Identifiants des patrimoines en hexadécimal.
+     */
+    @Test
+    public void testEncodePatrimony() {
+        for (int unum : UNUMS) {
+            for (String s3number2 : S3NUMBER2S) {
+                assertEquals("s3:" + unum + ":" + s3number2, Md5.encode("s3:" + unum + ":" + s3number2),
+                        AggregateUidEncoder.encodePatrimony(unum, s3number2));
+            }
+        }
+    }
+
+    /**
+     * Identifiants des sociétés en hexadécimal.
+     */
+    @Test
+    public void testEncodeCompany() {
+        int i;
+
+        for (int unum : UNUMS) {
+            assertEquals("u:" + unum, Md5.encode("u:" + unum), AggregateUidEncoder.encodeCompany(unum));
+        }
+        for (i = -1000; i < 1000; i++) {
+            assertEquals("u:" + i, Md5.encode("u:" + i), AggregateUidEncoder.encodeCompany(i));
+        }
+    }
+
+    /**
+     * Identifiants des patrimoines en binaire.
+     */
+    @Test
+    public void testDigestPatrimony() {
+        long[] uid;
+
+        uid = new long[2];
+        for (int unum : UNUMS) {
+            for (String s3number2 : S3NUMBER2S) {
+                AggregateUidEncoder.digestPatrimony(unum, s3number2, uid);
+                assertArrayEquals(toLongs(Md5.encode("s3:" + unum + ":" + s3number2)), uid);
+            }
+        }
+    }
+
+    /**
+     * Identifiants des sociétés en binaire.
+     */
+    @Test
+    public void testDigestCompany() {
+        long[] uid;
+
+        uid = new long[2];
+        for (int unum : UNUMS) {
+            AggregateUidEncoder.digestCompany(unum, uid);
+            assertArrayEquals(toLongs(Md5.encode("u:" + unum)), uid);
+        }
+    }
+
+    /**
+     * Une clé longue ne laisse pas de trace dans le calcul suivant de la même
+     * tâche.
+     */
+    @Test
+    public void testBufferReuse() {
+        assertEquals(Md5.encode("s3:1:" + longKey(500)), AggregateUidEncoder.encodePatrimony(1, longKey(500)));
+        assertEquals(Md5.encode("s3:1:A"), AggregateUidEncoder.encodePatrimony(1, "A"));
+        assertEquals(Md5.encode("u:1"), AggregateUidEncoder.encodeCompany(1));
+    }
+
+    /**
+     * Plusieurs tâches calculent simultanément les mêmes identifiants.
+     */
+    @Test
+    public void testConcurrentTasks() throws Exception {
+        ExecutorService executor;
+        ArrayList<Future<String>> results;
+        int i;
+
+        executor = Executors.newFixedThreadPool(4);
+        results = new ArrayList<>();
+        try {
+            for (i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        int j;
+
+                        for (j = 0; j < 2000; j++) {
+                            if (!AggregateUidEncoder.encodePatrimony(j, "S" + j).equals(Md5.encode("s3:" + j + ":S" + j))) {
+                                return "s3:" + j + ":S" + j;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertNull(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Fabrique une référence ASCII de la longueur donnée.
+     */
+    private static String longKey(int length) {
+        StringBuilder key;
+        int i;
+
+        key = new StringBuilder(length);
+        for (i = 0; i < length; i++) {
+            key.append((char) ('0' + i % 43));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Convertit un identifiant hexadécimal en binaire.
+     */
+    private static long[] toLongs(String hex) {
+        return new long[]{UidSet.parseHex(hex, 0), UidSet.parseHex(hex, 16)};
+    }
+}
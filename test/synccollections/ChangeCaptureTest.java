@@ -0,0 +1,375 @@
+package synccollections;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.bson.Document;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe ChangeCapture, avec un journal des modifications et des
+ * collections MongoDb simulés en mémoire.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class ChangeCaptureTest {
+
+    /**
+     * Raison d'appel n°1 des clients de test.
+     */
+    private static final int CALL_REASON = 7;
+
+    /**
+     * Lignes du journal des modifications.
+     */
+    private List<HashMap<String, Object>> journal;
+
+    /**
+     * Numéro de la dernière ligne appliquée passé à la requête.
+     */
+    private long minKey;
+
+    /**
+     * Nombre maximum de lignes lues par la requête.
+     */
+    private int maxRows;
+
+    /**
+     * Lots envoyés à la collection des patrimoines.
+     */
+    private List<List<WriteModel<?>>> patrimonyBatches;
+
+    /**
+     * Lots envoyés à la collection des sociétés.
+     */
+    private List<List<WriteModel<?>>> companyBatches;
+
+    /**
+     * Indique si la collection des patrimoines est en panne.
+     */
+    private boolean patrimoniesDown;
+
+    /**
+     * Fichier du rapport des écarts.
+     */
+    private File file;
+
+    /**
+     * Rapport des écarts.
+     */
+    private DiscrepancyReport discrepancyReport;
+
+    @Before
+    public void setUp() throws IOException {
+        journal = new ArrayList<>();
+        minKey = -1;
+        maxRows = 0;
+        patrimonyBatches = new ArrayList<>();
+        companyBatches = new ArrayList<>();
+        patrimoniesDown = false;
+        file = File.createTempFile("ChangeCaptureTest", ".txt");
+        discrepancyReport = new DiscrepancyReport(file.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        discrepancyReport.close();
+        file.delete();
+    }
+
+    /**
+     * Les modifications successives d'un même site sont regroupées en un seul
+     * upsert portant les dernières valeurs, avec le même identifiant que la
+     * synchronisation complète : la référence n'est pas modifiée.
+     */
+    @Test
+    public void testCollapse() throws Exception {
+        ChangeCapture changeCapture;
+        SyncCounters syncCounters;
+        UpdateOneModel<?> upsert;
+        BasicDBObject set;
+
+        addSite(1, "C", 100, 1, CALL_REASON, "A1 ", "1 rue Haute");
+        addSite(2, "M", 100, 1, CALL_REASON, "A1 ", "2 rue Basse");
+        addClient(3, "M", 100);
+        changeCapture = newChangeCapture(10, 0);
+        syncCounters = new SyncCounters();
+
+        assertEquals(3, changeCapture.apply(syncCounters));
+        assertEquals(0, minKey);
+        assertEquals(10, maxRows);
+        assertEquals(3, changeCapture.getLastKey());
+        assertEquals(3, syncCounters.getNbChanges());
+        assertEquals(1, syncCounters.getNbSkipped());
+        assertEquals(1, syncCounters.getNbClient());
+
+        assertEquals(1, patrimonyBatches.size());
+        assertEquals(1, patrimonyBatches.get(0).size());
+        upsert = (UpdateOneModel<?>) patrimonyBatches.get(0).get(0);
+        assertEquals(AggregateUidEncoder.encodePatrimony(100, "A1 "), ((BasicDBObject) upsert.getFilter()).getString("uid"));
+        set = (BasicDBObject) ((BasicDBObject) upsert.getUpdate()).get("$set");
+        assertEquals("A1 ", set.getString("ref"));
+        assertEquals("2 rue Basse 75001 Paris", set.getString("label"));
+
+        assertEquals(1, companyBatches.size());
+        assertEquals(AggregateUidEncoder.encodeCompany(100),
+                ((BasicDBObject) ((UpdateOneModel<?>) companyBatches.get(0).get(0)).getFilter()).getString("uid"));
+
+        changeCapture.flush(syncCounters);
+        assertEquals(2, syncCounters.getNbWrites());
+    }
+
+    /**
+     * La suppression d'un site est enregistrée comme patrimoine orphelin, un
+     * site d'une autre raison d'appel est ignoré, de même que la suppression
+     * d'un client.
+     */
+    @Test
+    public void testDeleteAndSkip() throws Exception {
+        ChangeCapture changeCapture;
+        SyncCounters syncCounters;
+
+        addSite(1, "D", 100, 1, CALL_REASON, "A1", "1 rue Haute");
+        addSite(2, "C", 100, 2, CALL_REASON + 1, "A2", "2 rue Basse");
+        addClient(3, "D", 100);
+        changeCapture = newChangeCapture(10, 0);
+        syncCounters = new SyncCounters();
+
+        assertEquals(3, changeCapture.apply(syncCounters));
+        assertEquals(3, changeCapture.getLastKey());
+        assertEquals(1, discrepancyReport.getNbOrphaned());
+        assertEquals(2, syncCounters.getNbSkipped());
+        assertTrue(patrimonyBatches.isEmpty());
+        assertTrue(companyBatches.isEmpty());
+    }
+
+    /**
+     * Le journal est lu par micro-lots, chacun reprenant après la dernière
+     * ligne appliquée par le précédent.
+     */
+    @Test
+    public void testMicroBatches() throws Exception {
+        ChangeCapture changeCapture;
+        SyncCounters syncCounters;
+
+        addSite(11, "C", 100, 1, CALL_REASON, "A1", "1 rue Haute");
+        addSite(12, "C", 100, 2, CALL_REASON, "A2", "2 rue Basse");
+        addSite(13, "C", 100, 3, CALL_REASON, "A3", "3 rue Neuve");
+        changeCapture = newChangeCapture(2, 10);
+        syncCounters = new SyncCounters();
+
+        assertEquals(2, changeCapture.apply(syncCounters));
+        assertEquals(10, minKey);
+        assertEquals(12, changeCapture.getLastKey());
+        assertEquals(1, changeCapture.apply(syncCounters));
+        assertEquals(12, minKey);
+        assertEquals(13, changeCapture.getLastKey());
+        assertEquals(0, changeCapture.apply(syncCounters));
+        assertEquals(13, changeCapture.getLastKey());
+        assertEquals(3, syncCounters.getNbChanges());
+        assertEquals(2, patrimonyBatches.size());
+    }
+
+    /**
+     * Si les écritures d'un micro-lot échouent, la dernière ligne appliquée
+     * n'avance pas et le micro-lot est relu.
+     */
+    @Test
+    public void testFailedBatchKeepsLastKey() throws Exception {
+        ChangeCapture changeCapture;
+        SyncCounters syncCounters;
+
+        addSite(1, "C", 100, 1, CALL_REASON, "A1", "1 rue Haute");
+        changeCapture = newChangeCapture(10, 0);
+        syncCounters = new SyncCounters();
+
+        patrimoniesDown = true;
+        assertEquals(1, changeCapture.apply(syncCounters));
+        assertEquals(0, changeCapture.getLastKey());
+        assertEquals(1, changeCapture.getNbFailedBatches());
+
+        patrimoniesDown = false;
+        assertEquals(1, changeCapture.apply(syncCounters));
+        assertEquals(0, minKey);
+        assertEquals(1, changeCapture.getLastKey());
+        assertEquals(1, changeCapture.getNbFailedBatches());
+        assertEquals(1, patrimonyBatches.size());
+    }
+
+    /**
+     * La requête ne lit que les lignes plus anciennes que le délai demandé.
+     */
+    @Test
+    public void testSelectStatement() {
+        String statement;
+
+        statement = ChangeCapture.getSelectStatement(30);
+        assertTrue(statement, statement.contains("scnum > ?"));
+        assertTrue(statement, statement.contains("scdate <= current - 30 units second"));
+        assertTrue(statement, statement.endsWith("order by scnum"));
+    }
+
+    /**
+     * Fabrique un ChangeCapture lisant le journal simulé, dont les clients ont
+     * tous la même raison d'appel.
+     */
+    private ChangeCapture newChangeCapture(int batchSize, long lastKey) throws SQLException {
+        return new ChangeCapture(null, newPreparedStatement(), newCollection(patrimonyBatches, true),
+                newCollection(companyBatches, false), batchSize, ChangeCapture.DEFAULT_LAG, false, SyncPartition.ALL,
+                discrepancyReport, new SyncMetrics("changes"), new AdaptiveThrottle("mongo", 4, 0, 0),
+                new AdaptiveThrottle("informix", 4, 0, 0), new RateLimiter("informix", 0), lastKey) {
+            @Override
+            int getCallReason(int unum) {
+                return CALL_REASON;
+            }
+        };
+    }
+
+    /**
+     * Ajoute une modification de site au journal simulé.
+     */
+    private void addSite(long scnum, String op, int unum, int s3num, int tnum, String s3number2, String s3address) {
+        HashMap<String, Object> row;
+
+        row = new HashMap<>();
+        row.put("scnum", scnum);
+        row.put("sctable", ChangeCapture.SITE + " ");
+        row.put("scop", op + " ");
+        row.put("scunum", unum);
+        row.put("scs3num", s3num);
+        row.put("sctnum", tnum);
+        row.put("scnumber2", s3number2);
+        row.put("scaddress", s3address);
+        row.put("scposcode", "75001");
+        row.put("sccity", "Paris");
+        journal.add(row);
+    }
+
+    /**
+     * Ajoute une modification de client au journal simulé.
+     */
+    private void addClient(long scnum, String op, int unum) {
+        HashMap<String, Object> row;
+
+        row = new HashMap<>();
+        row.put("scnum", scnum);
+        row.put("sctable", ChangeCapture.CLIENT + " ");
+        row.put("scop", op + " ");
+        row.put("scunum", unum);
+        row.put("scs3num", 0);
+        row.put("sctnum", 0);
+        journal.add(row);
+    }
+
+    /**
+     * Simule la requête de lecture du journal : seules les lignes après le
+     * numéro passé en paramètre sont lues, dans la limite du nombre maximum de
+     * lignes.
+     */
+    private PreparedStatement newPreparedStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                List<HashMap<String, Object>> rows;
+
+                switch (method.getName()) {
+                    case "setLong":
+                        minKey = (Long) args[1];
+                        return null;
+                    case "setMaxRows":
+                        maxRows = (Integer) args[0];
+                        return null;
+                    case "clearParameters":
+                        return null;
+                    case "executeQuery":
+                        rows = new ArrayList<>();
+                        for (HashMap<String, Object> row : journal) {
+                            if ((Long) row.get("scnum") > minKey && (maxRows == 0 || rows.size() < maxRows)) {
+                                rows.add(row);
+                            }
+                        }
+                        return newResultSet(rows);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Simule le résultat de la requête de lecture du journal.
+     */
+    private ResultSet newResultSet(final List<HashMap<String, Object>> rows) {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new InvocationHandler() {
+            private int index = -1;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "next":
+                        return ++index < rows.size();
+                    case "getLong":
+                    case "getInt":
+                    case "getString":
+                        return rows.get(index).get((String) args[0]);
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Simule une collection MongoDb qui conserve les lots reçus.
+     *
+     * @param batches lots reçus par la collection.
+     * @param patrimonies indique s'il s'agit de la collection des patrimoines,
+     * qui peut être mise en panne.
+     */
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Document> newCollection(final List<List<WriteModel<?>>> batches, final boolean patrimonies) {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                List<WriteModel<?>> requests;
+
+                if (!method.getName().equals("bulkWrite")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                if (patrimonies && patrimoniesDown) {
+                    throw new MongoException("serveur indisponible");
+                }
+                requests = new ArrayList<>((List<WriteModel<?>>) args[0]);
+                batches.add(requests);
+                return BulkWriteResult.acknowledged(0, requests.size(), 0, requests.size(),
+                        Collections.<BulkWriteUpsert>emptyList());
+            }
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package synccollections;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.UpdateOneModel;
+import java.io.File;
+import java.io.IOException;
+import org.bson.Document;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe CompanySyncTask.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class CompanySyncTaskTest {
+
+    /**
+     * Fichier du rapport des écarts.
+     */
+    private File file;
+
+    /**
+     * Rapport des écarts.
+     */
+    private DiscrepancyReport discrepancyReport;
+
+    /**
+     * Tâche testée.
+     */
+    private CompanySyncTask companySyncTask;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("CompanySyncTaskTest", ".txt");
+        discrepancyReport = new DiscrepancyReport(file.getPath());
+        companySyncTask = new CompanySyncTask(null, discrepancyReport, false);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        discrepancyReport.close();
+        file.delete();
+    }
+
+    /**
+     * Une société absente est signalée, sans écriture.
+     */
+    @Test
+    public void testMissingCompany() throws InterruptedException {
+        SyncCounters syncCounters;
+
+        syncCounters = new SyncCounters();
+        assertNull(companySyncTask.compare(Fixtures.furgent(100, "u100"), "uid100", null, syncCounters));
+        assertEquals(1, syncCounters.getNbCompaniesNotFound());
+        assertEquals(1, discrepancyReport.getNbMissing());
+    }
+
+    /**
+     * Seul le champ id est comparé : un libellé différent du nom du client ne
+     * donne pas lieu à une écriture, un id différent du numéro du client si.
+     */
+    @Test
+    public void testOnlyIdIsCompared() throws InterruptedException {
+        SyncCounters syncCounters;
+        UpdateOneModel<Document> update;
+
+        syncCounters = new SyncCounters();
+        assertNull(companySyncTask.compare(Fixtures.furgent(100, "u100"), "uid100",
+                new Document("uid", "uid100").append("label", "autre nom").append("id", 100), syncCounters));
+
+        update = (UpdateOneModel<Document>) companySyncTask.compare(Fixtures.furgent(100, "u100"), "uid100",
+                new Document("uid", "uid100").append("label", "client 100").append("id", 99), syncCounters);
+        assertEquals("uid100", ((BasicDBObject) update.getFilter()).getString("uid"));
+        assertEquals(100, ((BasicDBObject) ((BasicDBObject) update.getUpdate()).get("$set")).getInt("id"));
+        assertEquals(2, syncCounters.getNbCompaniesFound());
+        assertEquals(0, discrepancyReport.getNbMissing());
+    }
+}
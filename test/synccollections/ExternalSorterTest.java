@@ -0,0 +1,139 @@
+package synccollections;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests de la classe ExternalSorter.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class ExternalSorterTest {
+
+    /**
+     * Nombre d'enregistrements triés en mémoire bornée : plus de MAX_FANIN
+     * séries, pour passer par des fusions intermédiaires.
+     */
+    private static final int NB_RECORDS = 3 * ExternalSorter.MAX_FANIN + 7;
+
+    /**
+     * Si tout tient dans le budget, les enregistrements sont triés en mémoire
+     * sans fichier, clé absente en premier.
+     */
+    @Test
+    public void testInMemory() throws IOException {
+        ExternalSorter externalSorter;
+        ExternalSorter.Records records;
+
+        externalSorter = new ExternalSorter("test", 2, 1024 * 1024, newSpillPhase());
+        externalSorter.add("b", "2");
+        externalSorter.add(null, "0");
+        externalSorter.add("a", "1");
+        records = externalSorter.sort();
+        assertEquals("0", records.next()[1]);
+        assertEquals("1", records.next()[1]);
+        assertEquals("2", records.next()[1]);
+        assertNull(records.next());
+        assertEquals(0, externalSorter.getNbRuns());
+        externalSorter.close();
+    }
+
+    /**
+     * Avec un budget minimal, chaque enregistrement est écrit dans sa propre
+     * série ; la fusion, intermédiaire puis finale, restitue tous les
+     * enregistrements par clé croissante, champs absents compris, et close()
+     * supprime les fichiers temporaires.
+     */
+    @Test
+    public void testSpillAndMerge() throws IOException {
+        ExternalSorter externalSorter;
+        ExternalSorter.Records records;
+        ArrayList<String> keys;
+        String[] record;
+        String name;
+        Random random;
+        int i;
+
+        name = "ExternalSorterTest" + System.nanoTime();
+        externalSorter = new ExternalSorter(name, 3, 1, newSpillPhase());
+        keys = new ArrayList<>();
+        random = new Random(42);
+        for (i = 0; i < NB_RECORDS; i++) {
+            keys.add(String.format("%08x", random.nextInt()));
+            externalSorter.add(keys.get(i), i % 2 == 0 ? null : "v" + i, String.valueOf(i));
+        }
+        assertEquals(NB_RECORDS, externalSorter.getNbRuns());
+        assertTrue(countRuns(name) > 0);
+
+        records = externalSorter.sort();
+        assertTrue(externalSorter.getNbRuns() > NB_RECORDS);
+        Collections.sort(keys);
+        for (String key : keys) {
+            record = records.next();
+            assertEquals(key, record[0]);
+            i = Integer.parseInt(record[2]);
+            assertEquals(i % 2 == 0 ? null : "v" + i, record[1]);
+        }
+        assertNull(records.next());
+
+        externalSorter.close();
+        assertEquals(0, countRuns(name));
+    }
+
+    /**
+     * Un enregistrement mal formé ou ajouté après le tri est refusé.
+     */
+    @Test
+    public void testInvalidAdd() throws IOException {
+        ExternalSorter externalSorter;
+
+        externalSorter = new ExternalSorter("test", 2, 1024, newSpillPhase());
+        try {
+            externalSorter.add("a");
+            fail("enregistrement d'un seul champ accepté");
+        } catch (IllegalArgumentException exception) {
+        }
+        externalSorter.sort();
+        try {
+            externalSorter.add("a", "1");
+            fail("enregistrement accepté après le tri");
+        } catch (IllegalStateException exception) {
+        }
+        externalSorter.close();
+    }
+
+    /**
+     * @return une mesure de la durée des écritures de séries.
+     */
+    private static SyncMetrics.Phase newSpillPhase() {
+        return new SyncMetrics("test").getPhase(SyncMetrics.SORT_SPILL);
+    }
+
+    /**
+     * Compte les séries d'un tri présentes dans le répertoire temporaire.
+     */
+    private static int countRuns(String name) {
+        File[] files;
+        int count;
+
+        count = 0;
+        files = new File(System.getProperty("java.io.tmpdir")).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith("SyncCollections." + name + ".")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
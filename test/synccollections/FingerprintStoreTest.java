@@ -0,0 +1,70 @@
+package synccollections;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ * Tests de la classe FingerprintStore.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class FingerprintStoreTest {
+
+    /**
+     * L'empreinte porte sur les valeurs brutes : casse, espaces et valeur
+     * absente la changent.
+     */
+    @Test
+    public void testFingerprintIsRaw() {
+        long fingerprint;
+
+        fingerprint = FingerprintStore.fingerprint("A1", "1 rue Haute 75001 Paris");
+        assertEquals(fingerprint, FingerprintStore.fingerprint("A1", "1 rue Haute 75001 Paris"));
+        assertNotEquals(fingerprint, FingerprintStore.fingerprint("A1", "1 RUE HAUTE 75001 PARIS"));
+        assertNotEquals(fingerprint, FingerprintStore.fingerprint("A1", "1 rue  Haute 75001 Paris"));
+        assertNotEquals(fingerprint, FingerprintStore.fingerprint("A1", " 1 rue Haute 75001 Paris"));
+        assertNotEquals(FingerprintStore.fingerprint("A1", null), FingerprintStore.fingerprint("A1", ""));
+        assertNotEquals(FingerprintStore.fingerprint("A", "1"), FingerprintStore.fingerprint("A1", ""));
+    }
+
+    /**
+     * Les empreintes sont relues à la réouverture du fichier ; un fichier
+     * d'empreintes normalisées de la version précédente est vidé.
+     */
+    @Test
+    public void testReopen() throws IOException {
+        FingerprintStore fingerprintStore;
+        RandomAccessFile randomAccessFile;
+        File file;
+        String uid;
+
+        file = File.createTempFile("FingerprintStoreTest", ".fingerprints");
+        file.delete();
+        uid = AggregateUidEncoder.encodePatrimony(100, "A1");
+        try {
+            fingerprintStore = new FingerprintStore(file.getPath());
+            fingerprintStore.put(uid, 42);
+            fingerprintStore.close();
+
+            fingerprintStore = new FingerprintStore(file.getPath());
+            assertEquals(42, fingerprintStore.get(uid));
+            assertEquals(1, fingerprintStore.size());
+            fingerprintStore.close();
+
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.writeLong(0x5379634650763031L);
+            randomAccessFile.close();
+            fingerprintStore = new FingerprintStore(file.getPath());
+            assertEquals(0, fingerprintStore.size());
+            assertEquals(0, fingerprintStore.get(uid));
+            fingerprintStore.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
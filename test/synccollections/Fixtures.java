@@ -0,0 +1,108 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Furgent;
+import bkgpi2a.Patrimony;
+
+/**
+ * Sites, clients et patrimoines fabriqués pour les tests, sans base Informix
+ * ni base MongoDb.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class Fixtures {
+
+    /**
+     * Fabrique un site Informix.
+     *
+     * @param s3num numéro du site.
+     * @param s3number2 référence du site.
+     * @param s3address adresse du site.
+     * @param s3poscode code postal du site.
+     * @param s3city ville du site.
+     * @return le site.
+     */
+    public static Fsite fsite(final int s3num, final String s3number2, final String s3address,
+            final String s3poscode, final String s3city) {
+        return new Fsite() {
+            @Override
+            public int getS3num() {
+                return s3num;
+            }
+
+            @Override
+            public String getS3number2() {
+                return s3number2;
+            }
+
+            @Override
+            public String getS3address() {
+                return s3address;
+            }
+
+            @Override
+            public String getS3poscode() {
+                return s3poscode;
+            }
+
+            @Override
+            public String getS3city() {
+                return s3city;
+            }
+        };
+    }
+
+    /**
+     * Fabrique un client Informix.
+     *
+     * @param unum numéro du client.
+     * @param uuid identifiant du client.
+     * @return le client.
+     */
+    public static Furgent furgent(final int unum, final String uuid) {
+        return new Furgent() {
+            @Override
+            public int getUnum() {
+                return unum;
+            }
+
+            @Override
+            public String getUuid() {
+                return uuid;
+            }
+
+            @Override
+            public String getUname() {
+                return "client " + unum;
+            }
+        };
+    }
+
+    /**
+     * Fabrique un patrimoine MongoDb.
+     *
+     * @param uid identifiant agrégé du patrimoine.
+     * @param ref référence du patrimoine.
+     * @param label libellé du patrimoine.
+     * @return le patrimoine.
+     */
+    public static Patrimony patrimony(final String uid, final String ref, final String label) {
+        return new Patrimony() {
+            @Override
+            public String getUid() {
+                return uid;
+            }
+
+            @Override
+            public String getRef() {
+                return ref;
+            }
+
+            @Override
+            public String getLabel() {
+                return label;
+            }
+        };
+    }
+}
@@ -0,0 +1,226 @@
+package synccollections;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe MongoBulkWriter, avec une collection simulée en mémoire.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class MongoBulkWriterTest {
+
+    /**
+     * Identifiant d'un document refusé par le serveur : seule son écriture
+     * est en erreur, le reste du lot est écrit.
+     */
+    private static final String REFUSED = "refusé";
+
+    /**
+     * Identifiant d'un document dont le lot n'atteint pas le serveur.
+     */
+    private static final String UNREACHABLE = "injoignable";
+
+    /**
+     * Documents de la collection simulée : valeur du champ id par uid.
+     */
+    private Map<String, Object> documents;
+
+    /**
+     * Lots reçus par la collection simulée, dans l'ordre.
+     */
+    private List<List<WriteModel<Document>>> batches;
+
+    @Before
+    public void setUp() {
+        documents = new HashMap<>();
+        batches = new ArrayList<>();
+    }
+
+    /**
+     * Les documents sélectionnés, modifiés et créés sont cumulés lot par lot,
+     * le dernier lot incomplet étant envoyé par flush().
+     */
+    @Test
+    public void testCounts() {
+        MongoBulkWriter mongoBulkWriter;
+
+        documents.put("a", 1);
+        documents.put("b", 2);
+        mongoBulkWriter = new MongoBulkWriter(newCollection(), 3);
+        mongoBulkWriter.add(update("a", 1, true));
+        mongoBulkWriter.add(update("b", 3, true));
+        mongoBulkWriter.add(update("c", 4, true));
+        assertEquals(1, batches.size());
+        mongoBulkWriter.add(update("d", 5, false));
+        mongoBulkWriter.add(update("e", 6, true));
+        mongoBulkWriter.flush();
+        mongoBulkWriter.flush();
+
+        assertEquals(2, batches.size());
+        assertEquals(5, mongoBulkWriter.getNbRequests());
+        assertEquals(2, mongoBulkWriter.getNbBatches());
+        assertEquals(2, mongoBulkWriter.getNbMatched());
+        assertEquals(1, mongoBulkWriter.getNbModified());
+        assertEquals(2, mongoBulkWriter.getNbUpserted());
+        assertEquals(0, mongoBulkWriter.getNbFailedBatches());
+        assertEquals(0, mongoBulkWriter.getNbErrors());
+        assertEquals(3, documents.get("b"));
+        assertEquals(6, documents.get("e"));
+        assertTrue(!documents.containsKey("d"));
+    }
+
+    /**
+     * Un lot qui n'atteint pas le serveur et un lot dont une écriture est
+     * refusée sont comptés en erreur sans interrompre le traitement : les
+     * lots suivants sont envoyés, le résultat partiel du lot refusé est
+     * cumulé et chaque échec réduit la régulation des requêtes.
+     */
+    @Test
+    public void testFailedBatchesDoNotAbort() throws InterruptedException {
+        MongoBulkWriter mongoBulkWriter;
+        AdaptiveThrottle mongoThrottle;
+
+        mongoThrottle = new AdaptiveThrottle("test", 8, 0, 0);
+        Thread.sleep(1);
+        mongoBulkWriter = new MongoBulkWriter(newCollection(), 2, false, null, mongoThrottle);
+        mongoBulkWriter.add(update("a", 1, true));
+        mongoBulkWriter.add(update("b", 2, true));
+        mongoBulkWriter.add(update(UNREACHABLE, 3, true));
+        mongoBulkWriter.add(update("c", 4, true));
+        mongoBulkWriter.add(update("d", 5, true));
+        mongoBulkWriter.add(update(REFUSED, 6, true));
+        mongoBulkWriter.add(update("e", 7, true));
+        mongoBulkWriter.flush();
+
+        assertEquals(4, batches.size());
+        assertEquals(7, mongoBulkWriter.getNbRequests());
+        assertEquals(4, mongoBulkWriter.getNbBatches());
+        assertEquals(2, mongoBulkWriter.getNbFailedBatches());
+        assertEquals(3, mongoBulkWriter.getNbErrors());
+        assertEquals(4, mongoBulkWriter.getNbUpserted());
+        assertTrue(documents.containsKey("d"));
+        assertTrue(documents.containsKey("e"));
+        assertTrue(!documents.containsKey("c"));
+        assertEquals(4, mongoThrottle.getNbOps());
+        assertEquals(2, mongoThrottle.getNbErrors());
+        assertEquals(2, mongoThrottle.getNbBackoffs());
+        assertEquals(2, mongoThrottle.getLimit());
+    }
+
+    /**
+     * En mode test, les lots sont constitués et comptés sans être envoyés.
+     */
+    @Test
+    public void testDryRun() {
+        MongoBulkWriter mongoBulkWriter;
+        int i;
+
+        mongoBulkWriter = new MongoBulkWriter(newCollection(), 2, true, null);
+        for (i = 0; i < 5; i++) {
+            mongoBulkWriter.add(update("u" + i, i, true));
+        }
+        mongoBulkWriter.flush();
+        assertTrue(mongoBulkWriter.isDryRun());
+        assertEquals(5, mongoBulkWriter.getNbRequests());
+        assertEquals(3, mongoBulkWriter.getNbBatches());
+        assertEquals(0, batches.size());
+        assertEquals(0, documents.size());
+    }
+
+    /**
+     * Construit la mise à jour du champ id du document d'uid donné.
+     */
+    private static UpdateOneModel<Document> update(String uid, int id, boolean upsert) {
+        return new UpdateOneModel<>(new BasicDBObject("uid", uid),
+                new BasicDBObject("$set", new BasicDBObject("id", id)),
+                new UpdateOptions().upsert(upsert));
+    }
+
+    /**
+     * Simule une collection dont bulkWrite() applique les mises à jour aux
+     * documents en mémoire, comme un lot non ordonné : un lot contenant
+     * UNREACHABLE n'est pas écrit, une écriture sur REFUSED est en erreur
+     * sans empêcher les autres.
+     */
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Document> newCollection() {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                List<WriteModel<Document>> requests;
+                List<BulkWriteUpsert> upserts;
+                List<BulkWriteError> errors;
+                UpdateOneModel<Document> request;
+                BulkWriteResult bulkWriteResult;
+                String uid;
+                Object id;
+                int matched;
+                int modified;
+                int i;
+
+                if (!method.getName().equals("bulkWrite")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                requests = new ArrayList<>((List<WriteModel<Document>>) args[0]);
+                batches.add(requests);
+                for (WriteModel<Document> writeModel : requests) {
+                    if (UNREACHABLE.equals(((BasicDBObject) ((UpdateOneModel<Document>) writeModel).getFilter())
+                            .getString("uid"))) {
+                        throw new MongoException("serveur indisponible");
+                    }
+                }
+                upserts = new ArrayList<>();
+                errors = new ArrayList<>();
+                matched = 0;
+                modified = 0;
+                for (i = 0; i < requests.size(); i++) {
+                    request = (UpdateOneModel<Document>) requests.get(i);
+                    uid = ((BasicDBObject) request.getFilter()).getString("uid");
+                    id = ((BasicDBObject) ((BasicDBObject) request.getUpdate()).get("$set")).get("id");
+                    if (REFUSED.equals(uid)) {
+                        errors.add(new BulkWriteError(11000, "écriture refusée", new BsonDocument(), i));
+                    } else if (documents.containsKey(uid)) {
+                        matched++;
+                        if (!id.equals(documents.put(uid, id))) {
+                            modified++;
+                        }
+                    } else if (request.getOptions().isUpsert()) {
+                        documents.put(uid, id);
+                        upserts.add(new BulkWriteUpsert(i, new BsonString(uid)));
+                    }
+                }
+                bulkWriteResult = BulkWriteResult.acknowledged(0, matched, 0, modified, upserts);
+                if (!errors.isEmpty()) {
+                    throw new MongoBulkWriteException(bulkWriteResult, errors, null, new ServerAddress());
+                }
+                return bulkWriteResult;
+            }
+        });
+    }
+}
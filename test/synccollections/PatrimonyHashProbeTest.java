@@ -0,0 +1,129 @@
+package synccollections;
+
+import bdd.Fsite;
+import bdd.Furgent;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe PatrimonyHashProbe.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonyHashProbeTest {
+
+    /**
+     * Numéro du client de test.
+     */
+    private static final int UNUM = 4956;
+
+    /**
+     * Fichier des écarts.
+     */
+    private File reportFile;
+
+    /**
+     * Rapport des écarts.
+     */
+    private DiscrepancyReport discrepancyReport;
+
+    @Before
+    public void setUp() throws IOException {
+        reportFile = File.createTempFile("PatrimonyHashProbeTest", ".json");
+        discrepancyReport = new DiscrepancyReport(reportFile.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        discrepancyReport.close();
+        reportFile.delete();
+    }
+
+    /**
+     * Les sites dont le patrimoine existe sont trouvés, les autres sont
+     * enregistrés comme absents et les patrimoines sans site restent non
+     * rapprochés.
+     */
+    @Test
+    public void testMatch() throws IOException, InterruptedException {
+        UidSet uidSet;
+        PatrimonyHashProbe patrimonyHashProbe;
+        SyncCounters syncCounters;
+        Furgent furgent;
+        Fsite fsite;
+        List<String> lines;
+        int i;
+
+        uidSet = new UidSet(10);
+        for (i = 0; i < 10; i++) {
+            uidSet.add(AggregateUidEncoder.encodePatrimony(UNUM, "A" + i));
+        }
+        uidSet.add("legacy-1");
+        furgent = Fixtures.furgent(UNUM, "client-uuid");
+        syncCounters = new SyncCounters();
+        patrimonyHashProbe = new PatrimonyHashProbe(uidSet, furgent, new PrintStream(new NullOutputStream()), true,
+                discrepancyReport, syncCounters, null);
+        for (i = 0; i < 8; i++) {
+            fsite = Fixtures.fsite(i, "A" + i, "rue " + i, "75001", "Paris");
+            patrimonyHashProbe.add(fsite, SyncSnapshot.getAggregateUid(UNUM, fsite));
+        }
+        fsite = Fixtures.fsite(100, "B1", "rue 100", "75001", "Paris");
+        patrimonyHashProbe.add(fsite, SyncSnapshot.getAggregateUid(UNUM, fsite));
+        patrimonyHashProbe.add(Fixtures.fsite(101, "L1", "", "", ""), "legacy-1");
+        patrimonyHashProbe.flush();
+
+        assertEquals(10, patrimonyHashProbe.getNbSite());
+        assertEquals(9, patrimonyHashProbe.getNbPatrimoniesFound());
+        assertEquals(1, patrimonyHashProbe.getNbPatrimoniesNotFound());
+        assertEquals(0, patrimonyHashProbe.getNbPatrimoniesDrifted());
+        assertEquals(2, uidSet.getUnmatched().size());
+
+        discrepancyReport.close();
+        assertEquals(1, discrepancyReport.getNbMissing());
+        lines = Files.readAllLines(reportFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains(AggregateUidEncoder.encodePatrimony(UNUM, "B1")));
+    }
+
+    /**
+     * Un identifiant en majuscules n'est pas rapproché d'un patrimoine en
+     * minuscules, comme avec la recherche par lots.
+     */
+    @Test
+    public void testUpperCaseUid() throws InterruptedException {
+        UidSet uidSet;
+        PatrimonyHashProbe patrimonyHashProbe;
+        String aggregateUid;
+
+        aggregateUid = AggregateUidEncoder.encodePatrimony(UNUM, "A1");
+        uidSet = new UidSet(1);
+        uidSet.add(aggregateUid);
+        patrimonyHashProbe = new PatrimonyHashProbe(uidSet, Fixtures.furgent(UNUM, "client-uuid"),
+                new PrintStream(new NullOutputStream()), false, discrepancyReport, new SyncCounters(), null);
+        patrimonyHashProbe.add(Fixtures.fsite(1, "A1", "", "", ""), aggregateUid.toUpperCase());
+        patrimonyHashProbe.add(Fixtures.fsite(1, "A1", "", "", ""), aggregateUid);
+        assertEquals(1, patrimonyHashProbe.getNbPatrimoniesFound());
+        assertEquals(1, patrimonyHashProbe.getNbPatrimoniesNotFound());
+    }
+
+    /**
+     * Sortie qui ignore tout ce qu'on y écrit.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+    }
+}
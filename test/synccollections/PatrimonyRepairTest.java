@@ -0,0 +1,57 @@
+package synccollections;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.UpdateOneModel;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests de la classe PatrimonyRepair.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonyRepairTest {
+
+    /**
+     * L'upsert reprend la référence et le libellé du site et, à la création,
+     * les champs des patrimoines existants : société, adresse, étiquettes et
+     * date de création.
+     */
+    @Test
+    public void testNewUpsert() {
+        UpdateOneModel<Document> upsert;
+        BasicDBObject update;
+        BasicDBObject set;
+        BasicDBObject setOnInsert;
+        BasicDBObject address;
+        String aggregateUid;
+
+        aggregateUid = AggregateUidEncoder.encodePatrimony(4956, "A001");
+        upsert = PatrimonyRepair.newUpsert(4956,
+                Fixtures.fsite(1, "A001", "12 rue de la Paix", "75002", "Paris"), aggregateUid);
+        assertTrue(upsert.getOptions().isUpsert());
+        assertEquals(aggregateUid, ((BasicDBObject) upsert.getFilter()).getString("uid"));
+
+        update = (BasicDBObject) upsert.getUpdate();
+        set = (BasicDBObject) update.get("$set");
+        assertEquals("A001", set.getString("ref"));
+        assertEquals("12 rue de la Paix 75002 Paris", set.getString("label"));
+
+        setOnInsert = (BasicDBObject) update.get("$setOnInsert");
+        assertEquals(AggregateUidEncoder.encodeCompany(4956), setOnInsert.getString("companyUid"));
+        address = (BasicDBObject) setOnInsert.get("address");
+        assertEquals("12 rue de la Paix", address.getString("street"));
+        assertEquals("75002", address.getString("zipCode"));
+        assertEquals("Paris", address.getString("city"));
+        assertTrue(((List<?>) setOnInsert.get("tags")).isEmpty());
+        assertTrue(setOnInsert.get("creationDate") instanceof Date);
+        for (String field : set.keySet()) {
+            assertTrue(field, !setOnInsert.containsField(field));
+        }
+    }
+}
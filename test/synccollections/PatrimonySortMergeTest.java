@@ -0,0 +1,202 @@
+package synccollections;
+
+import bdd.Furgent;
+import bkgpi2a.Patrimony;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe PatrimonySortMerge, avec une collection des patrimoines
+ * simulée en mémoire.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class PatrimonySortMergeTest {
+
+    /**
+     * Fichier du rapport des écarts.
+     */
+    private File file;
+
+    /**
+     * Rapport des écarts.
+     */
+    private DiscrepancyReport discrepancyReport;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("PatrimonySortMergeTest", ".txt");
+        discrepancyReport = new DiscrepancyReport(file.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        discrepancyReport.close();
+        file.delete();
+    }
+
+    /**
+     * Fusion en mémoire : un site trouvé, un absent, un modifié (par la
+     * casse seule) et un patrimoine orphelin, un identifiant en double
+     * n'étant rapproché qu'une fois.
+     */
+    @Test
+    public void testMergeInMemory() throws Exception {
+        merge(64 * 1024 * 1024, true);
+        assertEquals(1, discrepancyReport.getNbOrphaned());
+    }
+
+    /**
+     * Même fusion avec un budget minimal : les deux tris passent par des
+     * séries sur disque.
+     */
+    @Test
+    public void testMergeSpilled() throws Exception {
+        merge(1, true);
+        assertEquals(1, discrepancyReport.getNbOrphaned());
+    }
+
+    /**
+     * Si les sites de tous les clients n'ont pas été déposés, les patrimoines
+     * sans site ne sont pas signalés.
+     */
+    @Test
+    public void testMergeWithoutOrphans() throws Exception {
+        merge(64 * 1024 * 1024, false);
+        assertEquals(0, discrepancyReport.getNbOrphaned());
+    }
+
+    /**
+     * Dépose les sites d'un client et les patrimoines, fusionne et vérifie
+     * le bilan du client.
+     */
+    private void merge(long memoryBudget, boolean orphans) throws Exception {
+        PatrimonySortMerge patrimonySortMerge;
+        PatrimonyMatcher matcher;
+        ClientSyncResult clientSyncResult;
+        SyncCounters syncCounters;
+        Furgent furgent;
+        String found;
+        String missing;
+        String drifted;
+
+        furgent = Fixtures.furgent(100, "u100");
+        found = AggregateUidEncoder.encodePatrimony(100, "A1");
+        missing = AggregateUidEncoder.encodePatrimony(100, "A2");
+        drifted = AggregateUidEncoder.encodePatrimony(100, "A3");
+        patrimonySortMerge = new PatrimonySortMerge(memoryBudget, SyncPartition.ALL, discrepancyReport, null,
+                new SyncMetrics("patrimonies"), false);
+        try {
+            patrimonySortMerge.loadPatrimonies(newCollection(Arrays.asList(
+                    Fixtures.patrimony(drifted, "A3", "3 RUE NEUVE 75001 PARIS"),
+                    Fixtures.patrimony(found, "A1", "1 rue Haute 75001 Paris"),
+                    Fixtures.patrimony(AggregateUidEncoder.encodePatrimony(100, "A4"), "A4", "4 rue Neuve 75001 Paris"),
+                    Fixtures.patrimony(found, "A1", "1 rue Haute 75001 Paris"))));
+
+            syncCounters = new SyncCounters();
+            clientSyncResult = new ClientSyncResult(furgent);
+            matcher = patrimonySortMerge.getMatcher(furgent, new PrintStream(new NullOutputStream()), syncCounters,
+                    clientSyncResult);
+            matcher.add(Fixtures.fsite(1, "A1", "1 rue Haute", "75001", "Paris"), found);
+            matcher.add(Fixtures.fsite(2, "A2", "2 rue Basse", "75001", "Paris"), missing);
+            matcher.add(Fixtures.fsite(3, "A3", "3 rue Neuve", "75001", "Paris"), drifted);
+            matcher.flush();
+            assertEquals(3, matcher.getNbSite());
+
+            patrimonySortMerge.merge(orphans);
+            assertEquals(2, clientSyncResult.getNbPatrimoniesFound());
+            assertEquals(1, clientSyncResult.getNbPatrimoniesNotFound());
+            assertEquals(1, clientSyncResult.getNbPatrimoniesDrifted());
+            assertEquals(2, syncCounters.getNbPatrimoniesFound());
+            assertEquals(1, syncCounters.getNbPatrimoniesNotFound());
+            assertEquals(1, syncCounters.getNbPatrimoniesDrifted());
+            assertEquals(1, discrepancyReport.getNbMissing());
+            assertEquals(1, discrepancyReport.getNbDrifted());
+            assertEquals(orphans ? 1 : 0, patrimonySortMerge.getNbOrphaned());
+        } finally {
+            patrimonySortMerge.close();
+        }
+    }
+
+    /**
+     * Simule une collection des patrimoines dont find() parcourt une liste.
+     */
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Patrimony> newCollection(final List<Patrimony> documents) {
+        final FindIterable<Patrimony> findIterable;
+
+        findIterable = (FindIterable<Patrimony>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{FindIterable.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "projection":
+                        return proxy;
+                    case "iterator":
+                        return newCursor(documents.iterator());
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+        return (MongoCollection<Patrimony>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("find") && (args == null || args.length == 0)) {
+                    return findIterable;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Simule un curseur MongoDb sur une liste.
+     */
+    @SuppressWarnings("unchecked")
+    private MongoCursor<Patrimony> newCursor(final Iterator<Patrimony> iterator) {
+        return (MongoCursor<Patrimony>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCursor.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "hasNext":
+                        return iterator.hasNext();
+                    case "next":
+                        return iterator.next();
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Sortie qui ignore tout ce qui y est écrit.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+    }
+}
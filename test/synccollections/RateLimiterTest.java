@@ -0,0 +1,103 @@
+package synccollections;
+
+import java.sql.SQLException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests de la classe RateLimiter.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class RateLimiterTest {
+
+    /**
+     * Sans plafond, la source de lignes n'est pas enveloppée.
+     */
+    @Test
+    public void testNoLimit() {
+        RateLimiter rateLimiter;
+        RowSource<String> rowSource;
+
+        rateLimiter = new RateLimiter("test", 0);
+        rowSource = newRowSource(1);
+        assertSame(rowSource, rateLimiter.limit(rowSource));
+    }
+
+    /**
+     * Le plafond espace régulièrement les lignes lues, fin de lecture
+     * comprise.
+     */
+    @Test
+    public void testRowsPerSecond() throws SQLException, InterruptedException {
+        RateLimiter rateLimiter;
+        RowSource<String> rowSource;
+        long start;
+        int i;
+
+        rateLimiter = new RateLimiter("test", 100);
+        rowSource = rateLimiter.limit(newRowSource(10));
+        start = System.nanoTime();
+        for (i = 1; i <= 10; i++) {
+            assertEquals("ligne " + i, rowSource.next());
+        }
+        assertNull(rowSource.next());
+        assertTrue((System.nanoTime() - start) / 1000000 >= 95);
+    }
+
+    /**
+     * Les tâches se partagent le plafond : deux tâches ne lisent pas plus
+     * vite qu'une seule.
+     */
+    @Test
+    public void testSharedByThreads() throws InterruptedException {
+        final RateLimiter rateLimiter;
+        Thread[] threads;
+        long start;
+        int i;
+
+        rateLimiter = new RateLimiter("test", 200);
+        threads = new Thread[2];
+        start = System.nanoTime();
+        for (i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int j;
+
+                    try {
+                        for (j = 0; j < 11; j++) {
+                            rateLimiter.acquire();
+                        }
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "RateLimiterTest");
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue((System.nanoTime() - start) / 1000000 >= 100);
+    }
+
+    /**
+     * @return une source de nbRows lignes.
+     */
+    private static RowSource<String> newRowSource(final int nbRows) {
+        return new RowSource<String>() {
+            private int i = 0;
+
+            @Override
+            public String next() {
+                i++;
+                return i <= nbRows ? "ligne " + i : null;
+            }
+        };
+    }
+}
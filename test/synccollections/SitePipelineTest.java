@@ -0,0 +1,145 @@
+package synccollections;
+
+import bdd.Fsite;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe SitePipeline.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SitePipelineTest {
+
+    /**
+     * Nombre de sites lus, supérieur à la capacité de la file.
+     */
+    private static final int NB_SITES = 4 * SitePipeline.MIN_CAPACITY;
+
+    /**
+     * Groupe de tâches exécutant le rapprochement.
+     */
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tous les sites lus sont rapprochés.
+     */
+    @Test(timeout = 10000)
+    public void testMatchAll() throws IOException, InterruptedException {
+        CountingMatcher matcher;
+        SitePipeline sitePipeline;
+        int i;
+
+        matcher = new CountingMatcher(-1);
+        sitePipeline = new SitePipeline(matcher, 4956, SyncPartition.ALL, 0, executor, new SyncMetrics("patrimonies"));
+        for (i = 0; i < NB_SITES; i++) {
+            sitePipeline.put(Fixtures.fsite(i, "A" + i, "", "", ""));
+        }
+        sitePipeline.finish();
+        assertEquals(NB_SITES, matcher.getNbSite());
+        assertTrue(matcher.flushed);
+    }
+
+    /**
+     * Si le rapprochement est interrompu, la file continue d'être vidée : la
+     * lecture n'est pas bloquée et l'interruption est signalée à la fin.
+     */
+    @Test(timeout = 10000)
+    public void testInterruptedMatcher() throws InterruptedException {
+        CountingMatcher matcher;
+        SitePipeline sitePipeline;
+        int i;
+
+        matcher = new CountingMatcher(10);
+        sitePipeline = new SitePipeline(matcher, 4956, SyncPartition.ALL, 0, executor, new SyncMetrics("patrimonies"));
+        for (i = 0; i < NB_SITES; i++) {
+            sitePipeline.put(Fixtures.fsite(i, "A" + i, "", "", ""));
+        }
+        try {
+            sitePipeline.finish();
+            fail("interruption non signalée");
+        } catch (IOException exception) {
+            assertTrue(exception.getCause() instanceof InterruptedException);
+        }
+        assertEquals(10, matcher.getNbSite());
+        assertFalse(matcher.flushed);
+    }
+
+    /**
+     * Stratégie de rapprochement qui compte les sites et peut simuler une
+     * interruption.
+     */
+    private static class CountingMatcher implements PatrimonyMatcher {
+
+        /**
+         * Nombre de sites acceptés avant l'interruption, -1 si aucune.
+         */
+        private final int interruptAfter;
+
+        /**
+         * Nombre de sites traités.
+         */
+        private int nbSite = 0;
+
+        /**
+         * Indique si flush() a été appelé.
+         */
+        private volatile boolean flushed = false;
+
+        private CountingMatcher(int interruptAfter) {
+            this.interruptAfter = interruptAfter;
+        }
+
+        @Override
+        public void add(Fsite fsite, String aggregateUid) throws InterruptedException {
+            if (nbSite == interruptAfter) {
+                throw new InterruptedException();
+            }
+            nbSite++;
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public int getNbSite() {
+            return nbSite;
+        }
+
+        @Override
+        public int getNbPatrimoniesFound() {
+            return nbSite;
+        }
+
+        @Override
+        public int getNbPatrimoniesNotFound() {
+            return 0;
+        }
+
+        @Override
+        public int getNbPatrimoniesDrifted() {
+            return 0;
+        }
+    }
+}
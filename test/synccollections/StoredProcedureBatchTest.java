@@ -0,0 +1,261 @@
+package synccollections;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe StoredProcedureBatch, avec une connexion et une requête
+ * préparée simulées en mémoire.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class StoredProcedureBatchTest {
+
+    /**
+     * Paramètre d'un appel refusé par la base.
+     */
+    private static final String REFUSED = "refusé";
+
+    /**
+     * Mode de validation de la connexion.
+     */
+    private boolean autoCommit;
+
+    /**
+     * Nombre de validations.
+     */
+    private int nbCommits;
+
+    /**
+     * Nombre d'annulations.
+     */
+    private int nbRollbacks;
+
+    /**
+     * Nombre d'envois groupés.
+     */
+    private int nbExecuteBatches;
+
+    /**
+     * Premiers paramètres des appels exécutés un par un, dans l'ordre.
+     */
+    private List<Object> executed;
+
+    @Before
+    public void setUp() {
+        autoCommit = true;
+        nbCommits = 0;
+        nbRollbacks = 0;
+        nbExecuteBatches = 0;
+        executed = new ArrayList<>();
+    }
+
+    /**
+     * En mode test, les lots sont constitués et comptés sans accès à la base.
+     */
+    @Test
+    public void testDryRun() throws SQLException {
+        StoredProcedureBatch storedProcedureBatch;
+        int i;
+
+        storedProcedureBatch = new StoredProcedureBatch(newConnection(), null, "{call addMessage(?, ?)}", 2, false, true);
+        for (i = 0; i < 5; i++) {
+            storedProcedureBatch.add(i, "message " + i);
+        }
+        storedProcedureBatch.close();
+        assertTrue(storedProcedureBatch.isDryRun());
+        assertEquals(5, storedProcedureBatch.getNbCalls());
+        assertEquals(3, storedProcedureBatch.getNbBatches());
+        assertEquals(0, storedProcedureBatch.getNbFailed());
+        assertEquals(0, nbCommits + nbRollbacks + nbExecuteBatches);
+    }
+
+    /**
+     * Un lot envoyé en une fois est validé ; un lot refusé en bloc est annulé
+     * puis rejoué appel par appel, seul l'appel refusé étant en échec, et le
+     * mode de validation de la connexion est rétabli.
+     */
+    @Test
+    public void testRollbackAndReplay() throws SQLException {
+        StoredProcedureBatch storedProcedureBatch;
+
+        storedProcedureBatch = new StoredProcedureBatch(newConnection(), newPreparedStatement(),
+                "{call addMessage(?, ?)}", 3, false, false);
+        storedProcedureBatch.add(1, "message 1");
+        storedProcedureBatch.add(2, "message 2");
+        storedProcedureBatch.add(3, "message 3");
+        assertEquals(1, nbCommits);
+        assertEquals(0, nbRollbacks);
+
+        storedProcedureBatch.add(4, "message 4");
+        storedProcedureBatch.add(5, REFUSED);
+        storedProcedureBatch.add(6, "message 6");
+        storedProcedureBatch.close();
+        assertEquals(2, nbExecuteBatches);
+        assertEquals(1, nbRollbacks);
+        assertEquals(2, nbCommits);
+        assertEquals(1, storedProcedureBatch.getNbReplayedBatches());
+        assertEquals(4, executed.get(0));
+        assertEquals(3, executed.size());
+        assertEquals(1, storedProcedureBatch.getNbFailed());
+        assertEquals(5, storedProcedureBatch.getFailures().get(0).getIndex());
+        assertEquals(2, storedProcedureBatch.getNbBatches());
+        assertTrue(autoCommit);
+    }
+
+    /**
+     * Si la procédure retourne un code, les appels sont exécutés un par un
+     * dans la même transaction et un code négatif est un échec.
+     */
+    @Test
+    public void testReturningCodes() throws SQLException {
+        StoredProcedureBatch storedProcedureBatch;
+        StoredProcedureBatch.CallResult callResult;
+
+        storedProcedureBatch = new StoredProcedureBatch(newConnection(), newPreparedStatement(),
+                "{call addMessage(?, ?)}", 10, true, false);
+        storedProcedureBatch.add(1, "message 1");
+        storedProcedureBatch.add(-2, "message 2");
+        storedProcedureBatch.close();
+        assertEquals(0, nbExecuteBatches);
+        assertEquals(1, nbCommits);
+        assertEquals(2, executed.size());
+        assertEquals(1, storedProcedureBatch.getNbFailed());
+        callResult = storedProcedureBatch.getFailures().get(0);
+        assertEquals(2, callResult.getIndex());
+        assertEquals(Integer.valueOf(-2), callResult.getRetcode());
+        assertEquals(Integer.valueOf(1), callResult.getNbtrials());
+    }
+
+    /**
+     * Simule une connexion qui compte les validations et les annulations.
+     */
+    private Connection newConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getAutoCommit":
+                        return autoCommit;
+                    case "setAutoCommit":
+                        autoCommit = (Boolean) args[0];
+                        return null;
+                    case "commit":
+                        nbCommits++;
+                        return null;
+                    case "rollback":
+                        nbRollbacks++;
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Simule l'appel préparé : un lot contenant le paramètre REFUSED est
+     * refusé en bloc, et l'appel lui-même l'est un par un ; un appel qui
+     * retourne un code retourne son premier paramètre et un essai.
+     */
+    private PreparedStatement newPreparedStatement() {
+        final Object[] parameters;
+        final List<Object[]> batch;
+
+        parameters = new Object[2];
+        batch = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                switch (method.getName()) {
+                    case "setObject":
+                        parameters[(Integer) args[0] - 1] = args[1];
+                        return null;
+                    case "clearParameters":
+                        return null;
+                    case "addBatch":
+                        batch.add(parameters.clone());
+                        return null;
+                    case "clearBatch":
+                        batch.clear();
+                        return null;
+                    case "executeBatch":
+                        nbExecuteBatches++;
+                        for (Object[] call : batch) {
+                            if (REFUSED.equals(call[1])) {
+                                throw new BatchUpdateException("lot refusé", new int[0]);
+                            }
+                        }
+                        batch.clear();
+                        return new int[]{1, 1, 1};
+                    case "execute":
+                        executed.add(parameters[0]);
+                        if (REFUSED.equals(parameters[1])) {
+                            throw new SQLException("appel refusé");
+                        }
+                        return false;
+                    case "executeQuery":
+                        executed.add(parameters[0]);
+                        return newResultSet((Integer) parameters[0]);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Simule le résultat d'un appel : une ligne (retcode, nbtrials).
+     */
+    private ResultSet newResultSet(final int retcode) {
+        final ResultSetMetaData resultSetMetaData;
+
+        resultSetMetaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getColumnCount")) {
+                    return 2;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new InvocationHandler() {
+            private boolean read = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "next":
+                        read = !read;
+                        return read;
+                    case "getInt":
+                        return (Integer) args[0] == 1 ? retcode : 1;
+                    case "getMetaData":
+                        return resultSetMetaData;
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,184 @@
+package synccollections;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe SyncCheckpoint.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncCheckpointTest {
+
+    /**
+     * Options de la synchronisation.
+     */
+    private static final String OPTIONS = "patrimonies:all strategy:lookup";
+
+    /**
+     * Fichier du point de reprise.
+     */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("SyncCheckpointTest", ".checkpoint");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * Sans fichier, il n'y a rien à reprendre.
+     */
+    @Test
+    public void testNoFile() throws IOException {
+        SyncCheckpoint syncCheckpoint;
+
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, 0);
+        assertFalse(syncCheckpoint.resume());
+        assertFalse(syncCheckpoint.isResumed());
+        assertEquals(0, syncCheckpoint.getLastKey());
+    }
+
+    /**
+     * Les bilans, dernières clés et compteurs des clients terminés sont relus
+     * à l'identique.
+     */
+    @Test
+    public void testClientsRoundTrip() throws IOException {
+        SyncCheckpoint syncCheckpoint;
+        ClientSyncResult clientSyncResult;
+        SyncCounters clientCounters;
+        ArrayList<ClientSyncResult> clientResults;
+        Map<Integer, Long> watermarks;
+
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, 0);
+        clientSyncResult = new ClientSyncResult(4956, "uuid-4956", "Client é");
+        clientSyncResult.setNbSite(10);
+        clientSyncResult.setNbSkipped(2);
+        clientSyncResult.setNbPatrimoniesFound(7);
+        clientSyncResult.setNbPatrimoniesNotFound(1);
+        clientSyncResult.setNbPatrimoniesDrifted(3);
+        clientSyncResult.setStatus("ok");
+        clientCounters = new SyncCounters();
+        clientCounters.addSite(true);
+        clientCounters.addSite(false);
+        syncCheckpoint.clientDone(clientSyncResult, clientCounters, 123456L);
+        clientSyncResult = new ClientSyncResult(-1, "uuid-1", null);
+        clientSyncResult.setStatus("erreur : connexion perdue");
+        syncCheckpoint.clientDone(clientSyncResult, clientCounters, 0L);
+        assertTrue(file.exists());
+
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, 0);
+        assertTrue(syncCheckpoint.resume());
+        assertTrue(syncCheckpoint.isResumed());
+        assertTrue(syncCheckpoint.isClientDone(4956));
+        assertTrue(syncCheckpoint.isClientDone(-1));
+        assertFalse(syncCheckpoint.isClientDone(1));
+        clientResults = syncCheckpoint.getClientResults();
+        assertEquals(2, clientResults.size());
+        clientSyncResult = clientResults.get(0).getUnum() == 4956 ? clientResults.get(0) : clientResults.get(1);
+        assertEquals("uuid-4956", clientSyncResult.getUuid());
+        assertEquals("Client é", clientSyncResult.getUname());
+        assertEquals(10, clientSyncResult.getNbSite());
+        assertEquals(2, clientSyncResult.getNbSkipped());
+        assertEquals(7, clientSyncResult.getNbPatrimoniesFound());
+        assertEquals(1, clientSyncResult.getNbPatrimoniesNotFound());
+        assertEquals(3, clientSyncResult.getNbPatrimoniesDrifted());
+        assertEquals("ok", clientSyncResult.getStatus());
+        clientSyncResult = clientResults.get(0).getUnum() == -1 ? clientResults.get(0) : clientResults.get(1);
+        assertNull(clientSyncResult.getUname());
+        assertEquals("erreur : connexion perdue", clientSyncResult.getStatus());
+        watermarks = syncCheckpoint.getWatermarks();
+        assertEquals(Long.valueOf(123456L), watermarks.get(4956));
+        assertEquals(Long.valueOf(0L), watermarks.get(-1));
+        for (Map.Entry<String, Long> entry : clientCounters.toMap().entrySet()) {
+            assertEquals(entry.getKey(), Long.valueOf(2 * entry.getValue()),
+                    syncCheckpoint.getResumedCounters().get(entry.getKey()));
+        }
+    }
+
+    /**
+     * La dernière clé et les compteurs d'une lecture dans l'ordre des clés
+     * sont relus à l'identique.
+     */
+    @Test
+    public void testLastKeyRoundTrip() throws IOException {
+        SyncCheckpoint syncCheckpoint;
+        SyncCounters syncCounters;
+
+        syncCounters = new SyncCounters();
+        syncCounters.addCompany(true);
+        syncCounters.addCompany(false);
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, SyncCheckpoint.DEFAULT_INTERVAL);
+        syncCheckpoint.setLastKey(Long.MAX_VALUE, syncCounters);
+
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, SyncCheckpoint.DEFAULT_INTERVAL);
+        assertTrue(syncCheckpoint.resume());
+        assertEquals(Long.MAX_VALUE, syncCheckpoint.getLastKey());
+        assertEquals(syncCounters.toMap(), syncCheckpoint.getResumedCounters());
+        assertTrue(syncCheckpoint.getClientResults().isEmpty());
+
+        syncCheckpoint.delete();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Le point de reprise d'une synchronisation aux options différentes est
+     * ignoré.
+     */
+    @Test
+    public void testOtherOptions() throws IOException {
+        SyncCheckpoint syncCheckpoint;
+
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, 0);
+        syncCheckpoint.setLastKey(10L, new SyncCounters());
+
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS + " full", 0);
+        assertFalse(syncCheckpoint.resume());
+        assertEquals(0, syncCheckpoint.getLastKey());
+    }
+
+    /**
+     * Un point de reprise illisible est signalé et rien n'est repris.
+     */
+    @Test
+    public void testInvalidFile() throws IOException {
+        SyncCheckpoint syncCheckpoint;
+        OutputStream outputStream;
+
+        outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(("options=" + OPTIONS + "\nlastKey=abc\n").getBytes(StandardCharsets.ISO_8859_1));
+        } finally {
+            outputStream.close();
+        }
+        syncCheckpoint = new SyncCheckpoint(file.getPath(), OPTIONS, 0);
+        try {
+            syncCheckpoint.resume();
+            fail("point de reprise invalide accepté");
+        } catch (IOException exception) {
+            assertFalse(syncCheckpoint.isResumed());
+            assertEquals(0, syncCheckpoint.getLastKey());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package synccollections;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe SyncDaemon.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncDaemonTest {
+
+    /**
+     * Fichier d'état du démon.
+     */
+    private File file;
+
+    /**
+     * Démon testé.
+     */
+    private SyncDaemon syncDaemon;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("SyncDaemonTest", ".status");
+        file.delete();
+        syncDaemon = new SyncDaemon(file.getPath(), 3600);
+    }
+
+    @After
+    public void tearDown() {
+        Runtime.getRuntime().removeShutdownHook(syncDaemon.getShutdownHook());
+        file.delete();
+    }
+
+    /**
+     * L'arrêt du programme pendant une synchronisation la laisse se terminer,
+     * n'en lance pas d'autre et attend l'arrêt effectif du démon.
+     */
+    @Test(timeout = 30000)
+    public void testShutdownHookStopsLoop() throws Exception {
+        final CountDownLatch runStarted;
+        final CountDownLatch releaseRun;
+        Thread loop;
+        Thread shutdownHook;
+        Properties properties;
+        InputStream inputStream;
+
+        runStarted = new CountDownLatch(1);
+        releaseRun = new CountDownLatch(1);
+        loop = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (syncDaemon.await()) {
+                    syncDaemon.runStarted();
+                    runStarted.countDown();
+                    try {
+                        releaseRun.await();
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+                    syncDaemon.runFinished(true, "ok");
+                }
+                syncDaemon.terminated();
+            }
+        }, "SyncDaemonTest-loop");
+        loop.start();
+        assertTrue(runStarted.await(10, TimeUnit.SECONDS));
+
+        shutdownHook = syncDaemon.getShutdownHook();
+        shutdownHook.start();
+        while (!syncDaemon.isStopped()) {
+            Thread.sleep(10);
+        }
+        assertTrue(shutdownHook.isAlive());
+        releaseRun.countDown();
+        shutdownHook.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(shutdownHook.isAlive());
+        loop.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(loop.isAlive());
+        assertEquals(1, syncDaemon.getNbRuns());
+
+        properties = new Properties();
+        inputStream = new FileInputStream(file);
+        try {
+            properties.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        assertEquals("stopped", properties.getProperty("state"));
+        assertEquals("1", properties.getProperty("runs"));
+        assertEquals("ok", properties.getProperty("lastStatus"));
+    }
+
+    /**
+     * Un démon arrêté avant sa première synchronisation n'en lance aucune.
+     */
+    @Test(timeout = 30000)
+    public void testStopBeforeRun() {
+        syncDaemon.stop();
+        assertFalse(syncDaemon.await());
+        assertTrue(syncDaemon.isStopped());
+        assertEquals(0, syncDaemon.getNbRuns());
+    }
+}
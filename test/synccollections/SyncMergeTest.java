@@ -0,0 +1,101 @@
+package synccollections;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests de la classe SyncMerge.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncMergeTest {
+
+    /**
+     * Une fin de ligne entre guillemets appartient à la valeur ; une fin de
+     * ligne CRLF est retirée, sauf entre guillemets.
+     */
+    @Test
+    public void testReadRecord() throws IOException {
+        BufferedReader reader;
+        StringBuilder record;
+
+        record = new StringBuilder();
+        reader = new BufferedReader(new StringReader("a;\"b\nc\";d\r\ne;\"f\"\"\r\n\"\n\ng"));
+        assertEquals("a;\"b\nc\";d", SyncMerge.readRecord(reader, true, record));
+        assertEquals("e;\"f\"\"\r\n\"", SyncMerge.readRecord(reader, true, record));
+        assertEquals("", SyncMerge.readRecord(reader, true, record));
+        assertEquals("g", SyncMerge.readRecord(reader, true, record));
+        assertNull(SyncMerge.readRecord(reader, true, record));
+
+        reader = new BufferedReader(new StringReader("{\"label\":\"\\\"a\"}\n{}"));
+        assertEquals("{\"label\":\"\\\"a\"}", SyncMerge.readRecord(reader, false, record));
+        assertEquals("{}", SyncMerge.readRecord(reader, false, record));
+        assertNull(SyncMerge.readRecord(reader, false, record));
+    }
+
+    /**
+     * Deux rapports CSV dont un libellé contient des fins de ligne sont mis
+     * bout à bout avec un seul en-tête, sans couper l'écart en plusieurs.
+     */
+    @Test
+    public void testMergeCsvReports() throws Exception {
+        DiscrepancyReport discrepancyReport;
+        ArrayList<String> records;
+        BufferedReader reader;
+        StringBuilder record;
+        String[] filenames;
+        String prefix;
+        String line;
+        File merged;
+        int i;
+
+        filenames = new String[2];
+        prefix = File.createTempFile("SyncMergeTest", "").getPath();
+        new File(prefix).delete();
+        merged = new File(prefix + ".report.csv");
+        try {
+            for (i = 0; i < filenames.length; i++) {
+                filenames[i] = prefix + "." + i + ".csv";
+                discrepancyReport = new DiscrepancyReport(filenames[i]);
+                discrepancyReport.missingPatrimony(Fixtures.furgent(100 + i, "u" + i),
+                        AggregateUidEncoder.encodePatrimony(100 + i, "A" + i), "A" + i,
+                        i == 0 ? "1 rue Haute\r\n75001 Paris; \"bis\"" : "2 rue Basse\n75001 Paris", null);
+                discrepancyReport.close();
+            }
+
+            new SyncMerge(new String[]{"-o", prefix, filenames[0], filenames[1]}).mergeReports();
+
+            records = new ArrayList<>();
+            record = new StringBuilder();
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(merged), "UTF-8"));
+            try {
+                while ((line = SyncMerge.readRecord(reader, true, record)) != null) {
+                    records.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+            assertEquals(3, records.size());
+            assertTrue(records.get(0), records.get(0).startsWith("type;"));
+            assertTrue(records.get(1), records.get(1).contains("\"1 rue Haute\r\n75001 Paris; \"\"bis\"\"\""));
+            assertTrue(records.get(2), records.get(2).contains("\"2 rue Basse\n75001 Paris\""));
+        } finally {
+            for (String filename : filenames) {
+                if (filename != null) {
+                    new File(filename).delete();
+                }
+            }
+            merged.delete();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package synccollections;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests de la classe SyncState.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class SyncStateTest {
+
+    /**
+     * Fichier d'état.
+     */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("SyncStateTest", ".state");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * Sans fichier d'état, aucune clé n'a été traitée.
+     */
+    @Test
+    public void testNoFile() throws IOException {
+        SyncState syncState;
+
+        syncState = new SyncState(file.getPath(), "pre-prod", "pre-prod");
+        assertEquals(0, syncState.getWatermark("companies"));
+    }
+
+    /**
+     * Les dernières clés enregistrées sont relues à l'identique, et le fichier
+     * peut être réécrit.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        SyncState syncState;
+
+        syncState = new SyncState(file.getPath(), "pre-prod", "pre-prod");
+        syncState.setWatermark("companies", 12345L);
+        syncState.setWatermark("patrimonies.client-uuid", Long.MAX_VALUE);
+        syncState.save();
+
+        syncState = new SyncState(file.getPath(), "pre-prod", "pre-prod");
+        assertEquals(12345L, syncState.getWatermark("companies"));
+        assertEquals(Long.MAX_VALUE, syncState.getWatermark("patrimonies.client-uuid"));
+        assertEquals(0, syncState.getWatermark("patrimonies.other-uuid"));
+
+        syncState.setWatermark("companies", 12346L);
+        syncState.save();
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(12346L, new SyncState(file.getPath(), "pre-prod", "pre-prod").getWatermark("companies"));
+    }
+
+    /**
+     * Les exécutions sur des environnements différents ne partagent pas leurs
+     * dernières clés.
+     */
+    @Test
+    public void testEnvironmentsAreSeparate() throws IOException {
+        SyncState syncState;
+
+        syncState = new SyncState(file.getPath(), "pre-prod", "pre-prod");
+        syncState.setWatermark("companies", 10L);
+        syncState.save();
+
+        syncState = new SyncState(file.getPath(), "prod", "prod");
+        assertEquals(0, syncState.getWatermark("companies"));
+        syncState.setWatermark("companies", 20L);
+        syncState.save();
+
+        assertEquals(10L, new SyncState(file.getPath(), "pre-prod", "pre-prod").getWatermark("companies"));
+        assertEquals(20L, new SyncState(file.getPath(), "prod", "prod").getWatermark("companies"));
+    }
+
+    /**
+     * Une valeur illisible est traitée comme l'absence de clé.
+     */
+    @Test
+    public void testInvalidValue() throws IOException {
+        SyncState syncState;
+        OutputStream outputStream;
+
+        outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write("pre-prod.pre-prod.companies.watermark=abc\n".getBytes(StandardCharsets.ISO_8859_1));
+        } finally {
+            outputStream.close();
+        }
+        syncState = new SyncState(file.getPath(), "pre-prod", "pre-prod");
+        assertEquals(0, syncState.getWatermark("companies"));
+    }
+}
@@ -0,0 +1,158 @@
+package synccollections;
+
+import java.util.ArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import utils.Md5;
+
+/**
+ * Tests de la classe UidSet.
+ *
+ * @author Thierry Baribaud
+ * @version 0.31
+ */
+public class UidSetTest {
+
+    /**
+     * Un identifiant ajouté est trouvé, une seule fois listé comme non
+     * rapproché tant qu'il n'est pas recherché.
+     */
+    @Test
+    public void testAddAndMatch() {
+        UidSet uidSet;
+        String uid1;
+        String uid2;
+        ArrayList<String> unmatched;
+
+        uid1 = Md5.encode("u:4956:A001");
+        uid2 = Md5.encode("u:4956:A002");
+        uidSet = new UidSet(2);
+        uidSet.add(uid1);
+        uidSet.add(uid2);
+        uidSet.add(uid2);
+        assertEquals(2, uidSet.size());
+        assertTrue(uidSet.match(uid1));
+        assertFalse(uidSet.match(Md5.encode("u:4956:A003")));
+        unmatched = uidSet.getUnmatched();
+        assertEquals(1, unmatched.size());
+        assertEquals(uid2, unmatched.get(0));
+    }
+
+    /**
+     * La recherche en binaire donne le même résultat que la recherche par
+     * chaîne.
+     */
+    @Test
+    public void testMatchLongs() {
+        UidSet uidSet;
+        String uid;
+        long[] value;
+
+        uid = Md5.encode("u:4956:A001");
+        uidSet = new UidSet(1);
+        uidSet.add(uid);
+        value = new long[2];
+        assertTrue(UidSet.parse(uid, value));
+        assertTrue(uidSet.match(value[0], value[1]));
+        assertFalse(uidSet.match(value[0], value[1] + 1));
+        assertTrue(uidSet.getUnmatched().isEmpty());
+    }
+
+    /**
+     * Seul l'hexadécimal minuscule est converti en binaire : un identifiant en
+     * majuscules est comparé tel quel, comme par la recherche par lots.
+     */
+    @Test
+    public void testUpperCaseIsNotMd5() {
+        UidSet uidSet;
+        String uid;
+
+        uid = Md5.encode("u:4956:A001");
+        assertTrue(UidSet.isMd5(uid));
+        assertFalse(UidSet.isMd5(uid.toUpperCase()));
+        assertFalse(UidSet.parse(uid.toUpperCase(), new long[2]));
+        assertFalse(UidSet.isMd5(uid.substring(1)));
+        assertFalse(UidSet.isMd5(null));
+
+        uidSet = new UidSet(2);
+        uidSet.add(uid);
+        assertFalse(uidSet.match(uid.toUpperCase()));
+        uidSet.add(uid.toUpperCase());
+        assertEquals(2, uidSet.size());
+        assertTrue(uidSet.match(uid.toUpperCase()));
+        assertEquals(1, uidSet.getUnmatched().size());
+        assertEquals(uid, uidSet.getUnmatched().get(0));
+    }
+
+    /**
+     * La conversion en binaire puis en hexadécimal restitue l'identifiant.
+     */
+    @Test
+    public void testParseRoundTrip() {
+        StringBuilder hex;
+        long[] value;
+        String uid;
+        int i;
+
+        value = new long[2];
+        hex = new StringBuilder(32);
+        for (i = 0; i < 100; i++) {
+            uid = Md5.encode("c:" + i);
+            assertTrue(UidSet.parse(uid, value));
+            assertEquals(UidSet.parseHex(uid, 0), value[0]);
+            assertEquals(UidSet.parseHex(uid, 16), value[1]);
+            hex.setLength(0);
+            UidSet.appendHex(hex, value[0]);
+            UidSet.appendHex(hex, value[1]);
+            assertEquals(uid, hex.toString());
+        }
+    }
+
+    /**
+     * Les identifiants qui ne sont pas des MD5 sont conservés et rapprochés
+     * tels quels.
+     */
+    @Test
+    public void testOtherUids() {
+        UidSet uidSet;
+        ArrayList<String> unmatched;
+
+        uidSet = new UidSet(2);
+        uidSet.add("legacy-1");
+        uidSet.add("legacy-2");
+        uidSet.add(null);
+        assertEquals(2, uidSet.size());
+        assertTrue(uidSet.match("legacy-1"));
+        assertTrue(uidSet.matchOther("legacy-1"));
+        assertFalse(uidSet.match("legacy-3"));
+        assertFalse(uidSet.match(null));
+        unmatched = uidSet.getUnmatched();
+        assertEquals(1, unmatched.size());
+        assertEquals("legacy-2", unmatched.get(0));
+    }
+
+    /**
+     * La table s'agrandit sans perdre d'identifiant ni de marque de
+     * rapprochement.
+     */
+    @Test
+    public void testGrow() {
+        UidSet uidSet;
+        int i;
+
+        uidSet = new UidSet(1);
+        for (i = 0; i < 5000; i++) {
+            uidSet.add(Md5.encode("u:" + i));
+            if (i % 2 == 0) {
+                assertTrue(uidSet.match(Md5.encode("u:" + i)));
+            }
+        }
+        assertEquals(5000, uidSet.size());
+        for (i = 0; i < 5000; i++) {
+            assertTrue(uidSet.match(Md5.encode("u:" + i)) || i % 2 == 0);
+        }
+        assertTrue(uidSet.getUnmatched().isEmpty());
+    }
+}